@@ -0,0 +1,257 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import org.apache.maven.plugin.AbstractMojo;
+
+/**
+ * Configuration common to the {@code package} goal and its specialised forms.
+ */
+public abstract class AbstractPackageMojo extends AbstractMojo {
+
+  /**
+   * Default number of bytes of compressed data that may be held in memory when packaging in
+   * parallel.
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  private int _threads = 1;
+
+  private long _memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+  private boolean _incremental = true;
+
+  private boolean _hashContents;
+
+  private String _compression;
+
+  private boolean _reproducible;
+
+  private String _outputTimestamp;
+
+  private String _format;
+
+  private boolean _archClassifiers;
+
+  /**
+   * Returns the number of threads used to compress archive entries.
+   * 
+   * @return the number of threads, one or less to compress entries as they are written
+   */
+  public int getThreads () {
+    return _threads;
+  }
+
+  /**
+   * Sets the number of threads used to compress archive entries. With one thread, files are read
+   * ahead on a thread of their own while they are compressed; with more, each worker thread reads
+   * the files it compresses, and files are not read ahead. Archives in formats other than ZIP are
+   * always written on one thread, with the files read ahead.
+   * 
+   * @param threads
+   *          the number of threads, one or less to compress entries as they are written
+   */
+  public void setThreads (final int threads) {
+    _threads = threads;
+  }
+
+  /**
+   * Returns the number of bytes of compressed data that may be held in memory while waiting to be
+   * written to the archive. Entries which exceed this are spilt to temporary files.
+   * 
+   * @return the memory budget in bytes
+   */
+  public long getMemoryBudget () {
+    return _memoryBudget;
+  }
+
+  /**
+   * Sets the number of bytes of compressed data that may be held in memory while waiting to be
+   * written to the archive.
+   * 
+   * @param memoryBudget
+   *          the memory budget in bytes
+   */
+  public void setMemoryBudget (final long memoryBudget) {
+    _memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Tests whether packaging is skipped when none of the inputs have changed since the archive was
+   * last written.
+   * 
+   * @return {@code true} to skip packaging if the archive is up to date, {@code false} to always
+   *         write it
+   */
+  public boolean isIncremental () {
+    return _incremental;
+  }
+
+  /**
+   * Sets whether packaging is skipped when none of the inputs have changed since the archive was
+   * last written.
+   * 
+   * @param incremental
+   *          {@code true} to skip packaging if the archive is up to date, {@code false} to always
+   *          write it
+   */
+  public void setIncremental (final boolean incremental) {
+    _incremental = incremental;
+  }
+
+  /**
+   * Tests whether the up to date check compares a digest of each file's content in addition to its
+   * size and modification time.
+   * 
+   * @return {@code true} to compare file content, {@code false} otherwise
+   */
+  public boolean isHashContents () {
+    return _hashContents;
+  }
+
+  /**
+   * Sets whether the up to date check compares a digest of each file's content in addition to its
+   * size and modification time.
+   * 
+   * @param hashContents
+   *          {@code true} to compare file content, {@code false} otherwise
+   */
+  public void setHashContents (final boolean hashContents) {
+    _hashContents = hashContents;
+  }
+
+  /**
+   * Returns the compression policy for files whose source does not specify one, for example
+   * <code>auto</code>, <code>store</code> or a deflate level from <code>1</code> to <code>9</code>.
+   * 
+   * @return the policy, or {@code null} to deflate at the default level
+   */
+  public String getCompression () {
+    return _compression;
+  }
+
+  /**
+   * Sets the compression policy for files whose source does not specify one, for example
+   * <code>auto</code>, <code>store</code> or a deflate level from <code>1</code> to <code>9</code>.
+   * 
+   * @param compression
+   *          the policy, or {@code null} to deflate at the default level
+   */
+  public void setCompression (final String compression) {
+    _compression = compression;
+  }
+
+  /**
+   * Tests whether the archive is written so that identical inputs always give identical bytes. The
+   * entries are sorted by name and given a fixed time, and nothing is taken from the environment.
+   * 
+   * @return {@code true} to write a reproducible archive, {@code false} to use the current time
+   */
+  public boolean isReproducible () {
+    return _reproducible;
+  }
+
+  /**
+   * Sets whether the archive is written so that identical inputs always give identical bytes.
+   * 
+   * @param reproducible
+   *          {@code true} to write a reproducible archive, {@code false} to use the current time
+   */
+  public void setReproducible (final boolean reproducible) {
+    _reproducible = reproducible;
+  }
+
+  /**
+   * Returns the time given to the entries of a reproducible archive, either as seconds since the
+   * epoch or an ISO 8601 date and time such as <code>2014-03-15T10:30:00Z</code>.
+   * 
+   * @return the time, or {@code null} to use the <code>SOURCE_DATE_EPOCH</code> environment
+   *         variable if it is set, or a fixed time if not
+   */
+  public String getOutputTimestamp () {
+    return _outputTimestamp;
+  }
+
+  /**
+   * Sets the time given to the entries of a reproducible archive, either as seconds since the
+   * epoch or an ISO 8601 date and time such as <code>2014-03-15T10:30:00Z</code>.
+   * 
+   * @param outputTimestamp
+   *          the time, or {@code null} to use the <code>SOURCE_DATE_EPOCH</code> environment
+   *          variable if it is set, or a fixed time if not
+   */
+  public void setOutputTimestamp (final String outputTimestamp) {
+    _outputTimestamp = outputTimestamp;
+  }
+
+  /**
+   * Returns the archive format to package in, for example <code>zip</code>, <code>tar</code> or
+   * <code>tar.gz</code>.
+   * 
+   * @return the file extension of the format, or {@code null} to use the extension of the
+   *         project's artifact type if it is an archive format, or ZIP if not
+   */
+  public String getFormat () {
+    return _format;
+  }
+
+  /**
+   * Sets the archive format to package in, for example <code>zip</code>, <code>tar</code> or
+   * <code>tar.gz</code>. An artifact in another format than the packaging type declares is given
+   * the extension of the format, and projects that depend on it use the packaging type with the
+   * extension appended, for example <code>native-static-tar.gz</code>.
+   * 
+   * @param format
+   *          the file extension of the format, or {@code null} to use the extension of the
+   *          project's artifact type if it is an archive format, or ZIP if not
+   */
+  public void setFormat (final String format) {
+    _format = format;
+  }
+
+  /**
+   * Tests whether each architecture is packaged into its own artifact.
+   * 
+   * @return {@code true} to attach an artifact, classified by the architecture name, for the files
+   *         of each architecture; {@code false} to package every file into the main artifact
+   */
+  public boolean isArchClassifiers () {
+    return _archClassifiers;
+  }
+
+  /**
+   * Sets whether each architecture is packaged into its own artifact. Files without an
+   * architecture, such as the headers, are always packaged into the main artifact.
+   * 
+   * @param archClassifiers
+   *          {@code true} to attach an artifact, classified by the architecture name, for the files
+   *          of each architecture; {@code false} to package every file into the main artifact
+   */
+  public void setArchClassifiers (final boolean archClassifiers) {
+    _archClassifiers = archClassifiers;
+  }
+
+  /**
+   * Copies the options from this instance to a mojo that will do the packaging.
+   * 
+   * @param delegate
+   *          the mojo to update, not {@code null}
+   */
+  /* package */void copyOptionsTo (final AbstractPackageMojo delegate) {
+    delegate.setThreads (getThreads ());
+    delegate.setMemoryBudget (getMemoryBudget ());
+    delegate.setIncremental (isIncremental ());
+    delegate.setHashContents (isHashContents ());
+    delegate.setCompression (getCompression ());
+    delegate.setReproducible (isReproducible ());
+    delegate.setOutputTimestamp (getOutputTimestamp ());
+    delegate.setFormat (getFormat ());
+    delegate.setArchClassifiers (isArchClassifiers ());
+  }
+
+}
\ No newline at end of file
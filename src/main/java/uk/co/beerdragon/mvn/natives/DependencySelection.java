@@ -0,0 +1,122 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Description of the entries to unpack from one dependency, in addition to those selected for
+ * every dependency.
+ */
+public class DependencySelection {
+
+  /**
+   * The dependency, as <code><i>groupId</i>:<i>artifactId</i></code>.
+   */
+  private String _dependency;
+
+  /**
+   * Patterns selecting the entries to unpack, for example <code>include/**</code>.
+   */
+  private String[] _includes;
+
+  /**
+   * Patterns selecting entries not to unpack, for example <code>bin/**</code>.
+   */
+  private String[] _excludes;
+
+  /**
+   * Returns the dependency the selection applies to.
+   * 
+   * @return the dependency, as <code><i>groupId</i>:<i>artifactId</i></code>
+   */
+  public String getDependency () {
+    return _dependency;
+  }
+
+  /**
+   * Sets the dependency the selection applies to.
+   * 
+   * @param dependency
+   *          the dependency, as <code><i>groupId</i>:<i>artifactId</i></code>
+   */
+  public void setDependency (final String dependency) {
+    _dependency = dependency;
+  }
+
+  /**
+   * Returns the patterns selecting the entries to unpack, for example <code>include/**</code>.
+   * 
+   * @return the patterns, or {@code null} to unpack every entry that is not excluded
+   */
+  public String[] getIncludes () {
+    return _includes;
+  }
+
+  /**
+   * Sets the patterns selecting the entries to unpack, for example <code>include/**</code>.
+   * 
+   * @param includes
+   *          the patterns, or {@code null} to unpack every entry that is not excluded
+   */
+  public void setIncludes (final String[] includes) {
+    _includes = includes;
+  }
+
+  /**
+   * Returns the patterns selecting entries not to unpack, for example <code>bin/**</code>.
+   * 
+   * @return the patterns, or {@code null} to exclude nothing
+   */
+  public String[] getExcludes () {
+    return _excludes;
+  }
+
+  /**
+   * Sets the patterns selecting entries not to unpack, for example <code>bin/**</code>.
+   * 
+   * @param excludes
+   *          the patterns, or {@code null} to exclude nothing
+   */
+  public void setExcludes (final String[] excludes) {
+    _excludes = excludes;
+  }
+
+  // Object
+
+  @Override
+  public int hashCode () {
+    return Objects.hash (getDependency (), Arrays.hashCode (getIncludes ()),
+        Arrays.hashCode (getExcludes ()));
+  }
+
+  @Override
+  public boolean equals (final Object o) {
+    if (o == this) return true;
+    if (!(o instanceof DependencySelection)) return false;
+    final DependencySelection other = (DependencySelection)o;
+    return Objects.equals (getDependency (), other.getDependency ())
+        && Arrays.equals (getIncludes (), other.getIncludes ())
+        && Arrays.equals (getExcludes (), other.getExcludes ());
+  }
+
+  @Override
+  public String toString () {
+    final StringBuilder sb = new StringBuilder ();
+    sb.append ("DependencySelection, dependency:").append (getDependency ());
+    if (getIncludes () != null) {
+      sb.append (", includes:").append (Arrays.toString (getIncludes ()));
+    }
+    if (getExcludes () != null) {
+      sb.append (", excludes:").append (Arrays.toString (getExcludes ()));
+    }
+    return sb.toString ();
+  }
+
+}
\ No newline at end of file
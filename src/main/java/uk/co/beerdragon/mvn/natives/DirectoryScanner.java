@@ -0,0 +1,233 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the files matching a set of patterns beneath a folder. Each folder is listed by a fork/join
+ * task, with sub-folders of a recursive scan listed in parallel, and the file attributes are read
+ * as the folder is listed.
+ */
+/* package */class DirectoryScanner {
+
+  /**
+   * A regular file found by a scan.
+   */
+  public static final class ScannedFile {
+
+    private final String _path;
+
+    private final File _file;
+
+    private final long _size;
+
+    private final long _lastModified;
+
+    private final BitSet _matches;
+
+    public ScannedFile (final String path, final File file, final long size,
+        final long lastModified, final BitSet matches) {
+      _path = path;
+      _file = file;
+      _size = size;
+      _lastModified = lastModified;
+      _matches = matches;
+    }
+
+    /**
+     * Returns the path of the file relative to the scanned folder, using {@code /} as the
+     * separator.
+     * 
+     * @return the relative path, never {@code null}
+     */
+    public String getPath () {
+      return _path;
+    }
+
+    public File getFile () {
+      return _file;
+    }
+
+    public long getSize () {
+      return _size;
+    }
+
+    public long getLastModified () {
+      return _lastModified;
+    }
+
+    /**
+     * Returns the patterns that matched the file.
+     * 
+     * @return the indices of the patterns within the {@link PatternSet}, never {@code null}
+     */
+    public BitSet getMatches () {
+      return _matches;
+    }
+
+  }
+
+  /**
+   * Carries an {@link IOException} out of a fork/join task.
+   */
+  private static final class ScanFailure extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private ScanFailure (final IOException cause) {
+      super (cause);
+    }
+
+  }
+
+  private static final class ScanTask extends RecursiveTask<List<ScannedFile>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Path _folder;
+
+    private final String _prefix;
+
+    private final PatternSet _patterns;
+
+    public ScanTask (final Path folder, final String prefix, final PatternSet patterns) {
+      _folder = folder;
+      _prefix = prefix;
+      _patterns = patterns;
+    }
+
+    private void list (final List<ScannedFile> files, final List<ScanTask> folders)
+        throws IOException {
+      final DirectoryStream<Path> entries = Files.newDirectoryStream (_folder);
+      try {
+        for (final Path entry : entries) {
+          final String path = _prefix + entry.getFileName ();
+          BasicFileAttributes attributes = Files.readAttributes (entry, BasicFileAttributes.class,
+              LinkOption.NOFOLLOW_LINKS);
+          if (attributes.isDirectory ()) {
+            if (_patterns.isRecursive ()) {
+              folders.add (new ScanTask (entry, path + "/", _patterns));
+            }
+          } else {
+            if (attributes.isSymbolicLink () && Files.isRegularFile (entry)) {
+              // Linked files are packaged, but linked folders are not followed to avoid cycles
+              attributes = Files.readAttributes (entry, BasicFileAttributes.class);
+            }
+            if (attributes.isRegularFile ()) {
+              final BitSet matches = _patterns.match (path);
+              if (!matches.isEmpty ()) {
+                files.add (new ScannedFile (path, entry.toFile (), attributes.size (), attributes
+                    .lastModifiedTime ().toMillis (), matches));
+              }
+            }
+          }
+        }
+      } finally {
+        entries.close ();
+      }
+    }
+
+    @Override
+    protected List<ScannedFile> compute () {
+      final List<ScannedFile> files = new ArrayList<ScannedFile> ();
+      final List<ScanTask> folders = new ArrayList<ScanTask> ();
+      try {
+        list (files, folders);
+      } catch (final IOException e) {
+        throw new ScanFailure (e);
+      }
+      invokeAll (folders);
+      for (final ScanTask folder : folders) {
+        files.addAll (folder.join ());
+      }
+      return files;
+    }
+
+  }
+
+  private static final Comparator<ScannedFile> BY_PATH = new Comparator<ScannedFile> () {
+
+    @Override
+    public int compare (final ScannedFile a, final ScannedFile b) {
+      return a.getPath ().compareTo (b.getPath ());
+    }
+
+  };
+
+  private final ForkJoinPool _pool;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param pool
+   *          the pool to run the scans in, not {@code null}
+   */
+  public DirectoryScanner (final ForkJoinPool pool) {
+    _pool = Objects.requireNonNull (pool);
+  }
+
+  /**
+   * Starts a scan.
+   * 
+   * @param folder
+   *          the folder to scan, not {@code null}
+   * @param patterns
+   *          the patterns to match against each file's path relative to {@code folder}, not
+   *          {@code null}. Sub-folders are only scanned if one of the patterns is recursive.
+   * @return the scan, to be passed to {@link #get}, or {@code null} if {@code folder} does not
+   *         exist
+   */
+  public ForkJoinTask<List<ScannedFile>> submit (final File folder, final PatternSet patterns) {
+    if (!folder.isDirectory ()) {
+      return null;
+    }
+    return _pool.submit (new ScanTask (folder.toPath (), "", patterns));
+  }
+
+  /**
+   * Waits for a scan to complete.
+   * 
+   * @param scan
+   *          the scan returned by {@link #submit}, possibly {@code null}
+   * @return the files found, ordered by path, never {@code null}
+   * @throws IOException
+   *           if a folder could not be listed
+   */
+  public static List<ScannedFile> get (final ForkJoinTask<List<ScannedFile>> scan)
+      throws IOException {
+    if (scan == null) {
+      return Collections.emptyList ();
+    }
+    final List<ScannedFile> files;
+    try {
+      files = scan.join ();
+    } catch (final ScanFailure e) {
+      // Has no public constructor, so the pool rethrows the original failure rather than a copy
+      throw (IOException)e.getCause ();
+    }
+    Collections.sort (files, BY_PATH);
+    return files;
+  }
+
+}
\ No newline at end of file
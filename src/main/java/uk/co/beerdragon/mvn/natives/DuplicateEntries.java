@@ -0,0 +1,280 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.maven.artifact.Artifact;
+
+import uk.co.beerdragon.mvn.natives.archive.ArchiveFormat;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveReader;
+
+/**
+ * Finds the entries that several artifacts contain with identical content, so that the content is
+ * written once under the entry name rather than once per artifact with a distinguishing suffix.
+ * Only entries with different content need to be renamed.
+ * <p>
+ * Content is compared by size and CRC-32, which ZIP archives record in their central directories
+ * so that no data need be read, at the risk of taking different content whose CRC-32 collides as
+ * identical. Other formats, or the {@link #HASH} policy which also compares SHA-256 digests, read
+ * the content of the colliding entries.
+ * <p>
+ * Artifacts can be read from several threads at once; the content is added and the results used
+ * on a single thread.
+ */
+/* package */final class DuplicateEntries {
+
+  /**
+   * Policy to write every artifact's copy of a colliding entry under a different name.
+   */
+  public static final String NONE = "none";
+
+  /**
+   * Policy to write one copy of entries whose size and CRC-32 match.
+   */
+  public static final String CRC = "crc";
+
+  /**
+   * Policy to write one copy of entries whose size, CRC-32 and SHA-256 digest match.
+   */
+  public static final String HASH = "hash";
+
+  private static final String DIGEST = "SHA-256";
+
+  /**
+   * The size, CRC-32 and optional digest of an entry.
+   */
+  /* package */static final class Content {
+
+    private final long _size;
+
+    private final long _crc;
+
+    private final byte[] _digest;
+
+    private Content (final long size, final long crc, final byte[] digest) {
+      _size = size;
+      _crc = crc;
+      _digest = digest;
+    }
+
+    @Override
+    public boolean equals (final Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (!(o instanceof Content)) {
+        return false;
+      }
+      final Content other = (Content)o;
+      return (_size == other._size) && (_crc == other._crc)
+          && Arrays.equals (_digest, other._digest);
+    }
+
+    @Override
+    public int hashCode () {
+      return (int)(_size * 31 + _crc);
+    }
+
+  }
+
+  private final boolean _hash;
+
+  /**
+   * The position of each artifact; the first artifact with some content writes it.
+   */
+  private final Map<Artifact, Integer> _order = new HashMap<Artifact, Integer> ();
+
+  /**
+   * The content of each colliding entry, by entry name and then by artifact.
+   */
+  private final Map<String, Map<Artifact, Content>> _contents =
+      new HashMap<String, Map<Artifact, Content>> ();
+
+  /**
+   * The artifacts writing each colliding entry, shared between entries found in the same artifacts
+   * so that {@link UnpackDependenciesMojo.UniqueSuffixes} can compare them by instance.
+   */
+  private final Map<Set<Artifact>, Set<Artifact>> _writers =
+      new HashMap<Set<Artifact>, Set<Artifact>> ();
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param policy
+   *          the comparison policy - {@link #CRC} or {@link #HASH}
+   * @param artifacts
+   *          the artifacts in the order they are unpacked, not {@code null}
+   * @throws IllegalArgumentException
+   *           if the policy is not recognized
+   */
+  public DuplicateEntries (final String policy, final List<Artifact> artifacts) {
+    if (!CRC.equals (policy) && !HASH.equals (policy)) {
+      throw new IllegalArgumentException ("Unknown deduplication policy " + policy);
+    }
+    _hash = HASH.equals (policy);
+    for (final Artifact artifact : artifacts) {
+      _order.put (artifact, _order.size ());
+    }
+  }
+
+  /**
+   * Tests whether a string names a deduplication policy.
+   * 
+   * @param policy
+   *          the string to test
+   * @return {@code true} if it is {@link #NONE}, {@link #CRC} or {@link #HASH}, {@code false}
+   *         otherwise
+   */
+  public static boolean isPolicy (final String policy) {
+    return NONE.equals (policy) || CRC.equals (policy) || HASH.equals (policy);
+  }
+
+  private Content read (final ArchiveReader archive, final byte[] buffer) throws IOException {
+    final long crc = archive.getCrc ();
+    if ((crc >= 0) && !_hash) {
+      return new Content (archive.getSize (), crc, null);
+    }
+    final CRC32 checksum = new CRC32 ();
+    final MessageDigest digest;
+    try {
+      digest = _hash ? MessageDigest.getInstance (DIGEST) : null;
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException (e);
+    }
+    long size = 0;
+    int bytes;
+    while ((bytes = archive.read (buffer, 0, buffer.length)) > 0) {
+      checksum.update (buffer, 0, bytes);
+      if (digest != null) {
+        digest.update (buffer, 0, bytes);
+      }
+      size += bytes;
+    }
+    return new Content (size, checksum.getValue (), (digest != null) ? digest.digest () : null);
+  }
+
+  /**
+   * Reads the content of the colliding entries of an artifact.
+   * 
+   * @param file
+   *          the artifact file, not {@code null}
+   * @param names
+   *          the names of the entries that collide with those of other artifacts, not
+   *          {@code null}
+   * @return the content of each entry, keyed by entry name, never {@code null}
+   * @throws IOException
+   *           if the artifact could not be read
+   */
+  public Map<String, Content> read (final File file, final Collection<String> names)
+      throws IOException {
+    final Set<String> remaining = new HashSet<String> (names);
+    final Map<String, Content> contents = new HashMap<String, Content> ();
+    final ArchiveReader archive = ArchiveFormat.detect (file).createReader (file);
+    try {
+      final byte[] buffer = new byte[EntryWriter.UNKNOWN_SIZE_BUFFER_SIZE];
+      String entry;
+      while (!remaining.isEmpty () && ((entry = archive.getNextEntry ()) != null)) {
+        if (remaining.remove (entry)) {
+          contents.put (entry, read (archive, buffer));
+        }
+      }
+    } finally {
+      archive.close ();
+    }
+    return contents;
+  }
+
+  /**
+   * Records the content of the colliding entries of an artifact, as returned by {@link #read}.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @param contents
+   *          the content of each entry, not {@code null}
+   */
+  public void add (final Artifact artifact, final Map<String, Content> contents) {
+    for (final Map.Entry<String, Content> content : contents.entrySet ()) {
+      Map<Artifact, Content> artifacts = _contents.get (content.getKey ());
+      if (artifacts == null) {
+        artifacts = new HashMap<Artifact, Content> ();
+        _contents.put (content.getKey (), artifacts);
+      }
+      artifacts.put (artifact, content.getValue ());
+    }
+  }
+
+  /**
+   * Returns the artifact whose copy of an entry is written for another artifact. This is the first
+   * artifact with identical content.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @param name
+   *          the entry name, not {@code null}
+   * @return the artifact writing the entry, {@code artifact} itself if no earlier artifact has the
+   *         same content
+   */
+  public Artifact getWriter (final Artifact artifact, final String name) {
+    final Map<Artifact, Content> artifacts = _contents.get (name);
+    final Content content = (artifacts != null) ? artifacts.get (artifact) : null;
+    if (content == null) {
+      return artifact;
+    }
+    Artifact writer = artifact;
+    for (final Map.Entry<Artifact, Content> other : artifacts.entrySet ()) {
+      if (content.equals (other.getValue ())
+          && (_order.get (other.getKey ()) < _order.get (writer))) {
+        writer = other.getKey ();
+      }
+    }
+    return writer;
+  }
+
+  /**
+   * Returns the artifacts that write their own copy of an entry.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param artifacts
+   *          the artifacts containing the entry, not {@code null}
+   * @return the artifacts writing the entry, never {@code null}
+   */
+  public Set<Artifact> getWriters (final String name, final Set<Artifact> artifacts) {
+    if (!_contents.containsKey (name)) {
+      return artifacts;
+    }
+    final Set<Artifact> writers = new HashSet<Artifact> ();
+    for (final Artifact artifact : artifacts) {
+      writers.add (getWriter (artifact, name));
+    }
+    if (writers.size () == artifacts.size ()) {
+      return artifacts;
+    }
+    final Set<Artifact> shared = _writers.get (writers);
+    if (shared != null) {
+      return shared;
+    }
+    final Set<Artifact> unmodifiable = Collections.unmodifiableSet (writers);
+    _writers.put (writers, unmodifiable);
+    return unmodifiable;
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,236 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Selects the entries of a dependency to unpack. Entries in the <code>bin-<i>arch</i></code> and
+ * <code>lib-<i>arch</i></code> folders written by {@link PackageMojo} belong to an architecture;
+ * those for architectures other than the ones being built for are skipped. Entries that don't
+ * belong to an architecture, such as those in <code>bin</code>, <code>lib</code> and
+ * <code>include</code>, are unpacked unless they are excluded by a pattern.
+ * <p>
+ * Instances are immutable; {@link #select} returns a new filter with further patterns.
+ */
+/* package */class EntryFilter {
+
+  /**
+   * Alternative names for architectures, mapped to the names used in the defaults documents.
+   */
+  private static final Map<String, String> ALIASES = new HashMap<String, String> ();
+
+  static {
+    for (final String alias : new String[] {"amd64", "x86_64", "x86-64", "em64t" }) {
+      ALIASES.put (alias, "x64");
+    }
+    for (final String alias : new String[] {"x86", "i486", "i586", "i686", "ia32" }) {
+      ALIASES.put (alias, "i386");
+    }
+    ALIASES.put ("aarch64", "arm64");
+  }
+
+  private static final String[] ARCH_FOLDERS = {"bin-", "lib-" };
+
+  /**
+   * The architectures, by normalized name, or {@code null} to unpack every entry.
+   */
+  private final Set<String> _arches;
+
+  /**
+   * Groups of include patterns; an entry must match at least one pattern of every group.
+   */
+  private final List<List<String>> _includes;
+
+  private final List<String> _excludes;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param arches
+   *          the architectures being built for, or {@code null} to unpack every entry
+   */
+  public EntryFilter (final Collection<String> arches) {
+    if (arches != null) {
+      _arches = new TreeSet<String> ();
+      for (final String arch : arches) {
+        if (StringUtils.isNotBlank (arch)) {
+          _arches.add (normalize (arch));
+        }
+      }
+    } else {
+      _arches = null;
+    }
+    _includes = Collections.emptyList ();
+    _excludes = Collections.emptyList ();
+  }
+
+  private EntryFilter (final Set<String> arches, final List<List<String>> includes,
+      final List<String> excludes) {
+    _arches = arches;
+    _includes = includes;
+    _excludes = excludes;
+  }
+
+  private static List<String> getPatterns (final String[] patterns) {
+    final List<String> list = new ArrayList<String> ();
+    if (patterns != null) {
+      for (final String pattern : patterns) {
+        if (StringUtils.isNotBlank (pattern)) {
+          list.add (pattern.trim ());
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Returns a filter which also applies include and exclude patterns, as used by
+   * {@link Source#getPattern}, to the entry names. An entry is unpacked if it matches one of the
+   * includes, and the includes of any earlier selection, and none of the excludes.
+   * 
+   * @param includes
+   *          the patterns selecting the entries to unpack, or {@code null} for every entry
+   * @param excludes
+   *          the patterns selecting entries not to unpack, or {@code null} for none
+   * @return the filter, never {@code null}
+   */
+  public EntryFilter select (final String[] includes, final String[] excludes) {
+    final List<String> includeList = getPatterns (includes);
+    final List<String> excludeList = getPatterns (excludes);
+    if (includeList.isEmpty () && excludeList.isEmpty ()) {
+      return this;
+    }
+    final List<List<String>> allIncludes = new ArrayList<List<String>> (_includes);
+    if (!includeList.isEmpty ()) {
+      allIncludes.add (includeList);
+    }
+    final List<String> allExcludes = new ArrayList<String> (_excludes);
+    allExcludes.addAll (excludeList);
+    return new EntryFilter (_arches, allIncludes, allExcludes);
+  }
+
+  private boolean isSelected (final String entry, final List<PatternSet> includes,
+      final PatternSet excludes) {
+    for (final PatternSet include : includes) {
+      if (include.match (entry).isEmpty ()) {
+        return false;
+      }
+    }
+    return (excludes == null) || excludes.match (entry).isEmpty ();
+  }
+
+  private List<String> applyPatterns (final List<String> entries) {
+    if (_includes.isEmpty () && _excludes.isEmpty ()) {
+      return entries;
+    }
+    final List<PatternSet> includes = new ArrayList<PatternSet> (_includes.size ());
+    for (final List<String> include : _includes) {
+      includes.add (PatternSet.compile (include));
+    }
+    final PatternSet excludes = _excludes.isEmpty () ? null : PatternSet.compile (_excludes);
+    final List<String> selected = new ArrayList<String> (entries.size ());
+    for (final String entry : entries) {
+      if (isSelected (entry, includes, excludes)) {
+        selected.add (entry);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Returns the name used for an architecture, so that for example <code>amd64</code> and
+   * <code>x64</code> are treated alike.
+   * 
+   * @param arch
+   *          the architecture descriptor, not {@code null}
+   * @return the normalized name, never {@code null}
+   */
+  /* package */static String normalize (final String arch) {
+    final String name = arch.trim ().toLowerCase (Locale.ENGLISH);
+    final String alias = ALIASES.get (name);
+    return (alias != null) ? alias : name;
+  }
+
+  /**
+   * Returns the architecture an entry belongs to.
+   * 
+   * @param entry
+   *          the entry name, not {@code null}
+   * @return the normalized architecture name, or {@code null} if the entry is not specific to one
+   */
+  /* package */static String getArch (final String entry) {
+    final int slash = entry.indexOf ('/');
+    if (slash < 0) {
+      return null;
+    }
+    for (final String folder : ARCH_FOLDERS) {
+      if (entry.startsWith (folder) && (slash > folder.length ())) {
+        return normalize (entry.substring (folder.length (), slash));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects the entries of a dependency to unpack. If the dependency has no entries for any of
+   * the architectures being built for, for example a library that is only available as 32-bit,
+   * the entries of every architecture are kept. The include and exclude patterns are then applied.
+   * 
+   * @param entries
+   *          the entries of the dependency, not {@code null}
+   * @return the entries to unpack, never {@code null}
+   */
+  public List<String> apply (final List<String> entries) {
+    if (_arches == null) {
+      return applyPatterns (entries);
+    }
+    final List<String> selected = new ArrayList<String> (entries.size ());
+    boolean matched = false;
+    for (final String entry : entries) {
+      final String arch = getArch (entry);
+      if (arch == null) {
+        selected.add (entry);
+      } else if (_arches.contains (arch)) {
+        selected.add (entry);
+        matched = true;
+      }
+    }
+    return applyPatterns (matched ? selected : entries);
+  }
+
+  /**
+   * Describes the filter, so that a dependency unpacked with a different selection can be
+   * recognized.
+   */
+  @Override
+  public String toString () {
+    final List<String> parts = new ArrayList<String> ();
+    if (_arches != null) {
+      parts.add ("arch:" + StringUtils.join (_arches, ','));
+    }
+    for (final List<String> include : _includes) {
+      parts.add ("include:" + StringUtils.join (include, ','));
+    }
+    if (!_excludes.isEmpty ()) {
+      parts.add ("exclude:" + StringUtils.join (_excludes, ','));
+    }
+    return StringUtils.join (parts, ';');
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Checksum;
+
+/**
+ * Writes the content of archive entries to the unpacked files. Files are written through their
+ * {@link FileChannel} in chunks sized from the entry, so that a large binary takes a few large
+ * writes rather than thousands of small ones. The files can be flushed to the storage device
+ * individually or once the whole artifact has been written.
+ * <p>
+ * Entries can be written from several threads at once.
+ */
+/* package */final class EntryWriter {
+
+  /**
+   * Policy not to flush the files; the operating system writes them back in its own time.
+   */
+  public static final String FSYNC_NONE = "none";
+
+  /**
+   * Policy to flush the files of an artifact once all of them have been written.
+   */
+  public static final String FSYNC_ARTIFACT = "artifact";
+
+  /**
+   * Policy to flush each file before it is closed.
+   */
+  public static final String FSYNC_FILE = "file";
+
+  /* package */static final int MIN_BUFFER_SIZE = 8192;
+
+  /**
+   * Chunk size for entries whose size is not known.
+   */
+  /* package */static final int UNKNOWN_SIZE_BUFFER_SIZE = 65536;
+
+  /* package */static final int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final String _fsync;
+
+  /**
+   * Files written under {@link #FSYNC_ARTIFACT} that are still to be flushed.
+   */
+  private final Queue<File> _unsynced = new ConcurrentLinkedQueue<File> ();
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param fsync
+   *          the flush policy - {@link #FSYNC_NONE}, {@link #FSYNC_ARTIFACT} or {@link #FSYNC_FILE}
+   * @throws IllegalArgumentException
+   *           if the policy is not recognized
+   */
+  public EntryWriter (final String fsync) {
+    if (!isFsyncPolicy (fsync)) {
+      throw new IllegalArgumentException ("Unknown fsync policy " + fsync);
+    }
+    _fsync = fsync;
+  }
+
+  /**
+   * Tests whether a string names a flush policy.
+   * 
+   * @param fsync
+   *          the string to test
+   * @return {@code true} if it is {@link #FSYNC_NONE}, {@link #FSYNC_ARTIFACT} or
+   *         {@link #FSYNC_FILE}, {@code false} otherwise
+   */
+  public static boolean isFsyncPolicy (final String fsync) {
+    return FSYNC_NONE.equals (fsync) || FSYNC_ARTIFACT.equals (fsync) || FSYNC_FILE.equals (fsync);
+  }
+
+  /**
+   * Returns the size of the chunks an entry is copied in.
+   * 
+   * @param size
+   *          the uncompressed size of the entry, or -1 if not known
+   * @return the chunk size, in bytes
+   */
+  /* package */static int getBufferSize (final long size) {
+    if (size < 0) {
+      return UNKNOWN_SIZE_BUFFER_SIZE;
+    }
+    return (int)Math.max (MIN_BUFFER_SIZE, Math.min (size, MAX_BUFFER_SIZE));
+  }
+
+  /**
+   * Fills a buffer from a stream.
+   * 
+   * @return the number of bytes read, less than the buffer length only at the end of the stream
+   */
+  private static int fill (final InputStream input, final byte[] buffer) throws IOException {
+    int length = 0;
+    int bytes;
+    while ((length < buffer.length)
+        && ((bytes = input.read (buffer, length, buffer.length - length)) > 0)) {
+      length += bytes;
+    }
+    return length;
+  }
+
+  private long write (final InputStream input, final FileChannel channel, final long size,
+      final Checksum checksum) throws IOException {
+    final byte[] buffer = new byte[getBufferSize (size)];
+    long written = 0;
+    int bytes;
+    while ((bytes = fill (input, buffer)) > 0) {
+      final ByteBuffer data = ByteBuffer.wrap (buffer, 0, bytes);
+      while (data.hasRemaining ()) {
+        channel.write (data);
+      }
+      if (checksum != null) {
+        checksum.update (buffer, 0, bytes);
+      }
+      written += bytes;
+    }
+    return written;
+  }
+
+  private long write (final InputStream input, final OutputStream output, final long size,
+      final Checksum checksum) throws IOException {
+    final byte[] buffer = new byte[getBufferSize (size)];
+    long written = 0;
+    int bytes;
+    while ((bytes = fill (input, buffer)) > 0) {
+      output.write (buffer, 0, bytes);
+      if (checksum != null) {
+        checksum.update (buffer, 0, bytes);
+      }
+      written += bytes;
+    }
+    return written;
+  }
+
+  /**
+   * Copies the content of an entry to a file. The output is flushed, if the policy requires it,
+   * but not closed.
+   * 
+   * @param input
+   *          the content of the entry, not {@code null}
+   * @param output
+   *          the file to write to, as opened by {@link uk.co.beerdragon.misc.OutputStreamOpener},
+   *          not {@code null}
+   * @param file
+   *          the file being written, not {@code null}
+   * @param size
+   *          the uncompressed size of the entry, or -1 if not known
+   * @param checksum
+   *          updated with the content, or {@code null} if not needed
+   * @return the number of bytes written
+   * @throws IOException
+   *           if the entry could not be read or the file written
+   */
+  public long write (final InputStream input, final OutputStream output, final File file,
+      final long size, final Checksum checksum) throws IOException {
+    final long written;
+    if (output instanceof FileOutputStream) {
+      final FileChannel channel = ((FileOutputStream)output).getChannel ();
+      written = write (input, channel, size, checksum);
+      if (FSYNC_FILE.equals (_fsync)) {
+        channel.force (true);
+      }
+    } else {
+      written = write (input, output, size, checksum);
+      output.flush ();
+    }
+    if (FSYNC_ARTIFACT.equals (_fsync)) {
+      _unsynced.add (file);
+    }
+    return written;
+  }
+
+  /**
+   * Flushes the files written since this was last called, if the policy is
+   * {@link #FSYNC_ARTIFACT}.
+   * 
+   * @throws IOException
+   *           if a file could not be flushed
+   */
+  public void finish () throws IOException {
+    File file;
+    while ((file = _unsynced.poll ()) != null) {
+      final FileChannel channel = FileChannel.open (file.toPath (), StandardOpenOption.WRITE);
+      try {
+        channel.force (true);
+      } finally {
+        channel.close ();
+      }
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the folders that unpacked files are written to, remembering those already created so
+ * that each folder costs one file system call however many files are written to it.
+ * <p>
+ * Folders can be created from several threads at once.
+ */
+/* package */final class FolderCreator {
+
+  /**
+   * The folders known to exist, by absolute path.
+   */
+  private final Set<String> _created = Collections
+      .newSetFromMap (new ConcurrentHashMap<String, Boolean> ());
+
+  private final AtomicInteger _calls = new AtomicInteger ();
+
+  /**
+   * Returns the number of folders this instance has asked the file system to create.
+   * 
+   * @return the number of calls
+   */
+  public int getCalls () {
+    return _calls.get ();
+  }
+
+  private void createDirectory (final Path path) throws IOException {
+    _calls.incrementAndGet ();
+    try {
+      Files.createDirectory (path);
+    } catch (final FileAlreadyExistsException e) {
+      if (!Files.isDirectory (path)) {
+        throw e;
+      }
+    }
+  }
+
+  private void createDirectories (final Path path) throws IOException {
+    _calls.incrementAndGet ();
+    Files.createDirectories (path);
+  }
+
+  /**
+   * Creates the folders needed to write files into a folder. The folders are worked out from all
+   * of the paths first and created parents first, so that a folder whose parent has just been
+   * created needs only a single call.
+   * 
+   * @param root
+   *          the folder the paths are relative to, not {@code null}
+   * @param paths
+   *          the files that will be written, using {@code /} as the separator, not {@code null}
+   * @throws IOException
+   *           if a folder could not be created
+   */
+  public void createParents (final File root, final Collection<String> paths)
+      throws IOException {
+    final SortedSet<String> folders = new TreeSet<String> ();
+    for (final String path : paths) {
+      for (int slash = path.lastIndexOf ('/'); slash > 0; slash = path.lastIndexOf ('/',
+          slash - 1)) {
+        if (!folders.add (path.substring (0, slash))) {
+          // The folders above it have been added already
+          break;
+        }
+      }
+    }
+    final String rootPath = root.getAbsolutePath ();
+    if (!_created.contains (rootPath)) {
+      createDirectories (root.toPath ());
+      _created.add (rootPath);
+    }
+    // Sorted, so that each folder comes after its parent
+    for (final String folder : folders) {
+      final File file = new File (root, folder.replace ('/', File.separatorChar));
+      final String filePath = file.getAbsolutePath ();
+      if (!_created.contains (filePath)) {
+        createDirectory (file.toPath ());
+        _created.add (filePath);
+      }
+    }
+  }
+
+  /**
+   * Creates the folder containing a file, unless this instance has already done so.
+   * 
+   * @param file
+   *          the file that will be written, not {@code null}
+   * @throws IOException
+   *           if the folder could not be created
+   */
+  public void createParent (final File file) throws IOException {
+    final File parent = file.getAbsoluteFile ().getParentFile ();
+    if ((parent != null) && !_created.contains (parent.getPath ())) {
+      createDirectories (parent.toPath ());
+      _created.add (parent.getPath ());
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,197 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * Index of entry names to the artifacts containing them, used to find the names that collide.
+ * <p>
+ * A dependency set can have hundreds of thousands of entries, so the index avoids an object per
+ * name. The names are held in an open addressing table, referring to the strings already held in
+ * the artifact entry lists, alongside a small integer identifying the set of artifacts containing
+ * each name. The sets are shared by every name found in the same artifacts, so that
+ * {@link UnpackDependenciesMojo.UniqueSuffixes} can compare them by instance.
+ * <p>
+ * This is not thread-safe; the names are gathered on a single thread.
+ */
+/* package */final class NameIndex {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The sets of artifacts, indexed by set identifier. The empty set is always identifier zero.
+   */
+  private final List<Set<Artifact>> _sets = new ArrayList<Set<Artifact>> ();
+
+  /**
+   * The set identifier reached by adding an artifact to a set, keyed by the set identifier in the
+   * upper half and the artifact identifier in the lower half.
+   */
+  private final Map<Long, Integer> _transitions = new HashMap<Long, Integer> ();
+
+  private final Map<Artifact, Integer> _artifacts = new HashMap<Artifact, Integer> ();
+
+  /**
+   * The artifact most recently added. Names are gathered one artifact at a time, so its
+   * transitions are also held in {@link #_next} to save looking them up for every name.
+   */
+  private Artifact _current;
+
+  /**
+   * One more than the set identifier reached by adding {@link #_current} to each set, or zero if
+   * not yet known.
+   */
+  private int[] _next = new int[16];
+
+  /**
+   * The names, or {@code null} for free slots. The length is always a power of two.
+   */
+  private String[] _names = new String[INITIAL_CAPACITY];
+
+  /**
+   * The set identifier of each name in {@link #_names}.
+   */
+  private int[] _setIds = new int[INITIAL_CAPACITY];
+
+  private int _size;
+
+  public NameIndex () {
+    _sets.add (Collections.<Artifact> emptySet ());
+  }
+
+  private static int hash (final String name) {
+    final int h = name.hashCode ();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the slot holding a name, or the free slot it would be put in.
+   */
+  private int find (final String[] names, final String name) {
+    final int mask = names.length - 1;
+    int slot = hash (name) & mask;
+    while ((names[slot] != null) && !names[slot].equals (name)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow () {
+    final String[] names = new String[_names.length * 2];
+    final int[] setIds = new int[names.length];
+    for (int i = 0; i < _names.length; i++) {
+      if (_names[i] != null) {
+        final int slot = find (names, _names[i]);
+        names[slot] = _names[i];
+        setIds[slot] = _setIds[i];
+      }
+    }
+    _names = names;
+    _setIds = setIds;
+  }
+
+  private int getArtifactId (final Artifact artifact) {
+    Integer id = _artifacts.get (artifact);
+    if (id == null) {
+      id = _artifacts.size ();
+      _artifacts.put (artifact, id);
+    }
+    return id;
+  }
+
+  private int add (final int setId, final Artifact artifact) {
+    if (artifact != _current) {
+      _current = artifact;
+      Arrays.fill (_next, 0);
+    } else if ((setId < _next.length) && (_next[setId] != 0)) {
+      return _next[setId] - 1;
+    }
+    final int added = transition (setId, artifact);
+    if (setId >= _next.length) {
+      _next = Arrays.copyOf (_next, Math.max (_next.length * 2, setId + 1));
+    }
+    _next[setId] = added + 1;
+    return added;
+  }
+
+  private int transition (final int setId, final Artifact artifact) {
+    final Long key = ((long)setId << 32) | getArtifactId (artifact);
+    Integer added = _transitions.get (key);
+    if (added == null) {
+      final Set<Artifact> set = _sets.get (setId);
+      if (set.contains (artifact)) {
+        added = setId;
+      } else {
+        if (set.isEmpty ()) {
+          _sets.add (Collections.singleton (artifact));
+        } else {
+          final Set<Artifact> copy = new HashSet<Artifact> (set);
+          copy.add (artifact);
+          _sets.add (Collections.unmodifiableSet (copy));
+        }
+        added = _sets.size () - 1;
+      }
+      _transitions.put (key, added);
+    }
+    return added;
+  }
+
+  /**
+   * Records that an artifact contains an entry name.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @param name
+   *          the entry name, not {@code null}
+   */
+  public void add (final Artifact artifact, final String name) {
+    int slot = find (_names, name);
+    if (_names[slot] == null) {
+      // Keep the table at most two thirds full
+      if ((_size + 1) * 3 > _names.length * 2) {
+        grow ();
+        slot = find (_names, name);
+      }
+      _names[slot] = name;
+      _size++;
+    }
+    _setIds[slot] = add (_setIds[slot], artifact);
+  }
+
+  /**
+   * Returns the artifacts containing an entry name.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @return the artifacts, or {@code null} if no artifact contains the name
+   */
+  public Set<Artifact> get (final String name) {
+    final int slot = find (_names, name);
+    return (_names[slot] != null) ? _sets.get (_setIds[slot]) : null;
+  }
+
+  /**
+   * Returns the number of distinct names.
+   * 
+   * @return the number of names
+   */
+  public int size () {
+    return _size;
+  }
+
+}
\ No newline at end of file
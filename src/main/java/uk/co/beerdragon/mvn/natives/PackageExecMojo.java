@@ -8,7 +8,6 @@
 package uk.co.beerdragon.mvn.natives;
 
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
@@ -20,7 +19,7 @@ import uk.co.beerdragon.mvn.natives.defaults.Defaults;
  * This is a specialised form of {@link PackageMojo} with simplified configuration for the
  * executable packaging use case.
  */
-public class PackageExecMojo extends AbstractMojo {
+public class PackageExecMojo extends AbstractPackageMojo {
 
   private boolean _skip;
 
@@ -77,6 +76,7 @@ public class PackageExecMojo extends AbstractMojo {
     delegate.setLog (getLog ());
     delegate.setPluginContext (getPluginContext ());
     delegate.setSkip (isSkip ());
+    copyOptionsTo (delegate);
     delegate.setSources (getSources ());
     delegate.setExecutables (getExecutables ());
     return delegate;
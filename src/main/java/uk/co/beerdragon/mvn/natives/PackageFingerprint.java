@@ -0,0 +1,180 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Record of the inputs used to produce a package archive, stored next to the archive so that a
+ * later build can tell whether packaging needs repeating.
+ */
+/* package */class PackageFingerprint {
+
+  private static final String ARCHIVE_KEY = "archive";
+
+  private static final String FILE_PREFIX = "file.";
+
+  private static final String SOURCE_PREFIX = "source.";
+
+  private static final String OPTION_PREFIX = "option.";
+
+  private final Properties _properties = new Properties ();
+
+  private final boolean _hashContents;
+
+  /**
+   * Creates a new, empty, fingerprint.
+   * 
+   * @param hashContents
+   *          {@code true} to include a digest of each file's content, {@code false} to rely on the
+   *          size and modification time only
+   */
+  public PackageFingerprint (final boolean hashContents) {
+    _hashContents = hashContents;
+  }
+
+  /**
+   * Returns the file the fingerprint for an archive is stored in.
+   * 
+   * @param archive
+   *          the archive file, not {@code null}
+   * @return the fingerprint file, never {@code null}
+   */
+  public static File getFile (final File archive) {
+    return new File (archive.getPath () + ".fingerprint");
+  }
+
+  /* package */static String digest (final File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance ("SHA-1");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException (e);
+    }
+    final InputStream input = new FileInputStream (file);
+    try {
+      final byte[] buffer = new byte[65536];
+      int bytes;
+      while ((bytes = input.read (buffer, 0, buffer.length)) > 0) {
+        digest.update (buffer, 0, bytes);
+      }
+    } finally {
+      input.close ();
+    }
+    return String.format ("%040x", new BigInteger (1, digest.digest ()));
+  }
+
+  /**
+   * Adds a resolved source configuration to the fingerprint.
+   * 
+   * @param source
+   *          the source, not {@code null}
+   * @param dest
+   *          the resolved location of the source's files within the archive, not {@code null}
+   */
+  public void addSource (final Source source, final String dest) {
+    _properties.setProperty (SOURCE_PREFIX + dest + ";" + source,
+        String.valueOf (source.getPath ()));
+  }
+
+  /**
+   * Adds a file to be packaged to the fingerprint.
+   * 
+   * @param name
+   *          the name of the entry in the archive, not {@code null}
+   * @param file
+   *          the file to be packaged, not {@code null}
+   * @param size
+   *          the size of the file, as found when the sources were scanned
+   * @param lastModified
+   *          the modification time of the file, as found when the sources were scanned
+   * @throws IOException
+   *           if the file content is being hashed and could not be read
+   */
+  public void addFile (final String name, final File file, final long size,
+      final long lastModified) throws IOException {
+    final StringBuilder sb = new StringBuilder ();
+    sb.append (file.getPath ()).append (';').append (size).append (';').append (lastModified);
+    if (_hashContents) {
+      sb.append (';').append (digest (file));
+    }
+    _properties.setProperty (FILE_PREFIX + name, sb.toString ());
+  }
+
+  /**
+   * Adds a packaging option that affects the content of the archive.
+   * 
+   * @param key
+   *          the option name, not {@code null}
+   * @param value
+   *          the option value, possibly {@code null}
+   */
+  public void addOption (final String key, final Object value) {
+    _properties.setProperty (OPTION_PREFIX + key, String.valueOf (value));
+  }
+
+  private static String describe (final File archive) {
+    return archive.length () + ";" + archive.lastModified ();
+  }
+
+  /**
+   * Tests whether an archive was produced from the inputs described by this fingerprint.
+   * 
+   * @param archive
+   *          the archive file, not {@code null}
+   * @return {@code true} if the archive exists and its stored fingerprint matches this one,
+   *         {@code false} otherwise
+   */
+  public boolean matches (final File archive) {
+    if (!archive.isFile ()) {
+      return false;
+    }
+    final Properties stored = PropertiesFile.load (getFile (archive));
+    if ((stored == null) || !describe (archive).equals (stored.remove (ARCHIVE_KEY))) {
+      return false;
+    }
+    return stored.equals (_properties);
+  }
+
+  /**
+   * Writes the fingerprint for an archive that has just been produced.
+   * 
+   * @param archive
+   *          the archive file, not {@code null}
+   * @return {@code true} if the fingerprint was written, {@code false} otherwise
+   */
+  public boolean store (final File archive) {
+    final Properties properties = new Properties ();
+    properties.putAll (_properties);
+    properties.setProperty (ARCHIVE_KEY, describe (archive));
+    try {
+      PropertiesFile.store (properties, getFile (archive), "Inputs to " + archive.getName ());
+      return true;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Deletes any fingerprint stored for an archive.
+   * 
+   * @param archive
+   *          the archive file, not {@code null}
+   */
+  public static void delete (final File archive) {
+    getFile (archive).delete ();
+  }
+
+}
\ No newline at end of file
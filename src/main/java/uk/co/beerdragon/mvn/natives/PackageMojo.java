@@ -7,20 +7,45 @@
 
 package uk.co.beerdragon.mvn.natives;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.ObjectUtils;
-import org.apache.maven.plugin.AbstractMojo;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
@@ -29,14 +54,23 @@ import uk.co.beerdragon.misc.IOCallback;
 import uk.co.beerdragon.misc.IOCallback.IOExceptionHandler;
 import uk.co.beerdragon.misc.InputStreamOpener;
 import uk.co.beerdragon.misc.OutputStreamOpener;
+import uk.co.beerdragon.mvn.natives.DirectoryScanner.ScannedFile;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveFormat;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveReader;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveWriter;
+import uk.co.beerdragon.mvn.natives.archive.CompressedEntry;
+import uk.co.beerdragon.mvn.natives.archive.CompressionPolicy;
+import uk.co.beerdragon.mvn.natives.archive.CompressionStatistics;
+import uk.co.beerdragon.mvn.natives.archive.MemoryBudget;
+import uk.co.beerdragon.mvn.natives.archive.SpillBuffer;
+import uk.co.beerdragon.mvn.natives.archive.ZipWriter;
 import uk.co.beerdragon.mvn.natives.defaults.Defaults;
 
-import com.google.common.io.PatternFilenameFilter;
 
 /**
  * Implementation of the {@code package} goal.
  */
-public class PackageMojo extends AbstractMojo {
+public class PackageMojo extends AbstractPackageMojo {
 
   private InputStreamOpener _inputStreams = new InputStreamOpener ();
 
@@ -162,7 +196,7 @@ public class PackageMojo extends AbstractMojo {
     private final String _path;
 
     public SourceGatherer () {
-      _found = new HashMap<Source, String> ();
+      _found = new LinkedHashMap<Source, String> ();
       _arch = null;
       _path = null;
     }
@@ -259,8 +293,17 @@ public class PackageMojo extends AbstractMojo {
     return visitor._found;
   }
 
+  /**
+   * Tests whether a pattern matches files in sub-folders of the source path. Such patterns contain
+   * a {@code /} or the {@code **} wildcard.
+   */
+  /* package */static boolean isRecursive (final String pattern) {
+    return (pattern != null) && ((pattern.indexOf ('/') >= 0) || pattern.contains ("**"));
+  }
+
   /* package */static String regex (final String pattern) {
     if ((pattern == null) || (pattern.length () == 0)) return "^.*$";
+    final boolean recursive = isRecursive (pattern);
     final StringBuilder sb = new StringBuilder ();
     sb.append ('^');
     for (int i = 0; i < pattern.length (); i++) {
@@ -273,10 +316,25 @@ public class PackageMojo extends AbstractMojo {
         sb.append ('\\').append ('\\');
         break;
       case '?':
-        sb.append ('.');
+        if (recursive) {
+          sb.append ("[^/]");
+        } else {
+          sb.append ('.');
+        }
         break;
       case '*':
-        sb.append ('.').append ('*');
+        if (!recursive) {
+          sb.append ('.').append ('*');
+        } else if (pattern.startsWith ("**/", i)) {
+          // Any number of folders, including none
+          sb.append ("(?:.*/)?");
+          i += 2;
+        } else if (pattern.startsWith ("**", i)) {
+          sb.append ('.').append ('*');
+          i++;
+        } else {
+          sb.append ("[^/]*");
+        }
         break;
       default:
         sb.append (c);
@@ -287,19 +345,758 @@ public class PackageMojo extends AbstractMojo {
     return sb.toString ();
   }
 
-  // Mojo
+  /**
+   * A file found by one of the sources that is to be written to the archive.
+   */
+  /* package */static final class PackageFile {
 
-  @Override
-  public void execute () throws MojoExecutionException, MojoFailureException {
-    if (isSkip ()) {
-      getLog ().debug ("Skipping step");
-      return;
+    private final ScannedFile _file;
+
+    private final String _name;
+
+    private final CompressionPolicy _compression;
+
+    private final String _classifier;
+
+    public PackageFile (final ScannedFile file, final String name,
+        final CompressionPolicy compression, final String classifier) {
+      _file = file;
+      _name = name;
+      _compression = compression;
+      _classifier = classifier;
     }
-    applyDefaults ();
-    final MavenProject project = (MavenProject)getPluginContext ().get ("project");
-    final File targetDir = new File (project.getBuild ().getDirectory ());
-    targetDir.mkdirs ();
-    final File targetFile = new File (targetDir, project.getArtifactId () + ".zip");
+
+    public File getFile () {
+      return _file.getFile ();
+    }
+
+    public long getSize () {
+      return _file.getSize ();
+    }
+
+    public long getLastModified () {
+      return _file.getLastModified ();
+    }
+
+    public String getName () {
+      return _name;
+    }
+
+    public CompressionPolicy getCompression () {
+      return _compression;
+    }
+
+    /**
+     * Returns the classifier of the artifact the file is written to when each architecture is
+     * packaged separately.
+     * 
+     * @return the architecture of the source that found the file, or {@code null} for the main
+     *         artifact
+     */
+    public String getClassifier () {
+      return _classifier;
+    }
+
+  }
+
+  private static final Comparator<PackageFile> BY_NAME = new Comparator<PackageFile> () {
+
+    @Override
+    public int compare (final PackageFile a, final PackageFile b) {
+      return a.getName ().compareTo (b.getName ());
+    }
+
+  };
+
+  /**
+   * Entry time for reproducible archives when none is given; the earliest a ZIP archive can hold.
+   */
+  /* package */static final long REPRODUCIBLE_TIME = 315532800000L;
+
+  /**
+   * Parses the time for the entries of a reproducible archive.
+   * 
+   * @param outputTimestamp
+   *          the configured time, as seconds since the epoch or an ISO 8601 date and time, or
+   *          {@code null} if none was configured
+   * @param sourceDateEpoch
+   *          the <code>SOURCE_DATE_EPOCH</code> environment variable, or {@code null} if it is not
+   *          set
+   * @return the time in milliseconds since the epoch
+   * @throws IllegalArgumentException
+   *           if the time can't be parsed
+   */
+  /* package */static long getReproducibleTime (final String outputTimestamp,
+      final String sourceDateEpoch) {
+    String timestamp = StringUtils.trimToNull (outputTimestamp);
+    if (timestamp == null) {
+      timestamp = StringUtils.trimToNull (sourceDateEpoch);
+      if (timestamp == null) {
+        return REPRODUCIBLE_TIME;
+      }
+    }
+    if (StringUtils.isNumeric (timestamp)) {
+      return Long.parseLong (timestamp) * 1000L;
+    }
+    final SimpleDateFormat format = new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ssXXX");
+    format.setLenient (false);
+    try {
+      return format.parse (timestamp).getTime ();
+    } catch (final ParseException e) {
+      throw new IllegalArgumentException ("Invalid output timestamp " + timestamp);
+    }
+  }
+
+  /**
+   * Returns the time for the entries of the archive.
+   * 
+   * @return the time in milliseconds since the epoch, or -1 to use the modification time of each
+   *         file
+   */
+  private long getEntryTime () {
+    if (isReproducible ()) {
+      return getReproducibleTime (getOutputTimestamp (), System.getenv ("SOURCE_DATE_EPOCH"));
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the time for an entry. Files keep their own modification times unless the archive is
+   * reproducible, so that unpacking an unchanged file gives it the same time it had when packaged.
+   */
+  /* package */static long getEntryTime (final PackageFile file, final long time) {
+    return (time >= 0) ? time : file.getLastModified ();
+  }
+
+  private CompressionPolicy getCompressionPolicy (final Source source) {
+    final CompressionPolicy policy = CompressionPolicy.parse (ObjectUtils.defaultIfNull (
+        source.getCompression (), getCompression ()));
+    return (policy != null) ? policy : CompressionPolicy.DEFAULT;
+  }
+
+  /* package */static String getClassifier (final Source source) {
+    if (source instanceof ArchSource) {
+      return StringUtils.trimToNull (((ArchSource)source).getArch ());
+    } else {
+      // Headers and other files without an architecture are shared
+      return null;
+    }
+  }
+
+  private static String getPattern (final Source source) {
+    final String pattern = source.getPattern ();
+    // Defaults will have converted any separators to the platform form
+    return (pattern != null) ? pattern.replace (File.separatorChar, '/') : null;
+  }
+
+  /**
+   * Sources that share a folder, which is scanned once for all of them.
+   */
+  private static final class SourceGroup {
+
+    private final File _folder;
+
+    private final List<Map.Entry<Source, String>> _sources =
+        new ArrayList<Map.Entry<Source, String>> ();
+
+    private ForkJoinTask<List<ScannedFile>> _scan;
+
+    public SourceGroup (final File folder) {
+      _folder = folder;
+    }
+
+  }
+
+  /* package */List<PackageFile> gatherFiles (final Map<Source, String> sources)
+      throws IOException {
+    final Map<File, SourceGroup> groups = new LinkedHashMap<File, SourceGroup> ();
+    for (final Map.Entry<Source, String> sourceInfo : sources.entrySet ()) {
+      final File folder = new File (sourceInfo.getKey ().getPath ());
+      final File key = folder.getAbsoluteFile ().toPath ().normalize ().toFile ();
+      SourceGroup group = groups.get (key);
+      if (group == null) {
+        group = new SourceGroup (folder);
+        groups.put (key, group);
+      }
+      group._sources.add (sourceInfo);
+    }
+    final List<PackageFile> files = new ArrayList<PackageFile> ();
+    final ForkJoinPool pool = new ForkJoinPool ();
+    try {
+      final DirectoryScanner scanner = new DirectoryScanner (pool);
+      // Start every scan before waiting for any of them
+      for (final SourceGroup group : groups.values ()) {
+        final List<String> patterns = new ArrayList<String> (group._sources.size ());
+        for (final Map.Entry<Source, String> sourceInfo : group._sources) {
+          patterns.add (getPattern (sourceInfo.getKey ()));
+        }
+        group._scan = scanner.submit (group._folder, PatternSet.compile (patterns));
+      }
+      for (final SourceGroup group : groups.values ()) {
+        final CompressionPolicy[] compression = new CompressionPolicy[group._sources.size ()];
+        final String[] classifier = new String[compression.length];
+        for (int i = 0; i < compression.length; i++) {
+          final Map.Entry<Source, String> sourceInfo = group._sources.get (i);
+          final Source source = sourceInfo.getKey ();
+          compression[i] = getCompressionPolicy (source);
+          classifier[i] = getClassifier (source);
+          getLog ().info (
+              "Processing " + source.getPath () + " into " + sourceInfo.getValue () + " ("
+                  + source.getPattern () + ")");
+        }
+        if (group._scan == null) {
+          getLog ().debug ("Source folder " + group._folder + " does not exist");
+        }
+        for (final ScannedFile file : DirectoryScanner.get (group._scan)) {
+          final String name = file.getPath ().replace ('/', File.separatorChar);
+          final BitSet matches = file.getMatches ();
+          for (int i = matches.nextSetBit (0); i >= 0; i = matches.nextSetBit (i + 1)) {
+            final String dest = group._sources.get (i).getValue ();
+            getLog ().debug ("Adding " + name + " to archive as " + dest + name);
+            files.add (new PackageFile (file, dest + name, compression[i], classifier[i]));
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow ();
+    }
+    return files;
+  }
+
+  /* package */PackageFingerprint createFingerprint (final Map<Source, String> sources,
+      final List<PackageFile> files) throws IOException {
+    final PackageFingerprint fingerprint = new PackageFingerprint (isHashContents ());
+    for (final Map.Entry<Source, String> sourceInfo : sources.entrySet ()) {
+      fingerprint.addSource (sourceInfo.getKey (), sourceInfo.getValue ());
+    }
+    for (final PackageFile file : files) {
+      fingerprint.addFile (file.getName (), file.getFile (), file.getSize (),
+          file.getLastModified ());
+    }
+    fingerprint.addOption ("compression", getCompression ());
+    fingerprint.addOption ("reproducible", isReproducible () ? getEntryTime () : null);
+    return fingerprint;
+  }
+
+  private static InputStream markable (final PackageFile file, final InputStream input) {
+    if (file.getCompression () == CompressionPolicy.AUTO) {
+      return new BufferedInputStream (input, CompressionPolicy.SAMPLE_SIZE);
+    } else {
+      return input;
+    }
+  }
+
+  /**
+   * Writes a file without compression. Files are copied through their channel when possible,
+   * otherwise they are buffered so that the CRC is known before the entry is written.
+   */
+  private static void store (final ZipWriter zip, final PackageFile file, final long time,
+      final InputStream input, final InputStream content, final byte[] buffer,
+      final MemoryBudget budget, final File spillDir) throws IOException {
+    if (input instanceof FileInputStream) {
+      zip.writeStored (file.getName (), getEntryTime (file, time),
+          ((FileInputStream)input).getChannel (), buffer);
+    } else {
+      final SpillBuffer data = new SpillBuffer (budget, spillDir);
+      try {
+        zip.write (CompressedEntry.store (file.getName (), getEntryTime (file, time), content,
+            data));
+      } finally {
+        data.release ();
+      }
+    }
+  }
+
+  /**
+   * Writes a deflated file. Reproducible archives buffer the compressed data so that the entry is
+   * written exactly as it would be by {@link #writeParallel}, without a data descriptor.
+   */
+  private void deflate (final ZipWriter zip, final PackageFile file, final long time,
+      final int level, final InputStream content, final byte[] buffer, final MemoryBudget budget,
+      final File spillDir) throws IOException {
+    if (isReproducible ()) {
+      final SpillBuffer data = new SpillBuffer (budget, spillDir);
+      try {
+        zip.write (CompressedEntry.deflate (file.getName (), getEntryTime (file, time), level,
+            content, data));
+      } finally {
+        data.release ();
+      }
+    } else {
+      zip.writeDeflated (file.getName (), getEntryTime (file, time), level, content, buffer);
+    }
+  }
+
+  /**
+   * Reads the files of a package in turn, as though they were the entries of an archive, so that a
+   * {@link PipelinedReader} can read them ahead of the entries being compressed and written.
+   */
+  private final class PackageFileReader implements ArchiveReader {
+
+    private final Iterator<PackageFile> _files;
+
+    private final long _time;
+
+    private long _entryTime = -1;
+
+    private long _size = -1;
+
+    private InputStream _input;
+
+    public PackageFileReader (final List<PackageFile> files, final long time) {
+      _files = files.iterator ();
+      _time = time;
+    }
+
+    private void closeInput () throws IOException {
+      if (_input != null) {
+        final InputStream input = _input;
+        _input = null;
+        input.close ();
+      }
+    }
+
+    // ArchiveReader
+
+    @Override
+    public String getNextEntry () throws IOException {
+      closeInput ();
+      if (!_files.hasNext ()) {
+        _entryTime = -1;
+        _size = -1;
+        return null;
+      }
+      final PackageFile file = _files.next ();
+      _input = getInputStreams ().open (file.getFile ());
+      _entryTime = getEntryTime (file, _time);
+      _size = file.getSize ();
+      return file.getName ();
+    }
+
+    @Override
+    public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+      return (_input != null) ? _input.read (buffer, offset, length) : -1;
+    }
+
+    @Override
+    public long getTime () {
+      return _entryTime;
+    }
+
+    @Override
+    public long getSize () {
+      return _size;
+    }
+
+    @Override
+    public long getCrc () {
+      return -1;
+    }
+
+    // Closeable
+
+    @Override
+    public void close () throws IOException {
+      closeInput ();
+    }
+
+  }
+
+  /**
+   * Starts reading files on a thread of their own, ahead of the caller.
+   */
+  /* package */PipelinedReader prefetch (final List<PackageFile> files, final long time) {
+    return new PipelinedReader (new PackageFileReader (files, time), PipelinedReader.ALL,
+        PipelinedReader.CHUNK_SIZE, PipelinedReader.CHUNKS);
+  }
+
+  /**
+   * Writes the files to a ZIP archive on the calling thread. Files to be stored are copied through
+   * their channels; the others are read ahead on another thread while they are compressed.
+   */
+  private boolean writeSerial (final ZipWriter zip, final List<PackageFile> files, final long time,
+      final File spillDir, final CompressionStatistics statistics,
+      final IOExceptionHandler errorLog) throws IOException {
+    final byte[] buffer = new byte[SpillBuffer.CHUNK_SIZE];
+    final MemoryBudget budget = new MemoryBudget (getMemoryBudget ());
+    final List<PackageFile> compressed = new ArrayList<PackageFile> (files.size ());
+    for (final PackageFile file : files) {
+      if (!file.getCompression ().isStored ()) {
+        compressed.add (file);
+      }
+    }
+    final PipelinedReader pipeline = prefetch (compressed, time);
+    final Boolean written = (new IOCallback<ArchiveReader, Boolean> (pipeline) {
+
+      @Override
+      protected Boolean apply (final ArchiveReader archive) throws IOException {
+        final InputStream input = UnpackDependenciesMojo.getInputStream (archive);
+        for (final PackageFile file : files) {
+          if (file.getCompression ().isStored ()) {
+            if (!writeStored (zip, file, time, 0, buffer, budget, spillDir, statistics,
+                errorLog)) {
+              return Boolean.FALSE;
+            }
+            continue;
+          }
+          if (!file.getName ().equals (archive.getNextEntry ())) {
+            throw new IllegalStateException ("Files read out of order at " + file.getName ());
+          }
+          final long start = CompressionStatistics.cpuTime ();
+          final InputStream content = markable (file, input);
+          final CompressionPolicy policy = file.getCompression ().select (content);
+          if (policy.isStored ()) {
+            store (zip, file, time, input, content, buffer, budget, spillDir);
+          } else {
+            deflate (zip, file, time, policy.getLevel (), content, buffer, budget, spillDir);
+          }
+          statistics.add (policy, CompressionStatistics.cpuTime () - start);
+        }
+        return Boolean.TRUE;
+      }
+
+    }).call (errorLog);
+    getLog ().debug (pipeline.describe ());
+    return written == Boolean.TRUE;
+  }
+
+  /**
+   * Result from {@link CompressTask}. A file that is to be stored has no entry; these are copied
+   * directly into the archive rather than buffered.
+   */
+  private static final class CompressResult {
+
+    private final CompressedEntry _entry;
+
+    private final long _cpuTime;
+
+    private CompressResult (final CompressedEntry entry, final long cpuTime) {
+      _entry = entry;
+      _cpuTime = cpuTime;
+    }
+
+    /**
+     * Returns the compressed entry.
+     * 
+     * @return the entry, or {@code null} if the file is to be stored
+     */
+    public CompressedEntry getEntry () {
+      return _entry;
+    }
+
+    /**
+     * Returns the CPU time spent choosing to store the file, so that it can be included in the
+     * statistics once the file has been written.
+     * 
+     * @return the CPU time in nanoseconds
+     */
+    public long getCpuTime () {
+      return _cpuTime;
+    }
+
+  }
+
+  /**
+   * Compresses a file on one of the worker threads.
+   */
+  private final class CompressTask implements Callable<CompressResult> {
+
+    private final PackageFile _file;
+
+    private final long _time;
+
+    private final MemoryBudget _budget;
+
+    private final File _spillDir;
+
+    private final CompressionStatistics _statistics;
+
+    private final IOExceptionHandler _errorLog;
+
+    public CompressTask (final PackageFile file, final long time, final MemoryBudget budget,
+        final File spillDir, final CompressionStatistics statistics,
+        final IOExceptionHandler errorLog) {
+      _file = file;
+      _time = time;
+      _budget = budget;
+      _spillDir = spillDir;
+      _statistics = statistics;
+      _errorLog = errorLog;
+    }
+
+    @Override
+    public CompressResult call () throws IOException {
+      if (_file.getCompression ().isStored ()) {
+        return new CompressResult (null, 0);
+      }
+      final SpillBuffer data = new SpillBuffer (_budget, _spillDir);
+      final CompressResult result = (new IOCallback<InputStream, CompressResult> (
+          getInputStreams ().open (_file.getFile ())) {
+
+        @Override
+        protected CompressResult apply (final InputStream input) throws IOException {
+          final long start = CompressionStatistics.cpuTime ();
+          final InputStream content = markable (_file, input);
+          final CompressionPolicy policy = _file.getCompression ().select (content);
+          if (policy.isStored ()) {
+            return new CompressResult (null, CompressionStatistics.cpuTime () - start);
+          }
+          final CompressedEntry entry = CompressedEntry.deflate (_file.getName (),
+              getEntryTime (_file, _time), policy.getLevel (), content, data);
+          _statistics.add (policy, CompressionStatistics.cpuTime () - start);
+          return new CompressResult (entry, 0);
+        }
+
+      }).call (_errorLog);
+      if ((result == null) || (result.getEntry () == null)) {
+        data.release ();
+      }
+      return result;
+    }
+
+  }
+
+  private static CompressResult getResult (final Future<CompressResult> future)
+      throws IOException {
+    try {
+      return future.get ();
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ();
+    } catch (final ExecutionException e) {
+      if (e.getCause () instanceof IOException) {
+        throw (IOException)e.getCause ();
+      } else {
+        throw new IllegalStateException (e.getCause ());
+      }
+    }
+  }
+
+  private static void discard (final ExecutorService executor,
+      final Deque<Future<CompressResult>> pending) {
+    executor.shutdownNow ();
+    try {
+      executor.awaitTermination (Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+    }
+    for (final Future<CompressResult> future : pending) {
+      if (future.isDone ()) {
+        try {
+          final CompressResult result = getResult (future);
+          if ((result != null) && (result.getEntry () != null)) {
+            result.getEntry ().release ();
+          }
+        } catch (final IOException | RuntimeException e) {
+          // Already failing; the original error is reported instead
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a file without compression. The CPU time already spent choosing to store it, on a worker
+   * thread, is included in the statistics.
+   */
+  private boolean writeStored (final ZipWriter zip, final PackageFile file, final long time,
+      final long cpuTime, final byte[] buffer, final MemoryBudget budget, final File spillDir,
+      final CompressionStatistics statistics, final IOExceptionHandler errorLog)
+      throws IOException {
+    return (new IOCallback<InputStream, Boolean> (getInputStreams ().open (file.getFile ())) {
+
+      @Override
+      protected Boolean apply (final InputStream input) throws IOException {
+        final long start = CompressionStatistics.cpuTime ();
+        store (zip, file, time, input, input, buffer, budget, spillDir);
+        statistics.add (CompressionPolicy.STORE, cpuTime + CompressionStatistics.cpuTime ()
+            - start);
+        return Boolean.TRUE;
+      }
+
+    }).call (errorLog) == Boolean.TRUE;
+  }
+
+  /**
+   * Writes the files to a ZIP archive, compressing them on the worker threads. Each worker reads
+   * the file it compresses, so the files are not read ahead as they are by {@link #writeSerial}.
+   */
+  private boolean writeParallel (final ZipWriter zip, final List<PackageFile> files,
+      final long time, final File spillDir, final CompressionStatistics statistics,
+      final IOExceptionHandler errorLog) throws IOException {
+    final int threads = getThreads ();
+    getLog ().debug ("Compressing " + files.size () + " files with " + threads + " threads");
+    final MemoryBudget budget = new MemoryBudget (getMemoryBudget ());
+    final ExecutorService executor = Executors.newFixedThreadPool (threads);
+    final Deque<Future<CompressResult>> pending = new ArrayDeque<Future<CompressResult>> ();
+    final Deque<PackageFile> pendingFiles = new ArrayDeque<PackageFile> ();
+    final Iterator<PackageFile> itr = files.iterator ();
+    final byte[] buffer = new byte[SpillBuffer.CHUNK_SIZE];
+    try {
+      while (itr.hasNext () || !pending.isEmpty ()) {
+        while (itr.hasNext () && (pending.size () < threads * 2)) {
+          final PackageFile file = itr.next ();
+          pending.add (executor.submit (new CompressTask (file, time, budget, spillDir, statistics,
+              errorLog)));
+          pendingFiles.add (file);
+        }
+        final CompressResult result = getResult (pending.removeFirst ());
+        final PackageFile file = pendingFiles.removeFirst ();
+        if (result == null) {
+          return false;
+        }
+        final CompressedEntry entry = result.getEntry ();
+        if (entry == null) {
+          if (!writeStored (zip, file, time, result.getCpuTime (), buffer, budget, spillDir,
+              statistics, errorLog)) {
+            return false;
+          }
+        } else {
+          try {
+            zip.write (entry);
+          } finally {
+            entry.release ();
+          }
+        }
+      }
+      return true;
+    } finally {
+      discard (executor, pending);
+    }
+  }
+
+  /**
+   * Writes the files to an archive in a format other than ZIP, one at a time. The files are read
+   * ahead on another thread while the archive is written.
+   */
+  private boolean writeEntries (final ArchiveWriter writer, final List<PackageFile> files,
+      final long time, final IOExceptionHandler errorLog) throws IOException {
+    final PipelinedReader pipeline = prefetch (files, time);
+    final Boolean written = (new IOCallback<ArchiveReader, Boolean> (pipeline) {
+
+      @Override
+      protected Boolean apply (final ArchiveReader archive) throws IOException {
+        final InputStream input = UnpackDependenciesMojo.getInputStream (archive);
+        String entry;
+        while ((entry = archive.getNextEntry ()) != null) {
+          writer.write (entry, archive.getTime (), archive.getSize (), input);
+        }
+        return Boolean.TRUE;
+      }
+
+    }).call (errorLog);
+    getLog ().debug (pipeline.describe ());
+    return written == Boolean.TRUE;
+  }
+
+  /**
+   * Writes the files to a ZIP archive, compressing them individually on the worker threads.
+   */
+  private boolean writeZip (final ZipWriter zip, final List<PackageFile> files, final long time,
+      final File spillDir, final IOExceptionHandler errorLog) throws IOException {
+    if (isReproducible ()) {
+      zip.setTimeZone (TimeZone.getTimeZone ("UTC"));
+    }
+    final CompressionStatistics statistics = new CompressionStatistics ();
+    final boolean written;
+    if (getThreads () > 1) {
+      written = writeParallel (zip, files, time, spillDir, statistics, errorLog);
+    } else {
+      written = writeSerial (zip, files, time, spillDir, statistics, errorLog);
+    }
+    if (written) {
+      getLog ().info (statistics.describe (zip.getTotalSize (), zip.getTotalCompressedSize ()));
+    }
+    return written;
+  }
+
+  /* package */ArchiveFormat getArchiveFormat (final Artifact artifact)
+      throws MojoFailureException {
+    if (getFormat () != null) {
+      final ArchiveFormat format = ArchiveFormat.get (getFormat ());
+      if (format == null) {
+        throw new MojoFailureException ("Unknown archive format " + getFormat ());
+      }
+      return format;
+    }
+    final ArtifactHandler handler = artifact.getArtifactHandler ();
+    if (handler != null) {
+      final ArchiveFormat format = ArchiveFormat.get (handler.getExtension ());
+      if (format != null) {
+        return format;
+      }
+    }
+    return ArchiveFormat.ZIP;
+  }
+
+  /**
+   * Divides the files between the artifacts they are to be packaged into.
+   * 
+   * @return the files for each artifact, keyed by classifier; the main artifact has the
+   *         {@code null} key and is always present
+   */
+  /* package */Map<String, List<PackageFile>> partition (final List<PackageFile> files) {
+    final Map<String, List<PackageFile>> artifacts =
+        new LinkedHashMap<String, List<PackageFile>> ();
+    if (!isArchClassifiers ()) {
+      artifacts.put (null, files);
+      return artifacts;
+    }
+    artifacts.put (null, new ArrayList<PackageFile> ());
+    for (final PackageFile file : files) {
+      List<PackageFile> artifact = artifacts.get (file.getClassifier ());
+      if (artifact == null) {
+        artifact = new ArrayList<PackageFile> ();
+        artifacts.put (file.getClassifier (), artifact);
+      }
+      artifact.add (file);
+    }
+    return artifacts;
+  }
+
+  /**
+   * Returns the handler for an artifact packaged in a format. If the format is not the one the
+   * packaging type declares, the handler of the type with the format's extension appended, for
+   * example <code>native-static-tar.gz</code>, is used so that the file in the repository is named
+   * after its content.
+   */
+  /* package */static ArtifactHandler getArtifactHandler (final ArtifactHandler handler,
+      final String packaging, final ArchiveFormat format) {
+    if ((handler != null) && format.getExtension ().equals (handler.getExtension ())) {
+      return handler;
+    }
+    final DefaultArtifactHandler formatHandler =
+        new DefaultArtifactHandler (packaging + "-" + format.getExtension ());
+    formatHandler.setExtension (format.getExtension ());
+    formatHandler.setAddedToClasspath (false);
+    formatHandler.setIncludesDependencies (false);
+    return formatHandler;
+  }
+
+  private void attach (final MavenProject project, final String classifier, final File file) {
+    final Artifact artifact = new DefaultArtifact (project.getGroupId (), project.getArtifactId (),
+        project.getVersion (), null, project.getPackaging (), classifier, project.getArtifact ()
+            .getArtifactHandler ());
+    artifact.setFile (file);
+    project.addAttachedArtifact (artifact);
+  }
+
+  private void writeArchive (final ArchiveFormat format, final File targetFile,
+      final Map<Source, String> sources, final List<PackageFile> files, final long time)
+      throws MojoFailureException {
+    PackageFingerprint fingerprint = null;
+    if (isIncremental ()) {
+      try {
+        fingerprint = createFingerprint (sources, files);
+      } catch (final IOException e) {
+        getLog ().warn ("Can't fingerprint package inputs: " + e.getMessage ());
+      }
+      if ((fingerprint != null) && fingerprint.matches (targetFile)) {
+        getLog ().info ("Nothing to package - " + targetFile + " is up to date");
+        return;
+      }
+    }
+    PackageFingerprint.delete (targetFile);
     getLog ().debug ("Writing to " + targetFile);
     final OutputStream output;
     try {
@@ -312,49 +1109,74 @@ public class PackageMojo extends AbstractMojo {
 
       @Override
       protected Boolean apply (final OutputStream output) throws IOException {
-        final byte[] buffer = new byte[4096];
-        final ZipOutputStream zip = new ZipOutputStream (new BufferedOutputStream (output));
-        for (final Map.Entry<Source, String> sourceInfo : gatherSources ().entrySet ()) {
-          final Source source = sourceInfo.getKey ();
-          getLog ().info (
-              "Processing " + source.getPath () + " into " + sourceInfo.getValue () + " ("
-                  + source.getPattern () + ")");
-          final File folder = new File (source.getPath ());
-          final String[] files = folder.list (new PatternFilenameFilter (regex (source
-              .getPattern ())));
-          if (files != null) {
-            for (final String file : files) {
-              getLog ().debug ("Adding " + file + " to archive");
-              final ZipEntry entry = new ZipEntry (sourceInfo.getValue () + file);
-              zip.putNextEntry (entry);
-              if ((new IOCallback<InputStream, Boolean> (getInputStreams ().open (
-                  new File (folder, file))) {
-
-                @Override
-                protected Boolean apply (final InputStream input) throws IOException {
-                  int bytes;
-                  while ((bytes = input.read (buffer, 0, buffer.length)) > 0) {
-                    zip.write (buffer, 0, bytes);
-                  }
-                  return Boolean.TRUE;
-                }
-
-              }).call (errorLog) != Boolean.TRUE) {
-                return Boolean.FALSE;
-              }
-              zip.closeEntry ();
-            }
-          } else {
-            getLog ().debug ("Source folder is empty or does not exist");
-          }
+        final ArchiveWriter writer = format.createWriter (new BufferedOutputStream (output),
+            (output instanceof FileOutputStream) ? ((FileOutputStream)output).getChannel () : null,
+            getThreads ());
+        final boolean written;
+        if (writer instanceof ZipWriter) {
+          written = writeZip ((ZipWriter)writer, files, time, targetFile.getParentFile (),
+              errorLog);
+        } else {
+          written = writeEntries (writer, files, time, errorLog);
+        }
+        if (!written) {
+          return Boolean.FALSE;
         }
-        zip.close ();
+        writer.close ();
         return Boolean.TRUE;
       }
 
     }).call (errorLog) != Boolean.TRUE) {
       throw new MojoFailureException ("Error writing to " + targetFile);
     }
-    project.getArtifact ().setFile (targetFile);
+    if ((fingerprint != null) && targetFile.isFile () && !fingerprint.store (targetFile)) {
+      getLog ().warn ("Can't write fingerprint for " + targetFile);
+    }
   }
+
+  // Mojo
+
+  @Override
+  public void execute () throws MojoExecutionException, MojoFailureException {
+    if (isSkip ()) {
+      getLog ().debug ("Skipping step");
+      return;
+    }
+    applyDefaults ();
+    final MavenProject project = (MavenProject)getPluginContext ().get ("project");
+    final File targetDir = new File (project.getBuild ().getDirectory ());
+    targetDir.mkdirs ();
+    final ArchiveFormat format = getArchiveFormat (project.getArtifact ());
+    project.getArtifact ().setArtifactHandler (getArtifactHandler (project.getArtifact ()
+        .getArtifactHandler (), project.getPackaging (), format));
+    final Map<Source, String> sources = gatherSources ();
+    final List<PackageFile> files;
+    final long time;
+    try {
+      files = gatherFiles (sources);
+      time = getEntryTime ();
+    } catch (final IllegalArgumentException e) {
+      throw new MojoFailureException (e.getMessage ());
+    } catch (final IOException e) {
+      throw new MojoFailureException ("Can't scan source folders: " + e.getMessage ());
+    }
+    if (isReproducible ()) {
+      Collections.sort (files, BY_NAME);
+    }
+    for (final Map.Entry<String, List<PackageFile>> artifact : partition (files).entrySet ()) {
+      final String classifier = artifact.getKey ();
+      if (classifier == null) {
+        final File targetFile = new File (targetDir, project.getArtifactId () + "."
+            + format.getExtension ());
+        writeArchive (format, targetFile, sources, artifact.getValue (), time);
+        project.getArtifact ().setFile (targetFile);
+      } else {
+        final File targetFile = new File (targetDir, project.getArtifactId () + "-" + classifier
+            + "." + format.getExtension ());
+        writeArchive (format, targetFile, sources, artifact.getValue (), time);
+        attach (project, classifier, targetFile);
+      }
+    }
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A group of file patterns, as used by {@link Source#getPattern}, that are tested together.
+ * <p>
+ * The patterns are compiled into a single automaton so that a path is examined once to find every
+ * pattern that matches it. Patterns which use regular expression syntax beyond the glob wildcards
+ * are matched individually. Compiled sets are shared by all executions in the same JVM.
+ */
+/* package */final class PatternSet {
+
+  /**
+   * Compiled sets, keyed by their patterns.
+   */
+  private static final Map<List<String>, PatternSet> CACHE =
+      new ConcurrentHashMap<List<String>, PatternSet> ();
+
+  private static final int MAX_CACHED_SETS = 256;
+
+  /**
+   * Limit on the number of automaton states remembered, after which they are computed on demand.
+   */
+  private static final int MAX_CACHED_STATES = 4096;
+
+  private static final int CHAR = 0;
+
+  private static final int ANY = 1;
+
+  private static final int ANY_SEGMENT = 2;
+
+  private static final int SPLIT = 3;
+
+  private static final int MATCH = 4;
+
+  /**
+   * Node kinds of the non-deterministic automaton.
+   */
+  private final List<Integer> _kind = new ArrayList<Integer> ();
+
+  /**
+   * Character for {@link #CHAR} nodes, or the pattern index for {@link #MATCH} nodes.
+   */
+  private final List<Integer> _value = new ArrayList<Integer> ();
+
+  private final List<Integer> _next = new ArrayList<Integer> ();
+
+  /**
+   * Second successor of {@link #SPLIT} nodes.
+   */
+  private final List<Integer> _alternate = new ArrayList<Integer> ();
+
+  private final BitSet _start = new BitSet ();
+
+  private final int _size;
+
+  private final boolean _recursive;
+
+  /**
+   * Patterns that could not be compiled into the automaton, indexed by pattern.
+   */
+  private final Pattern[] _regex;
+
+  /**
+   * Whether each pattern can match files in sub-folders.
+   */
+  private final boolean[] _nested;
+
+  private final Map<BitSet, State> _states = new ConcurrentHashMap<BitSet, State> ();
+
+  private final State _initial;
+
+  /**
+   * Deterministic automaton state, built on demand from a set of nodes.
+   */
+  private final class State {
+
+    private final BitSet _nodes;
+
+    private final BitSet _matches;
+
+    private final Map<Character, State> _transitions = new ConcurrentHashMap<Character, State> ();
+
+    private State (final BitSet nodes) {
+      _nodes = nodes;
+      _matches = new BitSet ();
+      for (int node = nodes.nextSetBit (0); node >= 0; node = nodes.nextSetBit (node + 1)) {
+        if (_kind.get (node) == MATCH) {
+          _matches.set (_value.get (node));
+        }
+      }
+    }
+
+    private State step (final char c) {
+      State state = _transitions.get (c);
+      if (state == null) {
+        state = getState (move (_nodes, c));
+        if (_states.size () < MAX_CACHED_STATES) {
+          _transitions.put (c, state);
+        }
+      }
+      return state;
+    }
+
+  }
+
+  private PatternSet (final List<String> patterns) {
+    _size = patterns.size ();
+    _regex = new Pattern[_size];
+    _nested = new boolean[_size];
+    boolean recursive = false;
+    for (int i = 0; i < _size; i++) {
+      final String pattern = patterns.get (i);
+      _nested[i] = PackageMojo.isRecursive (pattern);
+      recursive |= _nested[i];
+      if (isGlob (pattern)) {
+        _start.set (compile (pattern, i));
+      } else {
+        _regex[i] = Pattern.compile (PackageMojo.regex (pattern));
+      }
+    }
+    _recursive = recursive;
+    _initial = getState (closure (_start));
+  }
+
+  /**
+   * Returns the compiled form of a group of patterns.
+   * 
+   * @param patterns
+   *          the patterns, not {@code null} but may contain {@code null} elements to match any file
+   * @return the compiled patterns, never {@code null}
+   */
+  public static PatternSet compile (final List<String> patterns) {
+    final List<String> key = Collections.unmodifiableList (new ArrayList<String> (patterns));
+    PatternSet set = CACHE.get (key);
+    if (set == null) {
+      set = new PatternSet (key);
+      if (CACHE.size () >= MAX_CACHED_SETS) {
+        CACHE.clear ();
+      }
+      CACHE.put (key, set);
+    }
+    return set;
+  }
+
+  /**
+   * Tests whether the patterns can be matched by the automaton. Other characters have their
+   * regular expression meaning.
+   */
+  private static boolean isGlob (final String pattern) {
+    if (pattern == null) return true;
+    for (int i = 0; i < pattern.length (); i++) {
+      if ("[]{}()+|^$".indexOf (pattern.charAt (i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int node (final int kind, final int value) {
+    _kind.add (kind);
+    _value.add (value);
+    _next.add (-1);
+    _alternate.add (-1);
+    return _kind.size () - 1;
+  }
+
+  /**
+   * Compiles a pattern into the automaton. The wildcards have the same meaning as in
+   * {@link PackageMojo#regex}, except that {@code *} and {@code ?} never match {@code /} so that
+   * patterns without a folder only match files in the source folder itself.
+   * 
+   * @return the first node
+   */
+  private int compile (String pattern, final int index) {
+    if ((pattern == null) || (pattern.length () == 0)) {
+      pattern = "*";
+    }
+    // Tokenize forwards, then create the nodes backwards so that each successor already exists
+    final List<String> tokens = new ArrayList<String> ();
+    for (int i = 0; i < pattern.length (); i++) {
+      if (pattern.startsWith ("**/", i)) {
+        tokens.add ("**/");
+        i += 2;
+      } else if (pattern.startsWith ("**", i)) {
+        tokens.add ("**");
+        i++;
+      } else {
+        tokens.add (pattern.substring (i, i + 1));
+      }
+    }
+    int next = node (MATCH, index);
+    for (int i = tokens.size () - 1; i >= 0; i--) {
+      final String token = tokens.get (i);
+      if ("**/".equals (token)) {
+        // Any number of folders, including none
+        final int optional = node (SPLIT, 0);
+        _next.set (optional, loop (ANY, link (node (CHAR, '/'), next)));
+        _alternate.set (optional, next);
+        next = optional;
+      } else if ("**".equals (token)) {
+        next = loop (ANY, next);
+      } else if ("*".equals (token)) {
+        next = loop (ANY_SEGMENT, next);
+      } else if ("?".equals (token)) {
+        next = link (node (ANY_SEGMENT, 0), next);
+      } else {
+        next = link (node (CHAR, token.charAt (0)), next);
+      }
+    }
+    return next;
+  }
+
+  private int link (final int node, final int next) {
+    _next.set (node, next);
+    return node;
+  }
+
+  /**
+   * Creates a loop matching any number of characters of a kind, then continuing with {@code next}.
+   */
+  private int loop (final int kind, final int next) {
+    final int split = node (SPLIT, 0);
+    final int any = node (kind, 0);
+    _next.set (any, split);
+    _next.set (split, any);
+    _alternate.set (split, next);
+    return split;
+  }
+
+  private BitSet closure (final BitSet nodes) {
+    final BitSet closure = new BitSet ();
+    final List<Integer> pending = new ArrayList<Integer> ();
+    for (int node = nodes.nextSetBit (0); node >= 0; node = nodes.nextSetBit (node + 1)) {
+      pending.add (node);
+    }
+    while (!pending.isEmpty ()) {
+      final int node = pending.remove (pending.size () - 1);
+      if (!closure.get (node)) {
+        closure.set (node);
+        if (_kind.get (node) == SPLIT) {
+          pending.add (_next.get (node));
+          pending.add (_alternate.get (node));
+        }
+      }
+    }
+    return closure;
+  }
+
+  private BitSet move (final BitSet nodes, final char c) {
+    final BitSet next = new BitSet ();
+    for (int node = nodes.nextSetBit (0); node >= 0; node = nodes.nextSetBit (node + 1)) {
+      final int kind = _kind.get (node);
+      if (((kind == CHAR) && (_value.get (node) == c)) || (kind == ANY)
+          || ((kind == ANY_SEGMENT) && (c != '/'))) {
+        next.set (_next.get (node));
+      }
+    }
+    return closure (next);
+  }
+
+  private State getState (final BitSet nodes) {
+    State state = _states.get (nodes);
+    if (state == null) {
+      state = new State (nodes);
+      if (_states.size () < MAX_CACHED_STATES) {
+        _states.put (nodes, state);
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Returns the number of patterns in the set.
+   * 
+   * @return the pattern count
+   */
+  public int size () {
+    return _size;
+  }
+
+  /**
+   * Tests whether any of the patterns match files in sub-folders.
+   * 
+   * @return {@code true} if sub-folders must be scanned, {@code false} otherwise
+   */
+  public boolean isRecursive () {
+    return _recursive;
+  }
+
+  /**
+   * Finds the patterns that match a path.
+   * 
+   * @param path
+   *          the path relative to the source folder, using {@code /} as the separator, not
+   *          {@code null}
+   * @return the indices of the matching patterns, never {@code null}
+   */
+  public BitSet match (final String path) {
+    State state = _initial;
+    for (int i = 0; (i < path.length ()) && !state._nodes.isEmpty (); i++) {
+      state = state.step (path.charAt (i));
+    }
+    final BitSet matches = (BitSet)state._matches.clone ();
+    for (int i = 0; i < _size; i++) {
+      if ((_regex[i] != null) && (_nested[i] || (path.indexOf ('/') < 0))
+          && _regex[i].matcher (path).matches ()) {
+        matches.set (i);
+      }
+    }
+    return matches;
+  }
+
+}
\ No newline at end of file
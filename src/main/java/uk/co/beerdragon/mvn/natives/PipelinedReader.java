@@ -0,0 +1,429 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.beerdragon.mvn.natives.archive.ArchiveReader;
+
+/**
+ * Reads an archive on a thread of its own, so that reading and inflating the next entries overlaps
+ * with writing the current one. The content is passed to the caller in chunks through a bounded
+ * queue, and the chunks are reused once the caller has consumed them, so at most a fixed amount of
+ * memory is used however far the reader gets ahead.
+ * <p>
+ * Entries the caller does not want are skipped on the reading thread and never queued. The stalls
+ * on each side of the queue are measured, to show whether the reading or the writing is the
+ * bottleneck.
+ */
+/* package */final class PipelinedReader implements ArchiveReader {
+
+  /**
+   * Default size of each chunk.
+   */
+  public static final int CHUNK_SIZE = 256 * 1024;
+
+  /**
+   * Default number of chunks.
+   */
+  public static final int CHUNKS = 8;
+
+  /**
+   * Selects the entries to pass to the caller. Called on the reading thread.
+   */
+  public interface Filter {
+
+    /**
+     * Tests whether an entry is wanted.
+     * 
+     * @param entry
+     *          the entry name, not {@code null}
+     * @param size
+     *          the uncompressed size, or -1 if not known
+     * @param crc
+     *          the CRC-32 of the content, or -1 if not known
+     * @return {@code true} to pass the entry to the caller, {@code false} to skip it
+     */
+    boolean accept (String entry, long size, long crc);
+
+  }
+
+  /**
+   * Filter passing every entry.
+   */
+  public static final Filter ALL = new Filter () {
+
+    @Override
+    public boolean accept (final String entry, final long size, final long crc) {
+      return true;
+    }
+
+  };
+
+  /**
+   * An entry header, a chunk of content, or the end of the archive.
+   */
+  private static final class Item {
+
+    private final String _entry;
+
+    private final long _time;
+
+    private final long _size;
+
+    private final long _crc;
+
+    private final byte[] _buffer;
+
+    private final int _length;
+
+    private Item (final String entry, final long time, final long size, final long crc,
+        final byte[] buffer, final int length) {
+      _entry = entry;
+      _time = time;
+      _size = size;
+      _crc = crc;
+      _buffer = buffer;
+      _length = length;
+    }
+
+  }
+
+  private static final Item END = new Item (null, -1, -1, -1, null, 0);
+
+  private final ArchiveReader _archive;
+
+  private final Filter _filter;
+
+  private final BlockingQueue<byte[]> _free;
+
+  private final BlockingQueue<Item> _queue;
+
+  private final ExecutorService _executor;
+
+  private final Future<Void> _reading;
+
+  private final AtomicLong _readerStall = new AtomicLong ();
+
+  private final AtomicLong _chunks = new AtomicLong ();
+
+  private volatile int _maxDepth;
+
+  private long _writerStall;
+
+  /**
+   * Set once {@link #END} has been taken from the queue.
+   */
+  private boolean _ended;
+
+  /**
+   * The header of the current entry, or {@code null} if there is none.
+   */
+  private Item _header;
+
+  /**
+   * Item taken from the queue but not yet consumed, because it belongs to the next entry.
+   */
+  private Item _next;
+
+  private byte[] _chunk;
+
+  private int _chunkOffset;
+
+  private int _chunkLength;
+
+  /**
+   * Creates a new instance, and starts reading.
+   * 
+   * @param archive
+   *          the archive to read, not {@code null}; it is closed when this is
+   * @param filter
+   *          the entries to pass on, not {@code null}
+   * @param chunkSize
+   *          the size of each chunk
+   * @param chunks
+   *          the number of chunks
+   */
+  public PipelinedReader (final ArchiveReader archive, final Filter filter, final int chunkSize,
+      final int chunks) {
+    _archive = archive;
+    _filter = filter;
+    _free = new ArrayBlockingQueue<byte[]> (chunks);
+    for (int i = 0; i < chunks; i++) {
+      _free.add (new byte[chunkSize]);
+    }
+    // Room for every chunk, and a header for each
+    _queue = new ArrayBlockingQueue<Item> (chunks * 2 + 1);
+    _executor = Executors.newSingleThreadExecutor ();
+    _reading = _executor.submit (new Callable<Void> () {
+
+      @Override
+      public Void call () throws IOException, InterruptedException {
+        try {
+          read ();
+        } catch (final InterruptedException e) {
+          // Closed before reading finished; nobody is waiting for the end
+          return null;
+        } catch (final IOException | RuntimeException | Error e) {
+          // Lets the caller find out why reading stopped
+          put (END);
+          throw e;
+        }
+        put (END);
+        return null;
+      }
+
+    });
+  }
+
+  private void put (final Item item) throws InterruptedException {
+    if (!_queue.offer (item)) {
+      final long start = System.nanoTime ();
+      _queue.put (item);
+      _readerStall.addAndGet (System.nanoTime () - start);
+    }
+    final int depth = _queue.size ();
+    if (depth > _maxDepth) {
+      _maxDepth = depth;
+    }
+  }
+
+  private byte[] takeFree () throws InterruptedException {
+    byte[] buffer = _free.poll ();
+    if (buffer == null) {
+      final long start = System.nanoTime ();
+      buffer = _free.take ();
+      _readerStall.addAndGet (System.nanoTime () - start);
+    }
+    return buffer;
+  }
+
+  /**
+   * Reads the archive, on the reading thread.
+   */
+  private void read () throws IOException, InterruptedException {
+    String entry;
+    while ((entry = _archive.getNextEntry ()) != null) {
+      if (!_filter.accept (entry, _archive.getSize (), _archive.getCrc ())) {
+        continue;
+      }
+      put (new Item (entry, _archive.getTime (), _archive.getSize (), _archive.getCrc (), null, 0));
+      boolean full;
+      do {
+        final byte[] buffer = takeFree ();
+        int length = 0;
+        int bytes;
+        while ((length < buffer.length)
+            && ((bytes = _archive.read (buffer, length, buffer.length - length)) > 0)) {
+          length += bytes;
+        }
+        if (length > 0) {
+          _chunks.incrementAndGet ();
+          put (new Item (null, -1, -1, -1, buffer, length));
+        } else {
+          _free.add (buffer);
+        }
+        // A partly filled chunk is the end of the entry
+        full = (length == buffer.length);
+      } while (full);
+    }
+  }
+
+  /**
+   * Returns the number of chunks of content passed from the reading thread.
+   * 
+   * @return the number of chunks
+   */
+  public long getChunks () {
+    return _chunks.get ();
+  }
+
+  /**
+   * Returns the largest number of items that have been waiting in the queue.
+   * 
+   * @return the queue depth
+   */
+  public int getMaxDepth () {
+    return _maxDepth;
+  }
+
+  /**
+   * Returns the time the reading thread has spent waiting for the caller to consume chunks.
+   * 
+   * @return the time, in nanoseconds
+   */
+  public long getReaderStall () {
+    return _readerStall.get ();
+  }
+
+  /**
+   * Returns the time the caller has spent waiting for the reading thread.
+   * 
+   * @return the time, in nanoseconds
+   */
+  public long getWriterStall () {
+    return _writerStall;
+  }
+
+  /**
+   * Describes the metrics, for logging.
+   * 
+   * @return the description, not {@code null}
+   */
+  public String describe () {
+    return "Read " + getChunks () + " chunks, queue depth at most " + getMaxDepth ()
+        + ", reader waited " + TimeUnit.NANOSECONDS.toMillis (getReaderStall ())
+        + "ms, writer waited " + TimeUnit.NANOSECONDS.toMillis (getWriterStall ()) + "ms";
+  }
+
+  private Item take () throws IOException {
+    if (_next != null) {
+      final Item item = _next;
+      _next = null;
+      return item;
+    }
+    if (_ended) {
+      return END;
+    }
+    Item item = _queue.poll ();
+    if (item == null) {
+      final long start = System.nanoTime ();
+      try {
+        item = _queue.take ();
+      } catch (final InterruptedException e) {
+        Thread.currentThread ().interrupt ();
+        throw new InterruptedIOException ();
+      }
+      _writerStall += System.nanoTime () - start;
+    }
+    if (item == END) {
+      _ended = true;
+      checkReading ();
+    }
+    return item;
+  }
+
+  /**
+   * Rethrows any exception from the reading thread, which has finished.
+   */
+  private void checkReading () throws IOException {
+    try {
+      _reading.get ();
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ();
+    } catch (final ExecutionException e) {
+      // The reading thread only fails with the exceptions it passes on
+      final Throwable cause = e.getCause ();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw (Error)cause;
+    }
+  }
+
+  private void release () {
+    if (_chunk != null) {
+      _free.add (_chunk);
+      _chunk = null;
+    }
+    _chunkOffset = 0;
+    _chunkLength = 0;
+  }
+
+  // ArchiveReader
+
+  @Override
+  public String getNextEntry () throws IOException {
+    release ();
+    Item item;
+    while ((item = take ()) != END) {
+      if (item._entry != null) {
+        _header = item;
+        return item._entry;
+      }
+      // Content of the previous entry that was not read
+      _free.add (item._buffer);
+    }
+    _header = null;
+    return null;
+  }
+
+  @Override
+  public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+    if (_header == null) {
+      return -1;
+    }
+    if (_chunkOffset == _chunkLength) {
+      release ();
+      final Item item = take ();
+      if (item._buffer == null) {
+        // The next entry, or the end of the archive
+        _next = item;
+        return -1;
+      }
+      _chunk = item._buffer;
+      _chunkOffset = 0;
+      _chunkLength = item._length;
+    }
+    final int bytes = Math.min (length, _chunkLength - _chunkOffset);
+    System.arraycopy (_chunk, _chunkOffset, buffer, offset, bytes);
+    _chunkOffset += bytes;
+    return bytes;
+  }
+
+  @Override
+  public long getTime () {
+    return (_header != null) ? _header._time : -1;
+  }
+
+  @Override
+  public long getSize () {
+    return (_header != null) ? _header._size : -1;
+  }
+
+  @Override
+  public long getCrc () {
+    return (_header != null) ? _header._crc : -1;
+  }
+
+  // Closeable
+
+  /**
+   * Stops the reading thread, if it has not finished, and closes the archive.
+   */
+  @Override
+  public void close () throws IOException {
+    _reading.cancel (true);
+    _executor.shutdown ();
+    try {
+      // The archive can't be closed while the thread is still reading it
+      while (!_executor.awaitTermination (1, TimeUnit.SECONDS)) {
+        _executor.shutdownNow ();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ();
+    } finally {
+      _archive.close ();
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import uk.co.beerdragon.misc.IOCallback;
+
+/**
+ * Reads and writes the properties files the plugin keeps its state in.
+ */
+/* package */final class PropertiesFile {
+
+  private PropertiesFile () {
+  }
+
+  /**
+   * Reads a properties file.
+   * 
+   * @param file
+   *          the file to read, not {@code null}
+   * @return the properties, or {@code null} if there is no file or it can't be read
+   */
+  public static Properties load (final File file) {
+    final InputStream input;
+    try {
+      input = new FileInputStream (file);
+    } catch (final IOException e) {
+      return null;
+    }
+    return (new IOCallback<InputStream, Properties> (input) {
+
+      @Override
+      protected Properties apply (final InputStream input) throws IOException {
+        final Properties properties = new Properties ();
+        try {
+          properties.load (input);
+        } catch (final IllegalArgumentException e) {
+          // A malformed escape sequence
+          throw new IOException (e);
+        }
+        return properties;
+      }
+
+    }).callIgnoringException ();
+  }
+
+  /**
+   * Writes a properties file.
+   * 
+   * @param properties
+   *          the properties to write, not {@code null}
+   * @param file
+   *          the file to write, not {@code null}
+   * @param comment
+   *          the comment to write at the head of the file, or {@code null} for none
+   * @throws IOException
+   *           if the file could not be written
+   */
+  public static void store (final Properties properties, final File file, final String comment)
+      throws IOException {
+    final OutputStream output = new FileOutputStream (file);
+    try {
+      properties.store (output, comment);
+    } finally {
+      output.close ();
+    }
+  }
+
+}
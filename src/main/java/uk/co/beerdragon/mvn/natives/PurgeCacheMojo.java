@@ -0,0 +1,96 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Implementation of the {@code purge-cache} goal, which evicts the least recently used
+ * dependencies from the folder shared by {@link UnpackDependenciesMojo#setCacheDirectory}.
+ */
+public class PurgeCacheMojo extends AbstractMojo {
+
+  /**
+   * Default largest size of the cache.
+   */
+  public static final long DEFAULT_MAX_CACHE_SIZE = 4L * 1024 * 1024 * 1024;
+
+  private boolean _skip;
+
+  private String _cacheDirectory;
+
+  private long _maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+  public boolean isSkip () {
+    return _skip;
+  }
+
+  public void setSkip (final boolean skip) {
+    _skip = skip;
+  }
+
+  public String getCacheDirectory () {
+    return _cacheDirectory;
+  }
+
+  public void setCacheDirectory (final String cacheDirectory) {
+    _cacheDirectory = cacheDirectory;
+  }
+
+  /**
+   * Returns the size the cache is reduced to.
+   * 
+   * @return the size in bytes
+   */
+  public long getMaxCacheSize () {
+    return _maxCacheSize;
+  }
+
+  /**
+   * Sets the size the cache is reduced to. Dependencies that are being used by a build are not
+   * evicted, so the cache may remain larger than this.
+   * 
+   * @param maxCacheSize
+   *          the size in bytes
+   */
+  public void setMaxCacheSize (final long maxCacheSize) {
+    _maxCacheSize = maxCacheSize;
+  }
+
+  // Mojo
+
+  @Override
+  public void execute () throws MojoExecutionException, MojoFailureException {
+    if (isSkip ()) {
+      getLog ().debug ("Skipping step");
+      return;
+    }
+    if (getCacheDirectory () == null) {
+      throw new MojoFailureException ("No cache directory given");
+    }
+    final SharedCache cache = new SharedCache (new File (getCacheDirectory ()));
+    if (!cache.getDirectory ().isDirectory ()) {
+      getLog ().info ("Nothing to purge - " + cache.getDirectory () + " does not exist");
+      return;
+    }
+    try {
+      final long freed = cache.evict (getMaxCacheSize ());
+      getLog ().info ("Freed " + freed + " bytes from " + cache.getDirectory () + ", leaving "
+          + cache.getSize ());
+    } catch (final IOException e) {
+      getLog ().error (e);
+      throw new MojoFailureException ("Can't purge " + cache.getDirectory ());
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,358 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Folder, shared by all builds on a machine, holding the extracted content of artifacts. Each
+ * artifact is extracted once, into a folder named by the hash of the artifact, and the files are
+ * then linked into the projects that depend on it.
+ * <p>
+ * An artifact's folder is locked while it is extracted or used, so that builds running at the same
+ * time never see a partly extracted artifact and never have one evicted from under them. The lock
+ * files are kept when artifacts are evicted, as a build waiting on one must lock the same file as
+ * any build that comes after it. The folder is complete once its index, listing the CRC-32 of each
+ * entry, has been written. The modification time of the index is updated whenever the artifact is
+ * used, so that the least recently used artifacts can be evicted.
+ */
+/* package */class SharedCache {
+
+  private static final String INDEX_SUFFIX = ".properties";
+
+  private static final String LOCK_SUFFIX = ".lock";
+
+  /**
+   * Locks held by this process. A file lock is held on behalf of the whole process, so threads
+   * must also exclude each other. Each lock file maps to one of a fixed number of locks, so that
+   * none need ever be removed.
+   */
+  private static final ReentrantLock[] LOCKS = new ReentrantLock[64];
+
+  static {
+    for (int i = 0; i < LOCKS.length; i++) {
+      LOCKS[i] = new ReentrantLock ();
+    }
+  }
+
+  /**
+   * Callback for the content of an artifact.
+   */
+  public interface Visitor {
+
+    /**
+     * Extracts the artifact, which is not yet in the cache.
+     * 
+     * @param dir
+     *          the empty folder to write the entries to, not {@code null}
+     * @return the CRC-32 of each entry, keyed by entry name, never {@code null}
+     * @throws IOException
+     *           if the artifact could not be extracted
+     */
+    Map<String, Long> extract (File dir) throws IOException;
+
+    /**
+     * Uses the extracted artifact. The folder remains locked until this returns.
+     * 
+     * @param dir
+     *          the folder containing the entries, not {@code null}
+     * @param entries
+     *          the CRC-32 of each entry, keyed by entry name, not {@code null}
+     * @return {@code true} if the artifact was used, {@code false} if there was an error
+     * @throws IOException
+     *           if the artifact could not be used
+     */
+    boolean use (File dir, Map<String, Long> entries) throws IOException;
+
+  }
+
+  private final File _dir;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param dir
+   *          the cache folder, not {@code null}; it is created if it does not exist
+   */
+  public SharedCache (final File dir) {
+    _dir = Objects.requireNonNull (dir);
+  }
+
+  public File getDirectory () {
+    return _dir;
+  }
+
+  private static ReentrantLock getLocalLock (final File lockFile) {
+    return LOCKS[(lockFile.getAbsoluteFile ().hashCode () & Integer.MAX_VALUE) % LOCKS.length];
+  }
+
+  private static Map<String, Long> loadIndex (final File file) {
+    final Properties properties = PropertiesFile.load (file);
+    if (properties == null) {
+      return null;
+    }
+    final Map<String, Long> entries = new HashMap<String, Long> ();
+    try {
+      for (final String name : properties.stringPropertyNames ()) {
+        entries.put (name, Long.valueOf (properties.getProperty (name)));
+      }
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+    return entries;
+  }
+
+  private static void storeIndex (final File file, final Map<String, Long> entries)
+      throws IOException {
+    final Properties properties = new Properties ();
+    for (final Map.Entry<String, Long> entry : entries.entrySet ()) {
+      properties.setProperty (entry.getKey (), entry.getValue ().toString ());
+    }
+    PropertiesFile.store (properties, file, null);
+  }
+
+  /**
+   * Deletes a file, or a folder and everything in it.
+   * 
+   * @return {@code true} if it was deleted or did not exist, {@code false} otherwise
+   */
+  /* package */static boolean delete (final File file) {
+    final File[] files = file.listFiles ();
+    if (files != null) {
+      for (final File child : files) {
+        delete (child);
+      }
+    }
+    return file.delete () || !file.exists ();
+  }
+
+  private static long sizeOf (final File file) {
+    final File[] files = file.listFiles ();
+    if (files == null) {
+      return file.length ();
+    }
+    long size = 0;
+    for (final File child : files) {
+      size += sizeOf (child);
+    }
+    return size;
+  }
+
+  private boolean visitLocked (final String hash, final Visitor visitor) throws IOException {
+    final File index = new File (_dir, hash + INDEX_SUFFIX);
+    final File dir = new File (_dir, hash);
+    Map<String, Long> entries = loadIndex (index);
+    if (entries == null) {
+      // Nothing, or an extraction that did not finish
+      if (!delete (dir) || !dir.mkdirs ()) {
+        throw new IOException ("Can't create cache folder " + dir);
+      }
+      entries = visitor.extract (dir);
+      storeIndex (index, entries);
+    } else {
+      index.setLastModified (System.currentTimeMillis ());
+    }
+    return visitor.use (dir, entries);
+  }
+
+  /**
+   * Extracts an artifact into the cache if it is not there already, and uses it.
+   * 
+   * @param hash
+   *          the hash of the artifact's content, not {@code null}
+   * @param visitor
+   *          the callback to extract and use the artifact, not {@code null}
+   * @return the result of {@link Visitor#use}
+   * @throws IOException
+   *           if the cache could not be locked or read, or the visitor failed
+   */
+  public boolean visit (final String hash, final Visitor visitor) throws IOException {
+    if (!_dir.isDirectory () && !_dir.mkdirs ()) {
+      throw new IOException ("Can't create cache folder " + _dir);
+    }
+    final File lockFile = new File (_dir, hash + LOCK_SUFFIX);
+    final ReentrantLock local = getLocalLock (lockFile);
+    local.lock ();
+    try {
+      final RandomAccessFile file = new RandomAccessFile (lockFile, "rw");
+      try {
+        final FileLock lock = file.getChannel ().lock ();
+        try {
+          return visitLocked (hash, visitor);
+        } finally {
+          lock.release ();
+        }
+      } finally {
+        file.close ();
+      }
+    } finally {
+      local.unlock ();
+    }
+  }
+
+  /**
+   * Links a file from the cache into a project. A hard link is used if possible, and the file is
+   * copied if not. A symbolic link is never used, as it would be left dangling if the artifact was
+   * evicted. Anything already at the target is replaced.
+   * 
+   * @param source
+   *          the file in the cache, not {@code null}
+   * @param target
+   *          the file to create, not {@code null}
+   * @throws IOException
+   *           if the file could not be linked or copied
+   */
+  public static void link (final File source, final File target) throws IOException {
+    Files.deleteIfExists (target.toPath ());
+    try {
+      Files.createLink (target.toPath (), source.toPath ());
+      return;
+    } catch (final UnsupportedOperationException | IOException e) {
+      // For example, the cache is on a different file system
+    }
+    Files.copy (source.toPath (), target.toPath (), StandardCopyOption.COPY_ATTRIBUTES);
+  }
+
+  /**
+   * An artifact in the cache, as seen when evicting.
+   */
+  private static final class Item {
+
+    private final String _hash;
+
+    private final long _lastUsed;
+
+    private final long _size;
+
+    private Item (final String hash, final long lastUsed, final long size) {
+      _hash = hash;
+      _lastUsed = lastUsed;
+      _size = size;
+    }
+
+  }
+
+  private static final Comparator<Item> LEAST_RECENTLY_USED = new Comparator<Item> () {
+
+    @Override
+    public int compare (final Item a, final Item b) {
+      return Long.compare (a._lastUsed, b._lastUsed);
+    }
+
+  };
+
+  private List<Item> getItems () {
+    final List<Item> items = new ArrayList<Item> ();
+    final File[] files = _dir.listFiles ();
+    if (files != null) {
+      for (final File file : files) {
+        if (file.isDirectory ()) {
+          final File index = new File (_dir, file.getName () + INDEX_SUFFIX);
+          // Incomplete folders go first
+          items.add (new Item (file.getName (), index.lastModified (), sizeOf (file)
+              + index.length ()));
+        }
+      }
+    }
+    return items;
+  }
+
+  /**
+   * Returns the total size of the artifacts in the cache.
+   * 
+   * @return the size in bytes
+   */
+  public long getSize () {
+    long size = 0;
+    for (final Item item : getItems ()) {
+      size += item._size;
+    }
+    return size;
+  }
+
+  private boolean evict (final Item item) throws IOException {
+    final File lockFile = new File (_dir, item._hash + LOCK_SUFFIX);
+    final ReentrantLock local = getLocalLock (lockFile);
+    // The lock is reentrant, but an artifact being used by this thread, or one sharing its lock,
+    // can't be evicted either
+    if (local.isHeldByCurrentThread () || !local.tryLock ()) {
+      return false;
+    }
+    try {
+      final RandomAccessFile file = new RandomAccessFile (lockFile, "rw");
+      try {
+        final FileLock lock = file.getChannel ().tryLock ();
+        if (lock == null) {
+          // In use by another build
+          return false;
+        }
+        try {
+          // Remove the index first, so that a partly deleted folder is never seen as complete
+          if (!delete (new File (_dir, item._hash + INDEX_SUFFIX))
+              || !delete (new File (_dir, item._hash))) {
+            return false;
+          }
+          // The lock file is kept, so that builds waiting on it exclude any that come later
+          return true;
+        } finally {
+          lock.release ();
+        }
+      } finally {
+        file.close ();
+      }
+    } finally {
+      local.unlock ();
+    }
+  }
+
+  /**
+   * Evicts the least recently used artifacts until the cache is no larger than a limit. Artifacts
+   * that are in use are skipped. Files that have already been linked into projects are not
+   * affected.
+   * 
+   * @param maxSize
+   *          the largest the cache should be, in bytes
+   * @return the number of bytes freed
+   * @throws IOException
+   *           if the cache could not be locked
+   */
+  public long evict (final long maxSize) throws IOException {
+    final List<Item> items = getItems ();
+    long size = 0;
+    for (final Item item : items) {
+      size += item._size;
+    }
+    Collections.sort (items, LEAST_RECENTLY_USED);
+    long freed = 0;
+    for (final Item item : items) {
+      if (size <= maxSize) {
+        break;
+      }
+      if (evict (item)) {
+        size -= item._size;
+        freed += item._size;
+      }
+    }
+    return freed;
+  }
+
+}
\ No newline at end of file
@@ -30,6 +30,12 @@ public class Source {
    */
   private String _pattern;
 
+  /**
+   * Compression policy for the files, for example <code>auto</code>, <code>store</code> or a
+   * deflate level from <code>1</code> to <code>9</code>.
+   */
+  private String _compression;
+
   /**
    * Returns the path where the files to be packaged can be found, for example
    * <code>target/bin</code>.
@@ -92,6 +98,27 @@ public class Source {
     _pattern = pattern;
   }
 
+  /**
+   * Returns the compression policy for the files, for example <code>auto</code>,
+   * <code>store</code> or a deflate level from <code>1</code> to <code>9</code>.
+   * 
+   * @return the policy, or {@code null} for the plugin default
+   */
+  public String getCompression () {
+    return _compression;
+  }
+
+  /**
+   * Sets the compression policy for the files, for example <code>auto</code>, <code>store</code>
+   * or a deflate level from <code>1</code> to <code>9</code>.
+   * 
+   * @param compression
+   *          the policy, or {@code null} for the plugin default
+   */
+  public void setCompression (final String compression) {
+    _compression = compression;
+  }
+
   /**
    * Implements the {@link #equals} test. The parameter is not {@code this} but is of the same type.
    * 
@@ -103,7 +130,8 @@ public class Source {
     final Source other = (Source)o;
     return Objects.equals (getPath (), other.getPath ())
         && Objects.equals (getDest (), other.getDest ())
-        && Objects.equals (getPattern (), other.getPattern ());
+        && Objects.equals (getPattern (), other.getPattern ())
+        && Objects.equals (getCompression (), other.getCompression ());
   }
 
   /**
@@ -129,13 +157,16 @@ public class Source {
     if (getPattern () != null) {
       sb.append (", pattern:").append (getPattern ());
     }
+    if (getCompression () != null) {
+      sb.append (", compression:").append (getCompression ());
+    }
   }
 
   // Object
 
   @Override
   public int hashCode () {
-    return Objects.hash (getClass (), getPath (), getDest (), getPattern ());
+    return Objects.hash (getClass (), getPath (), getDest (), getPattern (), getCompression ());
   }
 
   @Override
@@ -0,0 +1,173 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the files that have been unpacked, with the size and CRC-32 of their content and the
+ * modification time they were left with. An archive entry whose size and CRC-32 match those of
+ * the file already unpacked to the same name need not be written again, provided that the file
+ * has not been changed since.
+ * <p>
+ * Files can be recorded and looked up from several threads at once.
+ */
+/* package */class SyncCache {
+
+  /**
+   * A file that has been unpacked.
+   */
+  private static final class Record {
+
+    private final long _size;
+
+    private final long _crc;
+
+    private final long _lastModified;
+
+    private Record (final long size, final long crc, final long lastModified) {
+      _size = size;
+      _crc = crc;
+      _lastModified = lastModified;
+    }
+
+    private static Record parse (final String value) {
+      final String[] fields = value.split (",");
+      if (fields.length != 3) {
+        return null;
+      }
+      try {
+        return new Record (Long.parseLong (fields[0]), Long.parseLong (fields[1]),
+            Long.parseLong (fields[2]));
+      } catch (final NumberFormatException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString () {
+      return _size + "," + _crc + "," + _lastModified;
+    }
+
+  }
+
+  private final Map<String, Record> _records = new ConcurrentHashMap<String, Record> ();
+
+  /**
+   * Creates an empty cache.
+   */
+  public SyncCache () {
+  }
+
+  /**
+   * Reads a stored cache.
+   * 
+   * @param file
+   *          the cache file, not {@code null}
+   * @return the cache, never {@code null}; if there is none, or it can't be read, the cache is
+   *         empty
+   */
+  public static SyncCache load (final File file) {
+    final SyncCache cache = new SyncCache ();
+    final Properties properties = PropertiesFile.load (file);
+    if (properties != null) {
+      for (final String name : properties.stringPropertyNames ()) {
+        final Record record = Record.parse (properties.getProperty (name));
+        if (record != null) {
+          cache._records.put (name, record);
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Tests whether a file already holds the content of an archive entry.
+   * 
+   * @param name
+   *          the name the entry is written as, not {@code null}
+   * @param file
+   *          the file the entry is written to, not {@code null}
+   * @param size
+   *          the size of the entry, or -1 if it is not known
+   * @param crc
+   *          the CRC-32 of the entry, or -1 if it is not known
+   * @return {@code true} if the file is unchanged since it was written with the same content,
+   *         {@code false} if the entry must be written
+   */
+  public boolean isCurrent (final String name, final File file, final long size, final long crc) {
+    final Record record = _records.get (name);
+    if ((record == null) || (crc < 0) || (record._crc != crc)
+        || ((size >= 0) && (record._size != size))) {
+      return false;
+    }
+    return file.isFile () && (file.length () == record._size)
+        && (file.lastModified () == record._lastModified);
+  }
+
+  /**
+   * Records a file that has just been written.
+   * 
+   * @param name
+   *          the name the entry was written as, not {@code null}
+   * @param file
+   *          the file the entry was written to, not {@code null}
+   * @param crc
+   *          the CRC-32 of the content written
+   */
+  public void put (final String name, final File file, final long crc) {
+    _records.put (name, new Record (file.length (), crc, file.lastModified ()));
+  }
+
+  /**
+   * Forgets a file, for example because it has been deleted.
+   * 
+   * @param name
+   *          the name the entry was written as, not {@code null}
+   */
+  public void remove (final String name) {
+    _records.remove (name);
+  }
+
+  /**
+   * Returns the names of the files recorded.
+   * 
+   * @return the names, never {@code null}
+   */
+  public Set<String> getNames () {
+    return new HashSet<String> (_records.keySet ());
+  }
+
+  /**
+   * Writes the cache.
+   * 
+   * @param file
+   *          the cache file, not {@code null}
+   * @return {@code true} if the cache was written, {@code false} otherwise
+   */
+  public boolean store (final File file) {
+    file.getParentFile ().mkdirs ();
+    final Properties properties = new Properties ();
+    for (final Map.Entry<String, Record> record : _records.entrySet ()) {
+      properties.setProperty (record.getKey (), record.getValue ().toString ());
+    }
+    try {
+      PropertiesFile.store (properties, file, "Unpacked files");
+      return true;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+}
\ No newline at end of file
@@ -7,21 +7,40 @@
 
 package uk.co.beerdragon.mvn.natives;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.artifact.Artifact;
@@ -34,16 +53,66 @@ import org.apache.maven.project.MavenProject;
 import uk.co.beerdragon.misc.IOCallback;
 import uk.co.beerdragon.misc.IOCallback.IOExceptionHandler;
 import uk.co.beerdragon.misc.OutputStreamOpener;
+import uk.co.beerdragon.mvn.natives.DuplicateEntries.Content;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveFormat;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveReader;
+import uk.co.beerdragon.mvn.natives.archive.ZipIndex;
+import uk.co.beerdragon.mvn.natives.defaults.Defaults;
 
 /**
  * Implementation of the {@code unpack-dependencies} goal.
  */
 public class UnpackDependenciesMojo extends AbstractMojo {
 
+  /**
+   * Maximum number of artifacts unpacked at once, whatever the number of threads. Each holds an
+   * archive and one output file open.
+   */
+  public static final int MAX_OPEN_ARCHIVES = 64;
+
+  /**
+   * Default size from which ZIP archives have their entries extracted on several threads.
+   */
+  public static final long DEFAULT_LARGE_ARCHIVE_SIZE = 64L * 1024 * 1024;
+
+  /**
+   * Name of the file, in the marker folder, recording the files written when {@link #isSync} is
+   * set.
+   */
+  private static final String SYNC_CACHE = "files.properties";
+
+  private static final String[] NATIVE_TYPES = {"native-static", "native-exec", "native-dynamic" };
+
   private OutputStreamOpener _outputStreams = new OutputStreamOpener ();
 
   private boolean _skip;
 
+  private int _threads = Runtime.getRuntime ().availableProcessors ();
+
+  private boolean _incremental = true;
+
+  private boolean _preserveTimestamps = true;
+
+  private boolean _sync = true;
+
+  private String _fsync = EntryWriter.FSYNC_NONE;
+
+  private String _deduplicate = DuplicateEntries.CRC;
+
+  private String _cacheDirectory;
+
+  private String _defaults;
+
+  private String _arch;
+
+  private String[] _includes;
+
+  private String[] _excludes;
+
+  private DependencySelection[] _selections;
+
+  private long _largeArchiveSize = DEFAULT_LARGE_ARCHIVE_SIZE;
+
   /* package */OutputStreamOpener getOutputStreams () {
     return _outputStreams;
   }
@@ -60,15 +129,342 @@ public class UnpackDependenciesMojo extends AbstractMojo {
     _skip = skip;
   }
 
+  /**
+   * Returns the number of threads used to scan and unpack the artifacts.
+   * 
+   * @return the number of threads, one or less to unpack the artifacts one at a time
+   */
+  public int getThreads () {
+    return _threads;
+  }
+
+  /**
+   * Sets the number of threads used to scan and unpack the artifacts. This is limited to
+   * {@link #MAX_OPEN_ARCHIVES}.
+   * 
+   * @param threads
+   *          the number of threads, one or less to unpack the artifacts one at a time
+   */
+  public void setThreads (final int threads) {
+    _threads = threads;
+  }
+
+  /**
+   * Returns the size from which a ZIP archive has its entries extracted on several threads.
+   * 
+   * @return the size in bytes
+   */
+  public long getLargeArchiveSize () {
+    return _largeArchiveSize;
+  }
+
+  /**
+   * Sets the size from which a ZIP archive has its entries extracted on several threads. Smaller
+   * archives are extracted by a single thread, which may run alongside the threads extracting
+   * other archives.
+   * 
+   * @param largeArchiveSize
+   *          the size in bytes
+   */
+  public void setLargeArchiveSize (final long largeArchiveSize) {
+    _largeArchiveSize = largeArchiveSize;
+  }
+
+  /**
+   * Tests whether dependencies that are unchanged since they were last unpacked are skipped.
+   * 
+   * @return {@code true} to skip unchanged dependencies, {@code false} to always unpack them
+   */
+  public boolean isIncremental () {
+    return _incremental;
+  }
+
+  /**
+   * Sets whether dependencies that are unchanged since they were last unpacked are skipped. A
+   * marker recording the artifact and the names its entries were written as is kept for each
+   * dependency in <code>target/dependency-markers</code>.
+   * 
+   * @param incremental
+   *          {@code true} to skip unchanged dependencies, {@code false} to always unpack them
+   */
+  public void setIncremental (final boolean incremental) {
+    _incremental = incremental;
+  }
+
+  /**
+   * Tests whether unpacked files are given the modification times recorded in the archive.
+   * 
+   * @return {@code true} to keep the times from the archive, {@code false} to leave the files with
+   *         the time they were written
+   */
+  public boolean isPreserveTimestamps () {
+    return _preserveTimestamps;
+  }
+
+  /**
+   * Sets whether unpacked files are given the modification times recorded in the archive. Keeping
+   * them means that a native build which depends on the unpacked files does not see them change
+   * when a dependency is unpacked again without its content having changed.
+   * 
+   * @param preserveTimestamps
+   *          {@code true} to keep the times from the archive, {@code false} to leave the files
+   *          with the time they were written
+   */
+  public void setPreserveTimestamps (final boolean preserveTimestamps) {
+    _preserveTimestamps = preserveTimestamps;
+  }
+
+  /**
+   * Returns when unpacked files are flushed to the storage device.
+   * 
+   * @return the policy - <code>none</code>, <code>artifact</code> or <code>file</code>
+   */
+  public String getFsync () {
+    return _fsync;
+  }
+
+  /**
+   * Sets when unpacked files are flushed to the storage device. With <code>none</code> the
+   * operating system writes them back in its own time; with <code>artifact</code> the files of each
+   * dependency are flushed once it has been unpacked, and with <code>file</code> each file is
+   * flushed before it is closed.
+   * 
+   * @param fsync
+   *          the policy - <code>none</code>, <code>artifact</code> or <code>file</code>, or
+   *          {@code null} for <code>none</code>
+   */
+  public void setFsync (final String fsync) {
+    _fsync = StringUtils.defaultIfBlank (fsync, EntryWriter.FSYNC_NONE);
+  }
+
+  /**
+   * Returns how entries that several dependencies contain are compared.
+   * 
+   * @return the policy - <code>none</code>, <code>crc</code> or <code>hash</code>
+   */
+  public String getDeduplicate () {
+    return _deduplicate;
+  }
+
+  /**
+   * Sets how entries that several dependencies contain are compared. With <code>crc</code> the
+   * entries with the same size and CRC-32 are written once, under their own name, so the ZIP
+   * entries need not be read, but entries that differ yet happen to share a CRC-32 would lose one
+   * of the files; with <code>hash</code> their SHA-256 digests must also match. With
+   * <code>none</code>, or if the content differs, each dependency's entry is written under a name
+   * with a distinguishing suffix.
+   * 
+   * @param deduplicate
+   *          the policy - <code>none</code>, <code>crc</code> or <code>hash</code>, or
+   *          {@code null} for <code>crc</code>
+   */
+  public void setDeduplicate (final String deduplicate) {
+    _deduplicate = StringUtils.defaultIfBlank (deduplicate, DuplicateEntries.CRC);
+  }
+
+  /**
+   * Tests whether files that already hold the content of an archive entry are left alone, and
+   * files that are no longer part of any dependency removed.
+   * 
+   * @return {@code true} to synchronize the unpacked files, {@code false} to always write them
+   */
+  public boolean isSync () {
+    return _sync;
+  }
+
+  /**
+   * Sets whether files that already hold the content of an archive entry are left alone, and files
+   * that are no longer part of any dependency removed. The size, CRC-32 and modification time of
+   * each file written are kept in <code>target/dependency-markers</code>; an entry is written only
+   * if its size or CRC-32 differ from the file's, or the file has been changed since.
+   * 
+   * @param sync
+   *          {@code true} to synchronize the unpacked files, {@code false} to always write them
+   */
+  public void setSync (final boolean sync) {
+    _sync = sync;
+  }
+
+  /**
+   * Returns the folder, shared between builds, that dependencies are extracted into.
+   * 
+   * @return the folder, or {@code null} to unpack each dependency directly
+   */
+  public String getCacheDirectory () {
+    return _cacheDirectory;
+  }
+
+  /**
+   * Sets the folder, shared between builds, that dependencies are extracted into. Each version of
+   * a dependency is extracted there once, and its files are then linked into
+   * <code>target/dependency</code>, so that many projects and workspaces on the same machine
+   * don't each write their own copy. Hard links are used where possible, and the files are copied
+   * if they can't be created.
+   * <p>
+   * Files linked from the cache must not be modified in place by the build. Use the
+   * {@code purge-cache} goal to keep the size of the folder down.
+   * 
+   * @param cacheDirectory
+   *          the folder, for example <code>~/.m2/native-cache</code>, or {@code null} to unpack
+   *          each dependency directly
+   */
+  public void setCacheDirectory (final String cacheDirectory) {
+    _cacheDirectory = cacheDirectory;
+  }
+
+  public String getDefaults () {
+    return _defaults;
+  }
+
+  public void setDefaults (final String defaults) {
+    _defaults = defaults;
+  }
+
+  /**
+   * Returns the architectures whose entries are unpacked.
+   * 
+   * @return the architecture descriptors, separated by commas, or {@code null} to use the
+   *         architecture from the defaults, or failing that the host's
+   */
+  public String getArch () {
+    return _arch;
+  }
+
+  /**
+   * Sets the architectures whose entries are unpacked. Entries in the <code>bin-<i>arch</i></code>
+   * and <code>lib-<i>arch</i></code> folders of other architectures are skipped, unless a
+   * dependency has none for the architectures given. Entries that don't belong to an
+   * architecture are always unpacked.
+   * 
+   * @param arch
+   *          the architecture descriptors, for example <code>x64</code>, separated by commas;
+   *          <code>*</code> to unpack all architectures; or {@code null} to use the architecture
+   *          from the defaults, or failing that the host's
+   */
+  public void setArch (final String arch) {
+    _arch = arch;
+  }
+
+  /* package */EntryFilter getEntryFilter () {
+    String arch = getArch ();
+    if (StringUtils.isBlank (arch)) {
+      arch = Defaults.get (getDefaults ()).getDefaultArch ();
+      if (StringUtils.isBlank (arch)) {
+        arch = System.getProperty ("os.arch");
+      }
+    }
+    final EntryFilter filter;
+    if ("*".equals (arch.trim ())) {
+      filter = new EntryFilter (null);
+    } else {
+      filter = new EntryFilter (Arrays.asList (arch.split ("[,;]")));
+    }
+    return filter.select (getIncludes (), getExcludes ());
+  }
+
+  /**
+   * Returns the patterns selecting the entries to unpack from every dependency.
+   * 
+   * @return the patterns, or {@code null} to unpack every entry that is not excluded
+   */
+  public String[] getIncludes () {
+    return _includes;
+  }
+
+  /**
+   * Sets the patterns selecting the entries to unpack from every dependency, for example
+   * <code>include/**</code>. The patterns have the same form as {@link Source#getPattern} and are
+   * matched against the entry names.
+   * 
+   * @param includes
+   *          the patterns, or {@code null} to unpack every entry that is not excluded
+   */
+  public void setIncludes (final String[] includes) {
+    _includes = includes;
+  }
+
+  /**
+   * Returns the patterns selecting entries not to unpack from any dependency.
+   * 
+   * @return the patterns, or {@code null} to exclude nothing
+   */
+  public String[] getExcludes () {
+    return _excludes;
+  }
+
+  /**
+   * Sets the patterns selecting entries not to unpack from any dependency, for example
+   * <code>**&#47;*.pdb</code>.
+   * 
+   * @param excludes
+   *          the patterns, or {@code null} to exclude nothing
+   */
+  public void setExcludes (final String[] excludes) {
+    _excludes = excludes;
+  }
+
+  /**
+   * Returns the selections applied to individual dependencies.
+   * 
+   * @return the selections, or {@code null} for none
+   */
+  public DependencySelection[] getSelections () {
+    return _selections;
+  }
+
+  /**
+   * Sets the selections applied to individual dependencies. These narrow the entries selected by
+   * {@link #setIncludes} and {@link #setExcludes}, for example to unpack only the headers of one
+   * dependency.
+   * 
+   * @param selections
+   *          the selections, or {@code null} for none
+   */
+  public void setSelections (final DependencySelection[] selections) {
+    _selections = selections;
+  }
+
+  /* package */EntryFilter getEntryFilter (final EntryFilter filter, final Artifact artifact) {
+    EntryFilter artifactFilter = filter;
+    if (getSelections () != null) {
+      final String key = ArtifactUtils.versionlessKey (artifact);
+      for (final DependencySelection selection : getSelections ()) {
+        if (key.equals (selection.getDependency ())) {
+          artifactFilter = artifactFilter.select (selection.getIncludes (),
+              selection.getExcludes ());
+        }
+      }
+    }
+    return artifactFilter;
+  }
+
+  private int getPoolSize (final int artifacts) {
+    return Math.max (1, Math.min (Math.min (getThreads (), MAX_OPEN_ARCHIVES), artifacts));
+  }
+
+  /**
+   * Tests whether an artifact is a native dependency. As well as the packaging types there are
+   * types with the extension of an archive format appended, for example
+   * <code>native-static-tar.gz</code>, for artifacts packaged in another format.
+   */
   private boolean isNative (final Artifact artifact) {
     final String type = artifact.getType ();
-    return "native-static".equals (type) || "native-exec".equals (type)
-        || "native-dynamic".equals (type);
+    for (final String nativeType : NATIVE_TYPES) {
+      if (nativeType.equals (type)) {
+        return true;
+      }
+      if ((type != null) && type.startsWith (nativeType + "-")
+          && (ArchiveFormat.get (type.substring (nativeType.length () + 1)) != null)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-  private InputStream open (final Artifact artifact) throws MojoFailureException {
+  private ArchiveReader open (final Artifact artifact) throws MojoFailureException {
+    final File file = artifact.getFile ();
     try {
-      return new FileInputStream (artifact.getFile ());
+      return ArchiveFormat.detect (file).createReader (file);
     } catch (final IOException e) {
       throw new MojoFailureException ("Can't read from artifact " + ArtifactUtils.key (artifact));
     }
@@ -80,36 +476,161 @@ public class UnpackDependenciesMojo extends AbstractMojo {
     }
   }
 
-  private void gatherName (final Artifact scope, final String name,
-      final Map<String, Set<Artifact>> names) {
-    Set<Artifact> collision = names.get (name);
-    if (collision == null) {
-      names.put (name, Collections.<Artifact> singleton (scope));
-    } else {
-      if (collision.size () == 1) {
-        collision = new HashSet<Artifact> (collision);
-        names.put (name, collision);
-      }
-      collision.add (scope);
+  /**
+   * Lists the entries of an artifact on one of the scanning threads.
+   */
+  private static final class ScanTask implements Callable<List<String>> {
+
+    private final File _file;
+
+    public ScanTask (final File file) {
+      _file = file;
+    }
+
+    @Override
+    public List<String> call () throws IOException {
+      return ArchiveFormat.detect (_file).list (_file);
     }
+
   }
 
-  private void gatherNames (final Artifact artifact, final Map<String, Set<Artifact>> names)
+  private <T> T getScanned (final Artifact artifact, final Future<T> scan)
       throws MojoFailureException {
-    getLog ().debug ("Scanning " + ArtifactUtils.key (artifact));
-    check (artifact, (new IOCallback<InputStream, Boolean> (open (artifact)) {
+    try {
+      return scan.get ();
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+      throw new MojoFailureException ("Interrupted scanning " + ArtifactUtils.key (artifact));
+    } catch (final ExecutionException e) {
+      if (e.getCause () instanceof IOException) {
+        getLog ().error (e.getCause ());
+        throw new MojoFailureException ("Error unpacking " + ArtifactUtils.key (artifact));
+      } else {
+        throw new IllegalStateException (e.getCause ());
+      }
+    }
+  }
 
-      @Override
-      protected Boolean apply (final InputStream input) throws IOException {
-        final ZipInputStream zip = new ZipInputStream (new BufferedInputStream (input));
-        ZipEntry entry;
-        while ((entry = zip.getNextEntry ()) != null) {
-          gatherName (artifact, entry.getName (), names);
+  /**
+   * Builds the index of entry names to the artifacts containing them. The artifacts are scanned in
+   * parallel; ZIP archives are listed from their central directories without reading any data.
+   * Artifacts which are unchanged since they were last unpacked, with the same filter, are not
+   * scanned at all; their entries are taken from the marker. Every entry to be unpacked is checked
+   * here, so that none can be written, or pruned, outside the output folder.
+   * 
+   * @param artifacts
+   *          the artifacts to scan, not {@code null}
+   * @param markers
+   *          the markers stored when the artifacts were last unpacked, not {@code null}
+   * @param filters
+   *          the filter selecting the entries to unpack from each artifact, not {@code null}
+   * @param entries
+   *          updated with the selected entries of each artifact, not {@code null}
+   * @return the index of the artifacts containing each entry name, never {@code null}
+   */
+  private NameIndex gatherNames (final List<Artifact> artifacts,
+      final Map<Artifact, UnpackMarker> markers, final Map<Artifact, EntryFilter> filters,
+      final Map<Artifact, List<String>> entries) throws MojoFailureException {
+    final NameIndex names = new NameIndex ();
+    if (artifacts.isEmpty ()) {
+      return names;
+    }
+    final ExecutorService executor =
+        Executors.newFixedThreadPool (getPoolSize (artifacts.size ()));
+    try {
+      final List<Future<List<String>>> scans = new ArrayList<Future<List<String>>> ();
+      for (final Artifact artifact : artifacts) {
+        final UnpackMarker marker = markers.get (artifact);
+        if ((marker != null) && marker.isFileOf (artifact)
+            && filters.get (artifact).toString ().equals (marker.getFilter ())) {
+          scans.add (null);
+        } else {
+          getLog ().debug ("Scanning " + ArtifactUtils.key (artifact));
+          scans.add (executor.submit (new ScanTask (artifact.getFile ())));
         }
-        return Boolean.TRUE;
       }
+      // Collect in artifact order so that the map does not depend on the thread timing
+      for (int i = 0; i < artifacts.size (); i++) {
+        final Artifact artifact = artifacts.get (i);
+        final List<String> artifactEntries;
+        if (scans.get (i) != null) {
+          final List<String> scanned = getScanned (artifact, scans.get (i));
+          // Filtered before the names are gathered, so that skipped entries can't cause renames
+          artifactEntries = filters.get (artifact).apply (scanned);
+          if (artifactEntries.size () < scanned.size ()) {
+            getLog ().debug ("Skipping " + (scanned.size () - artifactEntries.size ())
+                + " entries of " + ArtifactUtils.key (artifact));
+          }
+        } else {
+          artifactEntries = markers.get (artifact).getEntries ();
+        }
+        entries.put (artifact, artifactEntries);
+        for (final String name : artifactEntries) {
+          if (!isValidName (name)) {
+            throw new MojoFailureException ("Invalid entry name " + name + " in "
+                + ArtifactUtils.key (artifact));
+          }
+          names.add (artifact, name);
+        }
+      }
+    } finally {
+      executor.shutdownNow ();
+    }
+    return names;
+  }
 
-    }).call (new MojoLoggingErrorCallback (this)));
+  /**
+   * Reads the content of the entries that more than one artifact contains, to find those that are
+   * identical. The artifacts are read in parallel; the CRCs of ZIP entries are taken from their
+   * central directories without reading any data.
+   * 
+   * @param artifacts
+   *          the artifacts, in the order they are unpacked, not {@code null}
+   * @param entries
+   *          the selected entries of each artifact, not {@code null}
+   * @param names
+   *          the index of the artifacts containing each entry name, not {@code null}
+   * @return the duplicated entries, never {@code null}
+   */
+  private DuplicateEntries findDuplicates (final List<Artifact> artifacts,
+      final Map<Artifact, List<String>> entries, final NameIndex names)
+      throws MojoFailureException {
+    final DuplicateEntries duplicates = new DuplicateEntries (getDeduplicate (), artifacts);
+    if (artifacts.isEmpty ()) {
+      return duplicates;
+    }
+    final ExecutorService executor =
+        Executors.newFixedThreadPool (getPoolSize (artifacts.size ()));
+    try {
+      final Map<Artifact, Future<Map<String, Content>>> reads =
+          new LinkedHashMap<Artifact, Future<Map<String, Content>>> ();
+      for (final Artifact artifact : artifacts) {
+        final List<String> colliding = new ArrayList<String> ();
+        for (final String name : entries.get (artifact)) {
+          if (names.get (name).size () > 1) {
+            colliding.add (name);
+          }
+        }
+        if (!colliding.isEmpty ()) {
+          getLog ().debug ("Comparing " + colliding.size () + " entries of "
+              + ArtifactUtils.key (artifact));
+          reads.put (artifact, executor.submit (new Callable<Map<String, Content>> () {
+
+            @Override
+            public Map<String, Content> call () throws IOException {
+              return duplicates.read (artifact.getFile (), colliding);
+            }
+
+          }));
+        }
+      }
+      for (final Map.Entry<Artifact, Future<Map<String, Content>>> read : reads.entrySet ()) {
+        duplicates.add (read.getKey (), getScanned (read.getKey (), read.getValue ()));
+      }
+    } finally {
+      executor.shutdownNow ();
+    }
+    return duplicates;
   }
 
   private interface ArtifactQuery {
@@ -155,10 +676,22 @@ public class UnpackDependenciesMojo extends AbstractMojo {
     }
   }
 
-  /* package */String createUniqueName (final Artifact artifact, final String name,
+  /**
+   * Returns the suffix that distinguishes an artifact's copy of an entry from the other artifacts
+   * containing the same entry name. The suffix depends only on the artifacts, not on the name.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @param artifacts
+   *          the artifacts containing the entry, including {@code artifact}, not {@code null}
+   * @return the suffix, empty if the entry is only in one artifact
+   * @throws IllegalArgumentException
+   *           if the artifacts can't be told apart
+   */
+  /* package */static String getUniqueSuffix (final Artifact artifact,
       final Set<Artifact> artifacts) {
     if (artifacts.size () == 1) {
-      return name;
+      return "";
     } else {
       String suffix = "-" + artifact.getArtifactId ();
       // Check if artifact-id alone is sufficient
@@ -170,7 +703,7 @@ public class UnpackDependenciesMojo extends AbstractMojo {
         }
 
       })) {
-        return createUniqueName (name, suffix);
+        return suffix;
       }
       // Check if group/artifact is sufficient
       if (isUnique (artifacts, new ArtifactQuery () {
@@ -181,7 +714,7 @@ public class UnpackDependenciesMojo extends AbstractMojo {
         }
 
       })) {
-        return createUniqueName (name, "-" + artifact.getGroupId () + suffix);
+        return "-" + artifact.getGroupId () + suffix;
       }
       // Check if there are different group-ids
       if (!isIdentical (artifacts, new ArtifactQuery () {
@@ -204,7 +737,7 @@ public class UnpackDependenciesMojo extends AbstractMojo {
         }
 
       })) {
-        return createUniqueName (name, suffix + classifierSuffix (artifact));
+        return suffix + classifierSuffix (artifact);
       }
       // Check if there are different classifiers
       if (!isUnique (artifacts, new ArtifactQuery () {
@@ -228,42 +761,253 @@ public class UnpackDependenciesMojo extends AbstractMojo {
         }
 
       })) {
-        return createUniqueName (name, suffix + "_" + artifact.getVersion ());
+        return suffix + "_" + artifact.getVersion ();
       }
       // Give up
       throw new IllegalArgumentException ();
     }
   }
 
-  private void unpack (final Artifact artifact, final Map<String, Set<Artifact>> names,
+  /* package */String createUniqueName (final Artifact artifact, final String name,
+      final Set<Artifact> artifacts) {
+    return createUniqueName (name, getUniqueSuffix (artifact, artifacts));
+  }
+
+  /**
+   * Memoized {@link UnpackDependenciesMojo#getUniqueSuffix} results. Many entries typically
+   * collide across the same artifacts, for example the headers of several versions of a library,
+   * so each distinct set of artifacts is only examined once. The sets are keyed by instance, as
+   * shared by {@link NameIndex}; an equal set that is a different instance
+   * is examined again, giving the same result.
+   */
+  /* package */static final class UniqueSuffixes {
+
+    private final Map<Set<Artifact>, Map<Artifact, String>> _suffixes =
+        new IdentityHashMap<Set<Artifact>, Map<Artifact, String>> ();
+
+    /**
+     * Returns the name an artifact's entry is written as.
+     * 
+     * @param artifact
+     *          the artifact, not {@code null}
+     * @param name
+     *          the entry name, not {@code null}
+     * @param artifacts
+     *          the artifacts containing the entry, including {@code artifact}, not {@code null}
+     * @return the unique name, never {@code null}
+     */
+    public String createUniqueName (final Artifact artifact, final String name,
+        final Set<Artifact> artifacts) {
+      if (artifacts.size () == 1) {
+        return name;
+      }
+      Map<Artifact, String> suffixes = _suffixes.get (artifacts);
+      if (suffixes == null) {
+        suffixes = new HashMap<Artifact, String> ();
+        _suffixes.put (artifacts, suffixes);
+      }
+      String suffix = suffixes.get (artifact);
+      if (suffix == null) {
+        suffix = getUniqueSuffix (artifact, artifacts);
+        suffixes.put (artifact, suffix);
+      }
+      return UnpackDependenciesMojo.createUniqueName (name, suffix);
+    }
+
+  }
+
+  /**
+   * Returns the names an artifact's entries will be written as.
+   * 
+   * @return the written names, keyed by entry name, never {@code null}
+   */
+  /* package */static Map<String, String> getPlan (final Artifact artifact,
+      final List<String> entries, final NameIndex names,
+      final UniqueSuffixes suffixes) {
+    return getPlan (artifact, entries, names, suffixes, null);
+  }
+
+  /**
+   * Returns the names an artifact's entries will be written as. An entry that an earlier artifact
+   * contains with identical content is given the name of that artifact's copy.
+   * 
+   * @param duplicates
+   *          the entries that several artifacts contain with the same content, or {@code null}
+   *          to give each artifact its own copy
+   * @return the written names, keyed by entry name, never {@code null}
+   */
+  /* package */static Map<String, String> getPlan (final Artifact artifact,
+      final List<String> entries, final NameIndex names, final UniqueSuffixes suffixes,
+      final DuplicateEntries duplicates) {
+    final Map<String, String> plan = new HashMap<String, String> ();
+    for (final String entry : entries) {
+      Set<Artifact> artifacts = names.get (entry);
+      Artifact writer = artifact;
+      if ((duplicates != null) && (artifacts.size () > 1)) {
+        writer = duplicates.getWriter (artifact, entry);
+        artifacts = duplicates.getWriters (entry, artifacts);
+      }
+      plan.put (entry, suffixes.createUniqueName (writer, entry, artifacts));
+    }
+    return plan;
+  }
+
+  /**
+   * Returns the entries an artifact writes itself; those that an earlier artifact contains with
+   * identical content are written by that artifact.
+   * 
+   * @param plan
+   *          the names the artifact's entries are written as, not {@code null}
+   * @param duplicates
+   *          the entries that several artifacts contain with the same content, or {@code null}
+   * @return the written names, keyed by entry name, never {@code null}
+   */
+  /* package */static Map<String, String> getWritePlan (final Artifact artifact,
+      final Map<String, String> plan, final DuplicateEntries duplicates) {
+    if (duplicates == null) {
+      return plan;
+    }
+    Map<String, String> writes = plan;
+    for (final String entry : plan.keySet ()) {
+      if (duplicates.getWriter (artifact, entry) != artifact) {
+        if (writes == plan) {
+          writes = new HashMap<String, String> (plan);
+        }
+        writes.remove (entry);
+      }
+    }
+    return writes;
+  }
+
+  /**
+   * Tests whether an artifact can be skipped because it has already been unpacked, with the same
+   * names, and the files it was unpacked to are still present.
+   */
+  private static boolean isUpToDate (final Artifact artifact, final UnpackMarker marker,
+      final Map<String, String> plan, final File targetDir) {
+    if ((marker == null) || !marker.getPlan ().equals (plan) || !marker.isContentOf (artifact)) {
+      return false;
+    }
+    for (final String dest : plan.values ()) {
+      if (!new File (targetDir, dest).isFile ()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the file an entry is written to. The folders containing it must already have been
+   * created by {@link #createFolders}.
+   */
+  private File getTargetFile (final String entry, final String dest, final File targetDir) {
+    getLog ().debug ("Writing " + entry + " as " + dest);
+    return getFile (dest, targetDir);
+  }
+
+  private static File getFile (final String dest, final File targetDir) {
+    return new File (targetDir, dest.replace ('/', File.separatorChar));
+  }
+
+  /**
+   * Creates every folder the changed artifacts will write to, before any entry is extracted.
+   */
+  private void createFolders (final Map<Artifact, Map<String, String>> plans,
       final File targetDir) throws MojoFailureException {
+    final List<String> dests = new ArrayList<String> ();
+    for (final Map<String, String> plan : plans.values ()) {
+      dests.addAll (plan.values ());
+    }
+    final FolderCreator folders = new FolderCreator ();
+    try {
+      folders.createParents (targetDir, dests);
+    } catch (final IOException e) {
+      getLog ().error (e);
+      throw new MojoFailureException ("Can't create folders in " + targetDir);
+    }
+    getLog ().debug ("Created folders for " + dests.size () + " files with "
+        + folders.getCalls () + " calls");
+  }
+
+  /**
+   * Sets the modification time of a file that has been unpacked.
+   * 
+   * @param time
+   *          the time of the archive entry, or -1 if it has none
+   */
+  private void setLastModified (final File targetFile, final long time) {
+    if (isPreserveTimestamps () && (time >= 0) && !targetFile.setLastModified (time)) {
+      getLog ().debug ("Can't set modification time of " + targetFile);
+    }
+  }
+
+  /**
+   * Opens a file to unpack an entry to. A file already there is deleted rather than truncated, as
+   * it may be a hard link into the shared cache whose content must not change.
+   */
+  private OutputStream openTarget (final File targetFile) throws IOException {
+    final Path path = targetFile.toPath ();
+    if (!Files.isDirectory (path, LinkOption.NOFOLLOW_LINKS)) {
+      Files.deleteIfExists (path);
+    }
+    return getOutputStreams ().open (targetFile);
+  }
+
+  private void unpack (final Artifact artifact, final Map<String, String> plan,
+      final File targetDir, final SyncCache cache, final AtomicBoolean cancelled)
+      throws MojoFailureException {
+    if (getCacheDirectory () != null) {
+      unpackShared (artifact, plan, targetDir, cache, cancelled);
+      return;
+    }
+    if (isLarge (artifact)) {
+      unpackEntries (artifact, plan, targetDir, cache, cancelled);
+      return;
+    }
     getLog ().info ("Unpacking " + ArtifactUtils.key (artifact));
     final IOExceptionHandler errorLog = new MojoLoggingErrorCallback (this);
-    check (artifact, (new IOCallback<InputStream, Boolean> (open (artifact)) {
+    final PipelinedReader pipeline = new PipelinedReader (open (artifact),
+        new PipelinedReader.Filter () {
+
+          @Override
+          public boolean accept (final String entry, final long size, final long crc) {
+            final String dest = plan.get (entry);
+            if (dest == null) {
+              getLog ().debug ("Skipping " + entry);
+              return false;
+            }
+            if ((cache != null) && cache.isCurrent (dest, getFile (dest, targetDir), size, crc)) {
+              getLog ().debug ("Skipping " + dest + " - unchanged");
+              return false;
+            }
+            return true;
+          }
+
+        }, PipelinedReader.CHUNK_SIZE, PipelinedReader.CHUNKS);
+    check (artifact, (new IOCallback<ArchiveReader, Boolean> (pipeline) {
 
       @Override
-      protected Boolean apply (final InputStream input) throws IOException {
-        final byte[] buffer = new byte[4096];
-        final ZipInputStream zip = new ZipInputStream (new BufferedInputStream (input));
-        ZipEntry entry;
-        while ((entry = zip.getNextEntry ()) != null) {
-          final String dest = createUniqueName (artifact, entry.getName (),
-              names.get (entry.getName ()));
-          getLog ().debug ("Writing " + entry.getName () + " as " + dest);
-          File targetFile = targetDir;
-          for (final String component : dest.split ("/")) {
-            targetFile.mkdir ();
-            targetFile = new File (targetFile, component);
+      protected Boolean apply (final ArchiveReader archive) throws IOException {
+        final EntryWriter writer = new EntryWriter (getFsync ());
+        final InputStream input = getInputStream (archive);
+        String entry;
+        while ((entry = archive.getNextEntry ()) != null) {
+          if (cancelled.get ()) {
+            return Boolean.FALSE;
           }
-          if ((new IOCallback<OutputStream, Boolean> (getOutputStreams ().open (targetFile)) {
+          final String dest = plan.get (entry);
+          final File targetFile = getTargetFile (entry, dest, targetDir);
+          if ((new IOCallback<OutputStream, Boolean> (openTarget (targetFile)) {
 
             @Override
             protected Boolean apply (final OutputStream output) throws IOException {
-              int bytes;
-              while ((bytes = zip.read (buffer, 0, buffer.length)) > 0) {
-                output.write (buffer, 0, bytes);
-              }
+              final CRC32 crc = new CRC32 ();
+              writer.write (input, output, targetFile, archive.getSize (), crc);
               output.close ();
+              setLastModified (targetFile, archive.getTime ());
+              if (cache != null) {
+                cache.put (dest, targetFile, crc.getValue ());
+              }
               return Boolean.TRUE;
             }
 
@@ -271,10 +1015,453 @@ public class UnpackDependenciesMojo extends AbstractMojo {
             return Boolean.FALSE;
           }
         }
+        writer.finish ();
         return Boolean.TRUE;
       }
 
     }).call (errorLog));
+    getLog ().debug (pipeline.describe ());
+  }
+
+  /**
+   * Returns a stream reading the content of the current entry of an archive.
+   */
+  /* package */static InputStream getInputStream (final ArchiveReader archive) {
+    return new InputStream () {
+
+      @Override
+      public int read () throws IOException {
+        final byte[] buffer = new byte[1];
+        return (read (buffer, 0, 1) > 0) ? (buffer[0] & 0xFF) : -1;
+      }
+
+      @Override
+      public int read (final byte[] buffer, final int offset, final int length)
+          throws IOException {
+        final int bytes = archive.read (buffer, offset, length);
+        return (bytes > 0) ? bytes : -1;
+      }
+
+    };
+  }
+
+  /**
+   * Tests whether an entry name is relative, and does not leave the folder it is unpacked into.
+   */
+  private static boolean isValidName (final String entry) {
+    final String path = entry.replace ('\\', '/');
+    return !path.startsWith ("/") && !("/" + path + "/").contains ("/../");
+  }
+
+  private static File getCacheFile (final File dir, final String entry) throws IOException {
+    // Every entry is extracted into the cache, not just those checked by gatherNames
+    if (!isValidName (entry)) {
+      throw new ZipException ("Invalid entry name " + entry);
+    }
+    return new File (dir, entry);
+  }
+
+  /**
+   * Extracts all of the entries of an artifact into a folder of the shared cache. The entries are
+   * always given the times recorded in the archive, as the folder may be used by any build.
+   * 
+   * @return the CRC-32 of each entry, keyed by entry name
+   */
+  private Map<String, Long> extract (final Artifact artifact, final File dir) throws IOException {
+    final File file = artifact.getFile ();
+    final Map<String, Long> entries = new HashMap<String, Long> ();
+    final ArchiveReader archive = ArchiveFormat.detect (file).createReader (file);
+    try {
+      final EntryWriter writer = new EntryWriter (getFsync ());
+      final InputStream input = getInputStream (archive);
+      final FolderCreator folders = new FolderCreator ();
+      String entry;
+      while ((entry = archive.getNextEntry ()) != null) {
+        final File targetFile = getCacheFile (dir, entry);
+        folders.createParent (targetFile);
+        final CRC32 crc = new CRC32 ();
+        final OutputStream output = openTarget (targetFile);
+        try {
+          writer.write (input, output, targetFile, archive.getSize (), crc);
+        } finally {
+          output.close ();
+        }
+        final long time = archive.getTime ();
+        if (time >= 0) {
+          targetFile.setLastModified (time);
+        }
+        entries.put (entry, crc.getValue ());
+      }
+      writer.finish ();
+    } finally {
+      archive.close ();
+    }
+    return entries;
+  }
+
+  /**
+   * Unpacks an artifact through the shared cache, extracting it there if no other build has done
+   * so already, and linking its files into the target folder.
+   */
+  private void unpackShared (final Artifact artifact, final Map<String, String> plan,
+      final File targetDir, final SyncCache cache, final AtomicBoolean cancelled)
+      throws MojoFailureException {
+    final SharedCache shared = new SharedCache (new File (getCacheDirectory ()));
+    boolean result;
+    try {
+      result = shared.visit (PackageFingerprint.digest (artifact.getFile ()),
+          new SharedCache.Visitor () {
+
+            @Override
+            public Map<String, Long> extract (final File dir) throws IOException {
+              getLog ().info ("Unpacking " + ArtifactUtils.key (artifact) + " to " + dir);
+              return UnpackDependenciesMojo.this.extract (artifact, dir);
+            }
+
+            @Override
+            public boolean use (final File dir, final Map<String, Long> entries)
+                throws IOException {
+              getLog ().info ("Linking " + ArtifactUtils.key (artifact) + " from " + dir);
+              for (final Map.Entry<String, String> entry : plan.entrySet ()) {
+                if (cancelled.get ()) {
+                  return false;
+                }
+                final Long crc = entries.get (entry.getKey ());
+                if (crc == null) {
+                  throw new ZipException ("Missing entry " + entry.getKey ());
+                }
+                final File source = getCacheFile (dir, entry.getKey ());
+                final String dest = entry.getValue ();
+                final File targetFile = getTargetFile (entry.getKey (), dest, targetDir);
+                if ((cache != null) && cache.isCurrent (dest, targetFile, source.length (), crc)) {
+                  getLog ().debug ("Skipping " + dest + " - unchanged");
+                  continue;
+                }
+                SharedCache.link (source, targetFile);
+                if (cache != null) {
+                  cache.put (dest, targetFile, crc);
+                }
+              }
+              return true;
+            }
+
+          });
+    } catch (final IOException e) {
+      getLog ().error (e);
+      result = false;
+    }
+    if (!result) {
+      cancelled.set (true);
+    }
+    check (artifact, result);
+  }
+
+  /**
+   * Tests whether an artifact should have its entries extracted on several threads. Only ZIP
+   * archives can be, as the entries of the other formats must be read in sequence.
+   */
+  private boolean isLarge (final Artifact artifact) {
+    final File file = artifact.getFile ();
+    if ((getThreads () <= 1) || (file.length () < getLargeArchiveSize ())) {
+      return false;
+    }
+    try {
+      return ArchiveFormat.detect (file) == ArchiveFormat.ZIP;
+    } catch (final IOException e) {
+      // Reported when the archive is opened
+      return false;
+    }
+  }
+
+  /**
+   * Extracts an entry of a ZIP archive on one of the threads unpacking a large artifact.
+   */
+  private final class EntryTask implements Callable<Boolean> {
+
+    private final ZipFile _zip;
+
+    private final ZipEntry _entry;
+
+    private final String _dest;
+
+    private final File _targetFile;
+
+    private final SyncCache _cache;
+
+    private final AtomicBoolean _cancelled;
+
+    private final IOExceptionHandler _errorLog;
+
+    private final EntryWriter _writer;
+
+    public EntryTask (final ZipFile zip, final ZipEntry entry, final String dest,
+        final File targetFile, final SyncCache cache, final AtomicBoolean cancelled,
+        final IOExceptionHandler errorLog, final EntryWriter writer) {
+      _writer = writer;
+      _zip = zip;
+      _entry = entry;
+      _dest = dest;
+      _targetFile = targetFile;
+      _cache = cache;
+      _cancelled = cancelled;
+      _errorLog = errorLog;
+    }
+
+    @Override
+    public Boolean call () throws IOException {
+      if (_cancelled.get ()) {
+        return Boolean.FALSE;
+      }
+      if ((_cache != null)
+          && _cache.isCurrent (_dest, _targetFile, _entry.getSize (), _entry.getCrc ())) {
+        getLog ().debug ("Skipping " + _dest + " - unchanged");
+        return Boolean.TRUE;
+      }
+      final Boolean written = (new IOCallback<InputStream, Boolean> (_zip.getInputStream (_entry)) {
+
+        @Override
+        protected Boolean apply (final InputStream input) throws IOException {
+          return (new IOCallback<OutputStream, Boolean> (openTarget (_targetFile)) {
+
+            @Override
+            protected Boolean apply (final OutputStream output) throws IOException {
+              final CRC32 crc = new CRC32 ();
+              _writer.write (input, output, _targetFile, _entry.getSize (), crc);
+              output.close ();
+              // ZipFile does not check the inflated content against the central directory, which
+              // always records the CRC-32
+              if (crc.getValue () != _entry.getCrc ()) {
+                throw new ZipException ("Invalid CRC-32 for entry " + _entry.getName ());
+              }
+              setLastModified (_targetFile, _entry.getTime ());
+              if (_cache != null) {
+                _cache.put (_dest, _targetFile, crc.getValue ());
+              }
+              return Boolean.TRUE;
+            }
+
+          }).call (_errorLog);
+        }
+
+      }).call (_errorLog);
+      if (written != Boolean.TRUE) {
+        // Stop the other entries of this artifact, and any other artifacts
+        _cancelled.set (true);
+        return Boolean.FALSE;
+      }
+      return Boolean.TRUE;
+    }
+
+  }
+
+  private static Boolean getResult (final Future<Boolean> future) throws IOException {
+    try {
+      return future.get ();
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ();
+    } catch (final ExecutionException e) {
+      if (e.getCause () instanceof IOException) {
+        throw (IOException)e.getCause ();
+      } else {
+        throw new IllegalStateException (e.getCause ());
+      }
+    }
+  }
+
+  /**
+   * Unpacks a large ZIP archive, inflating its entries on several threads. The entries are taken
+   * in the order they are stored so that the reads from the archive stay mostly sequential.
+   */
+  private void unpackEntries (final Artifact artifact, final Map<String, String> plan,
+      final File targetDir, final SyncCache cache, final AtomicBoolean cancelled)
+      throws MojoFailureException {
+    final int threads = Math.min (getThreads (), MAX_OPEN_ARCHIVES);
+    getLog ().info ("Unpacking " + ArtifactUtils.key (artifact) + " with " + threads + " threads");
+    final File file = artifact.getFile ();
+    final ZipFile zip;
+    try {
+      zip = new ZipFile (file);
+    } catch (final IOException e) {
+      throw new MojoFailureException ("Can't read from artifact " + ArtifactUtils.key (artifact));
+    }
+    final IOExceptionHandler errorLog = new MojoLoggingErrorCallback (this);
+    check (artifact, (new IOCallback<ZipFile, Boolean> (zip) {
+
+      @Override
+      protected Boolean apply (final ZipFile zip) throws IOException {
+        final List<String> entries = ZipIndex.list (file);
+        final EntryWriter writer = new EntryWriter (getFsync ());
+        final ExecutorService executor = Executors.newFixedThreadPool (threads);
+        final List<Future<Boolean>> tasks = new ArrayList<Future<Boolean>> (entries.size ());
+        try {
+          for (final String entry : entries) {
+            final String dest = plan.get (entry);
+            if (dest == null) {
+              getLog ().debug ("Skipping " + entry);
+              continue;
+            }
+            final ZipEntry zipEntry = zip.getEntry (entry);
+            if (zipEntry == null) {
+              throw new ZipException ("Missing entry " + entry);
+            }
+            tasks.add (executor.submit (new EntryTask (zip, zipEntry, dest, getTargetFile (entry,
+                dest, targetDir), cache, cancelled, errorLog, writer)));
+          }
+          Boolean result = Boolean.TRUE;
+          for (final Future<Boolean> task : tasks) {
+            if (getResult (task) != Boolean.TRUE) {
+              result = Boolean.FALSE;
+            }
+          }
+          if (result == Boolean.TRUE) {
+            writer.finish ();
+          }
+          return result;
+        } finally {
+          executor.shutdownNow ();
+          try {
+            // The archive is closed once this returns
+            executor.awaitTermination (Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+          } catch (final InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+          }
+        }
+      }
+
+    }).call (errorLog));
+  }
+
+  /**
+   * Unpacks an artifact on one of the worker threads.
+   */
+  private final class UnpackTask implements Callable<Artifact> {
+
+    private final Artifact _artifact;
+
+    private final Map<String, String> _plan;
+
+    private final File _targetDir;
+
+    private final SyncCache _cache;
+
+    private final AtomicBoolean _cancelled;
+
+    public UnpackTask (final Artifact artifact, final Map<String, String> plan,
+        final File targetDir, final SyncCache cache, final AtomicBoolean cancelled) {
+      _artifact = artifact;
+      _plan = plan;
+      _targetDir = targetDir;
+      _cache = cache;
+      _cancelled = cancelled;
+    }
+
+    @Override
+    public Artifact call () throws MojoFailureException {
+      unpack (_artifact, _plan, _targetDir, _cache, _cancelled);
+      return _artifact;
+    }
+
+  }
+
+  /**
+   * Orders artifacts largest first, so that the longest jobs start first and the small ones fill
+   * in around them.
+   */
+  private static final Comparator<Artifact> BY_SIZE_DESCENDING = new Comparator<Artifact> () {
+
+    @Override
+    public int compare (final Artifact a, final Artifact b) {
+      return Long.compare (b.getFile ().length (), a.getFile ().length ());
+    }
+
+  };
+
+  /**
+   * Unpacks the artifacts on a pool of threads. The first failure stops the remaining artifacts
+   * from being unpacked and is reported once the workers have stopped.
+   */
+  private void unpackParallel (final List<Artifact> artifacts,
+      final Map<Artifact, Map<String, String>> plans, final File targetDir, final SyncCache cache)
+      throws MojoFailureException {
+    final List<Artifact> queue = new ArrayList<Artifact> (artifacts);
+    Collections.sort (queue, BY_SIZE_DESCENDING);
+    final int threads = getPoolSize (queue.size ());
+    getLog ().debug ("Unpacking " + queue.size () + " artifacts with " + threads + " threads");
+    final ExecutorService executor = Executors.newFixedThreadPool (threads);
+    final CompletionService<Artifact> completed =
+        new ExecutorCompletionService<Artifact> (executor);
+    final AtomicBoolean cancelled = new AtomicBoolean ();
+    try {
+      for (final Artifact artifact : queue) {
+        completed.submit (new UnpackTask (artifact, plans.get (artifact), targetDir, cache,
+            cancelled));
+      }
+      for (int i = 0; i < queue.size (); i++) {
+        try {
+          completed.take ().get ();
+        } catch (final InterruptedException e) {
+          Thread.currentThread ().interrupt ();
+          throw new MojoFailureException ("Interrupted unpacking dependencies");
+        } catch (final ExecutionException e) {
+          if (e.getCause () instanceof MojoFailureException) {
+            throw (MojoFailureException)e.getCause ();
+          } else {
+            throw new IllegalStateException (e.getCause ());
+          }
+        }
+      }
+    } finally {
+      cancelled.set (true);
+      executor.shutdownNow ();
+      try {
+        // Don't leave workers writing to the folder after a failure is reported
+        executor.awaitTermination (Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread ().interrupt ();
+      }
+    }
+  }
+
+  /**
+   * Deletes the files written for entries that are no longer part of any dependency, and any
+   * folders left empty.
+   * 
+   * @param cache
+   *          the files previously written, updated to forget the deleted files, not {@code null}
+   * @param live
+   *          the names the entries of the current dependencies are written as, not {@code null}
+   */
+  private void prune (final SyncCache cache, final Set<String> live, final File targetDir) {
+    for (final String dest : cache.getNames ()) {
+      // Names that are not valid were never written, and can't be removed safely
+      if (live.contains (dest) || !isValidName (dest)) {
+        continue;
+      }
+      File file = new File (targetDir, dest);
+      if (file.delete () || !file.exists ()) {
+        getLog ().debug ("Removed " + dest);
+        cache.remove (dest);
+        // Only removes folders that are empty
+        while (!(file = file.getParentFile ()).equals (targetDir) && file.delete ()) {
+          getLog ().debug ("Removed empty folder " + file);
+        }
+      } else {
+        getLog ().warn ("Can't remove " + file);
+      }
+    }
+  }
+
+  private void storeMarker (final Artifact artifact, final Map<String, String> plan,
+      final EntryFilter filter, final File markerDir) {
+    final File file = UnpackMarker.getFile (markerDir, artifact);
+    try {
+      if (!(new UnpackMarker (artifact, plan, filter.toString ())).store (file)) {
+        getLog ().warn ("Can't write unpack marker " + file);
+      }
+    } catch (final IOException e) {
+      getLog ().warn ("Can't fingerprint " + ArtifactUtils.key (artifact) + ": " + e.getMessage ());
+    }
   }
 
   // Mojo
@@ -285,18 +1472,96 @@ public class UnpackDependenciesMojo extends AbstractMojo {
       getLog ().debug ("Skipping step");
       return;
     }
+    if (!EntryWriter.isFsyncPolicy (getFsync ())) {
+      throw new MojoFailureException ("Unknown fsync policy " + getFsync ());
+    }
+    if (!DuplicateEntries.isPolicy (getDeduplicate ())) {
+      throw new MojoFailureException ("Unknown deduplication policy " + getDeduplicate ());
+    }
     final MavenProject project = (MavenProject)getPluginContext ().get ("project");
-    final File targetDir = new File (new File (project.getBuild ().getDirectory ()), "dependency");
+    final File buildDir = new File (project.getBuild ().getDirectory ());
+    final File targetDir = new File (buildDir, "dependency");
+    final File markerDir = new File (buildDir, "dependency-markers");
     targetDir.mkdirs ();
-    final Map<String, Set<Artifact>> names = new HashMap<String, Set<Artifact>> ();
+    final List<Artifact> artifacts = new ArrayList<Artifact> ();
+    final Map<Artifact, UnpackMarker> markers = new HashMap<Artifact, UnpackMarker> ();
     for (final Artifact artifact : project.getArtifacts ()) {
       if (isNative (artifact)) {
-        gatherNames (artifact, names);
+        artifacts.add (artifact);
+        if (isIncremental ()) {
+          final UnpackMarker marker =
+              UnpackMarker.load (UnpackMarker.getFile (markerDir, artifact));
+          if (marker != null) {
+            markers.put (artifact, marker);
+          }
+        }
       }
     }
-    for (final Artifact artifact : project.getArtifacts ()) {
-      if (isNative (artifact)) {
-        unpack (artifact, names, targetDir);
+    final Map<Artifact, List<String>> entries = new HashMap<Artifact, List<String>> ();
+    final EntryFilter filter = getEntryFilter ();
+    final Map<Artifact, EntryFilter> filters = new HashMap<Artifact, EntryFilter> ();
+    for (final Artifact artifact : artifacts) {
+      filters.put (artifact, getEntryFilter (filter, artifact));
+      getLog ().debug ("Unpacking entries of " + ArtifactUtils.key (artifact) + " for "
+          + filters.get (artifact));
+    }
+    final NameIndex names = gatherNames (artifacts, markers, filters, entries);
+    final DuplicateEntries duplicates = DuplicateEntries.NONE.equals (getDeduplicate ()) ? null
+        : findDuplicates (artifacts, entries, names);
+    final List<Artifact> changed = new ArrayList<Artifact> ();
+    final Map<Artifact, Map<String, String>> plans = new HashMap<Artifact, Map<String, String>> ();
+    final Map<Artifact, Map<String, String>> writes =
+        new HashMap<Artifact, Map<String, String>> ();
+    final Set<String> live = new HashSet<String> ();
+    final UniqueSuffixes suffixes = new UniqueSuffixes ();
+    for (final Artifact artifact : artifacts) {
+      final Map<String, String> plan = getPlan (artifact, entries.get (artifact), names, suffixes,
+          duplicates);
+      live.addAll (plan.values ());
+      if (isUpToDate (artifact, markers.get (artifact), plan, targetDir)) {
+        getLog ().info ("Nothing to unpack - " + ArtifactUtils.key (artifact) + " is up to date");
+      } else {
+        // Not up to date until it has been unpacked again
+        UnpackMarker.getFile (markerDir, artifact).delete ();
+        changed.add (artifact);
+        plans.put (artifact, plan);
+        final Map<String, String> write = getWritePlan (artifact, plan, duplicates);
+        if (write.size () < plan.size ()) {
+          getLog ().debug ("Sharing " + (plan.size () - write.size ()) + " identical entries of "
+              + ArtifactUtils.key (artifact));
+        }
+        writes.put (artifact, write);
+      }
+    }
+    final File cacheFile = new File (markerDir, SYNC_CACHE);
+    final SyncCache cache;
+    if (isSync ()) {
+      cache = SyncCache.load (cacheFile);
+      prune (cache, live, targetDir);
+    } else {
+      // Files written without the cache may no longer match it
+      cacheFile.delete ();
+      cache = null;
+    }
+    createFolders (writes, targetDir);
+    try {
+      if (getPoolSize (changed.size ()) > 1) {
+        unpackParallel (changed, writes, targetDir, cache);
+      } else {
+        final AtomicBoolean cancelled = new AtomicBoolean ();
+        for (final Artifact artifact : changed) {
+          unpack (artifact, writes.get (artifact), targetDir, cache, cancelled);
+        }
+      }
+    } finally {
+      // Only files that were completely written are recorded, so this is kept even after a failure
+      if ((cache != null) && !cache.store (cacheFile)) {
+        getLog ().warn ("Can't write unpacked file cache " + cacheFile);
+      }
+    }
+    if (isIncremental ()) {
+      for (final Artifact artifact : changed) {
+        storeMarker (artifact, plans.get (artifact), filters.get (artifact), markerDir);
       }
     }
   }
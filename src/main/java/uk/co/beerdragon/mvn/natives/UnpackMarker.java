@@ -0,0 +1,203 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * Record of a dependency that has been unpacked, so that a later build can skip it if neither the
+ * artifact nor the names its entries were given have changed.
+ */
+/* package */class UnpackMarker {
+
+  private static final String ARTIFACT_KEY = "artifact";
+
+  private static final String SIZE_KEY = "size";
+
+  private static final String LAST_MODIFIED_KEY = "lastModified";
+
+  private static final String HASH_KEY = "hash";
+
+  private static final String FILTER_KEY = "filter";
+
+  private static final String ENTRY_PREFIX = "entry.";
+
+  private final Properties _properties;
+
+  private UnpackMarker (final Properties properties) {
+    _properties = properties;
+  }
+
+  /**
+   * Creates a marker for an artifact that has just been unpacked.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @param plan
+   *          the names the entries were written as, keyed by entry name, not {@code null}
+   * @param filter
+   *          the description of the filter that selected the entries, not {@code null}
+   * @throws IOException
+   *           if the artifact could not be hashed
+   */
+  public UnpackMarker (final Artifact artifact, final Map<String, String> plan,
+      final String filter) throws IOException {
+    this (new Properties ());
+    final File file = artifact.getFile ();
+    _properties.setProperty (ARTIFACT_KEY, getCoordinates (artifact));
+    _properties.setProperty (SIZE_KEY, Long.toString (file.length ()));
+    _properties.setProperty (LAST_MODIFIED_KEY, Long.toString (file.lastModified ()));
+    _properties.setProperty (HASH_KEY, PackageFingerprint.digest (file));
+    _properties.setProperty (FILTER_KEY, filter);
+    for (final Map.Entry<String, String> entry : plan.entrySet ()) {
+      _properties.setProperty (ENTRY_PREFIX + entry.getKey (), entry.getValue ());
+    }
+  }
+
+  private static String getCoordinates (final Artifact artifact) {
+    return artifact.getGroupId () + ":" + artifact.getArtifactId () + ":" + artifact.getType ()
+        + ":" + StringUtils.defaultString (artifact.getClassifier ()) + ":"
+        + artifact.getVersion ();
+  }
+
+  /**
+   * Returns the file the marker for an artifact is stored in. Different versions of an artifact
+   * share the same file, as only one can be unpacked.
+   * 
+   * @param markerDir
+   *          the folder containing the markers, not {@code null}
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @return the marker file, never {@code null}
+   */
+  public static File getFile (final File markerDir, final Artifact artifact) {
+    final StringBuilder sb = new StringBuilder ();
+    sb.append (artifact.getGroupId ()).append ('_').append (artifact.getArtifactId ());
+    if (StringUtils.isNotEmpty (artifact.getClassifier ())) {
+      sb.append ('_').append (artifact.getClassifier ());
+    }
+    sb.append ('_').append (artifact.getType ()).append (".properties");
+    return new File (markerDir, sb.toString ());
+  }
+
+  /**
+   * Reads a stored marker.
+   * 
+   * @param file
+   *          the marker file, not {@code null}
+   * @return the marker, or {@code null} if there is none or it can't be read
+   */
+  public static UnpackMarker load (final File file) {
+    final Properties properties = PropertiesFile.load (file);
+    return (properties != null) ? new UnpackMarker (properties) : null;
+  }
+
+  /**
+   * Tests whether the marker was written for the current file of an artifact, from its size and
+   * modification time alone.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @return {@code true} if the artifact appears unchanged, {@code false} if it may have changed
+   */
+  public boolean isFileOf (final Artifact artifact) {
+    final File file = artifact.getFile ();
+    return getCoordinates (artifact).equals (_properties.getProperty (ARTIFACT_KEY))
+        && Long.toString (file.length ()).equals (_properties.getProperty (SIZE_KEY))
+        && Long.toString (file.lastModified ()).equals (
+            _properties.getProperty (LAST_MODIFIED_KEY));
+  }
+
+  /**
+   * Tests whether the marker was written for the content of an artifact. A file with a different
+   * modification time, for example a SNAPSHOT that was downloaded again, is hashed to see whether
+   * its content changed.
+   * 
+   * @param artifact
+   *          the artifact, not {@code null}
+   * @return {@code true} if the artifact is unchanged, {@code false} otherwise
+   */
+  public boolean isContentOf (final Artifact artifact) {
+    if (isFileOf (artifact)) {
+      return true;
+    }
+    final File file = artifact.getFile ();
+    if (!getCoordinates (artifact).equals (_properties.getProperty (ARTIFACT_KEY))
+        || !Long.toString (file.length ()).equals (_properties.getProperty (SIZE_KEY))) {
+      return false;
+    }
+    try {
+      return PackageFingerprint.digest (file).equals (_properties.getProperty (HASH_KEY));
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the description of the filter that selected the entries when the artifact was
+   * unpacked.
+   * 
+   * @return the description, or {@code null} if the marker does not record one
+   */
+  public String getFilter () {
+    return _properties.getProperty (FILTER_KEY);
+  }
+
+  /**
+   * Returns the entries of the artifact, as recorded when it was unpacked. Only the entries
+   * selected by the filter are recorded.
+   * 
+   * @return the entry names, never {@code null}
+   */
+  public List<String> getEntries () {
+    return new ArrayList<String> (getPlan ().keySet ());
+  }
+
+  /**
+   * Returns the names the entries of the artifact were written as.
+   * 
+   * @return the written names, keyed by entry name, never {@code null}
+   */
+  public Map<String, String> getPlan () {
+    final Map<String, String> plan = new HashMap<String, String> ();
+    for (final String key : _properties.stringPropertyNames ()) {
+      if (key.startsWith (ENTRY_PREFIX)) {
+        plan.put (key.substring (ENTRY_PREFIX.length ()), _properties.getProperty (key));
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Writes the marker.
+   * 
+   * @param file
+   *          the marker file, not {@code null}
+   * @return {@code true} if the marker was written, {@code false} otherwise
+   */
+  public boolean store (final File file) {
+    file.getParentFile ().mkdirs ();
+    try {
+      PropertiesFile.store (_properties, file, "Unpacked "
+          + _properties.getProperty (ARTIFACT_KEY));
+      return true;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,328 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipFile;
+
+/**
+ * An archive format that native packages can be written in.
+ * <p>
+ * The ZIP, TAR and TAR.GZ formats are built in. Others can be added by extending this class and
+ * registering the implementation in <code>META-INF/services</code> for {@link ServiceLoader}.
+ */
+public abstract class ArchiveFormat {
+
+  /**
+   * Number of bytes from the start of an archive examined by {@link #open}.
+   */
+  public static final int HEADER_SIZE = 512;
+
+  private static final int GZIP_BUFFER_SIZE = 65536;
+
+  /**
+   * ZIP archives, with each entry compressed individually.
+   */
+  public static final ArchiveFormat ZIP = new ArchiveFormat ("zip") {
+
+    @Override
+    public ArchiveWriter createWriter (final OutputStream output, final FileChannel channel,
+        final int threads) {
+      return new ZipWriter (output, channel);
+    }
+
+    @Override
+    public ArchiveReader createReader (final InputStream input) {
+      return new ZipReader (input);
+    }
+
+    @Override
+    public ArchiveReader createReader (final File file) throws IOException {
+      return new ZipFileReader (new ZipFile (file));
+    }
+
+    @Override
+    protected boolean isFormatOf (final byte[] header, final int length) {
+      return (length >= 4) && (header[0] == 'P') && (header[1] == 'K')
+          && (((header[2] == 3) && (header[3] == 4)) || ((header[2] == 5) && (header[3] == 6)));
+    }
+
+  };
+
+  /**
+   * Uncompressed TAR archives.
+   */
+  public static final ArchiveFormat TAR = new ArchiveFormat ("tar") {
+
+    @Override
+    public ArchiveWriter createWriter (final OutputStream output, final FileChannel channel,
+        final int threads) {
+      return new TarWriter (output);
+    }
+
+    @Override
+    public ArchiveReader createReader (final InputStream input) {
+      return new TarReader (input);
+    }
+
+    @Override
+    protected boolean isFormatOf (final byte[] header, final int length) {
+      return (length >= 262) && (header[257] == 'u') && (header[258] == 's')
+          && (header[259] == 't') && (header[260] == 'a') && (header[261] == 'r');
+    }
+
+  };
+
+  /**
+   * TAR archives compressed as a whole with GZIP, which is written by several threads.
+   */
+  public static final ArchiveFormat TAR_GZ = new ArchiveFormat ("tar.gz") {
+
+    @Override
+    public ArchiveWriter createWriter (final OutputStream output, final FileChannel channel,
+        final int threads) throws IOException {
+      return new TarWriter (new ParallelGzipOutputStream (output, Deflater.DEFAULT_COMPRESSION,
+          threads));
+    }
+
+    @Override
+    public ArchiveReader createReader (final InputStream input) throws IOException {
+      return new TarReader (new GZIPInputStream (input, GZIP_BUFFER_SIZE));
+    }
+
+    @Override
+    protected boolean isFormatOf (final byte[] header, final int length) {
+      return (length >= 2) && (header[0] == (byte)0x1f) && (header[1] == (byte)0x8b);
+    }
+
+  };
+
+  private static final List<ArchiveFormat> FORMATS = loadFormats ();
+
+  private final String _extension;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param extension
+   *          the file extension of archives in this format, without a leading dot, not
+   *          {@code null}
+   */
+  protected ArchiveFormat (final String extension) {
+    _extension = Objects.requireNonNull (extension);
+  }
+
+  /**
+   * Returns the file extension of archives in this format.
+   * 
+   * @return the extension, without a leading dot, never {@code null}
+   */
+  public String getExtension () {
+    return _extension;
+  }
+
+  /**
+   * Creates a writer for a new archive.
+   * 
+   * @param output
+   *          the stream to write the archive to, not {@code null}; this should normally be
+   *          buffered
+   * @param channel
+   *          the channel of the file that {@code output} writes to, or {@code null} if it is not
+   *          writing to a file
+   * @param threads
+   *          the number of threads the writer may use, one or less to use only the calling thread
+   * @return the writer, never {@code null}
+   * @throws IOException
+   *           if the archive could not be started
+   */
+  public abstract ArchiveWriter createWriter (OutputStream output, FileChannel channel,
+      int threads) throws IOException;
+
+  /**
+   * Creates a reader for an existing archive.
+   * 
+   * @param input
+   *          the stream to read the archive from, not {@code null}
+   * @return the reader, never {@code null}
+   * @throws IOException
+   *           if the archive could not be opened
+   */
+  public abstract ArchiveReader createReader (InputStream input) throws IOException;
+
+  /**
+   * Creates a reader for an existing archive file. Formats with an index should override this to
+   * read the entries by random access; the default reads the file as a stream.
+   * 
+   * @param file
+   *          the archive to read, not {@code null}
+   * @return the reader, never {@code null}
+   * @throws IOException
+   *           if the archive could not be opened
+   */
+  public ArchiveReader createReader (final File file) throws IOException {
+    final InputStream input = new FileInputStream (file);
+    try {
+      return createReader (new BufferedInputStream (input, GZIP_BUFFER_SIZE));
+    } catch (final IOException | RuntimeException e) {
+      input.close ();
+      throw e;
+    }
+  }
+
+  /**
+   * Lists the entries of an archive file. This is only as fast as {@link #createReader(File)} can
+   * skip over the entry data; a ZIP archive is listed from its central directory alone.
+   * 
+   * @param file
+   *          the archive to read, not {@code null}
+   * @return the entry names, in archive order, never {@code null}
+   * @throws IOException
+   *           if the archive could not be read
+   */
+  public List<String> list (final File file) throws IOException {
+    final List<String> names = new ArrayList<String> ();
+    final ArchiveReader reader = createReader (file);
+    try {
+      String name;
+      while ((name = reader.getNextEntry ()) != null) {
+        names.add (name);
+      }
+    } finally {
+      reader.close ();
+    }
+    return names;
+  }
+
+  /**
+   * Tests whether an archive is in this format.
+   * 
+   * @param header
+   *          the start of the archive, not {@code null}
+   * @param length
+   *          the number of bytes of {@code header} that are valid, up to {@link #HEADER_SIZE}
+   * @return {@code true} if the archive is in this format, {@code false} otherwise
+   */
+  protected abstract boolean isFormatOf (byte[] header, int length);
+
+  private static List<ArchiveFormat> loadFormats () {
+    final List<ArchiveFormat> formats = new ArrayList<ArchiveFormat> (Arrays.asList (ZIP, TAR,
+        TAR_GZ));
+    for (final ArchiveFormat format : ServiceLoader.load (ArchiveFormat.class,
+        ArchiveFormat.class.getClassLoader ())) {
+      formats.add (format);
+    }
+    return Collections.unmodifiableList (formats);
+  }
+
+  /**
+   * Returns the available formats; the built in ones followed by any that are registered.
+   * 
+   * @return the formats, never {@code null}
+   */
+  public static List<ArchiveFormat> getFormats () {
+    return FORMATS;
+  }
+
+  /**
+   * Finds the format for a file extension.
+   * 
+   * @param extension
+   *          the extension, without a leading dot, not {@code null}
+   * @return the format, or {@code null} if there is none for the extension
+   */
+  public static ArchiveFormat get (final String extension) {
+    for (final ArchiveFormat format : getFormats ()) {
+      if (format.getExtension ().equalsIgnoreCase (extension)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  private static int readHeader (final InputStream input, final byte[] header) throws IOException {
+    int length = 0;
+    int bytes;
+    while ((length < header.length)
+        && ((bytes = input.read (header, length, header.length - length)) > 0)) {
+      length += bytes;
+    }
+    return length;
+  }
+
+  private static ArchiveFormat detect (final byte[] header, final int length) {
+    for (final ArchiveFormat format : getFormats ()) {
+      if (format.isFormatOf (header, length)) {
+        return format;
+      }
+    }
+    return ZIP;
+  }
+
+  /**
+   * Identifies the format of an archive file from its content rather than its name, as
+   * {@link #open} does for a stream.
+   * 
+   * @param file
+   *          the archive, not {@code null}
+   * @return the format, never {@code null}; unrecognised content is taken to be a ZIP archive
+   * @throws IOException
+   *           if the file could not be read
+   */
+  public static ArchiveFormat detect (final File file) throws IOException {
+    final byte[] header = new byte[HEADER_SIZE];
+    final InputStream input = new FileInputStream (file);
+    final int length;
+    try {
+      length = readHeader (input, header);
+    } finally {
+      input.close ();
+    }
+    return detect (header, length);
+  }
+
+  /**
+   * Opens an archive, identifying its format from its content rather than its file name. This
+   * allows the artifacts of modules using different formats to be installed with the same
+   * extension. Unrecognised content is read as a ZIP archive.
+   * 
+   * @param input
+   *          the stream to read the archive from, not {@code null}
+   * @return the reader, never {@code null}
+   * @throws IOException
+   *           if the archive could not be opened
+   */
+  public static ArchiveReader open (final InputStream input) throws IOException {
+    final InputStream buffered = new BufferedInputStream (input, GZIP_BUFFER_SIZE);
+    final byte[] header = new byte[HEADER_SIZE];
+    buffered.mark (header.length);
+    final int length = readHeader (buffered, header);
+    buffered.reset ();
+    return detect (header, length).createReader (buffered);
+  }
+
+  @Override
+  public String toString () {
+    return getExtension ();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the entries of an archive in one of the {@link ArchiveFormat}s, in the order they were
+ * written.
+ */
+public interface ArchiveReader extends Closeable {
+
+  /**
+   * Moves to the next entry, skipping any content of the current one that has not been read.
+   * 
+   * @return the name of the entry, or {@code null} if there are no more entries
+   * @throws IOException
+   *           if the archive could not be read
+   */
+  String getNextEntry () throws IOException;
+
+  /**
+   * Reads content from the current entry.
+   * 
+   * @param buffer
+   *          the buffer to read into, not {@code null}
+   * @param offset
+   *          the offset into {@code buffer}
+   * @param length
+   *          the maximum number of bytes to read
+   * @return the number of bytes read, or -1 at the end of the entry
+   * @throws IOException
+   *           if the archive could not be read
+   */
+  int read (byte[] buffer, int offset, int length) throws IOException;
+
+  /**
+   * Returns the modification time of the current entry.
+   * 
+   * @return the time in milliseconds since the epoch, or -1 if the archive doesn't record one
+   */
+  long getTime ();
+
+  /**
+   * Returns the uncompressed size of the current entry, if it is known before the entry is read.
+   * 
+   * @return the size in bytes, or -1 if it is not known
+   */
+  long getSize ();
+
+  /**
+   * Returns the CRC-32 of the current entry's content, if it is known before the entry is read.
+   * 
+   * @return the CRC-32, or -1 if it is not known
+   */
+  long getCrc ();
+
+}
\ No newline at end of file
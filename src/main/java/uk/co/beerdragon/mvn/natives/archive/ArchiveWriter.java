@@ -0,0 +1,43 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes an archive in one of the {@link ArchiveFormat}s, one entry at a time.
+ */
+public interface ArchiveWriter extends Closeable {
+
+  /**
+   * Writes a file to the archive.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param time
+   *          the modification time of the entry, in milliseconds since the epoch
+   * @param size
+   *          the number of bytes that will be read from {@code input}
+   * @param input
+   *          the file content, not {@code null}
+   * @throws IOException
+   *           if the data could not be read or written to the archive, or {@code input} did not
+   *           contain {@code size} bytes
+   */
+  void write (String name, long time, long size, InputStream input) throws IOException;
+
+  /**
+   * Returns the total uncompressed size of the entries written so far.
+   * 
+   * @return the size in bytes
+   */
+  long getTotalSize ();
+
+}
\ No newline at end of file
@@ -0,0 +1,200 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Archive entry whose body has been compressed ahead of being written by {@link ZipWriter}.
+ */
+public class CompressedEntry {
+
+  private final String _name;
+
+  private final long _time;
+
+  private final int _method;
+
+  private final long _crc;
+
+  private final long _size;
+
+  private final SpillBuffer _data;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param time
+   *          the modification time of the entry, in milliseconds since the epoch
+   * @param method
+   *          the compression method, either {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+   * @param crc
+   *          the CRC-32 of the uncompressed data
+   * @param size
+   *          the uncompressed size
+   * @param data
+   *          the compressed data, not {@code null}
+   */
+  public CompressedEntry (final String name, final long time, final int method, final long crc,
+      final long size, final SpillBuffer data) {
+    _name = Objects.requireNonNull (name);
+    _time = time;
+    _method = method;
+    _crc = crc;
+    _size = size;
+    _data = Objects.requireNonNull (data);
+  }
+
+  /**
+   * Compresses the content of a stream.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param time
+   *          the modification time of the entry, in milliseconds since the epoch
+   * @param level
+   *          the deflate compression level
+   * @param input
+   *          the data to compress, not {@code null}
+   * @param data
+   *          the buffer to receive the compressed data, not {@code null}
+   * @return the compressed entry, never {@code null}
+   * @throws IOException
+   *           if the data could not be read or buffered
+   */
+  public static CompressedEntry deflate (final String name, final long time, final int level,
+      final InputStream input, final SpillBuffer data) throws IOException {
+    final Deflater deflater = new Deflater (level, true);
+    try {
+      final CRC32 crc = new CRC32 ();
+      final byte[] buffer = new byte[SpillBuffer.CHUNK_SIZE];
+      final OutputStream output = new DeflaterOutputStream (data, deflater, buffer.length);
+      long size = 0;
+      int bytes;
+      while ((bytes = input.read (buffer, 0, buffer.length)) > 0) {
+        crc.update (buffer, 0, bytes);
+        output.write (buffer, 0, bytes);
+        size += bytes;
+      }
+      output.close ();
+      return new CompressedEntry (name, time, ZipEntry.DEFLATED, crc.getValue (), size, data);
+    } finally {
+      deflater.end ();
+    }
+  }
+
+  /**
+   * Copies the content of a stream without compressing it.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param time
+   *          the modification time of the entry, in milliseconds since the epoch
+   * @param input
+   *          the data to store, not {@code null}
+   * @param data
+   *          the buffer to receive the data, not {@code null}
+   * @return the uncompressed entry, never {@code null}
+   * @throws IOException
+   *           if the data could not be read or buffered
+   */
+  public static CompressedEntry store (final String name, final long time,
+      final InputStream input, final SpillBuffer data) throws IOException {
+    final CRC32 crc = new CRC32 ();
+    final byte[] buffer = new byte[SpillBuffer.CHUNK_SIZE];
+    long size = 0;
+    int bytes;
+    while ((bytes = input.read (buffer, 0, buffer.length)) > 0) {
+      crc.update (buffer, 0, bytes);
+      data.write (buffer, 0, bytes);
+      size += bytes;
+    }
+    data.close ();
+    return new CompressedEntry (name, time, ZipEntry.STORED, crc.getValue (), size, data);
+  }
+
+  /**
+   * Returns the entry name.
+   * 
+   * @return the name, never {@code null}
+   */
+  public String getName () {
+    return _name;
+  }
+
+  /**
+   * Returns the modification time of the entry.
+   * 
+   * @return the time, in milliseconds since the epoch
+   */
+  public long getTime () {
+    return _time;
+  }
+
+  /**
+   * Returns the compression method.
+   * 
+   * @return either {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+   */
+  public int getMethod () {
+    return _method;
+  }
+
+  /**
+   * Returns the CRC-32 of the uncompressed data.
+   * 
+   * @return the checksum
+   */
+  public long getCrc () {
+    return _crc;
+  }
+
+  /**
+   * Returns the uncompressed size.
+   * 
+   * @return the size in bytes
+   */
+  public long getSize () {
+    return _size;
+  }
+
+  /**
+   * Returns the compressed size.
+   * 
+   * @return the size in bytes
+   */
+  public long getCompressedSize () {
+    return _data.length ();
+  }
+
+  /**
+   * Returns the compressed data.
+   * 
+   * @return the buffer, never {@code null}
+   */
+  public SpillBuffer getData () {
+    return _data;
+  }
+
+  /**
+   * Discards the compressed data.
+   */
+  public void release () {
+    _data.release ();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Describes how an archive entry is to be compressed.
+ * <p>
+ * A policy is written in configuration as one of:
+ * <ul>
+ * <li><code>default</code> - deflate at the default level</li>
+ * <li><code>store</code> - do not compress</li>
+ * <li><code>auto</code> - sample the start of the file and only deflate it if it looks
+ * compressible</li>
+ * <li><code>0</code> to <code>9</code> - deflate at the given level, where <code>0</code> is the
+ * same as <code>store</code></li>
+ * </ul>
+ */
+public final class CompressionPolicy {
+
+  /**
+   * Number of bytes examined at the start of a file by the {@link #AUTO} policy.
+   */
+  public static final int SAMPLE_SIZE = 16384;
+
+  /**
+   * Entropy, in bits per byte, above which the {@link #AUTO} policy will store a file.
+   */
+  /* package */static final double ENTROPY_THRESHOLD = 7.5;
+
+  /**
+   * Deflate at the default level.
+   */
+  public static final CompressionPolicy DEFAULT = new CompressionPolicy ("default",
+      Deflater.DEFAULT_COMPRESSION);
+
+  /**
+   * Store without compression.
+   */
+  public static final CompressionPolicy STORE = new CompressionPolicy ("store",
+      Deflater.NO_COMPRESSION);
+
+  /**
+   * Store files that appear incompressible and deflate the rest at the default level.
+   */
+  public static final CompressionPolicy AUTO = new CompressionPolicy ("auto",
+      Deflater.DEFAULT_COMPRESSION);
+
+  private final String _name;
+
+  private final int _level;
+
+  private CompressionPolicy (final String name, final int level) {
+    _name = name;
+    _level = level;
+  }
+
+  /**
+   * Parses a policy from its configuration form.
+   * 
+   * @param policy
+   *          the string form, or {@code null} or empty for none
+   * @return the policy, or {@code null} if none was given
+   * @throws IllegalArgumentException
+   *           if the string is not a valid policy
+   */
+  public static CompressionPolicy parse (String policy) {
+    if (policy == null) return null;
+    policy = policy.trim ();
+    if (policy.length () == 0) return null;
+    if (DEFAULT._name.equalsIgnoreCase (policy)) return DEFAULT;
+    if (STORE._name.equalsIgnoreCase (policy)) return STORE;
+    if (AUTO._name.equalsIgnoreCase (policy)) return AUTO;
+    if ((policy.length () == 1) && (policy.charAt (0) >= '0') && (policy.charAt (0) <= '9')) {
+      final int level = policy.charAt (0) - '0';
+      if (level == Deflater.NO_COMPRESSION) return STORE;
+      return new CompressionPolicy (policy, level);
+    }
+    throw new IllegalArgumentException ("Invalid compression policy '" + policy + "'");
+  }
+
+  /**
+   * Returns the deflate level.
+   * 
+   * @return the level
+   */
+  public int getLevel () {
+    return _level;
+  }
+
+  /**
+   * Tests whether entries are stored without compression.
+   * 
+   * @return {@code true} if entries are not compressed, {@code false} otherwise
+   */
+  public boolean isStored () {
+    return this == STORE;
+  }
+
+  /**
+   * Estimates the information content of data.
+   * 
+   * @param data
+   *          the data to examine
+   * @param length
+   *          the number of bytes to examine
+   * @return the Shannon entropy, in bits per byte
+   */
+  /* package */static double entropy (final byte[] data, final int length) {
+    if (length == 0) return 0;
+    final int[] counts = new int[256];
+    for (int i = 0; i < length; i++) {
+      counts[data[i] & 0xFF]++;
+    }
+    double entropy = 0;
+    for (final int count : counts) {
+      if (count > 0) {
+        final double p = (double)count / length;
+        entropy -= p * Math.log (p);
+      }
+    }
+    return entropy / Math.log (2);
+  }
+
+  /**
+   * Chooses the policy to apply to a particular file. If this is the {@link #AUTO} policy then the
+   * start of the file is sampled, otherwise this policy is returned unchanged.
+   * 
+   * @param input
+   *          the file content, not {@code null}. This must support {@link InputStream#mark} and
+   *          will be reset to its original position.
+   * @return the policy to apply, never {@code null} or {@link #AUTO}
+   * @throws IOException
+   *           if the sample could not be read
+   */
+  public CompressionPolicy select (final InputStream input) throws IOException {
+    if (this != AUTO) return this;
+    input.mark (SAMPLE_SIZE);
+    final byte[] sample = new byte[SAMPLE_SIZE];
+    int length = 0;
+    int bytes;
+    while ((length < sample.length)
+        && ((bytes = input.read (sample, length, sample.length - length)) > 0)) {
+      length += bytes;
+    }
+    input.reset ();
+    return (entropy (sample, length) >= ENTROPY_THRESHOLD) ? STORE : DEFAULT;
+  }
+
+  // Object
+
+  @Override
+  public String toString () {
+    return _name;
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the cost of compressing archive entries so that it can be weighed against the space
+ * saved. Instances may be updated from several threads at once.
+ */
+public class CompressionStatistics {
+
+  private final AtomicLong _deflated = new AtomicLong ();
+
+  private final AtomicLong _stored = new AtomicLong ();
+
+  private final AtomicLong _cpuTime = new AtomicLong ();
+
+  /**
+   * Returns the CPU time used by the calling thread, falling back to elapsed time if the JVM does
+   * not measure it.
+   * 
+   * @return the time in nanoseconds, only meaningful when compared with another call from the same
+   *         thread
+   */
+  public static long cpuTime () {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean ();
+    final long time = threads.isCurrentThreadCpuTimeSupported () ? threads
+        .getCurrentThreadCpuTime () : -1;
+    return (time >= 0) ? time : System.nanoTime ();
+  }
+
+  /**
+   * Records an entry that was written to the archive.
+   * 
+   * @param policy
+   *          the policy applied to the entry, not {@code null}
+   * @param cpuTime
+   *          the CPU time spent choosing the policy and compressing the entry, in nanoseconds
+   */
+  public void add (final CompressionPolicy policy, final long cpuTime) {
+    if (policy.isStored ()) {
+      _stored.incrementAndGet ();
+    } else {
+      _deflated.incrementAndGet ();
+    }
+    _cpuTime.addAndGet (cpuTime);
+  }
+
+  /**
+   * Returns the number of entries that were deflated.
+   * 
+   * @return the entry count
+   */
+  public long getDeflated () {
+    return _deflated.get ();
+  }
+
+  /**
+   * Returns the number of entries that were stored without compression.
+   * 
+   * @return the entry count
+   */
+  public long getStored () {
+    return _stored.get ();
+  }
+
+  /**
+   * Returns the CPU time spent choosing policies and compressing entries.
+   * 
+   * @return the time in nanoseconds
+   */
+  public long getCpuTime () {
+    return _cpuTime.get ();
+  }
+
+  /**
+   * Describes the statistics for reporting to the user.
+   * 
+   * @param size
+   *          the total uncompressed size of the entries
+   * @param compressedSize
+   *          the total size of the entry data as written
+   * @return the description, never {@code null}
+   */
+  public String describe (final long size, final long compressedSize) {
+    return "Deflated " + getDeflated () + " and stored " + getStored () + " entries, saving "
+        + (size - compressedSize) + " of " + size + " bytes for "
+        + (getCpuTime () / 1000000L) + "ms of CPU time";
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number of bytes that may be held in memory by buffers shared between several threads.
+ */
+public class MemoryBudget {
+
+  private final AtomicLong _available;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param bytes
+   *          the total number of bytes that may be reserved at any one time
+   */
+  public MemoryBudget (final long bytes) {
+    _available = new AtomicLong (bytes);
+  }
+
+  /**
+   * Attempts to reserve part of the budget.
+   * 
+   * @param bytes
+   *          the number of bytes to reserve
+   * @return {@code true} if the bytes were reserved, {@code false} if there is insufficient budget
+   *         remaining
+   */
+  public boolean tryReserve (final long bytes) {
+    long available;
+    do {
+      available = _available.get ();
+      if (available < bytes) {
+        return false;
+      }
+    } while (!_available.compareAndSet (available, available - bytes));
+    return true;
+  }
+
+  /**
+   * Returns part of the budget previously obtained from {@link #tryReserve}.
+   * 
+   * @param bytes
+   *          the number of bytes to release
+   */
+  public void release (final long bytes) {
+    _available.addAndGet (bytes);
+  }
+
+  /**
+   * Returns the number of bytes that can currently be reserved.
+   * 
+   * @return the remaining budget
+   */
+  public long getAvailable () {
+    return _available.get ();
+  }
+
+}
\ No newline at end of file
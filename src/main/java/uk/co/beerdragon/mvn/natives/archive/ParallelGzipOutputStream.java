@@ -0,0 +1,247 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes GZIP data, compressing fixed size blocks of the input on several threads.
+ * <p>
+ * As in <code>pigz</code>, each block is deflated independently, primed with the end of the
+ * previous block as its dictionary, and ends with a sync flush so that the compressed blocks can
+ * be concatenated into a single deflate stream. The output depends only on the data and the
+ * compression level, not on the number of threads.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+  /**
+   * Number of bytes of input compressed by each task.
+   */
+  public static final int BLOCK_SIZE = 128 * 1024;
+
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  private static final byte[] HEADER = new byte[] {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+      0, 0, (byte)0xFF };
+
+  /**
+   * Creates daemon threads, so that a stream abandoned after an error does not keep the JVM
+   * running.
+   */
+  private static final ThreadFactory DAEMON_THREADS = new ThreadFactory () {
+
+    @Override
+    public Thread newThread (final Runnable task) {
+      final Thread thread = Executors.defaultThreadFactory ().newThread (task);
+      thread.setDaemon (true);
+      return thread;
+    }
+
+  };
+
+  /**
+   * Compresses one block of the input.
+   */
+  private static final class BlockTask implements Callable<byte[]> {
+
+    private final byte[] _block;
+
+    private final int _length;
+
+    private final byte[] _dictionary;
+
+    private final int _level;
+
+    private final boolean _last;
+
+    public BlockTask (final byte[] block, final int length, final byte[] dictionary,
+        final int level, final boolean last) {
+      _block = block;
+      _length = length;
+      _dictionary = dictionary;
+      _level = level;
+      _last = last;
+    }
+
+    @Override
+    public byte[] call () {
+      final Deflater deflater = new Deflater (_level, true);
+      try {
+        if (_dictionary != null) {
+          deflater.setDictionary (_dictionary);
+        }
+        deflater.setInput (_block, 0, _length);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream (_length / 2 + 64);
+        final byte[] buffer = new byte[8192];
+        if (_last) {
+          deflater.finish ();
+          while (!deflater.finished ()) {
+            output.write (buffer, 0, deflater.deflate (buffer));
+          }
+        } else {
+          int bytes;
+          do {
+            bytes = deflater.deflate (buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            output.write (buffer, 0, bytes);
+          } while (bytes == buffer.length);
+        }
+        return output.toByteArray ();
+      } finally {
+        deflater.end ();
+      }
+    }
+
+  }
+
+  private final OutputStream _output;
+
+  private final int _level;
+
+  private final int _threads;
+
+  private final ExecutorService _executor;
+
+  private final Deque<Future<byte[]>> _pending = new ArrayDeque<Future<byte[]>> ();
+
+  private final CRC32 _crc = new CRC32 ();
+
+  private long _size;
+
+  private byte[] _block = new byte[BLOCK_SIZE];
+
+  private int _blockUsed;
+
+  private byte[] _dictionary;
+
+  private boolean _closed;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param output
+   *          the stream to write the compressed data to, not {@code null}
+   * @param level
+   *          the deflate compression level
+   * @param threads
+   *          the number of threads to compress blocks with, one or less to compress them on the
+   *          calling thread
+   * @throws IOException
+   *           if the GZIP header could not be written
+   */
+  public ParallelGzipOutputStream (final OutputStream output, final int level, final int threads)
+      throws IOException {
+    _output = Objects.requireNonNull (output);
+    _level = level;
+    _threads = threads;
+    _executor = (threads > 1) ? Executors.newFixedThreadPool (threads, DAEMON_THREADS) : null;
+    // No file name or modification time, so that the output is reproducible
+    _output.write (HEADER);
+  }
+
+  private static byte[] getResult (final Future<byte[]> future) throws IOException {
+    try {
+      return future.get ();
+    } catch (final InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ();
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException (e.getCause ());
+    }
+  }
+
+  private void writeCompleted (final int limit) throws IOException {
+    while (_pending.size () > limit) {
+      _output.write (getResult (_pending.removeFirst ()));
+    }
+  }
+
+  private void compressBlock (final boolean last) throws IOException {
+    final BlockTask task = new BlockTask (_block, _blockUsed, _dictionary, _level, last);
+    if (_executor != null) {
+      writeCompleted (_threads * 2);
+      _pending.add (_executor.submit (task));
+    } else {
+      _output.write (task.call ());
+    }
+    if (_blockUsed >= DICTIONARY_SIZE) {
+      _dictionary = Arrays.copyOfRange (_block, _blockUsed - DICTIONARY_SIZE, _blockUsed);
+    } else {
+      _dictionary = null;
+    }
+    // The task still holds the old block
+    _block = new byte[BLOCK_SIZE];
+    _blockUsed = 0;
+  }
+
+  @Override
+  public void write (final int b) throws IOException {
+    write (new byte[] {(byte)b }, 0, 1);
+  }
+
+  @Override
+  public void write (final byte[] data, int offset, int length) throws IOException {
+    if (_closed) {
+      throw new IOException ("stream closed");
+    }
+    _crc.update (data, offset, length);
+    _size += length;
+    while (length > 0) {
+      if (_blockUsed == BLOCK_SIZE) {
+        compressBlock (false);
+      }
+      final int bytes = Math.min (length, BLOCK_SIZE - _blockUsed);
+      System.arraycopy (data, offset, _block, _blockUsed, bytes);
+      _blockUsed += bytes;
+      offset += bytes;
+      length -= bytes;
+    }
+  }
+
+  /**
+   * Compresses the remaining data and writes the GZIP trailer, then closes the underlying stream.
+   */
+  @Override
+  public void close () throws IOException {
+    if (_closed) {
+      return;
+    }
+    _closed = true;
+    try {
+      compressBlock (true);
+      writeCompleted (0);
+      final byte[] trailer = new byte[8];
+      final long crc = _crc.getValue ();
+      for (int i = 0; i < 4; i++) {
+        trailer[i] = (byte)(crc >> (i * 8));
+        trailer[i + 4] = (byte)(_size >> (i * 8));
+      }
+      _output.write (trailer);
+    } finally {
+      if (_executor != null) {
+        _executor.shutdownNow ();
+      }
+      _output.close ();
+    }
+  }
+
+}
\ No newline at end of file
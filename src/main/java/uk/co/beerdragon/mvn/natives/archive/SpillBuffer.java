@@ -0,0 +1,184 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Buffer for data that is produced by one thread and consumed later by another. Data is held in
+ * memory while there is sufficient {@link MemoryBudget} remaining and then moved to a temporary
+ * file.
+ * <p>
+ * The buffer must be {@link #release}d when it is no longer needed to return its memory to the
+ * budget and delete any temporary file.
+ */
+public class SpillBuffer extends OutputStream {
+
+  /**
+   * Size of each block of memory reserved from the budget.
+   */
+  public static final int CHUNK_SIZE = 65536;
+
+  private final MemoryBudget _budget;
+
+  private final File _spillDir;
+
+  private final List<byte[]> _chunks = new ArrayList<byte[]> ();
+
+  private int _chunkUsed = CHUNK_SIZE;
+
+  private long _length;
+
+  private File _file;
+
+  private OutputStream _fileOutput;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param budget
+   *          the memory budget to reserve buffers from, not {@code null}
+   * @param spillDir
+   *          the folder to create a temporary file in if the budget is exhausted, or {@code null}
+   *          for the system default
+   */
+  public SpillBuffer (final MemoryBudget budget, final File spillDir) {
+    _budget = Objects.requireNonNull (budget);
+    _spillDir = spillDir;
+  }
+
+  /**
+   * Returns the number of bytes written to the buffer.
+   * 
+   * @return the buffer length
+   */
+  public long length () {
+    return _length;
+  }
+
+  /**
+   * Tests whether the buffer has been moved to a temporary file.
+   * 
+   * @return {@code true} if the content is in a temporary file, {@code false} if it is in memory
+   */
+  public boolean isSpilled () {
+    return _file != null;
+  }
+
+  private void spill () throws IOException {
+    _file = File.createTempFile ("native-", ".tmp", _spillDir);
+    _fileOutput = new BufferedOutputStream (new FileOutputStream (_file));
+    for (int i = 0; i < _chunks.size (); i++) {
+      _fileOutput.write (_chunks.get (i), 0, (i == _chunks.size () - 1) ? _chunkUsed : CHUNK_SIZE);
+    }
+    releaseMemory ();
+  }
+
+  private void releaseMemory () {
+    _budget.release ((long)_chunks.size () * CHUNK_SIZE);
+    _chunks.clear ();
+  }
+
+  @Override
+  public void write (final int b) throws IOException {
+    write (new byte[] { (byte)b }, 0, 1);
+  }
+
+  @Override
+  public void write (final byte[] data, int offset, int length) throws IOException {
+    _length += length;
+    while (length > 0) {
+      if (_fileOutput != null) {
+        _fileOutput.write (data, offset, length);
+        return;
+      }
+      if (_chunkUsed == CHUNK_SIZE) {
+        if (_budget.tryReserve (CHUNK_SIZE)) {
+          _chunks.add (new byte[CHUNK_SIZE]);
+          _chunkUsed = 0;
+        } else {
+          spill ();
+          continue;
+        }
+      }
+      final int copy = Math.min (length, CHUNK_SIZE - _chunkUsed);
+      System.arraycopy (data, offset, _chunks.get (_chunks.size () - 1), _chunkUsed, copy);
+      _chunkUsed += copy;
+      offset += copy;
+      length -= copy;
+    }
+  }
+
+  /**
+   * Completes writing to the buffer. No further data may be written after this is called.
+   */
+  @Override
+  public void close () throws IOException {
+    if (_fileOutput != null) {
+      _fileOutput.close ();
+      _fileOutput = null;
+    }
+  }
+
+  /**
+   * Copies the buffered data to another stream. The buffer must have been {@link #close}d first.
+   * 
+   * @param output
+   *          the stream to write to, not {@code null}
+   * @throws IOException
+   *           if the data could not be copied
+   */
+  public void writeTo (final OutputStream output) throws IOException {
+    if (_file != null) {
+      final InputStream input = new FileInputStream (_file);
+      try {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        int bytes;
+        while ((bytes = input.read (buffer, 0, buffer.length)) > 0) {
+          output.write (buffer, 0, bytes);
+        }
+      } finally {
+        input.close ();
+      }
+    } else {
+      for (int i = 0; i < _chunks.size (); i++) {
+        output.write (_chunks.get (i), 0, (i == _chunks.size () - 1) ? _chunkUsed : CHUNK_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Discards the buffered data, returning any memory to the budget and deleting any temporary file.
+   */
+  public void release () {
+    releaseMemory ();
+    _chunkUsed = CHUNK_SIZE;
+    if (_fileOutput != null) {
+      try {
+        _fileOutput.close ();
+      } catch (final IOException e) {
+        // Ignore; the file is being deleted
+      }
+      _fileOutput = null;
+    }
+    if (_file != null) {
+      _file.delete ();
+      _file = null;
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,264 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Reads the regular files from a ustar or PAX format TAR archive, such as those written by
+ * {@link TarWriter}. Folders, links and other special entries are skipped.
+ */
+public class TarReader implements ArchiveReader {
+
+  private static final int BLOCK = TarWriter.BLOCK;
+
+  private final InputStream _input;
+
+  private final byte[] _header = new byte[BLOCK];
+
+  private long _remaining;
+
+  private long _padding;
+
+  private boolean _finished;
+
+  /**
+   * Name of the next entry from an extended header, or {@code null} to use the entry's own header.
+   */
+  private String _extendedName;
+
+  /**
+   * Size of the next entry from an extended header, or -1 to use the entry's own header.
+   */
+  private long _extendedSize = -1;
+
+  /**
+   * Modification time of the next entry from an extended header, or -1 to use the entry's own
+   * header.
+   */
+  private long _extendedTime = -1;
+
+  private long _time = -1;
+
+  private long _size = -1;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param input
+   *          the stream to read the archive from, not {@code null}
+   */
+  public TarReader (final InputStream input) {
+    _input = Objects.requireNonNull (input);
+  }
+
+  private void readFully (final byte[] buffer, final int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      final int bytes = _input.read (buffer, offset, length - offset);
+      if (bytes < 0) {
+        throw new EOFException ("TAR archive is truncated");
+      }
+      offset += bytes;
+    }
+  }
+
+  private void skip (long bytes) throws IOException {
+    final byte[] buffer = new byte[BLOCK];
+    while (bytes > 0) {
+      final int length = (int)Math.min (bytes, buffer.length);
+      readFully (buffer, length);
+      bytes -= length;
+    }
+  }
+
+  private static String getString (final byte[] header, final int offset, final int length) {
+    int end = offset;
+    while ((end < offset + length) && (header[end] != 0)) {
+      end++;
+    }
+    return new String (header, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  private static long getOctal (final byte[] header, final int offset, final int length)
+      throws IOException {
+    long value = 0;
+    for (int i = offset; (i < offset + length) && (header[i] != 0); i++) {
+      final int c = header[i];
+      if ((c >= '0') && (c <= '7')) {
+        value = (value << 3) | (c - '0');
+      } else if (c != ' ') {
+        throw new IOException ("Invalid TAR header field");
+      }
+    }
+    return value;
+  }
+
+  private static boolean isEmpty (final byte[] header) {
+    for (final byte b : header) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] readData (final long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException ("TAR extended header is too large");
+    }
+    final byte[] data = new byte[(int)size];
+    readFully (data, data.length);
+    skip ((BLOCK - (size % BLOCK)) % BLOCK);
+    return data;
+  }
+
+  /**
+   * Applies the records of a PAX extended header to the next entry.
+   */
+  private void applyPax (final byte[] data) throws IOException {
+    int offset = 0;
+    while (offset < data.length) {
+      int space = offset;
+      while ((space < data.length) && (data[space] != ' ')) {
+        space++;
+      }
+      final int length;
+      try {
+        length = Integer.parseInt (new String (data, offset, space - offset,
+            StandardCharsets.US_ASCII));
+      } catch (final NumberFormatException e) {
+        throw new IOException ("Invalid PAX header record");
+      }
+      if ((length <= space - offset) || (offset + length > data.length)) {
+        throw new IOException ("Invalid PAX header record");
+      }
+      final String record = new String (data, space + 1, offset + length - space - 2,
+          StandardCharsets.UTF_8);
+      final int equals = record.indexOf ('=');
+      if (equals > 0) {
+        final String key = record.substring (0, equals);
+        final String value = record.substring (equals + 1);
+        if ("path".equals (key)) {
+          _extendedName = value;
+        } else if ("size".equals (key)) {
+          try {
+            _extendedSize = Long.parseLong (value);
+          } catch (final NumberFormatException e) {
+            throw new IOException ("Invalid PAX header record");
+          }
+        } else if ("mtime".equals (key)) {
+          try {
+            // Seconds since the epoch, possibly with a fractional part
+            _extendedTime = new BigDecimal (value).movePointRight (3).longValue ();
+          } catch (final NumberFormatException e) {
+            throw new IOException ("Invalid PAX header record");
+          }
+        }
+      }
+      offset += length;
+    }
+  }
+
+  // ArchiveReader
+
+  @Override
+  public String getNextEntry () throws IOException {
+    skip (_remaining + _padding);
+    _remaining = 0;
+    _padding = 0;
+    while (!_finished) {
+      readFully (_header, BLOCK);
+      if (isEmpty (_header)) {
+        _finished = true;
+      } else {
+        if (TarWriter.checksum (_header) != getOctal (_header, 148, 8)) {
+          throw new IOException ("Invalid TAR header checksum");
+        }
+        final long headerSize = getOctal (_header, 124, 12);
+        final long size = (_extendedSize >= 0) ? _extendedSize : headerSize;
+        final char type = (char)_header[156];
+        if (type == 'x') {
+          applyPax (readData (headerSize));
+        } else if (type == 'L') {
+          // GNU long name
+          _extendedName = getString (readData (headerSize), 0, (int)headerSize);
+        } else if ((type == '0') || (type == 0) || (type == '7')) {
+          String name = _extendedName;
+          if (name == null) {
+            name = getString (_header, 0, TarWriter.NAME_LENGTH);
+            final String prefix = getString (_header, 345, TarWriter.PREFIX_LENGTH);
+            if (prefix.length () > 0) {
+              name = prefix + "/" + name;
+            }
+          }
+          _remaining = size;
+          _size = size;
+          _padding = (BLOCK - (size % BLOCK)) % BLOCK;
+          _time = (_extendedTime >= 0) ? _extendedTime : getOctal (_header, 136, 12) * 1000L;
+          _extendedName = null;
+          _extendedSize = -1;
+          _extendedTime = -1;
+          return name;
+        } else {
+          skip (size + (BLOCK - (size % BLOCK)) % BLOCK);
+          _extendedName = null;
+          _extendedSize = -1;
+          _extendedTime = -1;
+        }
+      }
+    }
+    _time = -1;
+    _size = -1;
+    return null;
+  }
+
+  @Override
+  public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+    if (_remaining <= 0) {
+      return -1;
+    }
+    final int bytes = _input.read (buffer, offset, (int)Math.min (length, _remaining));
+    if (bytes < 0) {
+      throw new EOFException ("TAR archive is truncated");
+    }
+    _remaining -= bytes;
+    return bytes;
+  }
+
+  @Override
+  public long getTime () {
+    return _time;
+  }
+
+  @Override
+  public long getSize () {
+    return _size;
+  }
+
+  /**
+   * TAR archives don't record checksums of the entry content.
+   * 
+   * @return always -1
+   */
+  @Override
+  public long getCrc () {
+    return -1;
+  }
+
+  @Override
+  public void close () throws IOException {
+    _input.close ();
+  }
+
+}
\ No newline at end of file
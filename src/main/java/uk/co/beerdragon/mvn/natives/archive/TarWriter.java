@@ -0,0 +1,196 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Writes a POSIX (ustar) TAR archive. Names that do not fit the ustar header, and entries larger
+ * than it can describe, are given a PAX extended header.
+ * <p>
+ * Entries are regular files owned by user and group zero, with mode {@code 0644}, so that the
+ * archive depends only on the entry names, times and content.
+ */
+public class TarWriter implements ArchiveWriter {
+
+  /* package */static final int BLOCK = 512;
+
+  /* package */static final int NAME_LENGTH = 100;
+
+  /* package */static final int PREFIX_LENGTH = 155;
+
+  /**
+   * Largest size, or time, that fits an 11 digit octal field.
+   */
+  /* package */static final long MAX_OCTAL = 077777777777L;
+
+  private static final String PAX_NAME = "././@PaxHeader";
+
+  private final OutputStream _output;
+
+  private final byte[] _buffer = new byte[SpillBuffer.CHUNK_SIZE];
+
+  private long _totalSize;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param output
+   *          the stream to write the archive to, not {@code null}; this should normally be
+   *          buffered
+   */
+  public TarWriter (final OutputStream output) {
+    _output = Objects.requireNonNull (output);
+  }
+
+  private static void putString (final byte[] header, final int offset, final int length,
+      final byte[] value) {
+    System.arraycopy (value, 0, header, offset, Math.min (value.length, length));
+  }
+
+  private static void putOctal (final byte[] header, final int offset, final int length,
+      final long value) {
+    final String octal = Long.toOctalString (value);
+    int i = offset + length - 1;
+    header[i--] = 0;
+    for (int j = octal.length () - 1; i >= offset; j--) {
+      header[i--] = (byte)((j >= 0) ? octal.charAt (j) : '0');
+    }
+  }
+
+  /**
+   * Calculates the checksum of a header, treating the checksum field as spaces.
+   */
+  /* package */static long checksum (final byte[] header) {
+    long checksum = 0;
+    for (int i = 0; i < BLOCK; i++) {
+      checksum += ((i >= 148) && (i < 156)) ? ' ' : (header[i] & 0xFF);
+    }
+    return checksum;
+  }
+
+  /**
+   * Finds the {@code /} at which a name can be split between the prefix and name fields.
+   * 
+   * @return the index of the separator, or -1 if the name can't be split
+   */
+  /* package */static int split (final byte[] name) {
+    for (int i = Math.min (name.length - 1, PREFIX_LENGTH); i > 0; i--) {
+      if ((name[i] == '/') && (name.length - i - 1 <= NAME_LENGTH)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void writeHeader (final byte[] name, final char type, final long size, final long time)
+      throws IOException {
+    final byte[] header = new byte[BLOCK];
+    final int split = (name.length > NAME_LENGTH) ? split (name) : -1;
+    if (split > 0) {
+      putString (header, 0, NAME_LENGTH, Arrays.copyOfRange (name, split + 1, name.length));
+      putString (header, 345, PREFIX_LENGTH, Arrays.copyOf (name, split));
+    } else {
+      putString (header, 0, NAME_LENGTH, name);
+    }
+    putOctal (header, 100, 8, 0644);
+    putOctal (header, 108, 8, 0);
+    putOctal (header, 116, 8, 0);
+    putOctal (header, 124, 12, Math.min (size, MAX_OCTAL));
+    putOctal (header, 136, 12, Math.max (0, Math.min (time / 1000L, MAX_OCTAL)));
+    header[156] = (byte)type;
+    putString (header, 257, 6, "ustar\0".getBytes (StandardCharsets.US_ASCII));
+    putString (header, 263, 2, "00".getBytes (StandardCharsets.US_ASCII));
+    putOctal (header, 148, 7, checksum (header));
+    header[155] = ' ';
+    _output.write (header);
+  }
+
+  private void pad (final long size) throws IOException {
+    final int padding = (int)((BLOCK - (size % BLOCK)) % BLOCK);
+    if (padding > 0) {
+      _output.write (new byte[padding]);
+    }
+  }
+
+  /**
+   * Formats a PAX extended header record, whose length includes the length field itself.
+   */
+  /* package */static String paxRecord (final String key, final String value) {
+    final int length = key.length () + value.getBytes (StandardCharsets.UTF_8).length + 3;
+    int total = length + Integer.toString (length).length ();
+    if (Integer.toString (total).length () != Integer.toString (length).length ()) {
+      total++;
+    }
+    return total + " " + key + "=" + value + "\n";
+  }
+
+  private void writePaxHeader (final String name, final byte[] nameBytes, final long size,
+      final long time) throws IOException {
+    final StringBuilder records = new StringBuilder ();
+    if ((nameBytes.length > NAME_LENGTH) && (split (nameBytes) < 0)) {
+      records.append (paxRecord ("path", name));
+    }
+    if (size > MAX_OCTAL) {
+      records.append (paxRecord ("size", Long.toString (size)));
+    }
+    if (records.length () > 0) {
+      final byte[] data = records.toString ().getBytes (StandardCharsets.UTF_8);
+      writeHeader (PAX_NAME.getBytes (StandardCharsets.US_ASCII), 'x', data.length, time);
+      _output.write (data);
+      pad (data.length);
+    }
+  }
+
+  // ArchiveWriter
+
+  @Override
+  public void write (final String name, final long time, final long size, final InputStream input)
+      throws IOException {
+    final String path = name.replace (File.separatorChar, '/');
+    final byte[] nameBytes = path.getBytes (StandardCharsets.UTF_8);
+    writePaxHeader (path, nameBytes, size, time);
+    writeHeader (nameBytes, '0', size, time);
+    long remaining = size;
+    while (remaining > 0) {
+      final int bytes = input.read (_buffer, 0, (int)Math.min (remaining, _buffer.length));
+      if (bytes < 0) {
+        throw new EOFException (name + " truncated while being archived");
+      }
+      _output.write (_buffer, 0, bytes);
+      remaining -= bytes;
+    }
+    if (input.read () >= 0) {
+      throw new IOException (name + " grew while being archived");
+    }
+    pad (size);
+    _totalSize += size;
+  }
+
+  @Override
+  public long getTotalSize () {
+    return _totalSize;
+  }
+
+  /**
+   * Writes the end of archive marker and closes the underlying stream.
+   */
+  @Override
+  public void close () throws IOException {
+    _output.write (new byte[BLOCK * 2]);
+    _output.close ();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Objects;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the entries of a ZIP archive file by random access. The entries are listed from the central
+ * directory, so their names can be read without inflating any of the data. Folder entries are
+ * skipped.
+ */
+public class ZipFileReader implements ArchiveReader {
+
+  private final ZipFile _zip;
+
+  private final Enumeration<? extends ZipEntry> _entries;
+
+  private ZipEntry _entry;
+
+  private InputStream _input;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param zip
+   *          the archive to read, not {@code null}
+   */
+  public ZipFileReader (final ZipFile zip) {
+    _zip = Objects.requireNonNull (zip);
+    _entries = zip.entries ();
+  }
+
+  private void closeEntry () throws IOException {
+    if (_input != null) {
+      _input.close ();
+      _input = null;
+    }
+  }
+
+  // ArchiveReader
+
+  @Override
+  public String getNextEntry () throws IOException {
+    closeEntry ();
+    while (_entries.hasMoreElements ()) {
+      try {
+        _entry = _entries.nextElement ();
+      } catch (final IllegalArgumentException e) {
+        // The entry name is not valid in the archive's encoding
+        throw new ZipException ("Invalid entry name in " + _zip.getName () + ": "
+            + e.getMessage ());
+      }
+      if (!_entry.isDirectory ()) {
+        return _entry.getName ();
+      }
+    }
+    _entry = null;
+    return null;
+  }
+
+  @Override
+  public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+    if (_entry == null) {
+      return -1;
+    }
+    if (_input == null) {
+      // Only entries that are read are located and inflated
+      _input = _zip.getInputStream (_entry);
+    }
+    return _input.read (buffer, offset, length);
+  }
+
+  @Override
+  public long getTime () {
+    return (_entry != null) ? _entry.getTime () : -1;
+  }
+
+  @Override
+  public long getSize () {
+    return (_entry != null) ? _entry.getSize () : -1;
+  }
+
+  @Override
+  public long getCrc () {
+    return (_entry != null) ? _entry.getCrc () : -1;
+  }
+
+  @Override
+  public void close () throws IOException {
+    try {
+      closeEntry ();
+    } finally {
+      _zip.close ();
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a ZIP archive to find where each entry is stored.
+ * {@link java.util.zip.ZipEntry} does not expose the offset of an entry, which is needed to read
+ * the entries of a large archive in the order they are stored.
+ */
+public final class ZipIndex {
+
+  private static final int END_SIGNATURE = 0x06054b50;
+
+  private static final int END_SIZE = 22;
+
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+  private static final int ZIP64_END_SIZE = 56;
+
+  private static final int ENTRY_SIGNATURE = 0x02014b50;
+
+  private static final int ENTRY_SIZE = 46;
+
+  private static final int ZIP64_EXTRA = 0x0001;
+
+  private static final long MAGIC32 = 0xFFFFFFFFL;
+
+  private static final int MAX_COMMENT = 0xFFFF;
+
+  /**
+   * An entry of the central directory.
+   */
+  private static final class Entry {
+
+    private final String _name;
+
+    private final long _offset;
+
+    private Entry (final String name, final long offset) {
+      _name = name;
+      _offset = offset;
+    }
+
+  }
+
+  private static final Comparator<Entry> BY_OFFSET = new Comparator<Entry> () {
+
+    @Override
+    public int compare (final Entry a, final Entry b) {
+      return Long.compare (a._offset, b._offset);
+    }
+
+  };
+
+  private ZipIndex () {
+  }
+
+  private static ByteBuffer read (final FileChannel channel, long position, final int length)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate (length).order (ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining ()) {
+      final int bytes = channel.read (buffer, position);
+      if (bytes < 0) {
+        throw new EOFException ("ZIP archive is truncated");
+      }
+      position += bytes;
+    }
+    buffer.flip ();
+    return buffer;
+  }
+
+  private static long getUnsignedInt (final ByteBuffer buffer, final int index) {
+    return buffer.getInt (index) & MAGIC32;
+  }
+
+  private static int getUnsignedShort (final ByteBuffer buffer, final int index) {
+    return buffer.getShort (index) & 0xFFFF;
+  }
+
+  /**
+   * Finds the end of central directory record, which is followed only by the archive comment.
+   * 
+   * @return the position of the record
+   */
+  private static long findEnd (final FileChannel channel) throws IOException {
+    final long size = channel.size ();
+    final int length = (int)Math.min (size, END_SIZE + MAX_COMMENT);
+    final ByteBuffer tail = read (channel, size - length, length);
+    for (int i = length - END_SIZE; i >= 0; i--) {
+      if (tail.getInt (i) == END_SIGNATURE) {
+        return size - length + i;
+      }
+    }
+    throw new ZipException ("Not a ZIP archive");
+  }
+
+  /**
+   * Reads the local header offset of a ZIP64 entry from its extra field.
+   */
+  private static long getZip64Offset (final ByteBuffer directory, final int entry, int extra,
+      final int end) throws ZipException {
+    while (extra + 4 <= end) {
+      final int id = getUnsignedShort (directory, extra);
+      final int length = getUnsignedShort (directory, extra + 2);
+      if (id == ZIP64_EXTRA) {
+        int field = extra + 4;
+        // Only the fields whose central directory values overflowed are present, in this order
+        if (getUnsignedInt (directory, entry + 24) == MAGIC32) {
+          field += 8;
+        }
+        if (getUnsignedInt (directory, entry + 20) == MAGIC32) {
+          field += 8;
+        }
+        if (field + 8 > extra + 4 + length) {
+          break;
+        }
+        return directory.getLong (field);
+      }
+      extra += 4 + length;
+    }
+    throw new ZipException ("Invalid ZIP64 extra field");
+  }
+
+  /**
+   * Lists the files in a ZIP archive in the order that their data is stored. Reading the entries
+   * in this order keeps the reads from the archive sequential.
+   * 
+   * @param file
+   *          the archive, not {@code null}
+   * @return the entry names, excluding folders, never {@code null}
+   * @throws IOException
+   *           if the archive could not be read or is not a valid ZIP archive
+   */
+  public static List<String> list (final File file) throws IOException {
+    final RandomAccessFile input = new RandomAccessFile (file, "r");
+    try {
+      return list (input.getChannel ());
+    } finally {
+      input.close ();
+    }
+  }
+
+  private static List<String> list (final FileChannel channel) throws IOException {
+    final long endPosition = findEnd (channel);
+    final ByteBuffer end = read (channel, endPosition, END_SIZE);
+    long count = getUnsignedShort (end, 10);
+    long directorySize = getUnsignedInt (end, 12);
+    long directoryOffset = getUnsignedInt (end, 16);
+    if ((count == 0xFFFF) || (directorySize == MAGIC32) || (directoryOffset == MAGIC32)) {
+      if (endPosition < ZIP64_LOCATOR_SIZE) {
+        throw new ZipException ("Missing ZIP64 end of central directory");
+      }
+      final ByteBuffer locator = read (channel, endPosition - ZIP64_LOCATOR_SIZE,
+          ZIP64_LOCATOR_SIZE);
+      if (locator.getInt (0) != ZIP64_LOCATOR_SIGNATURE) {
+        throw new ZipException ("Missing ZIP64 end of central directory");
+      }
+      final ByteBuffer end64 = read (channel, locator.getLong (8), ZIP64_END_SIZE);
+      if (end64.getInt (0) != ZIP64_END_SIGNATURE) {
+        throw new ZipException ("Invalid ZIP64 end of central directory");
+      }
+      count = end64.getLong (32);
+      directorySize = end64.getLong (40);
+      directoryOffset = end64.getLong (48);
+    }
+    if (directorySize > Integer.MAX_VALUE) {
+      throw new ZipException ("ZIP central directory is too large");
+    }
+    final ByteBuffer directory = read (channel, directoryOffset, (int)directorySize);
+    final List<Entry> entries = new ArrayList<Entry> ();
+    int position = 0;
+    for (long i = 0; i < count; i++) {
+      if ((position + ENTRY_SIZE > directory.limit ())
+          || (directory.getInt (position) != ENTRY_SIGNATURE)) {
+        throw new ZipException ("Invalid ZIP central directory");
+      }
+      final int nameLength = getUnsignedShort (directory, position + 28);
+      final int extraLength = getUnsignedShort (directory, position + 30);
+      final int commentLength = getUnsignedShort (directory, position + 32);
+      final int next = position + ENTRY_SIZE + nameLength + extraLength + commentLength;
+      if (next > directory.limit ()) {
+        throw new ZipException ("Invalid ZIP central directory");
+      }
+      final byte[] nameBytes = new byte[nameLength];
+      directory.position (position + ENTRY_SIZE);
+      directory.get (nameBytes);
+      // ZipFile reads names as UTF-8 by default, so the names must match it
+      final String name = new String (nameBytes, StandardCharsets.UTF_8);
+      if (!name.endsWith ("/")) {
+        long offset = getUnsignedInt (directory, position + 42);
+        if (offset == MAGIC32) {
+          final int extra = position + ENTRY_SIZE + nameLength;
+          offset = getZip64Offset (directory, position, extra, extra + extraLength);
+        }
+        entries.add (new Entry (name, offset));
+      }
+      position = next;
+    }
+    Collections.sort (entries, BY_OFFSET);
+    final List<String> names = new ArrayList<String> (entries.size ());
+    for (final Entry entry : entries) {
+      names.add (entry._name);
+    }
+    return names;
+  }
+
+}
\ No newline at end of file
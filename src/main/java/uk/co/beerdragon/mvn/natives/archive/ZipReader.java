@@ -0,0 +1,74 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the entries of a ZIP archive from a stream.
+ */
+public class ZipReader implements ArchiveReader {
+
+  private final ZipInputStream _zip;
+
+  private ZipEntry _entry;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param input
+   *          the stream to read the archive from, not {@code null}
+   */
+  public ZipReader (final InputStream input) {
+    _zip = new ZipInputStream (input);
+  }
+
+  // ArchiveReader
+
+  @Override
+  public String getNextEntry () throws IOException {
+    try {
+      _entry = _zip.getNextEntry ();
+    } catch (final IllegalArgumentException e) {
+      // The entry name is not valid in the archive's encoding
+      throw new ZipException ("Invalid entry name: " + e.getMessage ());
+    }
+    return (_entry != null) ? _entry.getName () : null;
+  }
+
+  @Override
+  public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+    return _zip.read (buffer, offset, length);
+  }
+
+  @Override
+  public long getTime () {
+    // Uses the extended timestamp field in preference to the DOS time if there is one
+    return (_entry != null) ? _entry.getTime () : -1;
+  }
+
+  @Override
+  public long getSize () {
+    return (_entry != null) ? _entry.getSize () : -1;
+  }
+
+  @Override
+  public long getCrc () {
+    return (_entry != null) ? _entry.getCrc () : -1;
+  }
+
+  @Override
+  public void close () throws IOException {
+    _zip.close ();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,584 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a ZIP archive one entry at a time.
+ * <p>
+ * Unlike {@link java.util.zip.ZipOutputStream} the entries may have been compressed ahead of time,
+ * for example by several threads in parallel, and are copied into the archive without further
+ * processing. ZIP64 extensions are only used when an entry, or the archive, exceeds the limits of
+ * the original format.
+ * <p>
+ * If the archive is being written to a file then large uncompressed entries are copied into it
+ * through {@link FileChannel}s from a memory mapping of the source file, rather than through heap
+ * buffers.
+ */
+public class ZipWriter implements ArchiveWriter {
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+
+  private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+  private static final int CENTRAL_HEADER = 0x02014b50;
+
+  private static final int ZIP64_END = 0x06064b50;
+
+  private static final int ZIP64_LOCATOR = 0x07064b50;
+
+  private static final int END = 0x06054b50;
+
+  private static final short ZIP64_EXTRA = 0x0001;
+
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+  private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+  private static final int FLAG_UTF8 = 0x0800;
+
+  private static final int VERSION = 20;
+
+  private static final int VERSION_ZIP64 = 45;
+
+  private static final int LOCAL_HEADER_CRC = 14;
+
+  private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+  private static final class Record {
+
+    private byte[] _name;
+
+    private int _flags;
+
+    private int _method;
+
+    private long _dosTime;
+
+    private long _crc;
+
+    private long _compressedSize;
+
+    private long _size;
+
+    private long _offset;
+
+  }
+
+  /**
+   * Counts the bytes passed to the underlying stream, which is not closed with this one.
+   */
+  private final class EntryOutputStream extends FilterOutputStream {
+
+    public EntryOutputStream () {
+      super (_output);
+    }
+
+    @Override
+    public void write (final int b) throws IOException {
+      _output.write (b);
+      _offset++;
+    }
+
+    @Override
+    public void write (final byte[] data, final int offset, final int length) throws IOException {
+      _output.write (data, offset, length);
+      _offset += length;
+    }
+
+    @Override
+    public void close () {
+      // Leave the archive open
+    }
+
+  }
+
+  private final OutputStream _output;
+
+  private final FileChannel _channel;
+
+  /**
+   * Size or offset from which ZIP64 fields are used.
+   */
+  private final long _zip64Size;
+
+  private long _offset;
+
+  private final List<Record> _records = new ArrayList<Record> ();
+
+  private final Set<String> _names = new HashSet<String> ();
+
+  private long _totalSize;
+
+  private long _totalCompressedSize;
+
+  private TimeZone _timeZone = TimeZone.getDefault ();
+
+  private long _lastTime = Long.MIN_VALUE;
+
+  private byte[] _buffer;
+
+  private long _lastDosTime;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param output
+   *          the stream to write the archive to, not {@code null}; this should normally be
+   *          buffered
+   */
+  public ZipWriter (final OutputStream output) {
+    this (output, null);
+  }
+
+  /**
+   * Creates a new instance writing to a file.
+   * 
+   * @param output
+   *          the stream to write the archive to, not {@code null}; this should normally be
+   *          buffered
+   * @param channel
+   *          the channel of the file that {@code output} writes to, or {@code null} if it is not
+   *          writing to a file
+   */
+  public ZipWriter (final OutputStream output, final FileChannel channel) {
+    this (output, channel, ZIP64_MAGIC);
+  }
+
+  /**
+   * Creates a new instance that uses ZIP64 fields from a lower size than the format requires, so
+   * that they can be tested without writing gigabytes.
+   */
+  /* package */ZipWriter (final OutputStream output, final FileChannel channel,
+      final long zip64Size) {
+    _output = Objects.requireNonNull (output);
+    _channel = channel;
+    _zip64Size = zip64Size;
+  }
+
+  /**
+   * Sets the time zone used to convert entry times to the local date and time held in the archive.
+   * The default is the JVM's time zone; a fixed zone makes the archive independent of where it is
+   * written.
+   * 
+   * @param timeZone
+   *          the time zone, not {@code null}
+   */
+  public void setTimeZone (final TimeZone timeZone) {
+    _timeZone = Objects.requireNonNull (timeZone);
+    _lastTime = Long.MIN_VALUE;
+  }
+
+  /* package */static long dosTime (final long time, final TimeZone timeZone) {
+    final Calendar calendar = Calendar.getInstance (timeZone);
+    calendar.setTimeInMillis (time);
+    final int year = calendar.get (Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return ((long)(year - 1980) << 25) | ((calendar.get (Calendar.MONTH) + 1) << 21)
+        | (calendar.get (Calendar.DAY_OF_MONTH) << 16)
+        | (calendar.get (Calendar.HOUR_OF_DAY) << 11) | (calendar.get (Calendar.MINUTE) << 5)
+        | (calendar.get (Calendar.SECOND) >> 1);
+  }
+
+  private long toDosTime (final long time) {
+    if (time != _lastTime) {
+      _lastDosTime = dosTime (time, _timeZone);
+      _lastTime = time;
+    }
+    return _lastDosTime;
+  }
+
+  private static ByteBuffer allocate (final int size) {
+    return ByteBuffer.allocate (size).order (ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private int unsigned32 (final long value) {
+    return (value >= _zip64Size) ? (int)ZIP64_MAGIC : (int)value;
+  }
+
+  private boolean isZip64 (final Record record) {
+    return (record._size >= _zip64Size) || (record._compressedSize >= _zip64Size);
+  }
+
+  private void write (final ByteBuffer buffer) throws IOException {
+    _output.write (buffer.array (), 0, buffer.position ());
+    _offset += buffer.position ();
+  }
+
+  private Record createRecord (final String name, final long time, final int method)
+      throws ZipException {
+    if (!_names.add (name)) {
+      throw new ZipException ("duplicate entry: " + name);
+    }
+    final Record record = new Record ();
+    record._name = name.getBytes (StandardCharsets.UTF_8);
+    record._flags = FLAG_UTF8;
+    record._method = method;
+    record._dosTime = toDosTime (time);
+    record._offset = _offset;
+    return record;
+  }
+
+  private void addRecord (final Record record) {
+    _records.add (record);
+    _totalSize += record._size;
+    _totalCompressedSize += record._compressedSize;
+  }
+
+  @Override
+  public long getTotalSize () {
+    return _totalSize;
+  }
+
+  /**
+   * Returns the total size of the entry data written so far, excluding headers.
+   * 
+   * @return the size in bytes
+   */
+  public long getTotalCompressedSize () {
+    return _totalCompressedSize;
+  }
+
+  private void writeLocalHeader (final Record record) throws IOException {
+    final boolean zip64 = isZip64 (record);
+    final ByteBuffer header = allocate (30 + record._name.length + (zip64 ? 20 : 0));
+    header.putInt (LOCAL_HEADER);
+    header.putShort ((short)(zip64 ? VERSION_ZIP64 : VERSION));
+    header.putShort ((short)record._flags);
+    header.putShort ((short)record._method);
+    header.putInt ((int)record._dosTime);
+    header.putInt ((int)record._crc);
+    if (zip64) {
+      header.putInt ((int)ZIP64_MAGIC);
+      header.putInt ((int)ZIP64_MAGIC);
+    } else {
+      header.putInt ((int)record._compressedSize);
+      header.putInt ((int)record._size);
+    }
+    header.putShort ((short)record._name.length);
+    header.putShort ((short)(zip64 ? 20 : 0));
+    header.put (record._name);
+    if (zip64) {
+      header.putShort (ZIP64_EXTRA);
+      header.putShort ((short)16);
+      header.putLong (record._size);
+      header.putLong (record._compressedSize);
+    }
+    write (header);
+  }
+
+  /**
+   * Writes an entry that has already been compressed.
+   * 
+   * @param entry
+   *          the entry to write, not {@code null}
+   * @throws IOException
+   *           if the entry could not be written
+   */
+  public void write (final CompressedEntry entry) throws IOException {
+    final Record record = createRecord (entry.getName (), entry.getTime (), entry.getMethod ());
+    record._crc = entry.getCrc ();
+    record._size = entry.getSize ();
+    record._compressedSize = entry.getCompressedSize ();
+    writeLocalHeader (record);
+    entry.getData ().writeTo (_output);
+    _offset += record._compressedSize;
+    addRecord (record);
+  }
+
+  /**
+   * Compresses the content of a stream directly into the archive. The CRC and sizes are written
+   * after the entry data in a data descriptor record.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param time
+   *          the modification time of the entry, in milliseconds since the epoch
+   * @param level
+   *          the deflate compression level
+   * @param input
+   *          the data to compress, not {@code null}
+   * @param buffer
+   *          the buffer to use for reading {@code input}, not {@code null}
+   * @throws IOException
+   *           if the data could not be read or written to the archive
+   */
+  public void writeDeflated (final String name, final long time, final int level,
+      final InputStream input, final byte[] buffer) throws IOException {
+    final Record record = createRecord (name, time, ZipEntry.DEFLATED);
+    record._flags |= FLAG_DATA_DESCRIPTOR;
+    writeLocalHeader (record);
+    final long dataOffset = _offset;
+    final CRC32 crc = new CRC32 ();
+    final Deflater deflater = new Deflater (level, true);
+    try {
+      final OutputStream output = new DeflaterOutputStream (new EntryOutputStream (), deflater,
+          buffer.length);
+      int bytes;
+      while ((bytes = input.read (buffer, 0, buffer.length)) > 0) {
+        crc.update (buffer, 0, bytes);
+        output.write (buffer, 0, bytes);
+        record._size += bytes;
+      }
+      output.close ();
+    } finally {
+      deflater.end ();
+    }
+    record._crc = crc.getValue ();
+    record._compressedSize = _offset - dataOffset;
+    final boolean zip64 = isZip64 (record);
+    final ByteBuffer descriptor = allocate (zip64 ? 24 : 16);
+    descriptor.putInt (DATA_DESCRIPTOR);
+    descriptor.putInt ((int)record._crc);
+    if (zip64) {
+      descriptor.putLong (record._compressedSize);
+      descriptor.putLong (record._size);
+    } else {
+      descriptor.putInt ((int)record._compressedSize);
+      descriptor.putInt ((int)record._size);
+    }
+    write (descriptor);
+    addRecord (record);
+  }
+
+  /**
+   * Compresses a file directly into the archive at the default level.
+   */
+  @Override
+  public void write (final String name, final long time, final long size, final InputStream input)
+      throws IOException {
+    if (_buffer == null) {
+      _buffer = new byte[SpillBuffer.CHUNK_SIZE];
+    }
+    writeDeflated (name, time, Deflater.DEFAULT_COMPRESSION, input, _buffer);
+  }
+
+  private static long read (final FileChannel input, final long position, final byte[] buffer,
+      final int length) throws IOException {
+    final ByteBuffer wrapped = ByteBuffer.wrap (buffer, 0, length);
+    while (wrapped.hasRemaining ()) {
+      if (input.read (wrapped, position + wrapped.position ()) < 0) {
+        throw new EOFException ("file truncated while being archived");
+      }
+    }
+    return length;
+  }
+
+  private void writeMapped (final Record record, final FileChannel input, final byte[] buffer)
+      throws IOException {
+    _output.flush ();
+    final long header = _channel.position ();
+    writeLocalHeader (record);
+    _output.flush ();
+    final CRC32 crc = new CRC32 ();
+    long position = 0;
+    while (position < record._size) {
+      final MappedByteBuffer mapped = input.map (FileChannel.MapMode.READ_ONLY, position,
+          Math.min (record._size - position, MAP_SIZE));
+      // The mapping is read once to update the CRC; the copy into the archive is made by the OS
+      final ByteBuffer checksum = mapped.duplicate ();
+      while (checksum.hasRemaining ()) {
+        final int length = Math.min (checksum.remaining (), buffer.length);
+        checksum.get (buffer, 0, length);
+        crc.update (buffer, 0, length);
+      }
+      position += mapped.remaining ();
+      while (mapped.hasRemaining ()) {
+        _channel.write (mapped);
+      }
+    }
+    _offset += record._size;
+    record._crc = crc.getValue ();
+    final ByteBuffer patch = allocate (4);
+    patch.putInt ((int)record._crc);
+    patch.flip ();
+    while (patch.hasRemaining ()) {
+      _channel.write (patch, header + LOCAL_HEADER_CRC + patch.position ());
+    }
+  }
+
+  private void writeCopied (final Record record, final FileChannel input, final byte[] buffer)
+      throws IOException {
+    if (record._size > buffer.length) {
+      final CRC32 crc = new CRC32 ();
+      for (long position = 0; position < record._size;) {
+        final int length = (int)Math.min (record._size - position, buffer.length);
+        position += read (input, position, buffer, length);
+        crc.update (buffer, 0, length);
+      }
+      record._crc = crc.getValue ();
+      writeLocalHeader (record);
+      for (long position = 0; position < record._size;) {
+        final int length = (int)Math.min (record._size - position, buffer.length);
+        position += read (input, position, buffer, length);
+        _output.write (buffer, 0, length);
+      }
+    } else {
+      final int length = (int)record._size;
+      read (input, 0, buffer, length);
+      final CRC32 crc = new CRC32 ();
+      crc.update (buffer, 0, length);
+      record._crc = crc.getValue ();
+      writeLocalHeader (record);
+      _output.write (buffer, 0, length);
+    }
+    _offset += record._size;
+  }
+
+  /**
+   * Writes the content of a file without compressing it. The file is read from its start,
+   * regardless of the current position of {@code input}.
+   * <p>
+   * Files larger than {@code buffer} are memory mapped and, if this writer has a channel, copied
+   * into the archive by the channel with the CRC patched into the local header afterwards.
+   * Otherwise the file is read twice; once for its CRC and once to copy it.
+   * 
+   * @param name
+   *          the entry name, not {@code null}
+   * @param time
+   *          the modification time of the entry, in milliseconds since the epoch
+   * @param input
+   *          the file to store, not {@code null}
+   * @param buffer
+   *          the buffer to use for reading {@code input}, not {@code null}
+   * @throws IOException
+   *           if the data could not be read or written to the archive
+   */
+  public void writeStored (final String name, final long time, final FileChannel input,
+      final byte[] buffer) throws IOException {
+    final Record record = createRecord (name, time, ZipEntry.STORED);
+    record._size = input.size ();
+    record._compressedSize = record._size;
+    if ((_channel != null) && (record._size > buffer.length)) {
+      writeMapped (record, input, buffer);
+    } else {
+      writeCopied (record, input, buffer);
+    }
+    addRecord (record);
+  }
+
+  private void writeCentralHeader (final Record record) throws IOException {
+    int extra = 0;
+    if (record._size >= _zip64Size) extra += 8;
+    if (record._compressedSize >= _zip64Size) extra += 8;
+    if (record._offset >= _zip64Size) extra += 8;
+    final int version = (extra > 0) ? VERSION_ZIP64 : VERSION;
+    final ByteBuffer header = allocate (46 + record._name.length + ((extra > 0) ? extra + 4 : 0));
+    header.putInt (CENTRAL_HEADER);
+    header.putShort ((short)version);
+    header.putShort ((short)version);
+    header.putShort ((short)record._flags);
+    header.putShort ((short)record._method);
+    header.putInt ((int)record._dosTime);
+    header.putInt ((int)record._crc);
+    header.putInt (unsigned32 (record._compressedSize));
+    header.putInt (unsigned32 (record._size));
+    header.putShort ((short)record._name.length);
+    header.putShort ((short)((extra > 0) ? extra + 4 : 0));
+    header.putShort ((short)0);
+    header.putShort ((short)0);
+    header.putShort ((short)0);
+    header.putInt (0);
+    header.putInt (unsigned32 (record._offset));
+    header.put (record._name);
+    if (extra > 0) {
+      header.putShort (ZIP64_EXTRA);
+      header.putShort ((short)extra);
+      if (record._size >= _zip64Size) header.putLong (record._size);
+      if (record._compressedSize >= _zip64Size) header.putLong (record._compressedSize);
+      if (record._offset >= _zip64Size) header.putLong (record._offset);
+    }
+    write (header);
+  }
+
+  private void writeEnd (final long directoryOffset) throws IOException {
+    final long directorySize = _offset - directoryOffset;
+    final int count = _records.size ();
+    if ((count >= ZIP64_MAGIC_COUNT) || (directoryOffset >= _zip64Size)
+        || (directorySize >= _zip64Size)) {
+      final long zip64End = _offset;
+      final ByteBuffer end = allocate (76);
+      end.putInt (ZIP64_END);
+      end.putLong (44);
+      end.putShort ((short)VERSION_ZIP64);
+      end.putShort ((short)VERSION_ZIP64);
+      end.putInt (0);
+      end.putInt (0);
+      end.putLong (count);
+      end.putLong (count);
+      end.putLong (directorySize);
+      end.putLong (directoryOffset);
+      end.putInt (ZIP64_LOCATOR);
+      end.putInt (0);
+      end.putLong (zip64End);
+      end.putInt (1);
+      write (end);
+    }
+    final ByteBuffer end = allocate (22);
+    end.putInt (END);
+    end.putShort ((short)0);
+    end.putShort ((short)0);
+    end.putShort ((short)Math.min (count, ZIP64_MAGIC_COUNT));
+    end.putShort ((short)Math.min (count, ZIP64_MAGIC_COUNT));
+    end.putInt (unsigned32 (directorySize));
+    end.putInt (unsigned32 (directoryOffset));
+    end.putShort ((short)0);
+    write (end);
+  }
+
+  /**
+   * Writes the central directory, completing the archive, without closing the underlying stream.
+   * 
+   * @throws IOException
+   *           if the central directory could not be written
+   */
+  public void finish () throws IOException {
+    final long directoryOffset = _offset;
+    for (final Record record : _records) {
+      writeCentralHeader (record);
+    }
+    writeEnd (directoryOffset);
+    _output.flush ();
+  }
+
+  /**
+   * Completes the archive and closes the underlying stream.
+   */
+  @Override
+  public void close () throws IOException {
+    finish ();
+    _output.close ();
+  }
+
+}
\ No newline at end of file
@@ -47,6 +47,8 @@ public class Defaults {
 
   private static final String PATTERN_KEY = "pattern";
 
+  private static final String COMPRESSION_KEY = "compression";
+
   private static final String ARCH_KEY = "arch";
 
   private static final String IMPLIB_KEY = "implib";
@@ -63,6 +65,8 @@ public class Defaults {
 
     private String _pattern;
 
+    private String _compression;
+
     public void setPath (final String path) {
       _path = path;
     }
@@ -79,15 +83,25 @@ public class Defaults {
       return _pattern;
     }
 
+    public void setCompression (final String compression) {
+      _compression = compression;
+    }
+
+    public String getCompression () {
+      return _compression;
+    }
+
     public void load (final Properties properties, final String prefix) {
       setPath (getSingle (properties, prefix, PATH_KEY));
       setPattern (getSingle (properties, prefix, PATTERN_KEY));
+      setCompression (getSingle (properties, prefix, COMPRESSION_KEY));
     }
 
     /* package */void saveImpl (final Properties properties, final String prefix,
         final AtomicInteger identifier) {
       setSingle (properties, prefix, PATH_KEY, getPath ());
       setSingle (properties, prefix, PATTERN_KEY, getPattern ());
+      setSingle (properties, prefix, COMPRESSION_KEY, getCompression ());
     }
 
     public final void save (final Properties properties, final String prefix) {
@@ -97,6 +111,7 @@ public class Defaults {
     /* package */void apply (final Source bean) {
       bean.setPath (ObjectUtils.defaultIfNull (bean.getPath (), getPath ()));
       bean.setPattern (ObjectUtils.defaultIfNull (bean.getPattern (), getPattern ()));
+      bean.setCompression (ObjectUtils.defaultIfNull (bean.getCompression (), getCompression ()));
     }
 
     /* package */abstract Source create ();
@@ -382,6 +397,7 @@ public class Defaults {
     protected void visitSource (final Source instance) {
       instance.setPath (StringUtils.defaultIfEmpty (instance.getPath (), null));
       instance.setPattern (StringUtils.defaultIfEmpty (instance.getPattern (), null));
+      instance.setCompression (StringUtils.defaultIfEmpty (instance.getCompression (), null));
     }
 
     @Override
@@ -471,6 +487,11 @@ public class Defaults {
    */
   private String _buildCommand;
 
+  /**
+   * The architecture being built for.
+   */
+  private String _arch;
+
   /**
    * Creates a new instance.
    * <p>
@@ -521,6 +542,7 @@ public class Defaults {
       setDefaultHeaderFiles (defaults);
     }
     setDefaultBuildCommand (getSingle (properties, BUILD_COMMAND_KEY));
+    setDefaultArch (properties.getProperty (ARCH_KEY));
   }
 
   /**
@@ -782,6 +804,25 @@ public class Defaults {
     _buildCommand = buildCommand;
   }
 
+  /**
+   * Returns the architecture being built for, which selects the dependencies to unpack.
+   * 
+   * @return the architecture descriptor, for example <code>x64</code>, or {@code null} if none
+   */
+  public String getDefaultArch () {
+    return _arch;
+  }
+
+  /**
+   * Sets the architecture being built for, which selects the dependencies to unpack.
+   * 
+   * @param arch
+   *          the architecture descriptor, for example <code>x64</code>, or {@code null} if none
+   */
+  public void setDefaultArch (final String arch) {
+    _arch = arch;
+  }
+
   private static String getSingle (final Properties properties, final String key) {
     final String value = properties.getProperty (key);
     if (value != null) {
@@ -862,6 +903,9 @@ public class Defaults {
     getStaticLibDefaults ().save (properties, STATIC_LIB_KEY);
     getHeaderFileDefaults ().save (properties, HEADER_FILE_KEY);
     properties.put (BUILD_COMMAND_KEY, getDefaultBuildCommand ());
+    if (getDefaultArch () != null) {
+      properties.put (ARCH_KEY, getDefaultArch ());
+    }
   }
 
 }
\ No newline at end of file
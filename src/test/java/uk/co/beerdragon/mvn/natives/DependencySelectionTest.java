@@ -0,0 +1,57 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link DependencySelection} class.
+ */
+@Test
+public class DependencySelectionTest {
+
+  public void testExplicit () {
+    final DependencySelection selection = new DependencySelection ();
+    selection.setDependency ("foo:bar");
+    selection.setIncludes (new String[] {"include/**" });
+    selection.setExcludes (new String[] {"**/*.pdb" });
+    assertEquals (selection.getDependency (), "foo:bar");
+    assertEquals (selection.getIncludes (), new String[] {"include/**" });
+    assertEquals (selection.getExcludes (), new String[] {"**/*.pdb" });
+    assertEquals (selection.toString (),
+        "DependencySelection, dependency:foo:bar, includes:[include/**], excludes:[**/*.pdb]");
+  }
+
+  public void testDefault () {
+    final DependencySelection selection = new DependencySelection ();
+    assertEquals (selection.toString (), "DependencySelection, dependency:null");
+  }
+
+  public void testEquality () {
+    final DependencySelection a = new DependencySelection ();
+    final DependencySelection b = new DependencySelection ();
+    assertTrue (a.equals (a));
+    assertFalse (a.equals (null));
+    assertTrue (a.equals (b));
+    assertEquals (a.hashCode (), b.hashCode ());
+    b.setIncludes (new String[] {"include/**" });
+    assertFalse (a.equals (b));
+    a.setIncludes (new String[] {"include/**" });
+    assertTrue (a.equals (b));
+    b.setExcludes (new String[] {"bin/**" });
+    assertFalse (a.equals (b));
+    a.setExcludes (new String[] {"bin/**" });
+    a.setDependency ("foo:bar");
+    assertFalse (a.equals (b));
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import uk.co.beerdragon.mvn.natives.DirectoryScanner.ScannedFile;
+
+/**
+ * Tests the {@link DirectoryScanner} class.
+ */
+@Test (singleThreaded = true)
+public class DirectoryScannerTest {
+
+  private File _root;
+
+  private ForkJoinPool _pool;
+
+  private static void write (final File file, final String content) throws IOException {
+    file.getParentFile ().mkdirs ();
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content.getBytes ());
+    }
+  }
+
+  private static void delete (final File file) {
+    if (file.isDirectory () && !Files.isSymbolicLink (file.toPath ())) {
+      for (final File child : file.listFiles ()) {
+        delete (child);
+      }
+    }
+    file.delete ();
+  }
+
+  @BeforeMethod
+  public void createTree () throws IOException {
+    _root = Files.createTempDirectory ("test").toFile ();
+    write (new File (_root, "a.h"), "a");
+    write (new File (_root, "b.c"), "bb");
+    write (new File (new File (_root, "sys"), "c.h"), "ccc");
+    write (new File (new File (new File (_root, "sys"), "arch"), "d.h"), "dddd");
+    write (new File (new File (_root, "other"), "e.h"), "eeeee");
+    _pool = new ForkJoinPool (2);
+  }
+
+  @AfterMethod
+  public void deleteTree () {
+    _pool.shutdown ();
+    delete (_root);
+  }
+
+  private List<String> scan (final String pattern) throws IOException {
+    final DirectoryScanner scanner = new DirectoryScanner (_pool);
+    final List<String> paths = new ArrayList<String> ();
+    for (final ScannedFile file : DirectoryScanner.get (scanner.submit (_root,
+        PatternSet.compile (Collections.singletonList (pattern))))) {
+      paths.add (file.getPath ());
+    }
+    return paths;
+  }
+
+  private static List<String> list (final String... paths) {
+    final List<String> list = new ArrayList<String> ();
+    for (final String path : paths) {
+      list.add (path);
+    }
+    return list;
+  }
+
+  public void testSingleFolder () throws IOException {
+    assertEquals (scan ("*.h"), list ("a.h"));
+    assertEquals (scan ("*"), list ("a.h", "b.c"));
+  }
+
+  public void testRecursive () throws IOException {
+    assertEquals (scan ("**/*.h"), list ("a.h", "other/e.h", "sys/arch/d.h", "sys/c.h"));
+    assertEquals (scan ("sys/**/*.h"), list ("sys/arch/d.h", "sys/c.h"));
+    assertEquals (scan ("*/*.h"), list ("other/e.h", "sys/c.h"));
+    assertEquals (scan ("sys/**"), list ("sys/arch/d.h", "sys/c.h"));
+    assertEquals (scan ("**.c"), list ("b.c"));
+  }
+
+  public void testAttributes () throws IOException {
+    final DirectoryScanner scanner = new DirectoryScanner (_pool);
+    final List<ScannedFile> files = DirectoryScanner.get (scanner.submit (_root,
+        PatternSet.compile (Collections.singletonList ("**/d.h"))));
+    assertEquals (files.size (), 1);
+    final File file = new File (new File (new File (_root, "sys"), "arch"), "d.h");
+    assertEquals (files.get (0).getFile (), file);
+    assertEquals (files.get (0).getSize (), 4);
+    assertEquals (files.get (0).getLastModified (), file.lastModified ());
+    assertEquals (files.get (0).getMatches ().cardinality (), 1);
+  }
+
+  public void testMissingFolder () throws IOException {
+    final DirectoryScanner scanner = new DirectoryScanner (_pool);
+    assertTrue (DirectoryScanner.get (
+        scanner.submit (new File (_root, "missing"), PatternSet.compile (list ("**")))).isEmpty ());
+  }
+
+  public void testSharedScan () throws IOException {
+    final DirectoryScanner scanner = new DirectoryScanner (_pool);
+    final List<ScannedFile> files = DirectoryScanner.get (scanner.submit (_root,
+        PatternSet.compile (list ("*.h", "sys/**", "**/c.h"))));
+    assertEquals (files.size (), 3);
+    assertEquals (files.get (0).getPath (), "a.h");
+    assertEquals (files.get (0).getMatches ().toString (), "{0}");
+    assertEquals (files.get (1).getPath (), "sys/arch/d.h");
+    assertEquals (files.get (1).getMatches ().toString (), "{1}");
+    assertEquals (files.get (2).getPath (), "sys/c.h");
+    assertEquals (files.get (2).getMatches ().toString (), "{1, 2}");
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testFolderRemoved () throws Exception {
+    // Occupy the only thread so that the folder can be removed before it is listed
+    final ForkJoinPool pool = new ForkJoinPool (1);
+    final CountDownLatch release = new CountDownLatch (1);
+    try {
+      pool.submit (new Callable<Void> () {
+
+        @Override
+        public Void call () throws InterruptedException {
+          release.await ();
+          return null;
+        }
+
+      });
+      final ForkJoinTask<List<ScannedFile>> scan = new DirectoryScanner (pool).submit (_root,
+          PatternSet.compile (Collections.singletonList ("*.h")));
+      delete (_root);
+      release.countDown ();
+      DirectoryScanner.get (scan);
+    } finally {
+      release.countDown ();
+      pool.shutdown ();
+    }
+  }
+
+  public void testLinks () throws IOException {
+    try {
+      Files.createSymbolicLink (new File (_root, "link.h").toPath (), new File (_root, "a.h")
+          .toPath ());
+      Files.createSymbolicLink (new File (_root, "loop").toPath (), _root.toPath ());
+      Files.createSymbolicLink (new File (_root, "broken.h").toPath (), new File (_root,
+          "missing").toPath ());
+    } catch (final UnsupportedOperationException | IOException e) {
+      // Links not available on this platform
+      return;
+    }
+    assertEquals (scan ("**/*.h"), list ("a.h", "link.h", "other/e.h", "sys/arch/d.h", "sys/c.h"));
+  }
+
+}
\ No newline at end of file
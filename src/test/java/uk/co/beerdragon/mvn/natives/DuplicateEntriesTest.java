@@ -0,0 +1,165 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import uk.co.beerdragon.mvn.natives.DuplicateEntries.Content;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveFormat;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveWriter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link DuplicateEntries} class.
+ */
+@Test
+public class DuplicateEntriesTest {
+
+  public void testIsPolicy () {
+    assertTrue (DuplicateEntries.isPolicy ("none"));
+    assertTrue (DuplicateEntries.isPolicy ("crc"));
+    assertTrue (DuplicateEntries.isPolicy ("hash"));
+    assertFalse (DuplicateEntries.isPolicy ("link"));
+    assertFalse (DuplicateEntries.isPolicy (null));
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidPolicy () {
+    new DuplicateEntries ("none", Collections.<Artifact> emptyList ());
+  }
+
+  private static File createArchive (final File dir, final ArchiveFormat format,
+      final Map<String, String> entries) throws IOException {
+    final File file = new File (dir, "test." + format.getExtension ());
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      final ArchiveWriter writer = format.createWriter (out, null, 1);
+      for (final Map.Entry<String, String> entry : entries.entrySet ()) {
+        final byte[] content = entry.getValue ().getBytes ();
+        writer.write (entry.getKey (), 0, content.length, new ByteArrayInputStream (content));
+      }
+      writer.close ();
+    }
+    return file;
+  }
+
+  private static void testRead (final ArchiveFormat format, final String policy)
+      throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = createArchive (tmp, format, ImmutableMap.of ("LICENSE", "GPL",
+          "include/a.h", "int a;", "include/b.h", "int a;", "include/c.h", "int c;"));
+      final DuplicateEntries instance = new DuplicateEntries (policy,
+          Collections.<Artifact> emptyList ());
+      final Map<String, Content> contents = instance.read (file, Arrays.asList ("include/a.h",
+          "include/b.h", "include/c.h", "include/d.h"));
+      assertEquals (contents.keySet (), ImmutableSet.of ("include/a.h", "include/b.h",
+          "include/c.h"));
+      assertEquals (contents.get ("include/a.h"), contents.get ("include/b.h"));
+      assertNotEquals (contents.get ("include/a.h"), contents.get ("include/c.h"));
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testReadZip () throws IOException {
+    testRead (ArchiveFormat.ZIP, "crc");
+  }
+
+  public void testReadTar () throws IOException {
+    testRead (ArchiveFormat.TAR, "crc");
+  }
+
+  public void testReadHash () throws IOException {
+    testRead (ArchiveFormat.ZIP, "hash");
+    testRead (ArchiveFormat.TAR, "hash");
+  }
+
+  public void testContentEquality () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = createArchive (tmp, ArchiveFormat.ZIP, ImmutableMap.of ("a.h", "int a;",
+          "b.h", "int b;", "c.h", "int c;;"));
+      final Map<String, Content> crc = new DuplicateEntries ("crc",
+          Collections.<Artifact> emptyList ()).read (file, Arrays.asList ("a.h", "b.h", "c.h"));
+      final Content a = crc.get ("a.h");
+      assertEquals (a, a);
+      assertEquals (a, new DuplicateEntries ("crc", Collections.<Artifact> emptyList ()).read (
+          file, Collections.singleton ("a.h")).get ("a.h"));
+      assertNotEquals (a, crc.get ("b.h"));
+      assertNotEquals (a, crc.get ("c.h"));
+      // The same size and CRC-32, but only one has a digest
+      assertNotEquals (a, new DuplicateEntries ("hash", Collections.<Artifact> emptyList ())
+          .read (file, Collections.singleton ("a.h")).get ("a.h"));
+      assertFalse (a.equals ("a.h"));
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testGetWriter () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File gpl = createArchive (tmp, ArchiveFormat.ZIP, ImmutableMap.of ("LICENSE", "GPL"));
+      final Content gplContent = new DuplicateEntries ("crc", Collections.<Artifact> emptyList ())
+          .read (gpl, Collections.singleton ("LICENSE")).get ("LICENSE");
+      final File bsd = createArchive (tmp, ArchiveFormat.ZIP, ImmutableMap.of ("LICENSE", "BSD"));
+      final Content bsdContent = new DuplicateEntries ("crc", Collections.<Artifact> emptyList ())
+          .read (bsd, Collections.singleton ("LICENSE")).get ("LICENSE");
+      final Artifact a = Mockito.mock (Artifact.class);
+      final Artifact b = Mockito.mock (Artifact.class);
+      final Artifact c = Mockito.mock (Artifact.class);
+      final Artifact d = Mockito.mock (Artifact.class);
+      final DuplicateEntries instance = new DuplicateEntries ("crc", Arrays.asList (a, b, c, d));
+      // Added out of order, as the first artifact with the content writes it
+      instance.add (c, Collections.singletonMap ("LICENSE", gplContent));
+      instance.add (b, Collections.singletonMap ("LICENSE", bsdContent));
+      instance.add (a, Collections.singletonMap ("LICENSE", gplContent));
+      assertSame (instance.getWriter (a, "LICENSE"), a);
+      assertSame (instance.getWriter (b, "LICENSE"), b);
+      assertSame (instance.getWriter (c, "LICENSE"), a);
+      // Not recorded as colliding
+      assertSame (instance.getWriter (d, "LICENSE"), d);
+      assertSame (instance.getWriter (c, "README"), c);
+      final Set<Artifact> artifacts = ImmutableSet.of (a, b, c);
+      final Set<Artifact> writers = instance.getWriters ("LICENSE", artifacts);
+      assertEquals (writers, ImmutableSet.of (a, b));
+      // Shared between entries
+      instance.add (a, Collections.singletonMap ("COPYING", gplContent));
+      instance.add (b, Collections.singletonMap ("COPYING", bsdContent));
+      instance.add (c, Collections.singletonMap ("COPYING", gplContent));
+      assertSame (instance.getWriters ("COPYING", ImmutableSet.of (a, b, c)), writers);
+      // Unchanged if every copy is written
+      final Set<Artifact> distinct = ImmutableSet.of (a, b);
+      assertSame (instance.getWriters ("LICENSE", distinct), distinct);
+      assertSame (instance.getWriters ("README", artifacts), artifacts);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link EntryFilter} class.
+ */
+@Test
+public class EntryFilterTest {
+
+  public void testNormalize () {
+    assertEquals (EntryFilter.normalize ("amd64"), "x64");
+    assertEquals (EntryFilter.normalize (" X86_64 "), "x64");
+    assertEquals (EntryFilter.normalize ("i686"), "i386");
+    assertEquals (EntryFilter.normalize ("aarch64"), "arm64");
+    assertEquals (EntryFilter.normalize ("ppc64le"), "ppc64le");
+  }
+
+  public void testGetArch () {
+    assertEquals (EntryFilter.getArch ("bin-x64/foo.dll"), "x64");
+    assertEquals (EntryFilter.getArch ("lib-amd64/foo.lib"), "x64");
+    assertNull (EntryFilter.getArch ("bin/foo.exe"));
+    assertNull (EntryFilter.getArch ("bin-/foo.exe"));
+    assertNull (EntryFilter.getArch ("include/foo.h"));
+    assertNull (EntryFilter.getArch ("lib-x64"));
+    assertNull (EntryFilter.getArch ("LICENSE"));
+  }
+
+  private static final List<String> ENTRIES = Arrays.asList ("include/foo.h", "bin/foo.exe",
+      "bin-x64/foo.dll", "lib-x64/foo.lib", "lib-i386/foo.lib");
+
+  public void testApply () {
+    assertEquals (new EntryFilter (Collections.singleton ("amd64")).apply (ENTRIES),
+        Arrays.asList ("include/foo.h", "bin/foo.exe", "bin-x64/foo.dll", "lib-x64/foo.lib"));
+    assertEquals (new EntryFilter (Collections.singleton ("i386")).apply (ENTRIES),
+        Arrays.asList ("include/foo.h", "bin/foo.exe", "lib-i386/foo.lib"));
+    assertEquals (new EntryFilter (Arrays.asList ("x64", "i386")).apply (ENTRIES), ENTRIES);
+    assertEquals (new EntryFilter (null).apply (ENTRIES), ENTRIES);
+  }
+
+  public void testApplyNoMatch () {
+    // Nothing for the architecture being built, so everything is unpacked
+    assertEquals (new EntryFilter (Collections.singleton ("arm64")).apply (ENTRIES), ENTRIES);
+  }
+
+  public void testSelect () {
+    final EntryFilter all = new EntryFilter (null);
+    assertSame (all.select (null, new String[] {" " }), all);
+    final EntryFilter headers = all.select (new String[] {"include/**" }, null);
+    assertEquals (headers.apply (ENTRIES), Collections.singletonList ("include/foo.h"));
+    final EntryFilter libs = all.select (new String[] {"lib*/**" }, new String[] {"**/*.h" });
+    assertEquals (libs.apply (ENTRIES), Arrays.asList ("lib-x64/foo.lib", "lib-i386/foo.lib"));
+    // Every group of includes must match
+    assertEquals (libs.select (new String[] {"*-x64/**" }, null).apply (ENTRIES),
+        Collections.singletonList ("lib-x64/foo.lib"));
+    // Applied after the architectures
+    assertEquals (new EntryFilter (Collections.singleton ("x64")).select (null,
+        new String[] {"include/**", "bin/**" }).apply (ENTRIES),
+        Arrays.asList ("bin-x64/foo.dll", "lib-x64/foo.lib"));
+  }
+
+  public void testToString () {
+    assertEquals (new EntryFilter (Arrays.asList ("x86_64", "i386", " ")).toString (),
+        "arch:i386,x64");
+    assertEquals (new EntryFilter (null).toString (), "");
+    assertEquals (new EntryFilter (Collections.singleton ("x64"))
+        .select (new String[] {"a", "b" }, new String[] {"c" })
+        .select (new String[] {"d" }, new String[] {"e" }).toString (),
+        "arch:x64;include:a,b;include:d;exclude:c,e");
+  }
+
+}
\ No newline at end of file
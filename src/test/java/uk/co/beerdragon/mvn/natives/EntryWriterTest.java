@@ -0,0 +1,124 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link EntryWriter} class.
+ */
+@Test
+public class EntryWriterTest {
+
+  private static byte[] createData (final int size) {
+    final byte[] data = new byte[size];
+    new Random (size).nextBytes (data);
+    return data;
+  }
+
+  private static long crc (final byte[] data) {
+    final CRC32 crc = new CRC32 ();
+    crc.update (data);
+    return crc.getValue ();
+  }
+
+  public void testGetBufferSize () {
+    assertEquals (EntryWriter.getBufferSize (-1), EntryWriter.UNKNOWN_SIZE_BUFFER_SIZE);
+    assertEquals (EntryWriter.getBufferSize (0), EntryWriter.MIN_BUFFER_SIZE);
+    assertEquals (EntryWriter.getBufferSize (100000), 100000);
+    assertEquals (EntryWriter.getBufferSize (1L << 40), EntryWriter.MAX_BUFFER_SIZE);
+  }
+
+  public void testIsFsyncPolicy () {
+    assertTrue (EntryWriter.isFsyncPolicy ("none"));
+    assertTrue (EntryWriter.isFsyncPolicy ("artifact"));
+    assertTrue (EntryWriter.isFsyncPolicy ("file"));
+    assertFalse (EntryWriter.isFsyncPolicy ("always"));
+    assertFalse (EntryWriter.isFsyncPolicy (null));
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidFsync () {
+    new EntryWriter ("always");
+  }
+
+  private static void testWrite (final String fsync, final int size, final long recordedSize)
+      throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = new File (tmp, "test.dll");
+      final byte[] data = createData (size);
+      final EntryWriter writer = new EntryWriter (fsync);
+      final CRC32 crc = new CRC32 ();
+      try (final FileOutputStream output = new FileOutputStream (file)) {
+        assertEquals (writer.write (new ByteArrayInputStream (data), output, file, recordedSize,
+            crc), size);
+      }
+      writer.finish ();
+      assertEquals (crc.getValue (), crc (data));
+      assertEquals (Files.toByteArray (file), data);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testWriteSmall () throws IOException {
+    testWrite (EntryWriter.FSYNC_NONE, 100, 100);
+  }
+
+  public void testWriteUnknownSize () throws IOException {
+    testWrite (EntryWriter.FSYNC_FILE, 200000, -1);
+  }
+
+  public void testWriteLarge () throws IOException {
+    testWrite (EntryWriter.FSYNC_ARTIFACT, 10 * 1024 * 1024 + 1, 10 * 1024 * 1024 + 1);
+  }
+
+  public void testWriteShorterThanRecorded () throws IOException {
+    testWrite (EntryWriter.FSYNC_NONE, 2 * 1024 * 1024, 3 * 1024 * 1024);
+  }
+
+  public void testWriteWithoutChecksum () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = new File (tmp, "test.dll");
+      final byte[] data = createData (100);
+      try (final FileOutputStream output = new FileOutputStream (file)) {
+        assertEquals (new EntryWriter (EntryWriter.FSYNC_NONE).write (new ByteArrayInputStream (
+            data), output, file, data.length, null), data.length);
+      }
+      assertEquals (Files.toByteArray (file), data);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testWriteStream () throws IOException {
+    final byte[] data = createData (50000);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream ();
+    final EntryWriter writer = new EntryWriter (EntryWriter.FSYNC_FILE);
+    assertEquals (writer.write (new ByteArrayInputStream (data), output, new File ("test"),
+        data.length, null), data.length);
+    assertEquals (output.toByteArray (), data);
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+/**
+ * Compares creating the folders of 20,000 unpacked files by calling {@link File#mkdir} on each
+ * path component of each file, as unpacking used to, with {@link FolderCreator}. The files are
+ * spread over 400 folders, four levels deep. Each approach creates the tree in an empty folder,
+ * then again over the existing tree as an incremental build would.
+ * <p>
+ * This is not run as part of the tests; run the {@link #main} method from the test class path.
+ */
+public final class FolderCreatorBenchmark {
+
+  private static final int FILES = 20000;
+
+  private static final int FOLDERS = 400;
+
+  private static final int ROUNDS = 5;
+
+  private FolderCreatorBenchmark () {
+  }
+
+  private static long perComponent (final File root, final List<String> paths) {
+    long calls = 0;
+    for (final String path : paths) {
+      File file = root;
+      for (final String component : path.split ("/")) {
+        file.mkdir ();
+        calls++;
+        file = new File (file, component);
+      }
+    }
+    return calls;
+  }
+
+  public static void main (final String[] args) throws IOException {
+    final List<String> paths = new ArrayList<String> (FILES);
+    for (int i = 0; i < FILES; i++) {
+      final int folder = i % FOLDERS;
+      paths.add ("include/module" + (folder / 100) + "/part" + (folder / 10) + "/sub" + folder
+          + "/header" + i + ".h");
+    }
+    long bestOld = Long.MAX_VALUE;
+    long bestNew = Long.MAX_VALUE;
+    long oldCalls = 0;
+    long newCalls = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      final File tmp = Files.createTempDir ();
+      try {
+        final File root = new File (tmp, "old");
+        long start = System.nanoTime ();
+        oldCalls = perComponent (root, paths) + perComponent (root, paths);
+        bestOld = Math.min (bestOld, System.nanoTime () - start);
+        final File root2 = new File (tmp, "new");
+        start = System.nanoTime ();
+        final FolderCreator first = new FolderCreator ();
+        first.createParents (root2, paths);
+        final FolderCreator again = new FolderCreator ();
+        again.createParents (root2, paths);
+        bestNew = Math.min (bestNew, System.nanoTime () - start);
+        newCalls = first.getCalls () + again.getCalls ();
+      } finally {
+        SharedCache.delete (tmp);
+      }
+    }
+    System.out.println ("Creating the folders of " + FILES + " files, twice");
+    System.out.println ("  mkdir per component: " + oldCalls + " calls, " + (bestOld / 1000000)
+        + "ms");
+    System.out.println ("  FolderCreator:       " + newCalls + " calls, " + (bestNew / 1000000)
+        + "ms");
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link FolderCreator} class.
+ */
+@Test
+public class FolderCreatorTest {
+
+  public void testCreateParents () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File root = new File (tmp, "root");
+      final FolderCreator instance = new FolderCreator ();
+      instance.createParents (root, Arrays.asList ("LICENSE", "include/a/b/x.h",
+          "include/a/b/y.h", "include/a/c/z.h", "include-x/w.h", "lib/l.lib"));
+      assertTrue (new File (root, "include/a/b").isDirectory ());
+      assertTrue (new File (root, "include/a/c").isDirectory ());
+      assertTrue (new File (root, "include-x").isDirectory ());
+      assertTrue (new File (root, "lib").isDirectory ());
+      // The root, and then one call for each of the six folders
+      assertEquals (instance.getCalls (), 7);
+      // Already created
+      instance.createParents (root, Collections.singleton ("include/a/b/x.h"));
+      assertEquals (instance.getCalls (), 7);
+      // Existing folders are accepted
+      final FolderCreator other = new FolderCreator ();
+      other.createParents (root, Collections.singleton ("include/a/b/x.h"));
+      assertEquals (other.getCalls (), 4);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testCreateParentsOverFile () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      Files.write (new byte[1], new File (tmp, "lib"));
+      new FolderCreator ().createParents (tmp, Collections.singleton ("lib/l.lib"));
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testCreateParent () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final FolderCreator instance = new FolderCreator ();
+      instance.createParent (new File (tmp, "a/b/x.h"));
+      instance.createParent (new File (tmp, "a/b/y.h"));
+      instance.createParent (new File (tmp, "a/z.h"));
+      assertTrue (new File (tmp, "a/b").isDirectory ());
+      assertEquals (instance.getCalls (), 2);
+      // The root has no parent to create
+      instance.createParent (tmp.toPath ().getRoot ().toFile ());
+      assertEquals (instance.getCalls (), 2);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+}
\ No newline at end of file
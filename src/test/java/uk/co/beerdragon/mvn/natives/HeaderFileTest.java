@@ -66,6 +66,14 @@ public class HeaderFileTest {
     assertFalse (b.equals (a));
   }
 
+  public void testInequality_compression () {
+    final HeaderFile a = new HeaderFile ();
+    final HeaderFile b = new HeaderFile ();
+    b.setCompression ("store");
+    assertFalse (a.equals (b));
+    assertFalse (b.equals (a));
+  }
+
   public void testWindowsDefaults () {
     final HeaderFile file = new HeaderFile ();
     assertNull (file.getPath ());
@@ -0,0 +1,113 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+
+/**
+ * Measures the heap used by {@link NameIndex} against a {@link HashMap} holding a set per name,
+ * as gatherNames used to build. There are 40 dependencies of 10,000 entries, a quarter of each
+ * colliding with the other dependencies. The entry names themselves are held by the entry lists
+ * in both cases, so only the index is measured.
+ * <p>
+ * This is not run as part of the tests; run the {@link #main} method from the test class path.
+ */
+public final class NameIndexBenchmark {
+
+  private static final int ARTIFACTS = 40;
+
+  private static final int ENTRIES = 10000;
+
+  /**
+   * The index being measured, held so that it is not collected.
+   */
+  private static Object _index;
+
+  private NameIndexBenchmark () {
+  }
+
+  private static long usedHeap () {
+    final Runtime runtime = Runtime.getRuntime ();
+    for (int i = 0; i < 4; i++) {
+      System.gc ();
+    }
+    return runtime.totalMemory () - runtime.freeMemory ();
+  }
+
+  private static Object hashMap (final List<Artifact> artifacts, final List<List<String>> entries) {
+    final Map<String, Set<Artifact>> names = new HashMap<String, Set<Artifact>> ();
+    for (int i = 0; i < artifacts.size (); i++) {
+      final Artifact artifact = artifacts.get (i);
+      for (final String name : entries.get (i)) {
+        Set<Artifact> collision = names.get (name);
+        if (collision == null) {
+          names.put (name, Collections.<Artifact> singleton (artifact));
+        } else {
+          if (collision.size () == 1) {
+            collision = new HashSet<Artifact> (collision);
+            names.put (name, collision);
+          }
+          collision.add (artifact);
+        }
+      }
+    }
+    return names;
+  }
+
+  private static Object nameIndex (final List<Artifact> artifacts,
+      final List<List<String>> entries) {
+    final NameIndex names = new NameIndex ();
+    for (int i = 0; i < artifacts.size (); i++) {
+      final Artifact artifact = artifacts.get (i);
+      for (final String name : entries.get (i)) {
+        names.add (artifact, name);
+      }
+    }
+    return names;
+  }
+
+  public static void main (final String[] args) {
+    final List<Artifact> artifacts = new ArrayList<Artifact> ();
+    final List<List<String>> entries = new ArrayList<List<String>> ();
+    for (int i = 0; i < ARTIFACTS; i++) {
+      artifacts.add (new DefaultArtifact ("group", "library" + i, "1.0", "compile",
+          "native-dynamic", "", null));
+      final List<String> names = new ArrayList<String> (ENTRIES);
+      for (int j = 0; j < ENTRIES; j++) {
+        if (j % 4 == 0) {
+          names.add (("include/common/header" + j + ".h").intern ());
+        } else {
+          names.add ("include/library" + i + "/header" + j + ".h");
+        }
+      }
+      entries.add (names);
+    }
+    long base = usedHeap ();
+    _index = nameIndex (artifacts, entries);
+    final long nameIndex = usedHeap () - base;
+    _index = null;
+    base = usedHeap ();
+    _index = hashMap (artifacts, entries);
+    final long hashMap = usedHeap () - base;
+    _index = null;
+    System.out.println ("Indexing " + (ARTIFACTS * ENTRIES) + " entries of " + ARTIFACTS
+        + " dependencies");
+    System.out.println ("  HashMap:   " + (hashMap / 1024) + "KB");
+    System.out.println ("  NameIndex: " + (nameIndex / 1024) + "KB");
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests the {@link NameIndex} class.
+ */
+@Test
+public class NameIndexTest {
+
+  private static Artifact artifact (final String artifactId) {
+    return new DefaultArtifact ("group", artifactId, "1.0", "compile", "native-static", "", null);
+  }
+
+  public void testGet () {
+    final Artifact a = artifact ("a");
+    final Artifact b = artifact ("b");
+    final Artifact c = artifact ("c");
+    final NameIndex index = new NameIndex ();
+    index.add (a, "LICENSE");
+    index.add (a, "lib/a.lib");
+    index.add (b, "LICENSE");
+    index.add (b, "bin/b.exe");
+    index.add (c, "LICENSE");
+    index.add (c, "bin/b.exe");
+    assertEquals (index.size (), 3);
+    assertEquals (index.get ("LICENSE"), ImmutableSet.of (a, b, c));
+    assertEquals (index.get ("lib/a.lib"), Collections.singleton (a));
+    assertEquals (index.get ("bin/b.exe"), ImmutableSet.of (b, c));
+    assertNull (index.get ("include/a.h"));
+  }
+
+  public void testDuplicate () {
+    final Artifact a = artifact ("a");
+    final NameIndex index = new NameIndex ();
+    index.add (a, "LICENSE");
+    index.add (a, "LICENSE");
+    assertEquals (index.size (), 1);
+    assertEquals (index.get ("LICENSE"), Collections.singleton (a));
+  }
+
+  public void testSharedSets () {
+    final Artifact a = artifact ("a");
+    final Artifact b = artifact ("b");
+    final NameIndex index = new NameIndex ();
+    for (int i = 0; i < 10000; i++) {
+      index.add (a, "include/" + i + ".h");
+    }
+    // Interleaved, so that the transitions are not only taken from the current artifact
+    for (int i = 0; i < 10000; i++) {
+      index.add ((i % 2 == 0) ? a : b, "lib/" + i + ".lib");
+      index.add (b, "include/" + i + ".h");
+    }
+    assertEquals (index.size (), 20000);
+    assertEquals (index.get ("include/0.h"), ImmutableSet.of (a, b));
+    assertSame (index.get ("include/0.h"), index.get ("include/9999.h"));
+    assertSame (index.get ("lib/0.lib"), index.get ("lib/2.lib"));
+    assertEquals (index.get ("lib/1.lib"), Collections.singleton (b));
+  }
+
+  public void testManySets () {
+    // Every combination of the artifacts, so that each is added to more sets than first allowed
+    final Artifact[] artifacts = new Artifact[6];
+    for (int i = 0; i < artifacts.length; i++) {
+      artifacts[i] = artifact (Integer.toString (i));
+    }
+    final NameIndex index = new NameIndex ();
+    for (int i = 0; i < artifacts.length; i++) {
+      for (int name = 0; name < (1 << artifacts.length); name++) {
+        if ((name & (1 << i)) != 0) {
+          index.add (artifacts[i], Integer.toString (name));
+        }
+      }
+    }
+    assertEquals (index.size (), (1 << artifacts.length) - 1);
+    for (int name = 1; name < (1 << artifacts.length); name++) {
+      final Set<Artifact> expected = new HashSet<Artifact> ();
+      for (int i = 0; i < artifacts.length; i++) {
+        if ((name & (1 << i)) != 0) {
+          expected.add (artifacts[i]);
+        }
+      }
+      assertEquals (index.get (Integer.toString (name)), expected);
+    }
+  }
+
+}
\ No newline at end of file
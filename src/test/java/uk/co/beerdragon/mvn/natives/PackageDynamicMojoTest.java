@@ -111,11 +111,25 @@ public class PackageDynamicMojoTest {
   public void testPackageEquivalent () {
     final PackageDynamicMojo instance = new PackageDynamicMojo ();
     instance.setSkip (true);
+    instance.setThreads (4);
+    instance.setMemoryBudget (1024);
+    instance.setCompression ("auto");
+    instance.setReproducible (true);
+    instance.setOutputTimestamp ("0");
+    instance.setFormat ("tar.gz");
+    instance.setArchClassifiers (true);
     instance.setDefaults ("windows");
     instance.setSources (new Source[] { new Source () });
     instance.setDynamicLibs (new DynamicLib[] { new DynamicLib () });
     final PackageMojo delegate = instance.delegate ();
     assertTrue (delegate.isSkip ());
+    assertEquals (delegate.getThreads (), 4);
+    assertEquals (delegate.getMemoryBudget (), 1024);
+    assertEquals (delegate.getCompression (), "auto");
+    assertTrue (delegate.isReproducible ());
+    assertEquals (delegate.getOutputTimestamp (), "0");
+    assertEquals (delegate.getFormat (), "tar.gz");
+    assertTrue (delegate.isArchClassifiers ());
     assertNull (delegate.getDefaults ());
     assertEquals (delegate.getSources (), new Source[] { new Source () });
     assertNull (delegate.getHeaderFiles ());
@@ -148,6 +162,7 @@ public class PackageDynamicMojoTest {
       Mockito.verifyZeroInteractions (outputStreams);
     } finally {
       file.delete ();
+      PackageFingerprint.delete (file);
     }
   }
 
@@ -177,6 +192,7 @@ public class PackageDynamicMojoTest {
       }).callWithAssertion ());
     } finally {
       file.delete ();
+      PackageFingerprint.delete (file);
     }
   }
 
@@ -118,11 +118,25 @@ public class PackageExecMojoTest {
   public void testPackageEquivalent () {
     final PackageExecMojo instance = new PackageExecMojo ();
     instance.setSkip (true);
+    instance.setThreads (4);
+    instance.setMemoryBudget (1024);
+    instance.setCompression ("auto");
+    instance.setReproducible (true);
+    instance.setOutputTimestamp ("0");
+    instance.setFormat ("tar.gz");
+    instance.setArchClassifiers (true);
     instance.setDefaults ("windows");
     instance.setSources (new Source[] { new Source () });
     instance.setExecutables (new Executable[] { new Executable () });
     final PackageMojo delegate = instance.delegate ();
     assertTrue (delegate.isSkip ());
+    assertEquals (delegate.getThreads (), 4);
+    assertEquals (delegate.getMemoryBudget (), 1024);
+    assertEquals (delegate.getCompression (), "auto");
+    assertTrue (delegate.isReproducible ());
+    assertEquals (delegate.getOutputTimestamp (), "0");
+    assertEquals (delegate.getFormat (), "tar.gz");
+    assertTrue (delegate.isArchClassifiers ());
     assertNull (delegate.getDefaults ());
     assertEquals (delegate.getSources (), new Source[] { new Source () });
     assertNull (delegate.getHeaderFiles ());
@@ -155,6 +169,7 @@ public class PackageExecMojoTest {
       Mockito.verifyZeroInteractions (outputStreams);
     } finally {
       file.delete ();
+      PackageFingerprint.delete (file);
     }
   }
 
@@ -185,6 +200,7 @@ public class PackageExecMojoTest {
       }).callWithAssertion ());
     } finally {
       file.delete ();
+      PackageFingerprint.delete (file);
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link PackageFingerprint} class.
+ */
+@Test
+public class PackageFingerprintTest {
+
+  private static void write (final File file, final String content) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content.getBytes ());
+    }
+  }
+
+  private static PackageFingerprint create (final boolean hash, final File input)
+      throws IOException {
+    final PackageFingerprint fingerprint = new PackageFingerprint (hash);
+    final Source source = new Source ();
+    source.setPath (input.getParent ());
+    source.setPattern ("*.txt");
+    fingerprint.addSource (source, "");
+    fingerprint.addFile (input.getName (), input, input.length (), input.lastModified ());
+    fingerprint.addOption ("level", 9);
+    return fingerprint;
+  }
+
+  public void testMatches () throws IOException {
+    final File input = File.createTempFile ("test", ".txt");
+    final File archive = File.createTempFile ("test", ".zip");
+    try {
+      write (input, "foo");
+      assertFalse (create (false, input).matches (archive));
+      assertTrue (create (false, input).store (archive));
+      assertTrue (create (false, input).matches (archive));
+      assertFalse (create (true, input).matches (archive));
+      final PackageFingerprint option = create (false, input);
+      option.addOption ("level", 1);
+      assertFalse (option.matches (archive));
+      write (archive, "changed");
+      assertFalse (create (false, input).matches (archive));
+      assertTrue (create (false, input).store (archive));
+      write (PackageFingerprint.getFile (archive), "level=\\uZZZZ\n");
+      assertFalse (create (false, input).matches (archive));
+      PackageFingerprint.delete (archive);
+      assertFalse (create (false, input).matches (archive));
+      archive.delete ();
+      assertFalse (create (false, input).matches (archive));
+    } finally {
+      input.delete ();
+      archive.delete ();
+      PackageFingerprint.delete (archive);
+    }
+  }
+
+  public void testContentHash () throws IOException {
+    final File input = File.createTempFile ("test", ".txt");
+    final File archive = File.createTempFile ("test", ".zip");
+    try {
+      write (input, "foo");
+      final long time = input.lastModified ();
+      assertTrue (create (true, input).store (archive));
+      assertTrue (create (true, input).matches (archive));
+      write (input, "bar");
+      input.setLastModified (time);
+      assertTrue (create (false, input).store (archive));
+      write (input, "foo");
+      input.setLastModified (time);
+      assertTrue (create (false, input).matches (archive));
+      assertTrue (create (true, input).store (archive));
+      write (input, "bar");
+      input.setLastModified (time);
+      assertFalse (create (true, input).matches (archive));
+    } finally {
+      input.delete ();
+      archive.delete ();
+      PackageFingerprint.delete (archive);
+    }
+  }
+
+  public void testCantStore () {
+    final File archive = new File (new File ("missing-folder"), "test.zip");
+    assertFalse (new PackageFingerprint (false).store (archive));
+  }
+
+  public void testCantWrite () throws IOException {
+    final File archive = File.createTempFile ("test", ".zip");
+    try {
+      if (!new File ("/dev/full").exists ()) {
+        // No device to fail writes on this platform
+        return;
+      }
+      Files.createSymbolicLink (PackageFingerprint.getFile (archive).toPath (), Paths.get (
+          "/dev/full"));
+      assertFalse (new PackageFingerprint (false).store (archive));
+    } finally {
+      archive.delete ();
+      PackageFingerprint.delete (archive);
+    }
+  }
+
+  public void testDigest () throws IOException {
+    final File input = File.createTempFile ("test", ".txt");
+    try {
+      write (input, "abc");
+      assertEquals (PackageFingerprint.digest (input), "a9993e364706816aba3e25717850c26c9cd0d89d");
+    } finally {
+      input.delete ();
+    }
+  }
+
+}
\ No newline at end of file
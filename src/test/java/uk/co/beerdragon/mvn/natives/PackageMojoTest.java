@@ -10,18 +10,35 @@ package uk.co.beerdragon.mvn.natives;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
@@ -30,6 +47,11 @@ import org.testng.annotations.Test;
 
 import uk.co.beerdragon.misc.InputStreamOpener;
 import uk.co.beerdragon.misc.OutputStreamOpener;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveFormat;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveReader;
+import uk.co.beerdragon.mvn.natives.archive.CompressionPolicy;
+
+import com.google.common.io.Files;
 
 /**
  * Tests the {@link PackageMojo} class.
@@ -53,6 +75,24 @@ public class PackageMojoTest {
     assertEquals (instance.getStaticLibs (), new StaticLib[] { new StaticLib () });
     assertEquals (instance.getDynamicLibs (), new DynamicLib[] { new DynamicLib () });
     assertEquals (instance.getExecutables (), new Executable[] { new Executable () });
+    assertEquals (instance.getThreads (), 1);
+    assertEquals (instance.getMemoryBudget (), AbstractPackageMojo.DEFAULT_MEMORY_BUDGET);
+    instance.setThreads (4);
+    instance.setMemoryBudget (1024);
+    assertEquals (instance.getThreads (), 4);
+    assertEquals (instance.getMemoryBudget (), 1024);
+    assertNull (instance.getCompression ());
+    instance.setCompression ("auto");
+    assertEquals (instance.getCompression (), "auto");
+    assertFalse (instance.isReproducible ());
+    assertNull (instance.getOutputTimestamp ());
+    instance.setReproducible (true);
+    instance.setOutputTimestamp ("1394879421");
+    assertTrue (instance.isReproducible ());
+    assertEquals (instance.getOutputTimestamp (), "1394879421");
+    assertNull (instance.getFormat ());
+    instance.setFormat ("tar");
+    assertEquals (instance.getFormat (), "tar");
   }
 
   public void testDefaultsApplied_nothing () {
@@ -164,6 +204,13 @@ public class PackageMojoTest {
     assertEquals (PackageMojo.regex (""), "^.*$");
     assertEquals (PackageMojo.regex ("*.*"), "^.*\\..*$");
     assertEquals (PackageMojo.regex ("foo\\bar?"), "^foo\\\\bar.$");
+    assertEquals (PackageMojo.regex ("**/*.h"), "^(?:.*/)?[^/]*\\.h$");
+    assertEquals (PackageMojo.regex ("sys/?.h"), "^sys/[^/]\\.h$");
+    assertEquals (PackageMojo.regex ("sys/**"), "^sys/.*$");
+    assertFalse (PackageMojo.isRecursive (null));
+    assertFalse (PackageMojo.isRecursive ("*.h"));
+    assertTrue (PackageMojo.isRecursive ("sys/*.h"));
+    assertTrue (PackageMojo.isRecursive ("**.h"));
   }
 
   @Test (expectedExceptions = MojoFailureException.class)
@@ -293,4 +340,807 @@ public class PackageMojoTest {
     instance.execute ();
   }
 
+  private static Map<String, String> execute (final int threads, final long memoryBudget)
+      throws Exception {
+    final File file = File.createTempFile ("test", ".zip");
+    try {
+      final PackageMojo instance = new PackageMojo ();
+      instance.setDefaults ("package-mojo-test");
+      instance.setThreads (threads);
+      instance.setMemoryBudget (memoryBudget);
+      instance.setLog (Mockito.mock (Log.class));
+      final MavenProject project = new MavenProject ();
+      project.setArtifactId (file.getName ().substring (0, file.getName ().length () - 4));
+      project.getBuild ().setDirectory (file.getParent ());
+      project.setArtifact (Mockito.mock (Artifact.class));
+      instance.setPluginContext (Collections.singletonMap ("project", project));
+      instance.execute ();
+      final Map<String, String> entries = new HashMap<String, String> ();
+      try (final ZipFile zip = new ZipFile (file)) {
+        final Enumeration<? extends ZipEntry> e = zip.entries ();
+        while (e.hasMoreElements ()) {
+          final ZipEntry entry = e.nextElement ();
+          try (final InputStream in = zip.getInputStream (entry)) {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream ();
+            int b;
+            while ((b = in.read ()) >= 0) {
+              content.write (b);
+            }
+            entries.put (entry.getName (), content.toString ());
+          }
+        }
+      }
+      return entries;
+    } finally {
+      file.delete ();
+      PackageFingerprint.delete (file);
+    }
+  }
+
+  public void testExecuteParallel () throws Exception {
+    final Map<String, String> serial = execute (1, AbstractPackageMojo.DEFAULT_MEMORY_BUDGET);
+    assertEquals (serial.size (), 11);
+    assertEquals (execute (4, AbstractPackageMojo.DEFAULT_MEMORY_BUDGET), serial);
+    assertEquals (execute (3, 0), serial);
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testCantReadFromSourceParallel () throws Exception {
+    final PackageMojo instance = new PackageMojo ();
+    instance.setDefaults ("package-mojo-test");
+    instance.setThreads (2);
+    instance.setLog (Mockito.mock (Log.class));
+    final MavenProject project = new MavenProject ();
+    project.setArtifactId ("test");
+    project.getBuild ().setDirectory ("target");
+    project.setArtifact (Mockito.mock (Artifact.class));
+    instance.setPluginContext (Collections.singletonMap ("project", project));
+    final OutputStreamOpener outputStreams = Mockito.mock (OutputStreamOpener.class);
+    Mockito.when (outputStreams.open (new File ("target" + File.separator + "test.zip")))
+        .thenReturn (new ByteArrayOutputStream ());
+    instance.setOutputStreams (outputStreams);
+    instance.setInputStreams (new InputStreamOpener () {
+
+      @Override
+      public InputStream open (final File file) throws IOException {
+        if (file.getName ().endsWith (".lib")) {
+          return new FileInputStream (file) {
+
+            @Override
+            public int read (final byte[] buffer, final int ofs, final int len) throws IOException {
+              throw new IOException ();
+            }
+
+          };
+        } else {
+          return super.open (file);
+        }
+      }
+
+    });
+    instance.execute ();
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testCantOpenSourceParallel () throws Exception {
+    final PackageMojo instance = new PackageMojo ();
+    instance.setDefaults ("package-mojo-test");
+    instance.setThreads (2);
+    instance.setLog (Mockito.mock (Log.class));
+    final MavenProject project = new MavenProject ();
+    project.setArtifactId ("test");
+    project.getBuild ().setDirectory ("target");
+    project.setArtifact (Mockito.mock (Artifact.class));
+    instance.setPluginContext (Collections.singletonMap ("project", project));
+    final OutputStreamOpener outputStreams = Mockito.mock (OutputStreamOpener.class);
+    Mockito.when (outputStreams.open (new File ("target" + File.separator + "test.zip")))
+        .thenReturn (new ByteArrayOutputStream ());
+    instance.setOutputStreams (outputStreams);
+    instance.setInputStreams (new InputStreamOpener () {
+
+      @Override
+      public InputStream open (final File file) throws IOException {
+        if (file.getName ().endsWith (".h")) {
+          throw new FileNotFoundException (file.getPath ());
+        } else {
+          return super.open (file);
+        }
+      }
+
+    });
+    instance.execute ();
+  }
+
+  private static PackageMojo incrementalInstance (final File tmp, final Artifact artifact) {
+    return incrementalInstance (new PackageMojo (), tmp, artifact);
+  }
+
+  private static PackageMojo incrementalInstance (final PackageMojo instance, final File tmp,
+      final Artifact artifact) {
+    final Source source = new Source ();
+    source.setPath (tmp.getPath ());
+    source.setPattern ("*.txt");
+    instance.setSources (new Source[] { source });
+    instance.setLog (Mockito.mock (Log.class));
+    final MavenProject project = new MavenProject ();
+    project.setArtifactId ("test");
+    project.getBuild ().setDirectory (new File (tmp, "target").getPath ());
+    project.setArtifact (artifact);
+    instance.setPluginContext (Collections.singletonMap ("project", project));
+    return instance;
+  }
+
+  private static void write (final File file, final String content) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content.getBytes ());
+    }
+  }
+
+  private static void delete (final File dir) {
+    if (dir.isDirectory ()) {
+      for (final File file : dir.listFiles ()) {
+        delete (file);
+      }
+    }
+    dir.delete ();
+  }
+
+  public void testExecuteIncremental () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File input = new File (tmp, "a.txt");
+      write (input, "foo");
+      final File archive = new File (new File (tmp, "target"), "test.zip");
+      incrementalInstance (tmp, Mockito.mock (Artifact.class)).execute ();
+      assertTrue (archive.isFile ());
+      assertTrue (PackageFingerprint.getFile (archive).isFile ());
+      // Nothing changed
+      final Artifact artifact = Mockito.mock (Artifact.class);
+      PackageMojo instance = incrementalInstance (tmp, artifact);
+      OutputStreamOpener outputStreams = Mockito.mock (OutputStreamOpener.class);
+      instance.setOutputStreams (outputStreams);
+      instance.execute ();
+      Mockito.verifyZeroInteractions (outputStreams);
+      Mockito.verify (artifact).setFile (archive);
+      // Incremental disabled
+      instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setIncremental (false);
+      outputStreams = Mockito.mock (OutputStreamOpener.class);
+      Mockito.when (outputStreams.open (archive)).thenReturn (new ByteArrayOutputStream ());
+      instance.setOutputStreams (outputStreams);
+      instance.execute ();
+      Mockito.verify (outputStreams).open (archive);
+      assertFalse (PackageFingerprint.getFile (archive).exists ());
+      // Input changed
+      incrementalInstance (tmp, Mockito.mock (Artifact.class)).execute ();
+      write (input, "foobar");
+      instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      outputStreams = Mockito.mock (OutputStreamOpener.class);
+      Mockito.when (outputStreams.open (archive)).thenReturn (new ByteArrayOutputStream ());
+      instance.setOutputStreams (outputStreams);
+      instance.execute ();
+      Mockito.verify (outputStreams).open (archive);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteFingerprintFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "foo");
+      final File archive = new File (new File (tmp, "target"), "test.zip");
+      PackageMojo instance = incrementalInstance (new PackageMojo () {
+
+        @Override
+        PackageFingerprint createFingerprint (final Map<Source, String> sources,
+            final List<PackageFile> files) throws IOException {
+          throw new IOException ("test");
+        }
+
+      }, tmp, Mockito.mock (Artifact.class));
+      instance.execute ();
+      Mockito.verify (instance.getLog ()).warn ("Can't fingerprint package inputs: test");
+      assertTrue (archive.isFile ());
+      assertFalse (PackageFingerprint.getFile (archive).exists ());
+      // A folder, which can't be deleted, where the fingerprint should be written
+      assertTrue (new File (PackageFingerprint.getFile (archive), "other").mkdirs ());
+      instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setReproducible (true);
+      instance.execute ();
+      Mockito.verify (instance.getLog ()).warn ("Can't write fingerprint for " + archive);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = IllegalStateException.class,
+      expectedExceptionsMessageRegExp = "Files read out of order.*")
+  public void testExecuteReadOutOfOrder () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "foo");
+      write (new File (tmp, "b.txt"), "bar");
+      final PackageMojo instance = incrementalInstance (new PackageMojo () {
+
+        @Override
+        PipelinedReader prefetch (final List<PackageFile> files, final long time) {
+          final List<PackageFile> reversed = new ArrayList<PackageFile> (files);
+          Collections.reverse (reversed);
+          return super.prefetch (reversed, time);
+        }
+
+      }, tmp, Mockito.mock (Artifact.class));
+      instance.setThreads (1);
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteWithoutPattern () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      write (new File (tmp, "b.bin"), "b");
+      final File sub = new File (tmp, "sub");
+      sub.mkdirs ();
+      write (new File (sub, "c.txt"), "c");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.getSources ()[0].setPattern (null);
+      instance.setReproducible (true);
+      instance.execute ();
+      assertEquals (getNames (new File (new File (tmp, "target"), "test.zip")), Arrays.asList (
+          "a.txt", "b.bin"));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static void executeFailingRead (final String compression, final int threads,
+      final RuntimeException failure) throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "foo");
+      // Still pending when the first fails, and discarded
+      write (new File (tmp, "b.txt"), "bar");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setCompression (compression);
+      instance.setThreads (threads);
+      instance.setInputStreams (new InputStreamOpener () {
+
+        @Override
+        public InputStream open (final File file) {
+          return new InputStream () {
+
+            @Override
+            public int read () throws IOException {
+              if (failure != null) {
+                throw failure;
+              }
+              throw new IOException ();
+            }
+
+          };
+        }
+
+      });
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testCantReadStored () throws Exception {
+    executeFailingRead ("store", 1, null);
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testCantReadStoredParallel () throws Exception {
+    executeFailingRead ("store", 2, null);
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testCantReadParallel () throws Exception {
+    executeFailingRead ("default", 2, null);
+  }
+
+  @Test (expectedExceptions = IllegalStateException.class)
+  public void testUnexpectedReadFailureParallel () throws Exception {
+    executeFailingRead ("auto", 2, new IllegalStateException ());
+  }
+
+  private static void write (final File file, final byte[] content) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content);
+    }
+  }
+
+  private static void assertCompression (final File tmp, final int threads) throws Exception {
+    final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+    final Source stored = new Source ();
+    stored.setPath (tmp.getPath ());
+    stored.setPattern ("*.dat");
+    stored.setCompression ("store");
+    instance.setSources (new Source[] { instance.getSources ()[0], stored });
+    instance.setCompression ("auto");
+    instance.setIncremental (false);
+    instance.setThreads (threads);
+    instance.execute ();
+    // The file chosen to be stored is counted once, however it was written
+    Mockito.verify (instance.getLog ()).info (
+        Mockito.startsWith ("Deflated 1 and stored 2 entries"));
+    try (final ZipFile zip = new ZipFile (new File (new File (tmp, "target"), "test.zip"))) {
+      assertEquals (zip.size (), 3);
+      assertEquals (zip.getEntry ("a.txt").getMethod (), ZipEntry.DEFLATED);
+      assertEquals (zip.getEntry ("b.txt").getMethod (), ZipEntry.STORED);
+      assertEquals (zip.getEntry ("b.txt").getCompressedSize (), 100000);
+      assertEquals (zip.getEntry ("c.dat").getMethod (), ZipEntry.STORED);
+      try (final InputStream in = zip.getInputStream (zip.getEntry ("c.dat"))) {
+        assertEquals (in.read (), 'f');
+      }
+    }
+  }
+
+  public void testExecuteCompression () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final StringBuilder sb = new StringBuilder ();
+      for (int i = 0; i < 1000; i++) {
+        sb.append ("foo").append (i);
+      }
+      write (new File (tmp, "a.txt"), sb.toString ());
+      final byte[] random = new byte[100000];
+      new Random (1).nextBytes (random);
+      write (new File (tmp, "b.txt"), random);
+      write (new File (tmp, "c.dat"), sb.toString ());
+      assertCompression (tmp, 1);
+      assertCompression (tmp, 2);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteRecursive () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      final File sub = new File (new File (tmp, "sub"), "deeper");
+      sub.mkdirs ();
+      write (new File (sub, "b.txt"), "b");
+      write (new File (sub, "c.bin"), "c");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.getSources ()[0].setPattern ("**/*.txt");
+      instance.execute ();
+      try (final ZipFile zip = new ZipFile (new File (new File (tmp, "target"), "test.zip"))) {
+        assertEquals (zip.size (), 2);
+        assertTrue (zip.getEntry ("a.txt") != null);
+        assertTrue (zip.getEntry ("sub" + File.separator + "deeper" + File.separator + "b.txt")
+            != null);
+      }
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testGatherFilesSharedFolder () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      write (new File (tmp, "b.bin"), "b");
+      final File sub = new File (tmp, "sub");
+      sub.mkdirs ();
+      write (new File (sub, "c.txt"), "c");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      final Source text = new Source ();
+      text.setPath (tmp.getPath ());
+      text.setPattern ("*.txt");
+      final Source all = new Source ();
+      all.setPath (tmp.getPath () + File.separator + "." + File.separator);
+      all.setPattern ("**");
+      final Map<Source, String> sources = new LinkedHashMap<Source, String> ();
+      sources.put (text, "text" + File.separator);
+      sources.put (all, "all" + File.separator);
+      final List<String> names = new ArrayList<String> ();
+      for (final PackageMojo.PackageFile file : instance.gatherFiles (sources)) {
+        names.add (file.getName ());
+      }
+      assertEquals (names, Arrays.asList ("text" + File.separator + "a.txt", "all"
+          + File.separator + "a.txt", "all" + File.separator + "b.bin", "all" + File.separator
+          + "sub" + File.separator + "c.txt"));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static void assertStoredFromStreams (final int threads) throws Exception {
+    final PackageMojo instance = new PackageMojo ();
+    instance.setDefaults ("package-mojo-test");
+    instance.setCompression ("store");
+    instance.setThreads (threads);
+    instance.setIncremental (false);
+    instance.setLog (Mockito.mock (Log.class));
+    final MavenProject project = new MavenProject ();
+    project.setArtifactId ("test");
+    project.getBuild ().setDirectory ("target");
+    project.setArtifact (Mockito.mock (Artifact.class));
+    instance.setPluginContext (Collections.singletonMap ("project", project));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream ();
+    final OutputStreamOpener outputStreams = Mockito.mock (OutputStreamOpener.class);
+    Mockito.when (outputStreams.open (new File ("target" + File.separator + "test.zip")))
+        .thenReturn (output);
+    instance.setOutputStreams (outputStreams);
+    instance.setInputStreams (new InputStreamOpener () {
+
+      @Override
+      public InputStream open (final File file) throws IOException {
+        return new ByteArrayInputStream (Files.toByteArray (file));
+      }
+
+    });
+    instance.execute ();
+    final ZipInputStream zip = new ZipInputStream (new ByteArrayInputStream (
+        output.toByteArray ()));
+    int count = 0;
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry ()) != null) {
+      assertEquals (entry.getMethod (), ZipEntry.STORED);
+      count++;
+    }
+    assertEquals (count, 11);
+  }
+
+  public void testExecuteStoredFromStreams () throws Exception {
+    assertStoredFromStreams (1);
+    assertStoredFromStreams (2);
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testInvalidCompression () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setCompression ("fast");
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testReproducibleTime () {
+    assertEquals (PackageMojo.getReproducibleTime (null, null), PackageMojo.REPRODUCIBLE_TIME);
+    assertEquals (PackageMojo.getReproducibleTime (" ", ""), PackageMojo.REPRODUCIBLE_TIME);
+    assertEquals (PackageMojo.getReproducibleTime (null, "1394879421"), 1394879421000L);
+    assertEquals (PackageMojo.getReproducibleTime ("1400000000", "1394879421"), 1400000000000L);
+    assertEquals (PackageMojo.getReproducibleTime ("2014-03-15T10:30:21Z", null), 1394879421000L);
+    assertEquals (PackageMojo.getReproducibleTime ("2014-03-15T11:30:21+01:00", null),
+        1394879421000L);
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testReproducibleTime_invalid () {
+    PackageMojo.getReproducibleTime ("15/03/2014", null);
+  }
+
+  private static byte[] packageReproducible (final File tmp, final int threads) throws Exception {
+    final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+    final Source bin = new Source ();
+    bin.setPath (tmp.getPath ());
+    bin.setPattern ("*.bin");
+    bin.setCompression ("store");
+    instance.setSources (new Source[] { instance.getSources ()[0], bin });
+    instance.setIncremental (false);
+    instance.setReproducible (true);
+    instance.setOutputTimestamp ("2014-03-15T10:30:21Z");
+    instance.setThreads (threads);
+    instance.execute ();
+    return Files.toByteArray (new File (new File (tmp, "target"), "test.zip"));
+  }
+
+  public void testExecuteReproducible () throws Exception {
+    final File tmp = Files.createTempDir ();
+    final TimeZone timeZone = TimeZone.getDefault ();
+    try {
+      write (new File (tmp, "b.txt"), "bbbbbbbbbb");
+      write (new File (tmp, "a.txt"), "aaaaaaaaaa");
+      write (new File (tmp, "c.bin"), "c");
+      final byte[] first = packageReproducible (tmp, 1);
+      new File (tmp, "a.txt").setLastModified (1000000000000L);
+      TimeZone.setDefault (TimeZone.getTimeZone ("Asia/Tokyo"));
+      final byte[] second = packageReproducible (tmp, 2);
+      TimeZone.setDefault (timeZone);
+      assertEquals (second, first);
+      // Entry times are read back as local times, and held to two seconds
+      final Calendar time = Calendar.getInstance ();
+      time.clear ();
+      time.set (2014, Calendar.MARCH, 15, 10, 30, 20);
+      try (final ZipFile zip = new ZipFile (new File (new File (tmp, "target"), "test.zip"))) {
+        final List<String> names = new ArrayList<String> ();
+        final Enumeration<? extends ZipEntry> entries = zip.entries ();
+        while (entries.hasMoreElements ()) {
+          final ZipEntry entry = entries.nextElement ();
+          names.add (entry.getName ());
+          assertEquals (entry.getTime (), time.getTimeInMillis ());
+        }
+        assertEquals (names, Arrays.asList ("a.txt", "b.txt", "c.bin"));
+      }
+    } finally {
+      TimeZone.setDefault (timeZone);
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteFileTimes () throws Exception {
+    final long time = 1400000000000L;
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "aaaaaaaaaa");
+      write (new File (tmp, "c.bin"), "c");
+      new File (tmp, "a.txt").setLastModified (time);
+      new File (tmp, "c.bin").setLastModified (time + 2000L);
+      for (final int threads : new int[] {1, 2 }) {
+        final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+        final Source bin = new Source ();
+        bin.setPath (tmp.getPath ());
+        bin.setPattern ("*.bin");
+        bin.setCompression ("store");
+        instance.setSources (new Source[] { instance.getSources ()[0], bin });
+        instance.setIncremental (false);
+        instance.setThreads (threads);
+        instance.execute ();
+        try (final ZipFile zip = new ZipFile (new File (new File (tmp, "target"), "test.zip"))) {
+          assertEquals (zip.getEntry ("a.txt").getTime (), time);
+          assertEquals (zip.getEntry ("c.bin").getTime (), time + 2000L);
+        }
+      }
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testInvalidOutputTimestamp () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setReproducible (true);
+      instance.setOutputTimestamp ("yesterday");
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testArchiveFormat () throws Exception {
+    final PackageMojo instance = new PackageMojo ();
+    final Artifact artifact = Mockito.mock (Artifact.class);
+    assertSame (instance.getArchiveFormat (artifact), ArchiveFormat.ZIP);
+    final ArtifactHandler handler = Mockito.mock (ArtifactHandler.class);
+    Mockito.when (artifact.getArtifactHandler ()).thenReturn (handler);
+    Mockito.when (handler.getExtension ()).thenReturn ("tar.gz");
+    assertSame (instance.getArchiveFormat (artifact), ArchiveFormat.TAR_GZ);
+    Mockito.when (handler.getExtension ()).thenReturn ("jar");
+    assertSame (instance.getArchiveFormat (artifact), ArchiveFormat.ZIP);
+    instance.setFormat ("tar");
+    assertSame (instance.getArchiveFormat (artifact), ArchiveFormat.TAR);
+  }
+
+  public void testArtifactHandler () {
+    final ArtifactHandler handler = Mockito.mock (ArtifactHandler.class);
+    Mockito.when (handler.getExtension ()).thenReturn ("zip");
+    assertSame (PackageMojo.getArtifactHandler (handler, "native-static", ArchiveFormat.ZIP),
+        handler);
+    ArtifactHandler formatHandler = PackageMojo.getArtifactHandler (handler, "native-static",
+        ArchiveFormat.TAR_GZ);
+    assertEquals (formatHandler.getExtension (), "tar.gz");
+    assertEquals (formatHandler.getPackaging (), "native-static-tar.gz");
+    assertFalse (formatHandler.isAddedToClasspath ());
+    formatHandler = PackageMojo.getArtifactHandler (null, "native-exec", ArchiveFormat.TAR);
+    assertEquals (formatHandler.getExtension (), "tar");
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testUnknownArchiveFormat () throws Exception {
+    final PackageMojo instance = new PackageMojo ();
+    instance.setFormat ("rar");
+    instance.getArchiveFormat (Mockito.mock (Artifact.class));
+  }
+
+  public void testExecuteTarGz () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      final File sub = new File (tmp, "sub");
+      sub.mkdirs ();
+      write (new File (sub, "b.txt"), "bb");
+      final Artifact artifact = Mockito.mock (Artifact.class);
+      final PackageMojo instance = incrementalInstance (tmp, artifact);
+      instance.getSources ()[0].setPattern ("**/*.txt");
+      instance.setFormat ("tar.gz");
+      instance.setThreads (2);
+      instance.execute ();
+      final File archive = new File (new File (tmp, "target"), "test.tar.gz");
+      Mockito.verify (artifact).setFile (archive);
+      final List<String> names = new ArrayList<String> ();
+      try (final ArchiveReader reader = ArchiveFormat.open (new FileInputStream (archive))) {
+        String name;
+        while ((name = reader.getNextEntry ()) != null) {
+          names.add (name);
+        }
+      }
+      assertEquals (names, Arrays.asList ("a.txt", "sub/b.txt"));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static Map<String, byte[]> getContents (final File archive) throws IOException {
+    final Map<String, byte[]> contents = new LinkedHashMap<String, byte[]> ();
+    try (final ArchiveReader reader = ArchiveFormat.open (new FileInputStream (archive))) {
+      String name;
+      while ((name = reader.getNextEntry ()) != null) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream ();
+        final byte[] buffer = new byte[4096];
+        int bytes;
+        while ((bytes = reader.read (buffer, 0, buffer.length)) > 0) {
+          content.write (buffer, 0, bytes);
+        }
+        contents.put (name, content.toByteArray ());
+      }
+    }
+    return contents;
+  }
+
+  private static void assertPrefetched (final String format) throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      // More than the read ahead can hold at once
+      final byte[] large = new byte[PipelinedReader.CHUNK_SIZE * PipelinedReader.CHUNKS * 3 / 2];
+      new Random (1).nextBytes (large);
+      write (new File (tmp, "a.txt"), "a");
+      write (new File (tmp, "b.txt"), large);
+      write (new File (tmp, "c.txt"), "");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setFormat (format);
+      instance.setCompression ("auto");
+      instance.execute ();
+      final Map<String, byte[]> contents = getContents (new File (new File (tmp, "target"),
+          "test." + format));
+      assertEquals (contents.keySet (), new HashSet<String> (Arrays.asList ("a.txt",
+          "b.txt", "c.txt")));
+      assertEquals (contents.get ("a.txt"), "a".getBytes ());
+      assertEquals (contents.get ("b.txt"), large);
+      assertEquals (contents.get ("c.txt"), new byte[0]);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecutePrefetchedZip () throws Exception {
+    assertPrefetched ("zip");
+  }
+
+  public void testExecutePrefetchedTar () throws Exception {
+    assertPrefetched ("tar");
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testCantOpenSourceTar () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      write (new File (tmp, "b.txt"), "b");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setFormat ("tar");
+      instance.setInputStreams (new InputStreamOpener () {
+
+        @Override
+        public InputStream open (final File file) throws IOException {
+          if ("b.txt".equals (file.getName ())) {
+            throw new FileNotFoundException (file.getPath ());
+          } else {
+            return super.open (file);
+          }
+        }
+
+      });
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static List<String> getNames (final File archive) throws IOException {
+    final List<String> names = new ArrayList<String> ();
+    try (final ArchiveReader reader = ArchiveFormat.open (new FileInputStream (archive))) {
+      String name;
+      while ((name = reader.getNextEntry ()) != null) {
+        names.add (name);
+      }
+    }
+    return names;
+  }
+
+  private static StaticLib staticLib (final File path, final String arch) {
+    final StaticLib library = new StaticLib ();
+    library.setPath (path.getPath ());
+    library.setPattern ("*.a");
+    library.setArch (arch);
+    return library;
+  }
+
+  public void testExecuteArchClassifiers () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      final File include = new File (tmp, "include");
+      include.mkdirs ();
+      write (new File (include, "b.h"), "b");
+      final File i386 = new File (tmp, "i386");
+      i386.mkdirs ();
+      write (new File (i386, "c.a"), "c");
+      final File x64 = new File (tmp, "x64");
+      x64.mkdirs ();
+      write (new File (x64, "d.a"), "d");
+      final Artifact artifact = Mockito.mock (Artifact.class);
+      final PackageMojo instance = incrementalInstance (tmp, artifact);
+      final HeaderFile headers = new HeaderFile ();
+      headers.setPath (include.getPath ());
+      headers.setPattern ("*.h");
+      instance.setHeaderFiles (new HeaderFile[] {headers });
+      instance.setStaticLibs (new StaticLib[] {staticLib (i386, "i386"), staticLib (x64, "x64") });
+      instance.setDynamicLibs (new DynamicLib[0]);
+      instance.setExecutables (new Executable[0]);
+      instance.setArchClassifiers (true);
+      final MavenProject project = (MavenProject)instance.getPluginContext ().get ("project");
+      project.setGroupId ("uk.co.beerdragon");
+      project.setVersion ("1.0");
+      instance.execute ();
+      final File target = new File (tmp, "target");
+      final File main = new File (target, "test.zip");
+      Mockito.verify (artifact).setFile (main);
+      assertEquals (getNames (main), Arrays.asList ("a.txt", "include/b.h"));
+      final List<Artifact> attached = project.getAttachedArtifacts ();
+      assertEquals (attached.size (), 2);
+      assertEquals (attached.get (0).getClassifier (), "i386");
+      assertEquals (attached.get (0).getFile (), new File (target, "test-i386.zip"));
+      assertEquals (getNames (attached.get (0).getFile ()), Arrays.asList ("lib-i386/c.a"));
+      assertEquals (attached.get (1).getClassifier (), "x64");
+      assertEquals (attached.get (1).getFile (), new File (target, "test-x64.zip"));
+      assertEquals (getNames (attached.get (1).getFile ()), Arrays.asList ("lib-x64/d.a"));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testPartitionWithoutArchClassifiers () {
+    final PackageMojo instance = new PackageMojo ();
+    final List<PackageMojo.PackageFile> files = Collections
+        .singletonList (new PackageMojo.PackageFile (null, "a", CompressionPolicy.DEFAULT, "i386"));
+    assertEquals (instance.partition (files), Collections.singletonMap (null, files));
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteTarChangedFile () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      write (new File (tmp, "a.txt"), "a");
+      final PackageMojo instance = incrementalInstance (tmp, Mockito.mock (Artifact.class));
+      instance.setFormat ("tar");
+      instance.setInputStreams (new InputStreamOpener () {
+
+        @Override
+        public InputStream open (final File file) throws IOException {
+          // The file has grown since the folder was scanned
+          return new ByteArrayInputStream ("aa".getBytes ());
+        }
+
+      });
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
 }
\ No newline at end of file
@@ -113,11 +113,25 @@ public class PackageStaticMojoTest {
   public void testPackageEquivalent () {
     final PackageStaticMojo instance = new PackageStaticMojo ();
     instance.setSkip (true);
+    instance.setThreads (4);
+    instance.setMemoryBudget (1024);
+    instance.setCompression ("auto");
+    instance.setReproducible (true);
+    instance.setOutputTimestamp ("0");
+    instance.setFormat ("tar.gz");
+    instance.setArchClassifiers (true);
     instance.setDefaults ("windows");
     instance.setSources (new Source[] { new Source () });
     instance.setStaticLibs (new StaticLib[] { new StaticLib () });
     final PackageMojo delegate = instance.delegate ();
     assertTrue (delegate.isSkip ());
+    assertEquals (delegate.getThreads (), 4);
+    assertEquals (delegate.getMemoryBudget (), 1024);
+    assertEquals (delegate.getCompression (), "auto");
+    assertTrue (delegate.isReproducible ());
+    assertEquals (delegate.getOutputTimestamp (), "0");
+    assertEquals (delegate.getFormat (), "tar.gz");
+    assertTrue (delegate.isArchClassifiers ());
     assertNull (delegate.getDefaults ());
     assertEquals (delegate.getSources (), new Source[] { new Source () });
     assertNull (delegate.getHeaderFiles ());
@@ -150,6 +164,7 @@ public class PackageStaticMojoTest {
       Mockito.verifyZeroInteractions (outputStreams);
     } finally {
       file.delete ();
+      PackageFingerprint.delete (file);
     }
   }
 
@@ -181,6 +196,7 @@ public class PackageStaticMojoTest {
       }).callWithAssertion ());
     } finally {
       file.delete ();
+      PackageFingerprint.delete (file);
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link PatternSet} class.
+ */
+@Test
+public class PatternSetTest {
+
+  private static String match (final PatternSet patterns, final String path) {
+    final BitSet matches = patterns.match (path);
+    return matches.toString ();
+  }
+
+  public void testSinglePattern () {
+    final PatternSet patterns = PatternSet.compile (Collections.singletonList ("*.h"));
+    assertEquals (patterns.size (), 1);
+    assertFalse (patterns.isRecursive ());
+    assertEquals (match (patterns, "foo.h"), "{0}");
+    assertEquals (match (patterns, ".h"), "{0}");
+    assertEquals (match (patterns, "foo.c"), "{}");
+    assertEquals (match (patterns, "foo.hpp"), "{}");
+    assertEquals (match (patterns, "sys/foo.h"), "{}");
+  }
+
+  public void testMultiplePatterns () {
+    final PatternSet patterns = PatternSet.compile (Arrays.asList ("*.h", "lib?.so", "*.h", "*"));
+    assertEquals (patterns.size (), 4);
+    assertFalse (patterns.isRecursive ());
+    assertEquals (match (patterns, "foo.h"), "{0, 2, 3}");
+    assertEquals (match (patterns, "libA.so"), "{1, 3}");
+    assertEquals (match (patterns, "libAB.so"), "{3}");
+  }
+
+  public void testRecursivePatterns () {
+    final PatternSet patterns = PatternSet.compile (Arrays.asList ("**/*.h", "sys/**", "*/?.h",
+        "**.c"));
+    assertTrue (patterns.isRecursive ());
+    assertEquals (match (patterns, "a.h"), "{0}");
+    assertEquals (match (patterns, "sys/a.h"), "{0, 1, 2}");
+    assertEquals (match (patterns, "sys/arch/ab.h"), "{0, 1}");
+    assertEquals (match (patterns, "sys/arch/a.c"), "{1, 3}");
+    assertEquals (match (patterns, "a.c"), "{3}");
+    assertEquals (match (patterns, "system/a.c"), "{3}");
+  }
+
+  public void testDefaultPattern () {
+    final PatternSet patterns = PatternSet.compile (Arrays.asList (null, ""));
+    assertFalse (patterns.isRecursive ());
+    assertEquals (match (patterns, "foo"), "{0, 1}");
+    assertEquals (match (patterns, "sys/foo"), "{}");
+  }
+
+  public void testRegexFallback () {
+    final PatternSet patterns = PatternSet.compile (Arrays.asList ("*.[ch]", "**/*.(so|dll)",
+        "*.h"));
+    assertTrue (patterns.isRecursive ());
+    assertEquals (match (patterns, "foo.c"), "{0}");
+    assertEquals (match (patterns, "foo.h"), "{0, 2}");
+    assertEquals (match (patterns, "sys/foo.h"), "{}");
+    assertEquals (match (patterns, "lib/foo.so"), "{1}");
+    assertEquals (match (patterns, "foo.dll"), "{1}");
+  }
+
+  public void testCache () {
+    final PatternSet a = PatternSet.compile (Arrays.asList ("*.h", "*.c"));
+    assertSame (PatternSet.compile (Arrays.asList ("*.h", "*.c")), a);
+    assertNotSame (PatternSet.compile (Arrays.asList ("*.c", "*.h")), a);
+    // Cleared once full
+    for (int i = 0; i < 256; i++) {
+      PatternSet.compile (Collections.singletonList ("*." + i));
+    }
+    assertNotSame (PatternSet.compile (Arrays.asList ("*.h", "*.c")), a);
+  }
+
+  public void testAdjacentWildcards () {
+    final PatternSet patterns = PatternSet.compile (Arrays.asList ("a***", "***b"));
+    assertTrue (patterns.isRecursive ());
+    assertEquals (match (patterns, "abc"), "{0}");
+    assertEquals (match (patterns, "a/b"), "{0, 1}");
+    assertEquals (match (patterns, "cab"), "{1}");
+  }
+
+  public void testManyStates () {
+    // The last characters are remembered, giving more states than are cached
+    final PatternSet patterns = PatternSet.compile (Collections.singletonList ("**a????????????"));
+    final Random random = new Random (1);
+    final StringBuilder path = new StringBuilder ();
+    for (int i = 0; i < 100000; i++) {
+      path.append (random.nextBoolean () ? 'a' : 'b');
+    }
+    final String suffix = "a????????????".replace ('?', 'b');
+    assertEquals (match (patterns, path + suffix), "{0}");
+    assertEquals (match (patterns, path + suffix + "b"), "{}");
+    assertEquals (match (patterns, path + suffix), "{0}");
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,331 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+import uk.co.beerdragon.mvn.natives.archive.ArchiveReader;
+
+/**
+ * Tests the {@link PipelinedReader} class.
+ */
+@Test
+public class PipelinedReaderTest {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  /**
+   * Archive held in memory, which can fail when it reaches a given entry.
+   */
+  private static final class MemoryArchive implements ArchiveReader {
+
+    private final Iterator<Map.Entry<String, byte[]>> _entries;
+
+    private final String _failAt;
+
+    private final Throwable _failure;
+
+    private byte[] _content;
+
+    private int _offset;
+
+    private volatile boolean _closed;
+
+    private MemoryArchive (final Map<String, byte[]> entries, final String failAt,
+        final Throwable failure) {
+      _entries = entries.entrySet ().iterator ();
+      _failAt = failAt;
+      _failure = failure;
+    }
+
+    private MemoryArchive (final Map<String, byte[]> entries, final String failAt) {
+      this (entries, failAt, new IOException ("Corrupt entry " + failAt));
+    }
+
+    @Override
+    public String getNextEntry () throws IOException {
+      if (!_entries.hasNext ()) {
+        _content = null;
+        return null;
+      }
+      final Map.Entry<String, byte[]> entry = _entries.next ();
+      if (entry.getKey ().equals (_failAt)) {
+        if (_failure instanceof IOException) {
+          throw (IOException)_failure;
+        } else if (_failure instanceof RuntimeException) {
+          throw (RuntimeException)_failure;
+        }
+        throw (Error)_failure;
+      }
+      _content = entry.getValue ();
+      _offset = 0;
+      return entry.getKey ();
+    }
+
+    @Override
+    public int read (final byte[] buffer, final int offset, final int length) {
+      if ((_content == null) || (_offset == _content.length)) {
+        return -1;
+      }
+      // Short reads, as an inflater might give
+      final int bytes = Math.min (Math.min (length, 100), _content.length - _offset);
+      System.arraycopy (_content, _offset, buffer, offset, bytes);
+      _offset += bytes;
+      return bytes;
+    }
+
+    @Override
+    public long getTime () {
+      return 1000;
+    }
+
+    @Override
+    public long getSize () {
+      return _content.length;
+    }
+
+    @Override
+    public long getCrc () {
+      return -1;
+    }
+
+    @Override
+    public void close () {
+      _closed = true;
+    }
+
+  }
+
+  /**
+   * Archive whose first entry is never found, and which only gives up waiting for it after the
+   * reading thread has been interrupted a number of times.
+   */
+  private static final class BlockedArchive implements ArchiveReader {
+
+    private final CountDownLatch _reading = new CountDownLatch (1);
+
+    private final int _interrupts;
+
+    private volatile boolean _closed;
+
+    private BlockedArchive (final int interrupts) {
+      _interrupts = interrupts;
+    }
+
+    @Override
+    public String getNextEntry () throws IOException {
+      _reading.countDown ();
+      int interrupts = 0;
+      while (true) {
+        try {
+          Thread.sleep (Long.MAX_VALUE);
+        } catch (final InterruptedException e) {
+          if (++interrupts == _interrupts) {
+            throw new InterruptedIOException ();
+          }
+        }
+      }
+    }
+
+    @Override
+    public int read (final byte[] buffer, final int offset, final int length) {
+      return -1;
+    }
+
+    @Override
+    public long getTime () {
+      return -1;
+    }
+
+    @Override
+    public long getSize () {
+      return -1;
+    }
+
+    @Override
+    public long getCrc () {
+      return -1;
+    }
+
+    @Override
+    public void close () {
+      _closed = true;
+    }
+
+  }
+
+  private static Map<String, byte[]> createEntries () {
+    final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]> ();
+    final Random random = new Random (1);
+    for (final int size : new int[] {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE * 10 + 7 }) {
+      final byte[] data = new byte[size];
+      random.nextBytes (data);
+      entries.put ("lib/file" + size, data);
+    }
+    return entries;
+  }
+
+  private static byte[] readEntry (final ArchiveReader reader) throws IOException {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream ();
+    final byte[] buffer = new byte[300];
+    int bytes;
+    while ((bytes = reader.read (buffer, 0, buffer.length)) > 0) {
+      content.write (buffer, 0, bytes);
+    }
+    return content.toByteArray ();
+  }
+
+  public void testRead () throws IOException {
+    final Map<String, byte[]> entries = createEntries ();
+    final MemoryArchive archive = new MemoryArchive (entries, null);
+    try (final PipelinedReader reader = new PipelinedReader (archive, PipelinedReader.ALL,
+        CHUNK_SIZE, 2)) {
+      for (final Map.Entry<String, byte[]> entry : entries.entrySet ()) {
+        assertEquals (reader.getNextEntry (), entry.getKey ());
+        assertEquals (reader.getSize (), entry.getValue ().length);
+        assertEquals (reader.getTime (), 1000);
+        assertEquals (reader.getCrc (), -1);
+        assertEquals (readEntry (reader), entry.getValue ());
+        assertEquals (reader.read (new byte[1], 0, 1), -1);
+      }
+      assertNull (reader.getNextEntry ());
+      assertNull (reader.getNextEntry ());
+      assertEquals (reader.read (new byte[1], 0, 1), -1);
+      assertEquals (reader.getTime (), -1);
+      assertEquals (reader.getSize (), -1);
+      assertEquals (reader.getCrc (), -1);
+      assertEquals (reader.getChunks (), 1 + 1 + 1 + 11);
+      assertTrue (reader.getMaxDepth () <= 5);
+      assertTrue (reader.getReaderStall () >= 0);
+      assertTrue (reader.getWriterStall () >= 0);
+    }
+    assertTrue (archive._closed);
+  }
+
+  public void testFilter () throws IOException {
+    final Map<String, byte[]> entries = createEntries ();
+    final List<String> offered = new ArrayList<String> ();
+    try (final PipelinedReader reader = new PipelinedReader (new MemoryArchive (entries, null),
+        new PipelinedReader.Filter () {
+
+          @Override
+          public boolean accept (final String entry, final long size, final long crc) {
+            offered.add (entry);
+            return size >= CHUNK_SIZE;
+          }
+
+        }, CHUNK_SIZE, 2)) {
+      assertEquals (reader.getNextEntry (), "lib/file" + CHUNK_SIZE);
+      assertEquals (readEntry (reader), entries.get ("lib/file" + CHUNK_SIZE));
+      assertEquals (reader.getNextEntry (), "lib/file" + (CHUNK_SIZE * 10 + 7));
+      assertEquals (readEntry (reader), entries.get ("lib/file" + (CHUNK_SIZE * 10 + 7)));
+      assertNull (reader.getNextEntry ());
+    }
+    assertEquals (offered, new ArrayList<String> (entries.keySet ()));
+  }
+
+  public void testSkipContent () throws IOException {
+    final Map<String, byte[]> entries = createEntries ();
+    try (final PipelinedReader reader = new PipelinedReader (new MemoryArchive (entries, null),
+        PipelinedReader.ALL, CHUNK_SIZE, 2)) {
+      String entry;
+      final List<String> names = new ArrayList<String> ();
+      while ((entry = reader.getNextEntry ()) != null) {
+        names.add (entry);
+        // Read part of the first chunk only
+        reader.read (new byte[10], 0, 10);
+      }
+      assertEquals (names, new ArrayList<String> (entries.keySet ()));
+    }
+  }
+
+  @Test (expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Corrupt.*")
+  public void testReadError () throws IOException {
+    final Map<String, byte[]> entries = createEntries ();
+    try (final PipelinedReader reader = new PipelinedReader (new MemoryArchive (entries,
+        "lib/file" + CHUNK_SIZE), PipelinedReader.ALL, CHUNK_SIZE, 2)) {
+      while (reader.getNextEntry () != null) {
+        readEntry (reader);
+      }
+    }
+  }
+
+  private static void readFailure (final Throwable failure) throws IOException {
+    final Map<String, byte[]> entries = createEntries ();
+    try (final PipelinedReader reader = new PipelinedReader (new MemoryArchive (entries,
+        "lib/file" + CHUNK_SIZE, failure), PipelinedReader.ALL, CHUNK_SIZE, 2)) {
+      while (reader.getNextEntry () != null) {
+        readEntry (reader);
+      }
+    }
+  }
+
+  @Test (expectedExceptions = IllegalStateException.class)
+  public void testReadRuntimeException () throws IOException {
+    readFailure (new IllegalStateException ());
+  }
+
+  @Test (expectedExceptions = OutOfMemoryError.class)
+  public void testReadFatalError () throws IOException {
+    // The caller is not left waiting for the end of the archive
+    readFailure (new OutOfMemoryError ());
+  }
+
+  public void testInterrupted () throws IOException {
+    final BlockedArchive archive = new BlockedArchive (1);
+    final PipelinedReader reader = new PipelinedReader (archive, PipelinedReader.ALL,
+        CHUNK_SIZE, 2);
+    Thread.currentThread ().interrupt ();
+    try {
+      reader.getNextEntry ();
+      fail ();
+    } catch (final InterruptedIOException e) {
+      assertTrue (Thread.interrupted ());
+    }
+    reader.close ();
+    assertTrue (archive._closed);
+  }
+
+  public void testCloseWhileReading () throws IOException, InterruptedException {
+    // Ignores the interrupt from cancelling the task, but not the one from shutting down
+    final BlockedArchive archive = new BlockedArchive (2);
+    final PipelinedReader reader = new PipelinedReader (archive, PipelinedReader.ALL,
+        CHUNK_SIZE, 2);
+    archive._reading.await ();
+    reader.close ();
+    assertTrue (archive._closed);
+  }
+
+  public void testCloseEarly () throws IOException {
+    final Map<String, byte[]> entries = createEntries ();
+    final MemoryArchive archive = new MemoryArchive (entries, null);
+    final PipelinedReader reader = new PipelinedReader (archive, PipelinedReader.ALL,
+        CHUNK_SIZE, 2);
+    assertEquals (reader.getNextEntry (), "lib/file0");
+    // The reading thread is blocked on the full queue
+    reader.close ();
+    assertTrue (archive._closed);
+  }
+
+}
\ No newline at end of file
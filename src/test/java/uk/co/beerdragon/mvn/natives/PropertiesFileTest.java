@@ -0,0 +1,73 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link PropertiesFile} class.
+ */
+@Test
+public class PropertiesFileTest {
+
+  public void testStoreAndLoad () throws IOException {
+    final File file = File.createTempFile ("test", ".properties");
+    try {
+      final Properties properties = new Properties ();
+      properties.setProperty ("foo", "bar");
+      properties.setProperty ("a b", "c=d");
+      PropertiesFile.store (properties, file, "Test");
+      assertEquals (PropertiesFile.load (file), properties);
+      PropertiesFile.store (new Properties (), file, null);
+      assertEquals (PropertiesFile.load (file), new Properties ());
+    } finally {
+      file.delete ();
+    }
+  }
+
+  public void testLoadMissing () {
+    assertNull (PropertiesFile.load (new File (new File ("missing-folder"), "test.properties")));
+  }
+
+  public void testLoadMalformed () throws IOException {
+    final File file = File.createTempFile ("test", ".properties");
+    try {
+      try (final FileOutputStream out = new FileOutputStream (file)) {
+        out.write ("foo=\\uXYZW\n".getBytes ());
+      }
+      assertNull (PropertiesFile.load (file));
+    } finally {
+      file.delete ();
+    }
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testCantStore () throws IOException {
+    PropertiesFile.store (new Properties (), new File (new File ("missing-folder"),
+        "test.properties"), null);
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testCantWrite () throws IOException {
+    final File full = new File ("/dev/full");
+    if (!full.exists ()) {
+      // No device to fail writes on this platform
+      throw new IOException ();
+    }
+    PropertiesFile.store (new Properties (), full, "Test");
+  }
+
+}
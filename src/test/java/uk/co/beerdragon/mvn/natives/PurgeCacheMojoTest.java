@@ -0,0 +1,106 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link PurgeCacheMojo} class.
+ */
+@Test
+public class PurgeCacheMojoTest {
+
+  public void testGetAndSet () {
+    final PurgeCacheMojo instance = new PurgeCacheMojo ();
+    assertFalse (instance.isSkip ());
+    instance.setSkip (true);
+    assertTrue (instance.isSkip ());
+    instance.setCacheDirectory ("foo");
+    assertEquals (instance.getCacheDirectory (), "foo");
+    assertEquals (instance.getMaxCacheSize (), PurgeCacheMojo.DEFAULT_MAX_CACHE_SIZE);
+    instance.setMaxCacheSize (1024);
+    assertEquals (instance.getMaxCacheSize (), 1024);
+  }
+
+  private static void populate (final SharedCache cache, final String hash) throws IOException {
+    cache.visit (hash, new SharedCache.Visitor () {
+
+      @Override
+      public Map<String, Long> extract (final File dir) throws IOException {
+        try (final FileOutputStream out = new FileOutputStream (new File (dir, "a.lib"))) {
+          out.write (new byte[1000]);
+        }
+        return Collections.singletonMap ("a.lib", 0L);
+      }
+
+      @Override
+      public boolean use (final File dir, final Map<String, Long> entries) {
+        return true;
+      }
+
+    });
+  }
+
+  public void testExecute () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final SharedCache cache = new SharedCache (tmp);
+      populate (cache, "a");
+      populate (cache, "b");
+      final PurgeCacheMojo instance = new PurgeCacheMojo ();
+      instance.setLog (Mockito.mock (Log.class));
+      instance.setCacheDirectory (tmp.getPath ());
+      instance.setMaxCacheSize (1500);
+      instance.execute ();
+      assertTrue (cache.getSize () <= 1500);
+      assertTrue (cache.getSize () > 0);
+      instance.setSkip (true);
+      instance.setMaxCacheSize (0);
+      instance.execute ();
+      assertTrue (cache.getSize () > 0);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testExecuteMissingCache () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final PurgeCacheMojo instance = new PurgeCacheMojo ();
+      instance.setLog (Mockito.mock (Log.class));
+      instance.setCacheDirectory (new File (tmp, "missing").getPath ());
+      instance.execute ();
+      assertFalse (new File (tmp, "missing").exists ());
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteNoCache () throws Exception {
+    final PurgeCacheMojo instance = new PurgeCacheMojo ();
+    instance.setLog (Mockito.mock (Log.class));
+    instance.execute ();
+  }
+
+}
\ No newline at end of file
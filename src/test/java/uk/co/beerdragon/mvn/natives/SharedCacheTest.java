@@ -0,0 +1,383 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link SharedCache} class.
+ */
+@Test
+public class SharedCacheTest {
+
+  private static void write (final File file, final int size) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (new byte[size]);
+    }
+  }
+
+  /**
+   * Extracts a single file of a given size, counting the extractions.
+   */
+  private static class TestVisitor implements SharedCache.Visitor {
+
+    private final int _size;
+
+    private final AtomicInteger _extracted = new AtomicInteger ();
+
+    private File _dir;
+
+    private TestVisitor (final int size) {
+      _size = size;
+    }
+
+    @Override
+    public Map<String, Long> extract (final File dir) throws IOException {
+      _extracted.incrementAndGet ();
+      assertEquals (dir.list ().length, 0);
+      write (new File (dir, "a.lib"), _size);
+      return Collections.singletonMap ("a.lib", 42L);
+    }
+
+    @Override
+    public boolean use (final File dir, final Map<String, Long> entries) {
+      _dir = dir;
+      assertEquals (entries, Collections.singletonMap ("a.lib", 42L));
+      return true;
+    }
+
+  }
+
+  /**
+   * Holds the lock on an artifact from another process, as another build would. Once a line has
+   * been read from the standard input the artifact's index is deleted, as when evicting, and the
+   * lock is released.
+   */
+  public static final class LockHolder {
+
+    public static void main (final String[] args) throws IOException {
+      final File lockFile = new File (args[0]);
+      try (final RandomAccessFile file = new RandomAccessFile (lockFile, "rw")) {
+        final FileLock lock = file.getChannel ().lock ();
+        System.out.println ("locked");
+        System.out.flush ();
+        new BufferedReader (new InputStreamReader (System.in, StandardCharsets.US_ASCII))
+            .readLine ();
+        assertTrue (new File (args[1]).delete ());
+        lock.release ();
+      }
+    }
+
+  }
+
+  public void testVisit () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final SharedCache cache = new SharedCache (new File (tmp, "cache"));
+      final TestVisitor visitor = new TestVisitor (10);
+      assertTrue (cache.visit ("abc", visitor));
+      assertTrue (cache.visit ("abc", visitor));
+      assertEquals (visitor._extracted.get (), 1);
+      assertEquals (visitor._dir, new File (new File (tmp, "cache"), "abc"));
+      assertEquals (new File (visitor._dir, "a.lib").length (), 10);
+      // An extraction that did not finish is repeated
+      assertTrue (new File (new File (tmp, "cache"), "abc.properties").delete ());
+      assertTrue (cache.visit ("abc", visitor));
+      assertEquals (visitor._extracted.get (), 2);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  private static void writeIndex (final File file, final String content) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content.getBytes (StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  public void testVisitCorruptIndex () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final SharedCache cache = new SharedCache (new File (tmp, "cache"));
+      final TestVisitor visitor = new TestVisitor (10);
+      assertTrue (cache.visit ("abc", visitor));
+      final File index = new File (new File (tmp, "cache"), "abc.properties");
+      writeIndex (index, "a.lib=forty-two\n");
+      assertTrue (cache.visit ("abc", visitor));
+      assertEquals (visitor._extracted.get (), 2);
+      writeIndex (index, "a.lib=\\uXYZW\n");
+      assertTrue (cache.visit ("abc", visitor));
+      assertEquals (visitor._extracted.get (), 3);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testVisitNoFolder () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = new File (tmp, "file");
+      write (file, 0);
+      new SharedCache (new File (file, "cache")).visit ("abc", new TestVisitor (10));
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testVisitFailure () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final SharedCache cache = new SharedCache (new File (tmp, "cache"));
+      try {
+        cache.visit ("abc", new TestVisitor (10) {
+
+          @Override
+          public Map<String, Long> extract (final File dir) throws IOException {
+            super.extract (dir);
+            throw new IOException ();
+          }
+
+        });
+      } finally {
+        assertFalse (new File (new File (tmp, "cache"), "abc.properties").exists ());
+      }
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testLink () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File source = new File (tmp, "source");
+      write (source, 10);
+      final File target = new File (tmp, "target");
+      write (target, 5);
+      SharedCache.link (source, target);
+      assertEquals (target.length (), 10);
+      assertTrue (java.nio.file.Files.isSameFile (source.toPath (), target.toPath ()));
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testDeleteFailure () {
+    final File file = Mockito.mock (File.class);
+    Mockito.when (file.exists ()).thenReturn (true);
+    assertFalse (SharedCache.delete (file));
+    Mockito.verify (file).delete ();
+  }
+
+  public void testEvict () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File dir = new File (tmp, "cache");
+      final SharedCache cache = new SharedCache (dir);
+      cache.visit ("a", new TestVisitor (1000));
+      cache.visit ("b", new TestVisitor (1000));
+      cache.visit ("c", new TestVisitor (1000));
+      new File (dir, "a.properties").setLastModified (1000000000000L);
+      new File (dir, "b.properties").setLastModified (1200000000000L);
+      new File (dir, "c.properties").setLastModified (1100000000000L);
+      final long size = cache.getSize ();
+      assertTrue (size > 3000);
+      // Nothing to do
+      assertEquals (cache.evict (size), 0L);
+      // The least recently used are evicted first
+      final long freed = cache.evict (size - 1500);
+      assertTrue (freed > 1500);
+      assertEquals (cache.getSize (), size - freed);
+      assertFalse (new File (dir, "a").exists ());
+      assertFalse (new File (dir, "c").exists ());
+      assertTrue (new File (dir, "b").exists ());
+      assertFalse (new File (dir, "a.properties").exists ());
+      // Kept, so that builds waiting on the lock exclude those that come later
+      assertTrue (new File (dir, "a.lock").exists ());
+      assertTrue (new File (dir, "b.lock").exists ());
+      // Extracted again once evicted
+      cache.visit ("a", new TestVisitor (1000));
+      assertTrue (new File (dir, "a").exists ());
+      assertTrue (new File (dir, "a.lock").exists ());
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testEvictInUse () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final SharedCache cache = new SharedCache (new File (tmp, "cache"));
+      cache.visit ("a", new TestVisitor (1000) {
+
+        @Override
+        public boolean use (final File dir, final Map<String, Long> entries) {
+          try {
+            assertEquals (cache.evict (0), 0L);
+          } catch (final IOException e) {
+            throw new AssertionError (e);
+          }
+          return true;
+        }
+
+      });
+      assertTrue (cache.evict (0) > 1000);
+      assertEquals (cache.getSize (), 0L);
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testEvictInUseByAnotherThread () throws Exception {
+    final File tmp = Files.createTempDir ();
+    final ExecutorService executor = Executors.newSingleThreadExecutor ();
+    try {
+      final SharedCache cache = new SharedCache (new File (tmp, "cache"));
+      final CountDownLatch using = new CountDownLatch (1);
+      final CountDownLatch evicted = new CountDownLatch (1);
+      final Future<Boolean> visit = executor.submit (new Callable<Boolean> () {
+
+        @Override
+        public Boolean call () throws IOException {
+          return cache.visit ("a", new TestVisitor (1000) {
+
+            @Override
+            public boolean use (final File dir, final Map<String, Long> entries) {
+              using.countDown ();
+              try {
+                evicted.await ();
+              } catch (final InterruptedException e) {
+                throw new AssertionError (e);
+              }
+              return true;
+            }
+
+          });
+        }
+
+      });
+      using.await ();
+      assertEquals (cache.evict (0), 0L);
+      evicted.countDown ();
+      assertTrue (visit.get ());
+      assertTrue (cache.evict (0) > 1000);
+    } finally {
+      executor.shutdown ();
+      SharedCache.delete (tmp);
+    }
+  }
+
+  public void testEvictMissing () throws IOException {
+    final SharedCache cache = new SharedCache (new File (Files.createTempDir (), "cache"));
+    try {
+      assertEquals (cache.getSize (), 0L);
+      assertEquals (cache.evict (0), 0L);
+    } finally {
+      SharedCache.delete (cache.getDirectory ().getParentFile ());
+    }
+  }
+
+  private static boolean isLocking (final Thread thread) {
+    for (final StackTraceElement frame : thread.getStackTrace ()) {
+      try {
+        if ("lock".equals (frame.getMethodName ())
+            && FileChannel.class.isAssignableFrom (Class.forName (frame.getClassName ()))) {
+          return true;
+        }
+      } catch (final ClassNotFoundException e) {
+        // Not a channel
+      }
+    }
+    return false;
+  }
+
+  public void testLockedByAnotherProcess () throws IOException, InterruptedException,
+      ExecutionException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File dir = new File (tmp, "cache");
+      final SharedCache cache = new SharedCache (dir);
+      final TestVisitor visitor = new TestVisitor (1000);
+      cache.visit ("a", visitor);
+      final Process process = new ProcessBuilder (new File (System.getProperty ("java.home"),
+          "bin" + File.separator + "java").getPath (), "-cp", System
+          .getProperty ("java.class.path"), LockHolder.class.getName (), new File (dir, "a.lock")
+          .getPath (), new File (dir, "a.properties").getPath ()).redirectErrorStream (true)
+          .start ();
+      try {
+        final BufferedReader output = new BufferedReader (new InputStreamReader (process
+            .getInputStream (), StandardCharsets.US_ASCII));
+        assertEquals (output.readLine (), "locked");
+        // In use by the other build
+        assertEquals (cache.evict (0), 0L);
+        final ExecutorService executor = Executors.newSingleThreadExecutor ();
+        try {
+          final AtomicReference<Thread> thread = new AtomicReference<Thread> ();
+          final Future<Boolean> visit = executor.submit (new Callable<Boolean> () {
+
+            @Override
+            public Boolean call () throws IOException {
+              thread.set (Thread.currentThread ());
+              return cache.visit ("a", visitor);
+            }
+
+          });
+          // Wait for the lock, so that the artifact is evicted while it is waiting
+          while (!visit.isDone () && ((thread.get () == null) || !isLocking (thread.get ()))) {
+            Thread.sleep (10);
+          }
+          final OutputStream input = process.getOutputStream ();
+          input.write ('\n');
+          input.flush ();
+          assertTrue (visit.get ());
+        } finally {
+          executor.shutdown ();
+        }
+        assertEquals (process.waitFor (), 0);
+        // The artifact was extracted again, under the same lock file
+        assertEquals (visitor._extracted.get (), 2);
+        assertTrue (new File (dir, "a.lock").exists ());
+        assertTrue (new File (dir, "a.properties").exists ());
+      } finally {
+        process.destroy ();
+      }
+    } finally {
+      SharedCache.delete (tmp);
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link SyncCache} class.
+ */
+@Test
+public class SyncCacheTest {
+
+  private static final long TIME = 1400000000000L;
+
+  private static void write (final File file, final String content) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content.getBytes ());
+    }
+  }
+
+  private static void delete (final File dir) {
+    if (dir.isDirectory ()) {
+      for (final File file : dir.listFiles ()) {
+        delete (file);
+      }
+    }
+    dir.delete ();
+  }
+
+  public void testIsCurrent () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = new File (tmp, "a.txt");
+      final SyncCache cache = new SyncCache ();
+      assertFalse (cache.isCurrent ("a.txt", file, 3, 42));
+      write (file, "foo");
+      file.setLastModified (TIME);
+      cache.put ("a.txt", file, 42);
+      assertTrue (cache.isCurrent ("a.txt", file, 3, 42));
+      assertTrue (cache.isCurrent ("a.txt", file, -1, 42));
+      assertFalse (cache.isCurrent ("a.txt", file, 3, 43));
+      assertFalse (cache.isCurrent ("a.txt", file, 4, 42));
+      // Without a CRC the content can't be compared
+      assertFalse (cache.isCurrent ("a.txt", file, 3, -1));
+      assertFalse (cache.isCurrent ("b.txt", file, 3, 42));
+      // Changed since it was written
+      file.setLastModified (TIME + 1000L);
+      assertFalse (cache.isCurrent ("a.txt", file, 3, 42));
+      file.setLastModified (TIME);
+      assertTrue (cache.isCurrent ("a.txt", file, 3, 42));
+      write (file, "bar!");
+      file.setLastModified (TIME);
+      assertFalse (cache.isCurrent ("a.txt", file, 3, 42));
+      assertTrue (file.delete ());
+      assertFalse (cache.isCurrent ("a.txt", file, 3, 42));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testStoreAndLoad () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = new File (tmp, "a.txt");
+      write (file, "foo");
+      final SyncCache cache = new SyncCache ();
+      cache.put ("lib/a.txt", file, 42);
+      cache.put ("b.txt", file, 43);
+      cache.remove ("b.txt");
+      final File cacheFile = new File (new File (tmp, "markers"), "files.properties");
+      assertTrue (cache.store (cacheFile));
+      final SyncCache loaded = SyncCache.load (cacheFile);
+      assertEquals (loaded.getNames (), Collections.singleton ("lib/a.txt"));
+      assertTrue (loaded.isCurrent ("lib/a.txt", file, 3, 42));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testCantWrite () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      if (!new File ("/dev/full").exists ()) {
+        // No device to fail writes on this platform
+        return;
+      }
+      final File cacheFile = new File (tmp, "files.properties");
+      java.nio.file.Files.createSymbolicLink (cacheFile.toPath (), Paths.get ("/dev/full"));
+      assertFalse (new SyncCache ().store (cacheFile));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testLoadMissingOrInvalid () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File cacheFile = new File (tmp, "files.properties");
+      assertTrue (SyncCache.load (cacheFile).getNames ().isEmpty ());
+      write (cacheFile, "a.txt=1,2,3\nb.txt=1,2\nc.txt=x,y,z\n");
+      assertEquals (SyncCache.load (cacheFile).getNames (), Collections.singleton ("a.txt"));
+      write (cacheFile, "a.txt=1,2,3\nb.txt=\\uZZZZ\n");
+      assertTrue (SyncCache.load (cacheFile).getNames ().isEmpty ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+}
\ No newline at end of file
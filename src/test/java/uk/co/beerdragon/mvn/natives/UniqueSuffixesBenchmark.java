@@ -0,0 +1,94 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+
+/**
+ * Compares naming colliding entries one at a time with the memoized
+ * {@link UnpackDependenciesMojo.UniqueSuffixes}. Three versions of a library, two sharing a group,
+ * each contain the same 50,000 headers; this takes the longest path through the renaming rules.
+ * <p>
+ * This is not run as part of the tests; run the {@link #main} method from the test class path.
+ */
+public final class UniqueSuffixesBenchmark {
+
+  private static final int ENTRIES = 50000;
+
+  private static final int ROUNDS = 10;
+
+  private UniqueSuffixesBenchmark () {
+  }
+
+  private static long perEntry (final UnpackDependenciesMojo mojo, final List<Artifact> artifacts,
+      final List<String> entries, final NameIndex names) {
+    final long start = System.nanoTime ();
+    int length = 0;
+    for (final Artifact artifact : artifacts) {
+      for (final String entry : entries) {
+        length += mojo.createUniqueName (artifact, entry, names.get (entry)).length ();
+      }
+    }
+    if (length == 0) {
+      throw new IllegalStateException ();
+    }
+    return System.nanoTime () - start;
+  }
+
+  private static long memoized (final List<Artifact> artifacts, final List<String> entries,
+      final NameIndex names) {
+    final long start = System.nanoTime ();
+    final UnpackDependenciesMojo.UniqueSuffixes suffixes =
+        new UnpackDependenciesMojo.UniqueSuffixes ();
+    int size = 0;
+    for (final Artifact artifact : artifacts) {
+      size += UnpackDependenciesMojo.getPlan (artifact, entries, names, suffixes).size ();
+    }
+    if (size == 0) {
+      throw new IllegalStateException ();
+    }
+    return System.nanoTime () - start;
+  }
+
+  public static void main (final String[] args) {
+    final List<Artifact> artifacts = new ArrayList<Artifact> ();
+    artifacts.add (new DefaultArtifact ("group-A", "library", "1.0", "compile", "native-dynamic",
+        "", null));
+    artifacts.add (new DefaultArtifact ("group-B", "library", "1.0", "compile", "native-dynamic",
+        "", null));
+    artifacts.add (new DefaultArtifact ("group-B", "library", "2.0", "compile", "native-dynamic",
+        "", null));
+    final List<String> entries = new ArrayList<String> (ENTRIES);
+    for (int i = 0; i < ENTRIES; i++) {
+      entries.add ("include/library/header" + i + ".h");
+    }
+    final NameIndex names = new NameIndex ();
+    for (final Artifact artifact : artifacts) {
+      for (final String entry : entries) {
+        names.add (artifact, entry);
+      }
+    }
+    final UnpackDependenciesMojo mojo = new UnpackDependenciesMojo ();
+    long bestPerEntry = Long.MAX_VALUE;
+    long bestMemoized = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      bestPerEntry = Math.min (bestPerEntry, perEntry (mojo, artifacts, entries, names));
+      bestMemoized = Math.min (bestMemoized, memoized (artifacts, entries, names));
+    }
+    System.out.println ("Naming " + (ENTRIES * artifacts.size ()) + " colliding entries");
+    System.out.println ("  per entry: " + (bestPerEntry / 1000000) + "ms");
+    System.out.println ("  memoized:  " + (bestMemoized / 1000000) + "ms");
+    System.out.println ("  speedup:   " + String.format ("%.1f", (double)bestPerEntry
+        / bestMemoized) + "x");
+  }
+
+}
\ No newline at end of file
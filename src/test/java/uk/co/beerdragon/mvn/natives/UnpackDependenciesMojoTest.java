@@ -10,13 +10,25 @@ package uk.co.beerdragon.mvn.natives;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -30,6 +42,8 @@ import org.mockito.Mockito;
 import org.testng.annotations.Test;
 
 import uk.co.beerdragon.misc.OutputStreamOpener;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveFormat;
+import uk.co.beerdragon.mvn.natives.archive.ArchiveWriter;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
@@ -44,6 +58,42 @@ public class UnpackDependenciesMojoTest {
     final UnpackDependenciesMojo instance = new UnpackDependenciesMojo ();
     instance.setSkip (true);
     assertTrue (instance.isSkip ());
+    instance.setThreads (4);
+    assertEquals (instance.getThreads (), 4);
+    instance.setLargeArchiveSize (1024);
+    assertEquals (instance.getLargeArchiveSize (), 1024);
+    assertTrue (instance.isIncremental ());
+    instance.setIncremental (false);
+    assertFalse (instance.isIncremental ());
+    assertTrue (instance.isPreserveTimestamps ());
+    instance.setPreserveTimestamps (false);
+    assertFalse (instance.isPreserveTimestamps ());
+    assertTrue (instance.isSync ());
+    instance.setSync (false);
+    assertFalse (instance.isSync ());
+    instance.setCacheDirectory ("cache");
+    assertEquals (instance.getCacheDirectory (), "cache");
+    assertEquals (instance.getFsync (), "none");
+    instance.setFsync ("file");
+    assertEquals (instance.getFsync (), "file");
+    instance.setFsync (null);
+    assertEquals (instance.getFsync (), "none");
+    assertEquals (instance.getDeduplicate (), "crc");
+    instance.setDeduplicate ("hash");
+    assertEquals (instance.getDeduplicate (), "hash");
+    instance.setDeduplicate (null);
+    assertEquals (instance.getDeduplicate (), "crc");
+    instance.setDefaults ("windows");
+    assertEquals (instance.getDefaults (), "windows");
+    instance.setArch ("x64");
+    assertEquals (instance.getArch (), "x64");
+    instance.setIncludes (new String[] {"include/**" });
+    assertEquals (instance.getIncludes (), new String[] {"include/**" });
+    instance.setExcludes (new String[] {"**/*.pdb" });
+    assertEquals (instance.getExcludes (), new String[] {"**/*.pdb" });
+    final DependencySelection[] selections = {new DependencySelection () };
+    instance.setSelections (selections);
+    assertEquals (instance.getSelections (), selections);
   }
 
   private UnpackDependenciesMojo executeInstance (final File tmp, final Set<Artifact> artifacts) {
@@ -95,12 +145,18 @@ public class UnpackDependenciesMojoTest {
 
   private static Artifact createArtifact (final File tmp, final String type, final String member)
       throws IOException {
+    // Different in each dependency, so that the colliding entries are renamed
+    return createArtifact (tmp, type, member, type);
+  }
+
+  private static Artifact createArtifact (final File tmp, final String type, final String member,
+      final String licence) throws IOException {
     final File zipFile = new File (tmp, type + ".zip");
     try (final FileOutputStream out = new FileOutputStream (zipFile)) {
       final ZipOutputStream zipStream = new ZipOutputStream (out);
       final ZipEntry license = new ZipEntry ("LICENSE");
       zipStream.putNextEntry (license);
-      zipStream.write (26);
+      zipStream.write (licence.getBytes ());
       zipStream.closeEntry ();
       final ZipEntry payload = new ZipEntry (member);
       zipStream.putNextEntry (payload);
@@ -133,6 +189,51 @@ public class UnpackDependenciesMojoTest {
     }
   }
 
+  public void testExecuteTarGz () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact artifact = createArtifact (tmp, "native-static", "lib/test.lib");
+      // Installed with the artifact type's extension, whatever the format
+      try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+        final ArchiveWriter writer = ArchiveFormat.TAR_GZ.createWriter (out, null, 1);
+        writer.write ("lib/test.lib", 0, 1, new ByteArrayInputStream (new byte[] {26 }));
+        writer.close ();
+      }
+      final UnpackDependenciesMojo instance = executeInstance (tmp, Collections
+          .singleton (artifact));
+      // Only ZIP archives are extracted in parallel
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      instance.execute ();
+      final File lib = new File (new File (new File (tmp, "dependency"), "lib"), "test.lib");
+      assertEquals (Files.toByteArray (lib), new byte[] {26 });
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteTarGzType () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact artifact = createArtifact (tmp, "native-static-tar.gz", "lib/test.lib");
+      try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+        final ArchiveWriter writer = ArchiveFormat.TAR_GZ.createWriter (out, null, 1);
+        writer.write ("lib/test.lib", 0, 1, new ByteArrayInputStream (new byte[] {26 }));
+        writer.close ();
+      }
+      // Not an archive format
+      final Artifact other = createArtifact (tmp, "native-static-rar", "lib/other.lib");
+      final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (artifact,
+          other));
+      instance.execute ();
+      final File lib = new File (new File (tmp, "dependency"), "lib");
+      assertEquals (Files.toByteArray (new File (lib, "test.lib")), new byte[] {26 });
+      assertFalse (new File (lib, "other.lib").exists ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
   public void testCreateUniqueName () {
     final UnpackDependenciesMojo instance = new UnpackDependenciesMojo ();
     final Artifact a = new DefaultArtifact ("group-A", "artifact-A", "version-A", "test",
@@ -172,6 +273,41 @@ public class UnpackDependenciesMojoTest {
     assertEquals (instance.createUniqueName (b, "foo", ImmutableSet.of (a, b)), "foo-artifact-A");
   }
 
+  public void testUniqueSuffixes () {
+    final UnpackDependenciesMojo instance = new UnpackDependenciesMojo ();
+    final Artifact a = new DefaultArtifact ("group-A", "artifact-A", "version-A", "test",
+        "native-static", "classifier-A", null);
+    final Artifact b = new DefaultArtifact ("group-B", "artifact-A", "version-A", "test",
+        "native-static", "", null);
+    final Artifact c = new DefaultArtifact ("group-B", "artifact-A", "version-B", "test",
+        "native-static", "", null);
+    final UnpackDependenciesMojo.UniqueSuffixes suffixes =
+        new UnpackDependenciesMojo.UniqueSuffixes ();
+    final List<Set<Artifact>> collisions = Arrays.<Set<Artifact>> asList (
+        Collections.singleton (a), ImmutableSet.of (a, b), ImmutableSet.of (a, b, c),
+        ImmutableSet.of (b, c));
+    // Same names as without the memo, including for equal sets that are different instances
+    for (int i = 0; i < 2; i++) {
+      for (final Set<Artifact> collision : collisions) {
+        for (final Artifact artifact : collision) {
+          for (final String name : new String[] {"foo", "include/foo.h" }) {
+            assertEquals (suffixes.createUniqueName (artifact, name,
+                new LinkedHashSet<Artifact> (collision)),
+                instance.createUniqueName (artifact, name, collision));
+          }
+        }
+      }
+    }
+    final NameIndex names = new NameIndex ();
+    names.add (b, "foo.h");
+    names.add (c, "foo.h");
+    names.add (c, "bar.h");
+    final Map<String, String> plan = UnpackDependenciesMojo.getPlan (c,
+        Arrays.asList ("foo.h", "bar.h"), names, suffixes);
+    assertEquals (plan.get ("foo.h"), "foo-artifact-A_version-B.h");
+    assertEquals (plan.get ("bar.h"), "bar.h");
+  }
+
   @Test (expectedExceptions = IllegalArgumentException.class)
   public void testInvalidPackaging () {
     final UnpackDependenciesMojo instance = new UnpackDependenciesMojo ();
@@ -207,6 +343,782 @@ public class UnpackDependenciesMojoTest {
     }
   }
 
+  private static Artifact createArtifact (final File tmp, final String type, final String name,
+      final int size) throws IOException {
+    final Artifact artifact = createArtifact (tmp, type, name);
+    try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+      final ArchiveWriter writer = ArchiveFormat.ZIP.createWriter (out, null, 1);
+      writer.write (name, 0, size, new ByteArrayInputStream (new byte[size]));
+      writer.close ();
+    }
+    return artifact;
+  }
+
+  public void testExecuteParallel () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Set<Artifact> artifacts = new LinkedHashSet<Artifact> ();
+      for (int i = 0; i < 8; i++) {
+        artifacts.add (createArtifact (tmp, "native-static" + i, "lib/test" + i + ".lib",
+            i * 10000));
+      }
+      // Distinct file names from createArtifact, but all of the same type
+      for (final Artifact artifact : artifacts) {
+        Mockito.when (artifact.getType ()).thenReturn ("native-static");
+      }
+      final UnpackDependenciesMojo instance = executeInstance (tmp, artifacts);
+      instance.setThreads (3);
+      instance.execute ();
+      final File lib = new File (new File (tmp, "dependency"), "lib");
+      for (int i = 0; i < 8; i++) {
+        assertEquals (new File (lib, "test" + i + ".lib").length (), i * 10000);
+      }
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteParallelFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (
+          tmp,
+          ImmutableSet.of (createArtifact (tmp, "native-static", "lib/test.lib"),
+              createArtifact (tmp, "native-exec", "bin/test.exe"),
+              createArtifact (tmp, "native-dynamic", "bin/test.dll")));
+      instance.setThreads (3);
+      (new File (new File (new File (tmp, "dependency"), "bin"), "test.exe")).mkdirs ();
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static Artifact createLargeArtifact (final File tmp) throws IOException {
+    final Artifact artifact = createArtifact (tmp, "native-static", "lib/test.lib");
+    try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+      final ArchiveWriter writer = ArchiveFormat.ZIP.createWriter (out, null, 1);
+      for (int i = 0; i < 20; i++) {
+        writer.write ("lib/" + (i % 3) + "/test" + i + ".lib", 0, i * 1000,
+            new ByteArrayInputStream (new byte[i * 1000]));
+      }
+      writer.close ();
+    }
+    return artifact;
+  }
+
+  public void testExecuteLargeArchive () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (createLargeArtifact (tmp)));
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      instance.execute ();
+      final File lib = new File (new File (tmp, "dependency"), "lib");
+      for (int i = 0; i < 20; i++) {
+        assertEquals (new File (new File (lib, Integer.toString (i % 3)), "test" + i + ".lib")
+            .length (), i * 1000);
+      }
+      // Unchanged
+      instance.setIncremental (false);
+      assertOpened (instance, 0);
+      // Without the cache every entry is written
+      instance.setSync (false);
+      assertOpened (instance, 20);
+      // Excluded entries are skipped
+      instance.setExcludes (new String[] {"lib/1/**" });
+      assertOpened (instance, 13);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteLargeArchiveFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (createLargeArtifact (tmp)));
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      (new File (new File (new File (new File (tmp, "dependency"), "lib"), "1"), "test10.lib"))
+          .mkdirs ();
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteLargeArchiveBadCrc () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact artifact = createLargeArtifact (tmp);
+      // Corrupt the CRC-32 of each entry in the central directory
+      final byte[] data = Files.toByteArray (artifact.getFile ());
+      for (int i = 0; i + 20 <= data.length; i++) {
+        if ((data[i] == 'P') && (data[i + 1] == 'K') && (data[i + 2] == 1) && (data[i + 3] == 2)) {
+          data[i + 16] ^= 0x55;
+        }
+      }
+      Files.write (data, artifact.getFile ());
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (artifact));
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteLargeArchiveMalformedName () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact artifact = createArtifact (tmp, "native-static", "lib/test.lib");
+      try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+        final ArchiveWriter writer = ArchiveFormat.ZIP.createWriter (out, null, 1);
+        writer.write ("lib/#.lib", 0, 1, new ByteArrayInputStream (new byte[] {26 }));
+        writer.close ();
+      }
+      // Not UTF-8, so the entry can't be listed
+      final byte[] data = Files.toByteArray (artifact.getFile ());
+      for (int i = 0; i < data.length; i++) {
+        if (data[i] == '#') {
+          data[i] = (byte)0xFF;
+        }
+      }
+      Files.write (data, artifact.getFile ());
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (artifact));
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteLargeArchiveBadHeader () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact artifact = createLargeArtifact (tmp);
+      // Corrupt the signature of the last local header, leaving the central directory intact
+      final byte[] data = Files.toByteArray (artifact.getFile ());
+      int header = -1;
+      for (int i = 0; i + 4 <= data.length; i++) {
+        if ((data[i] == 'P') && (data[i + 1] == 'K') && (data[i + 2] == 3) && (data[i + 3] == 4)) {
+          header = i;
+        }
+      }
+      data[header + 3] = 5;
+      Files.write (data, artifact.getFile ());
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (artifact));
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static OutputStreamOpener failingOpener () throws IOException {
+    final OutputStreamOpener outputStreams = Mockito.mock (OutputStreamOpener.class);
+    Mockito.when (outputStreams.open (Mockito.<File> any ())).thenThrow (
+        new IllegalStateException ());
+    return outputStreams;
+  }
+
+  @Test (expectedExceptions = IllegalStateException.class)
+  public void testExecuteLargeArchiveUnexpectedFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (createLargeArtifact (tmp)));
+      instance.setThreads (4);
+      instance.setLargeArchiveSize (0);
+      instance.setOutputStreams (failingOpener ());
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = IllegalStateException.class)
+  public void testExecuteParallelUnexpectedFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (
+          tmp,
+          ImmutableSet.of (createArtifact (tmp, "native-static", "lib/test.lib"),
+              createArtifact (tmp, "native-exec", "bin/test.exe")));
+      instance.setThreads (2);
+      instance.setOutputStreams (failingOpener ());
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteParallelCancelled () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (
+          tmp,
+          ImmutableSet.of (createArtifact (tmp, "native-static", "lib/test.lib"),
+              createArtifact (tmp, "native-exec", "bin/test.exe")));
+      instance.setThreads (2);
+      final AtomicInteger opened = new AtomicInteger ();
+      instance.setOutputStreams (new OutputStreamOpener () {
+
+        @Override
+        public OutputStream open (final File file) throws IOException {
+          if (opened.incrementAndGet () == 1) {
+            // Held until the other artifact has failed, and then sees that it was cancelled
+            try {
+              new CountDownLatch (1).await (10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+              // Stopped by the failure
+            }
+            return super.open (file);
+          }
+          throw new IOException ();
+        }
+
+      });
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static Artifact createTimedArtifact (final File tmp, final long time)
+      throws IOException {
+    final Artifact artifact = createArtifact (tmp, "native-static", "lib/test.lib");
+    try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+      final ArchiveWriter writer = ArchiveFormat.ZIP.createWriter (out, null, 1);
+      writer.write ("lib/a.lib", time, 1, new ByteArrayInputStream (new byte[] {26 }));
+      writer.write ("lib/b.lib", time, 1, new ByteArrayInputStream (new byte[] {26 }));
+      writer.close ();
+    }
+    return artifact;
+  }
+
+  public void testExecutePreserveTimestamps () throws Exception {
+    final long time = 1400000000000L;
+    for (final int threads : new int[] {1, 4 }) {
+      final File tmp = Files.createTempDir ();
+      try {
+        final UnpackDependenciesMojo instance = executeInstance (tmp,
+            Collections.singleton (createTimedArtifact (tmp, time)));
+        instance.setThreads (threads);
+        instance.setLargeArchiveSize (0);
+        instance.execute ();
+        final File lib = new File (new File (tmp, "dependency"), "lib");
+        assertEquals (new File (lib, "a.lib").lastModified (), time);
+        assertEquals (new File (lib, "b.lib").lastModified (), time);
+      } finally {
+        delete (tmp);
+      }
+    }
+  }
+
+  public void testExecuteTimestampBeforeEpoch () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact artifact = createArtifact (tmp, "native-static", "lib/test.lib");
+      try (final ZipOutputStream zip = new ZipOutputStream (new FileOutputStream (
+          artifact.getFile ()))) {
+        final ZipEntry entry = new ZipEntry ("lib/test.lib");
+        // NTFS extra field, with the modification time at the Windows epoch
+        final byte[] ntfs = new byte[36];
+        ntfs[0] = 0x0A;
+        ntfs[2] = 32;
+        ntfs[8] = 1;
+        ntfs[10] = 24;
+        entry.setExtra (ntfs);
+        assertTrue (entry.getTime () < 0);
+        zip.putNextEntry (entry);
+        zip.write (26);
+      }
+      UnpackDependenciesMojo instance = executeInstance (new File (tmp, "first"),
+          Collections.singleton (artifact));
+      instance.execute ();
+      final File lib = new File (new File (new File (tmp, "first"), "dependency"), "lib");
+      assertTrue (new File (lib, "test.lib").lastModified () > 0);
+      // Extracted into the cache
+      instance = executeInstance (new File (tmp, "second"), Collections.singleton (artifact));
+      instance.setCacheDirectory (new File (tmp, "cache").getPath ());
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteWithoutTimestamps () throws Exception {
+    final long time = 1400000000000L;
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (createTimedArtifact (tmp, time)));
+      instance.setPreserveTimestamps (false);
+      instance.execute ();
+      final File lib = new File (new File (tmp, "dependency"), "lib");
+      assertTrue (new File (lib, "a.lib").lastModified () > time);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  private static void assertOpened (final UnpackDependenciesMojo instance, final int files)
+      throws Exception {
+    final OutputStreamOpener outputStreams = Mockito.spy (new OutputStreamOpener ());
+    instance.setOutputStreams (outputStreams);
+    instance.execute ();
+    Mockito.verify (outputStreams, Mockito.times (files)).open (Mockito.<File> any ());
+  }
+
+  /**
+   * Creates an instance which relies on the markers alone, writing every entry of the artifacts
+   * that are unpacked.
+   */
+  private UnpackDependenciesMojo markerInstance (final File tmp, final Set<Artifact> artifacts) {
+    final UnpackDependenciesMojo instance = executeInstance (tmp, artifacts);
+    instance.setSync (false);
+    return instance;
+  }
+
+  public void testExecuteIncremental () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe");
+      assertOpened (markerInstance (tmp, Collections.singleton (a)), 2);
+      final File markers = new File (tmp, "dependency-markers");
+      assertEquals (markers.list ().length, 1);
+      // Nothing changed
+      assertOpened (markerInstance (tmp, Collections.singleton (a)), 0);
+      // Touched, but with the same content
+      assertTrue (a.getFile ().setLastModified (a.getFile ().lastModified () - 60000));
+      assertOpened (markerInstance (tmp, Collections.singleton (a)), 0);
+      // The same entries, with different content
+      createArtifact (tmp, "native-static", "lib/test.lib", "changed");
+      assertOpened (markerInstance (tmp, Collections.singleton (a)), 2);
+      // A new dependency changes the name of the colliding LICENSE entry
+      assertOpened (markerInstance (tmp, ImmutableSet.of (a, b)), 4);
+      assertEquals (markers.list ().length, 2);
+      // Only the new dependency is unpacked
+      final Artifact c = createArtifact (tmp, "native-dynamic", "bin/test.dll");
+      assertOpened (markerInstance (tmp, ImmutableSet.of (a, b, c)), 2);
+      // An unpacked file was deleted
+      final File exe = new File (new File (new File (tmp, "dependency"), "bin"), "test.exe");
+      assertTrue (exe.delete ());
+      assertOpened (markerInstance (tmp, ImmutableSet.of (a, b, c)), 2);
+      assertTrue (exe.isFile ());
+      // The content changed
+      createArtifact (tmp, "native-static", "lib/test2.lib");
+      assertOpened (markerInstance (tmp, ImmutableSet.of (a, b, c)), 2);
+      assertTrue (new File (new File (new File (tmp, "dependency"), "lib"), "test2.lib").isFile ());
+      // Incremental disabled
+      final UnpackDependenciesMojo instance = markerInstance (tmp, ImmutableSet.of (a, b, c));
+      instance.setIncremental (false);
+      assertOpened (instance, 6);
+      assertEquals (markers.list ().length, 0);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteSync () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File dependency = new File (tmp, "dependency");
+      final File lib = new File (dependency, "lib");
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe");
+      assertOpened (executeInstance (tmp, Collections.singleton (a)), 2);
+      final long lastModified = new File (lib, "test.lib").lastModified ();
+      // Only the renamed LICENSE entry of the first dependency is written again
+      assertOpened (executeInstance (tmp, ImmutableSet.of (a, b)), 3);
+      assertFalse (new File (dependency, "LICENSE").exists ());
+      assertTrue (new File (dependency, "LICENSE-test-native-static").isFile ());
+      assertEquals (new File (lib, "test.lib").lastModified (), lastModified);
+      // Changed on disk
+      Files.write (new byte[] {1, 2 }, new File (lib, "test.lib"));
+      final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      instance.setIncremental (false);
+      assertOpened (instance, 1);
+      assertEquals (new File (lib, "test.lib").length (), 1);
+      // A dependency with new content, and one that was removed
+      createArtifact (tmp, "native-static", "lib/sub/test2.lib");
+      assertOpened (executeInstance (tmp, Collections.singleton (a)), 2);
+      final String[] files = dependency.list ();
+      Arrays.sort (files);
+      assertEquals (files, new String[] {"LICENSE", "lib" });
+      assertEquals (lib.list (), new String[] {"sub" });
+      // Without the cache every entry is written
+      final UnpackDependenciesMojo all = executeInstance (tmp, Collections.singleton (a));
+      all.setIncremental (false);
+      all.setSync (false);
+      assertOpened (all, 2);
+      assertFalse (new File (new File (tmp, "dependency-markers"), "files.properties").exists ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecutePruneFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File lib = new File (new File (tmp, "dependency"), "lib");
+      final Artifact a = createArtifact (tmp, "native-static", "lib/a.lib");
+      final Artifact b = createArtifact (tmp, "native-exec", "lib/b.lib");
+      assertOpened (executeInstance (tmp, ImmutableSet.of (a, b)), 4);
+      // Already deleted, or replaced by something that can't be
+      assertTrue (new File (lib, "a.lib").delete ());
+      assertTrue (new File (lib, "b.lib").delete ());
+      assertTrue (new File (new File (lib, "b.lib"), "other").mkdirs ());
+      createArtifact (tmp, "native-static", "lib/c.lib");
+      createArtifact (tmp, "native-exec", "lib/d.lib");
+      final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      // The LICENSE entries are unchanged
+      assertOpened (instance, 2);
+      Mockito.verify (instance.getLog ()).warn ("Can't remove " + new File (lib, "b.lib"));
+      assertTrue (new File (lib, "c.lib").isFile ());
+      assertTrue (new File (lib, "d.lib").isFile ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  /**
+   * Replaces the markers and file cache of an unpacked artifact by folders, which can't be deleted,
+   * and changes the artifact so that they are written again.
+   */
+  private File unwritableMarkers (final File tmp, final Artifact artifact)
+      throws Exception {
+    assertOpened (executeInstance (tmp, Collections.singleton (artifact)), 2);
+    final File markers = new File (tmp, "dependency-markers");
+    for (final File file : markers.listFiles ()) {
+      assertTrue (file.delete ());
+      assertTrue (new File (file, "other").mkdirs ());
+    }
+    createArtifact (tmp, "native-static", "lib/test.lib", "changed");
+    return markers;
+  }
+
+  public void testExecuteMarkerStoreFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      final File markers = unwritableMarkers (tmp, a);
+      final UnpackDependenciesMojo instance = executeInstance (tmp, Collections.singleton (a));
+      instance.execute ();
+      // Resolved before verifying, as it queries the mock artifact
+      final String marker = "Can't write unpack marker " + UnpackMarker.getFile (markers, a);
+      Mockito.verify (instance.getLog ()).warn (marker);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteStoreFailure () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      final File markers = unwritableMarkers (tmp, a);
+      final UnpackDependenciesMojo instance = executeInstance (tmp, Collections.singleton (a));
+      instance.execute ();
+      Mockito.verify (instance.getLog ()).warn (
+          "Can't write unpacked file cache " + new File (markers, "files.properties"));
+      // Still written after the unpacking fails
+      createArtifact (tmp, "native-static", "lib/test.lib", "changed again");
+      final UnpackDependenciesMojo failing = executeInstance (tmp, Collections.singleton (a));
+      failing.setOutputStreams (failingOpener ());
+      try {
+        failing.execute ();
+        fail ();
+      } catch (final IllegalStateException e) {
+        // Expected
+      }
+      Mockito.verify (failing.getLog ()).warn (
+          "Can't write unpacked file cache " + new File (markers, "files.properties"));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteSharedCache () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File cache = new File (tmp, "cache");
+      final File first = new File (tmp, "first");
+      final File second = new File (tmp, "second");
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe");
+      UnpackDependenciesMojo instance = executeInstance (first, ImmutableSet.of (a, b));
+      instance.setCacheDirectory (cache.getPath ());
+      instance.setThreads (2);
+      // Extracted into the cache
+      assertOpened (instance, 4);
+      instance = executeInstance (second, ImmutableSet.of (a, b));
+      instance.setCacheDirectory (cache.getPath ());
+      // Linked from the cache
+      assertOpened (instance, 0);
+      final File lib = new File (new File (new File (second, "dependency"), "lib"), "test.lib");
+      assertTrue (lib.isFile ());
+      assertTrue (new File (new File (first, "dependency"), "LICENSE-test-native-exec").isFile ());
+      final File[] cached = cache.listFiles ();
+      int folders = 0;
+      for (final File file : cached) {
+        if (file.isDirectory ()) {
+          assertTrue (new File (file, "LICENSE").isFile ());
+          folders++;
+        }
+      }
+      assertEquals (folders, 2);
+      // Already in place
+      instance = executeInstance (second, ImmutableSet.of (a, b));
+      instance.setCacheDirectory (cache.getPath ());
+      instance.setIncremental (false);
+      assertOpened (instance, 0);
+      assertTrue (lib.isFile ());
+      // Writing to a linked file doesn't change the cache
+      createArtifact (tmp, "native-static", "lib/test.lib", 100);
+      instance = executeInstance (second, ImmutableSet.of (a, b));
+      instance.setIncremental (false);
+      instance.execute ();
+      assertEquals (lib.length (), 100);
+      for (final File file : cached) {
+        if (file.isDirectory ()) {
+          final File cachedLib = new File (new File (file, "lib"), "test.lib");
+          assertTrue (!cachedLib.exists () || (cachedLib.length () == 1));
+        }
+      }
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteSharedCacheWithoutSync () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      final UnpackDependenciesMojo instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setCacheDirectory (new File (tmp, "cache").getPath ());
+      instance.setSync (false);
+      instance.execute ();
+      instance.setIncremental (false);
+      instance.execute ();
+      final File lib = new File (new File (new File (tmp, "dependency"), "lib"), "test.lib");
+      assertTrue (lib.isFile ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteSharedCacheMissingEntry () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File cache = new File (tmp, "cache");
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      UnpackDependenciesMojo instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setCacheDirectory (cache.getPath ());
+      instance.execute ();
+      // An index that does not match the artifact
+      for (final File file : cache.listFiles ()) {
+        if (file.getName ().endsWith (".properties")) {
+          Files.write ("LICENSE=0\n", file, StandardCharsets.ISO_8859_1);
+        }
+      }
+      instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setCacheDirectory (cache.getPath ());
+      instance.setIncremental (false);
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteSharedCacheInvalidEntry () throws Exception {
+    for (final String name : new String[] {"/lib/test.lib", "lib/../../test.lib" }) {
+      final File tmp = Files.createTempDir ();
+      try {
+        final UnpackDependenciesMojo instance = executeInstance (tmp, Collections
+            .singleton (createArtifact (tmp, "native-static", name)));
+        instance.setCacheDirectory (new File (tmp, "cache").getPath ());
+        // Not selected, so only checked as every entry is extracted into the cache
+        instance.setIncludes (new String[] {"LICENSE" });
+        try {
+          instance.execute ();
+          fail (name);
+        } catch (final MojoFailureException e) {
+          // Not extracted outside the cache folder
+          assertFalse (new File (tmp, "test.lib").exists (), name);
+        }
+      } finally {
+        delete (tmp);
+      }
+    }
+  }
+
+  public void testExecuteInvalidEntry () throws Exception {
+    for (final String name : new String[] {"/lib/test.lib", "lib/../../outside/test.lib",
+        "lib\\..\\..\\outside\\test.lib" }) {
+      for (final int threads : new int[] {1, 2 }) {
+        final File tmp = Files.createTempDir ();
+        try {
+          final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (
+              createArtifact (tmp, "native-static", name), createArtifact (tmp, "native-exec",
+                  "bin/test.exe")));
+          instance.setThreads (threads);
+          try {
+            instance.execute ();
+            fail (name);
+          } catch (final MojoFailureException e) {
+            // Nothing created outside the output folder
+            assertFalse (new File (tmp, "outside").exists (), name);
+          }
+        } finally {
+          delete (tmp);
+        }
+      }
+    }
+  }
+
+  public void testExecutePruneInvalidName () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File victim = new File (tmp, "victim.txt");
+      Files.write (new byte[] {1 }, victim);
+      final File markers = new File (tmp, "dependency-markers");
+      markers.mkdirs ();
+      final Properties cache = new Properties ();
+      cache.setProperty ("../victim.txt", "1,0,0");
+      PropertiesFile.store (cache, new File (markers, "files.properties"), null);
+      executeInstance (tmp, Collections.singleton (createArtifact (tmp, "native-exec",
+          "bin/test.exe"))).execute ();
+      assertTrue (victim.exists ());
+      assertTrue (new File (new File (new File (tmp, "dependency"), "bin"), "test.exe").exists ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testGetEntryFilter () {
+    final UnpackDependenciesMojo instance = new UnpackDependenciesMojo ();
+    instance.setArch ("amd64, i686");
+    assertEquals (instance.getEntryFilter ().toString (), "arch:i386,x64");
+    instance.setArch ("*");
+    assertEquals (instance.getEntryFilter ().toString (), "");
+    instance.setArch (null);
+    assertEquals (instance.getEntryFilter ().toString (),
+        "arch:" + EntryFilter.normalize (System.getProperty ("os.arch")));
+    instance.setDefaults ("package-mojo-test");
+    assertEquals (instance.getEntryFilter ().toString (), "arch:x64");
+  }
+
+  private static Artifact createArchArtifact (final File tmp) throws IOException {
+    final Artifact artifact = createArtifact (tmp, "native-dynamic", "include/test.h");
+    try (final OutputStream out = new FileOutputStream (artifact.getFile ())) {
+      final ArchiveWriter writer = ArchiveFormat.ZIP.createWriter (out, null, 1);
+      for (final String name : new String[] {"include/test.h", "bin-x64/test.dll",
+          "lib-i386/test.lib" }) {
+        writer.write (name, 0, 1, new ByteArrayInputStream (new byte[1]));
+      }
+      writer.close ();
+    }
+    return artifact;
+  }
+
+  public void testExecuteArch () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File dependency = new File (tmp, "dependency");
+      final Artifact a = createArchArtifact (tmp);
+      UnpackDependenciesMojo instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setArch ("amd64");
+      assertOpened (instance, 2);
+      assertTrue (new File (new File (dependency, "bin-x64"), "test.dll").isFile ());
+      assertTrue (new File (new File (dependency, "include"), "test.h").isFile ());
+      assertFalse (new File (dependency, "lib-i386").exists ());
+      // A different architecture is scanned again
+      instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setArch ("i386");
+      assertOpened (instance, 1);
+      assertTrue (new File (new File (dependency, "lib-i386"), "test.lib").isFile ());
+      assertFalse (new File (dependency, "bin-x64").exists ());
+      // Every architecture
+      instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setArch ("*");
+      assertOpened (instance, 1);
+      assertTrue (new File (new File (dependency, "bin-x64"), "test.dll").isFile ());
+      // From the shared cache, which holds every entry
+      final File other = new File (tmp, "other");
+      instance = executeInstance (other, Collections.singleton (a));
+      instance.setArch ("x64");
+      instance.setCacheDirectory (new File (tmp, "cache").getPath ());
+      assertOpened (instance, 3);
+      assertTrue (new File (new File (new File (other, "dependency"), "bin-x64"), "test.dll")
+          .isFile ());
+      assertFalse (new File (new File (other, "dependency"), "lib-i386").exists ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteSelections () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File dependency = new File (tmp, "dependency");
+      final Artifact a = createArchArtifact (tmp);
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe");
+      UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      instance.setArch ("*");
+      // An excluded entry can't collide with another, so nothing is renamed
+      instance.setExcludes (new String[] {"LICENSE" });
+      final DependencySelection headers = new DependencySelection ();
+      headers.setDependency ("uk.co.beerdragon:test-native-dynamic");
+      headers.setIncludes (new String[] {"include/**" });
+      instance.setSelections (new DependencySelection[] {headers });
+      assertOpened (instance, 2);
+      String[] files = dependency.list ();
+      Arrays.sort (files);
+      assertEquals (files, new String[] {"bin", "include" });
+      // A different selection is scanned again
+      instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      instance.setArch ("*");
+      instance.setIncludes (new String[] {"bin*/**" });
+      assertOpened (instance, 1);
+      files = dependency.list ();
+      Arrays.sort (files);
+      assertEquals (files, new String[] {"bin", "bin-x64" });
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteSharedCacheInvalidDependency () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib");
+      Files.write (new byte[] {1, 2, 3 }, a.getFile ());
+      final UnpackDependenciesMojo instance = executeInstance (tmp, Collections.singleton (a));
+      instance.setCacheDirectory (new File (tmp, "cache").getPath ());
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
   @Test (expectedExceptions = MojoFailureException.class)
   public void testExecuteInvalidDependencies () throws Exception {
     final File tmp = Files.createTempDir ();
@@ -234,6 +1146,58 @@ public class UnpackDependenciesMojoTest {
     }
   }
 
+  public void testExecuteFsync () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-exec", "bin/test.exe");
+      final Artifact b = createLargeArtifact (tmp);
+      UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      instance.setFsync ("artifact");
+      instance.setLargeArchiveSize (1);
+      instance.setThreads (1);
+      assertOpened (instance, 2 + 20);
+      final File dependency = new File (tmp, "dependency");
+      instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      instance.setFsync ("file");
+      instance.setIncremental (false);
+      instance.setSync (false);
+      assertOpened (instance, 2 + 20);
+      assertTrue (new File (new File (dependency, "bin"), "test.exe").isFile ());
+      assertEquals (new File (new File (new File (dependency, "lib"), "1"), "test19.lib").length (),
+          19000);
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteInvalidFsync () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.<Artifact> emptySet ());
+      instance.setFsync ("always");
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteInvalidFolder () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.singleton (createArtifact (tmp, "native-exec", "bin/test.exe")));
+      final File dependency = new File (tmp, "dependency");
+      dependency.mkdirs ();
+      Files.write (new byte[1], new File (dependency, "bin"));
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
   @Test (expectedExceptions = MojoFailureException.class)
   public void testExecuteWriteFailure () throws Exception {
     final File tmp = Files.createTempDir ();
@@ -257,11 +1221,27 @@ public class UnpackDependenciesMojoTest {
     }
   }
 
-  public void testExecuteJarDependency () throws Exception {
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteWriteFailureWithoutSync () throws Exception {
     final File tmp = Files.createTempDir ();
     try {
       final UnpackDependenciesMojo instance = executeInstance (tmp,
-          Collections.singleton (createArtifact (tmp, "zip", "classes/A.class")));
+          Collections.singleton (createArtifact (tmp, "native-exec", "test.exe")));
+      instance.setSync (false);
+      (new File ((new File (tmp, "dependency")), "LICENSE")).mkdirs ();
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteJarDependency () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact untyped = createArtifact (tmp, "untyped", "classes/B.class");
+      Mockito.when (untyped.getType ()).thenReturn (null);
+      final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (
+          createArtifact (tmp, "zip", "classes/A.class"), untyped));
       instance.execute ();
       final File dependency = new File (tmp, "dependency");
       assertTrue (dependency.exists ());
@@ -271,4 +1251,103 @@ public class UnpackDependenciesMojoTest {
     }
   }
 
-}
\ No newline at end of file
+  private void assertDeduplicated (final String policy) throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib", "GPL");
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe", "GPL");
+      final Artifact c = createArtifact (tmp, "native-dynamic", "bin/test.dll", "BSD");
+      final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (a, b, c));
+      instance.setDeduplicate (policy);
+      // The LICENSE of the second dependency is not written
+      assertOpened (instance, 5);
+      final File dependency = new File (tmp, "dependency");
+      final String[] files = dependency.list ();
+      Arrays.sort (files);
+      assertEquals (files, new String[] {"LICENSE-test-native-dynamic",
+          "LICENSE-test-native-static", "bin", "lib" });
+      assertEquals (Files.toString (new File (dependency, "LICENSE-test-native-static"),
+          StandardCharsets.US_ASCII), "GPL");
+      assertEquals (Files.toString (new File (dependency, "LICENSE-test-native-dynamic"),
+          StandardCharsets.US_ASCII), "BSD");
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteDeduplicateCrc () throws Exception {
+    assertDeduplicated ("crc");
+  }
+
+  public void testExecuteDeduplicateHash () throws Exception {
+    assertDeduplicated ("hash");
+  }
+
+  public void testExecuteDeduplicateIdentical () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib", "GPL");
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe", "GPL");
+      assertOpened (executeInstance (tmp, ImmutableSet.of (a, b)), 3);
+      final File dependency = new File (tmp, "dependency");
+      final String[] files = dependency.list ();
+      Arrays.sort (files);
+      assertEquals (files, new String[] {"LICENSE", "bin", "lib" });
+      // Unchanged, so nothing is written
+      assertOpened (executeInstance (tmp, ImmutableSet.of (a, b)), 0);
+      // The copies differ once the second one changes; only they are written
+      createArtifact (tmp, "native-exec", "bin/test.exe", "BSD");
+      assertOpened (executeInstance (tmp, ImmutableSet.of (a, b)), 2);
+      assertEquals (Files.toString (new File (dependency, "LICENSE-test-native-exec"),
+          StandardCharsets.US_ASCII), "BSD");
+      assertFalse (new File (dependency, "LICENSE").exists ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteDeduplicateAll () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib", "GPL");
+      final Artifact b = createArtifact (tmp, "native-exec", "lib/test.lib", "GPL");
+      // Nothing is written for the second dependency
+      assertOpened (executeInstance (tmp, ImmutableSet.of (a, b)), 2);
+      final File dependency = new File (tmp, "dependency");
+      assertTrue (new File (dependency, "LICENSE").isFile ());
+      assertTrue (new File (new File (dependency, "lib"), "test.lib").isFile ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testExecuteDeduplicateNone () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final Artifact a = createArtifact (tmp, "native-static", "lib/test.lib", "GPL");
+      final Artifact b = createArtifact (tmp, "native-exec", "bin/test.exe", "GPL");
+      final UnpackDependenciesMojo instance = executeInstance (tmp, ImmutableSet.of (a, b));
+      instance.setDeduplicate ("none");
+      assertOpened (instance, 4);
+      final File dependency = new File (tmp, "dependency");
+      assertTrue (new File (dependency, "LICENSE-test-native-static").isFile ());
+      assertTrue (new File (dependency, "LICENSE-test-native-exec").isFile ());
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  @Test (expectedExceptions = MojoFailureException.class)
+  public void testExecuteInvalidDeduplicate () throws Exception {
+    final File tmp = Files.createTempDir ();
+    try {
+      final UnpackDependenciesMojo instance = executeInstance (tmp,
+          Collections.<Artifact> emptySet ());
+      instance.setDeduplicate ("link");
+      instance.execute ();
+    } finally {
+      delete (tmp);
+    }
+  }
+
+}
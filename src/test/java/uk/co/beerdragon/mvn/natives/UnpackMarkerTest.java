@@ -0,0 +1,127 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.maven.artifact.Artifact;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link UnpackMarker} class.
+ */
+@Test
+public class UnpackMarkerTest {
+
+  private static void write (final File file, final String content) throws IOException {
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (content.getBytes ());
+    }
+  }
+
+  private static void delete (final File dir) {
+    if (dir.isDirectory ()) {
+      for (final File file : dir.listFiles ()) {
+        delete (file);
+      }
+    }
+    dir.delete ();
+  }
+
+  private static Artifact createArtifact (final File file, final String version) {
+    final Artifact artifact = Mockito.mock (Artifact.class);
+    Mockito.when (artifact.getGroupId ()).thenReturn ("uk.co.beerdragon");
+    Mockito.when (artifact.getArtifactId ()).thenReturn ("test");
+    Mockito.when (artifact.getType ()).thenReturn ("native-static");
+    Mockito.when (artifact.getVersion ()).thenReturn (version);
+    Mockito.when (artifact.getFile ()).thenReturn (file);
+    return artifact;
+  }
+
+  public void testGetFile () {
+    final Artifact artifact = createArtifact (new File ("test.zip"), "1.0");
+    assertEquals (UnpackMarker.getFile (new File ("markers"), artifact), new File ("markers",
+        "uk.co.beerdragon_test_native-static.properties"));
+    Mockito.when (artifact.getClassifier ()).thenReturn ("x64");
+    assertEquals (UnpackMarker.getFile (new File ("markers"), artifact), new File ("markers",
+        "uk.co.beerdragon_test_x64_native-static.properties"));
+  }
+
+  public void testStoreAndLoad () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File file = new File (tmp, "test.zip");
+      write (file, "foo");
+      final Artifact artifact = createArtifact (file, "1.0");
+      final Map<String, String> plan = Collections.singletonMap ("LICENSE", "LICENSE-test");
+      final File markerFile = new File (new File (tmp, "markers"), "test.properties");
+      assertNull (UnpackMarker.load (markerFile));
+      assertTrue (new UnpackMarker (artifact, plan, "arch:x64").store (markerFile));
+      final UnpackMarker marker = UnpackMarker.load (markerFile);
+      assertEquals (marker.getPlan (), plan);
+      assertEquals (marker.getFilter (), "arch:x64");
+      assertEquals (marker.getEntries (), Collections.singletonList ("LICENSE"));
+      assertTrue (marker.isFileOf (artifact));
+      assertTrue (marker.isContentOf (artifact));
+      // A different version
+      assertFalse (marker.isContentOf (createArtifact (file, "2.0")));
+      // The same content with a new modification time
+      assertTrue (file.setLastModified (file.lastModified () - 60000));
+      assertFalse (marker.isFileOf (artifact));
+      assertTrue (marker.isContentOf (artifact));
+      // Different content of the same size
+      write (file, "bar");
+      assertFalse (marker.isContentOf (artifact));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testLoadInvalid () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      final File markerFile = new File (tmp, "test.properties");
+      write (markerFile, "entry.LICENSE=\\uZZZZ\n");
+      assertNull (UnpackMarker.load (markerFile));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+  public void testCantWrite () throws IOException {
+    final File tmp = Files.createTempDir ();
+    try {
+      if (!new File ("/dev/full").exists ()) {
+        // No device to fail writes on this platform
+        return;
+      }
+      final File file = new File (tmp, "test.zip");
+      write (file, "foo");
+      final File markerFile = new File (tmp, "test.properties");
+      java.nio.file.Files.createSymbolicLink (markerFile.toPath (), Paths.get ("/dev/full"));
+      assertFalse (new UnpackMarker (createArtifact (file, "1.0"),
+          Collections.<String, String> emptyMap (), "").store (markerFile));
+    } finally {
+      delete (tmp);
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,302 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link ArchiveFormat} class.
+ */
+@Test
+public class ArchiveFormatTest {
+
+  private static final long TIME = 1400000000000L;
+
+  /**
+   * Format registered as a service, which never recognises an archive.
+   */
+  public static final class TestFormat extends ArchiveFormat {
+
+    public TestFormat () {
+      super ("test");
+    }
+
+    @Override
+    public ArchiveWriter createWriter (final OutputStream output, final FileChannel channel,
+        final int threads) {
+      return new TarWriter (output);
+    }
+
+    @Override
+    public ArchiveReader createReader (final InputStream input) {
+      return new TarReader (input);
+    }
+
+    @Override
+    protected boolean isFormatOf (final byte[] header, final int length) {
+      return false;
+    }
+
+  }
+
+  public void testGet () {
+    assertSame (ArchiveFormat.get ("zip"), ArchiveFormat.ZIP);
+    assertSame (ArchiveFormat.get ("TAR"), ArchiveFormat.TAR);
+    assertSame (ArchiveFormat.get ("tar.gz"), ArchiveFormat.TAR_GZ);
+    assertNull (ArchiveFormat.get ("rar"));
+    assertNull (ArchiveFormat.get (null));
+    assertTrue (ArchiveFormat.getFormats ().containsAll (Arrays.asList (ArchiveFormat.ZIP,
+        ArchiveFormat.TAR, ArchiveFormat.TAR_GZ)));
+    assertEquals (ArchiveFormat.TAR_GZ.toString (), "tar.gz");
+    assertTrue (ArchiveFormat.get ("test") instanceof TestFormat);
+  }
+
+  private static byte[] write (final ArchiveFormat format, final int threads) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    final ArchiveWriter writer = format.createWriter (buffer, null, threads);
+    writer.write ("a.txt", TIME, 3, new ByteArrayInputStream ("foo".getBytes ()));
+    writer.write ("sub/b.txt", TIME, 0, new ByteArrayInputStream (new byte[0]));
+    assertEquals (writer.getTotalSize (), 3);
+    writer.close ();
+    return buffer.toByteArray ();
+  }
+
+  private static List<String> read (final byte[] archive) throws IOException {
+    final List<String> entries = new ArrayList<String> ();
+    try (final ArchiveReader reader = ArchiveFormat.open (new ByteArrayInputStream (archive))) {
+      String name;
+      while ((name = reader.getNextEntry ()) != null) {
+        final byte[] buffer = new byte[16];
+        int length = 0;
+        int bytes;
+        while ((bytes = reader.read (buffer, length, buffer.length - length)) > 0) {
+          length += bytes;
+        }
+        entries.add (name + "=" + new String (buffer, 0, length));
+      }
+    }
+    return entries;
+  }
+
+  public void testRoundTrip () throws IOException {
+    for (final ArchiveFormat format : Arrays.asList (ArchiveFormat.ZIP, ArchiveFormat.TAR,
+        ArchiveFormat.TAR_GZ)) {
+      assertEquals (read (write (format, 2)), Arrays.asList ("a.txt=foo", "sub/b.txt="),
+          format.toString ());
+    }
+  }
+
+  public void testDetect () throws IOException {
+    final byte[] header = new byte[ArchiveFormat.HEADER_SIZE];
+    final byte[] zip = write (ArchiveFormat.ZIP, 1);
+    assertTrue (ArchiveFormat.ZIP.isFormatOf (zip, zip.length));
+    final byte[] tar = write (ArchiveFormat.TAR, 1);
+    assertTrue (ArchiveFormat.TAR.isFormatOf (tar, tar.length));
+    assertTrue (!ArchiveFormat.TAR.isFormatOf (tar, 100));
+    final byte[] gz = write (ArchiveFormat.TAR_GZ, 1);
+    assertTrue (ArchiveFormat.TAR_GZ.isFormatOf (gz, gz.length));
+    for (final ArchiveFormat format : ArchiveFormat.getFormats ()) {
+      assertTrue (!format.isFormatOf (header, header.length));
+    }
+    // Empty or unrecognised content is read as ZIP
+    assertTrue (read (new byte[0]).isEmpty ());
+  }
+
+  private static boolean isFormatOf (final ArchiveFormat format, final int offset,
+      final String magic) {
+    final byte[] header = new byte[ArchiveFormat.HEADER_SIZE];
+    final byte[] bytes = magic.getBytes (StandardCharsets.ISO_8859_1);
+    System.arraycopy (bytes, 0, header, offset, bytes.length);
+    return format.isFormatOf (header, header.length);
+  }
+
+  public void testDetectPartial () {
+    // An empty ZIP archive starts with the end of central directory record
+    assertTrue (isFormatOf (ArchiveFormat.ZIP, 0, "PK\5\6"));
+    for (final String magic : Arrays.asList ("PX\3\4", "PK\3\0", "PK\5\0", "PK\0\0")) {
+      assertFalse (isFormatOf (ArchiveFormat.ZIP, 0, magic), magic);
+    }
+    assertFalse (ArchiveFormat.ZIP.isFormatOf ("PK\3\4".getBytes (StandardCharsets.ISO_8859_1),
+        3));
+    for (final String magic : Arrays.asList ("uXXXX", "usXXX", "ustXX", "ustaX")) {
+      assertFalse (isFormatOf (ArchiveFormat.TAR, 257, magic), magic);
+    }
+    assertFalse (ArchiveFormat.TAR_GZ.isFormatOf (new byte[] {(byte)0x1f, (byte)0x8b }, 1));
+    assertFalse (ArchiveFormat.TAR_GZ.isFormatOf (new byte[] {(byte)0x1f, 0 }, 2));
+  }
+
+  public void testTime () throws IOException {
+    for (final ArchiveFormat format : Arrays.asList (ArchiveFormat.ZIP, ArchiveFormat.TAR,
+        ArchiveFormat.TAR_GZ)) {
+      final byte[] archive = write (format, 1);
+      try (final ArchiveReader reader = ArchiveFormat.open (new ByteArrayInputStream (archive))) {
+        assertEquals (reader.getNextEntry (), "a.txt");
+        assertEquals (reader.getTime (), TIME, format.toString ());
+        // A ZIP stream may only give the size once the data descriptor has been read
+        final byte[] buffer = new byte[16];
+        while (reader.read (buffer, 0, buffer.length) > 0) {
+          continue;
+        }
+        assertEquals (reader.getSize (), 3L, format.toString ());
+        assertCrc (reader, format);
+        assertEnded (reader, format);
+      }
+      final File file = writeFile (archive);
+      try {
+        try (final ArchiveReader reader = format.createReader (file)) {
+          assertEquals (reader.getNextEntry (), "a.txt");
+          assertEquals (reader.getTime (), TIME, format.toString ());
+          assertEquals (reader.getSize (), 3L, format.toString ());
+          assertCrc (reader, format);
+          assertEnded (reader, format);
+        }
+      } finally {
+        file.delete ();
+      }
+    }
+  }
+
+  private static void assertCrc (final ArchiveReader reader, final ArchiveFormat format) {
+    if (format == ArchiveFormat.ZIP) {
+      final CRC32 crc = new CRC32 ();
+      crc.update ("foo".getBytes ());
+      assertEquals (reader.getCrc (), crc.getValue ());
+    } else {
+      assertEquals (reader.getCrc (), -1L, format.toString ());
+    }
+  }
+
+  private static void assertEnded (final ArchiveReader reader, final ArchiveFormat format)
+      throws IOException {
+    while (reader.getNextEntry () != null) {
+      continue;
+    }
+    assertEquals (reader.getTime (), -1L, format.toString ());
+    assertEquals (reader.getSize (), -1L, format.toString ());
+    assertEquals (reader.getCrc (), -1L, format.toString ());
+  }
+
+  private static File writeFile (final byte[] archive) throws IOException {
+    final File file = File.createTempFile ("archive", ".tmp");
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (archive);
+    }
+    return file;
+  }
+
+  public void testDetectFile () throws IOException {
+    for (final ArchiveFormat format : Arrays.asList (ArchiveFormat.ZIP, ArchiveFormat.TAR,
+        ArchiveFormat.TAR_GZ)) {
+      final File file = writeFile (write (format, 1));
+      try {
+        assertSame (ArchiveFormat.detect (file), format);
+        assertEquals (format.list (file), Arrays.asList ("a.txt", "sub/b.txt"));
+      } finally {
+        file.delete ();
+      }
+    }
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testCreateReaderInvalid () throws IOException {
+    final File file = writeFile ("not compressed".getBytes (StandardCharsets.US_ASCII));
+    try {
+      ArchiveFormat.TAR_GZ.createReader (file);
+    } finally {
+      // Fails on Windows if the stream was not closed
+      file.delete ();
+    }
+  }
+
+  public void testZipFileReader () throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try (final ZipOutputStream zip = new ZipOutputStream (buffer)) {
+      zip.putNextEntry (new ZipEntry ("a.txt"));
+      zip.write ("foo".getBytes ());
+      zip.putNextEntry (new ZipEntry ("sub/"));
+      zip.putNextEntry (new ZipEntry ("sub/b.txt"));
+      zip.write ("bar".getBytes ());
+    }
+    final File file = writeFile (buffer.toByteArray ());
+    try {
+      try (final ArchiveReader reader = ArchiveFormat.ZIP.createReader (file)) {
+        assertTrue (reader instanceof ZipFileReader);
+        // Entries can be skipped without being read
+        assertEquals (reader.getNextEntry (), "a.txt");
+        assertEquals (reader.getNextEntry (), "sub/b.txt");
+        final byte[] data = new byte[16];
+        assertEquals (reader.read (data, 0, data.length), 3);
+        assertEquals (new String (data, 0, 3), "bar");
+        assertEquals (reader.read (data, 0, data.length), -1);
+        assertNull (reader.getNextEntry ());
+        assertEquals (reader.read (data, 0, data.length), -1);
+      }
+      assertEquals (ArchiveFormat.ZIP.list (file), Arrays.asList ("a.txt", "sub/b.txt"));
+    } finally {
+      file.delete ();
+    }
+  }
+
+  private static byte[] malformedZip () throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try (final ZipOutputStream zip = new ZipOutputStream (buffer)) {
+      zip.putNextEntry (new ZipEntry ("#.txt"));
+      zip.write ("foo".getBytes ());
+    }
+    final byte[] archive = buffer.toByteArray ();
+    for (int i = 0; i < archive.length; i++) {
+      if (archive[i] == '#') {
+        // Not valid UTF-8
+        archive[i] = (byte)0xFF;
+      }
+    }
+    return archive;
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZipFileReaderMalformedName () throws IOException {
+    final File file = writeFile (malformedZip ());
+    try {
+      ArchiveFormat.ZIP.list (file);
+    } finally {
+      file.delete ();
+    }
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZipReaderMalformedName () throws IOException {
+    try (final ArchiveReader reader = ArchiveFormat.ZIP.createReader (new ByteArrayInputStream (
+        malformedZip ()))) {
+      reader.getNextEntry ();
+    }
+  }
+
+}
\ No newline at end of file
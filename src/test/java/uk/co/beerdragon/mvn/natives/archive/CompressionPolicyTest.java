@@ -0,0 +1,121 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link CompressionPolicy} and {@link CompressionStatistics} classes.
+ */
+@Test
+public class CompressionPolicyTest {
+
+  private static byte[] random (final int length) {
+    final byte[] data = new byte[length];
+    new Random (1).nextBytes (data);
+    return data;
+  }
+
+  public void testParse () {
+    assertNull (CompressionPolicy.parse (null));
+    assertNull (CompressionPolicy.parse (" "));
+    assertSame (CompressionPolicy.parse ("default"), CompressionPolicy.DEFAULT);
+    assertSame (CompressionPolicy.parse ("Store"), CompressionPolicy.STORE);
+    assertSame (CompressionPolicy.parse (" auto "), CompressionPolicy.AUTO);
+    assertSame (CompressionPolicy.parse ("0"), CompressionPolicy.STORE);
+    final CompressionPolicy best = CompressionPolicy.parse ("9");
+    assertEquals (best.getLevel (), Deflater.BEST_COMPRESSION);
+    assertFalse (best.isStored ());
+    assertEquals (best.toString (), "9");
+    assertTrue (CompressionPolicy.STORE.isStored ());
+    assertEquals (CompressionPolicy.DEFAULT.getLevel (), Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testParseInvalid () {
+    CompressionPolicy.parse ("10");
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testParseInvalid_belowDigits () {
+    CompressionPolicy.parse ("/");
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testParseInvalid_aboveDigits () {
+    CompressionPolicy.parse (":");
+  }
+
+  public void testEntropy () {
+    assertEquals (CompressionPolicy.entropy (new byte[10], 0), 0.0);
+    assertEquals (CompressionPolicy.entropy (new byte[100], 100), 0.0);
+    assertEquals (CompressionPolicy.entropy (new byte[] {1, 2, 3, 4 }, 4), 2.0, 1e-9);
+    assertTrue (CompressionPolicy.entropy (random (65536), 65536) > 7.9);
+  }
+
+  public void testSelect () throws IOException {
+    final CompressionPolicy level = CompressionPolicy.parse ("1");
+    assertSame (level.select (new ByteArrayInputStream (random (100))), level);
+    InputStream input = new BufferedInputStream (new ByteArrayInputStream (random (100000)),
+        CompressionPolicy.SAMPLE_SIZE);
+    assertSame (CompressionPolicy.AUTO.select (input), CompressionPolicy.STORE);
+    assertEquals (input.read (), random (1)[0] & 0xFF);
+    input = new BufferedInputStream (new ByteArrayInputStream ("foo foo foo foo".getBytes ()));
+    assertSame (CompressionPolicy.AUTO.select (input), CompressionPolicy.DEFAULT);
+    assertEquals (input.read (), 'f');
+    input = new BufferedInputStream (new ByteArrayInputStream (new byte[0]));
+    assertSame (CompressionPolicy.AUTO.select (input), CompressionPolicy.DEFAULT);
+  }
+
+  public void testStatistics () {
+    final CompressionStatistics statistics = new CompressionStatistics ();
+    statistics.add (CompressionPolicy.DEFAULT, 3000000L);
+    statistics.add (CompressionPolicy.STORE, 1000000L);
+    statistics.add (CompressionPolicy.parse ("9"), 1000000L);
+    assertEquals (statistics.getDeflated (), 2);
+    assertEquals (statistics.getStored (), 1);
+    assertEquals (statistics.getCpuTime (), 5000000L);
+    assertEquals (statistics.describe (1000, 600),
+        "Deflated 2 and stored 1 entries, saving 400 of 1000 bytes for 5ms of CPU time");
+    final long start = CompressionStatistics.cpuTime ();
+    assertTrue (CompressionStatistics.cpuTime () >= start);
+  }
+
+  public void testCpuTimeFallback () {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean ();
+    if (!threads.isCurrentThreadCpuTimeSupported ()) {
+      // Always falls back on this platform
+      return;
+    }
+    final boolean enabled = threads.isThreadCpuTimeEnabled ();
+    threads.setThreadCpuTimeEnabled (false);
+    try {
+      // Elapsed time when CPU time is not being measured
+      final long start = System.nanoTime ();
+      assertTrue (CompressionStatistics.cpuTime () >= start);
+    } finally {
+      threads.setThreadCpuTimeEnabled (enabled);
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link ParallelGzipOutputStream} class.
+ */
+@Test
+public class ParallelGzipOutputStreamTest {
+
+  private static byte[] data (final int length) {
+    final byte[] data = new byte[length];
+    final Random random = new Random (1);
+    for (int i = 0; i < length; i++) {
+      // Compressible, with repeats that span the block boundaries
+      data[i] = (byte)((i % 1000 < 500) ? 'a' + (i % 7) : random.nextInt (4));
+    }
+    return data;
+  }
+
+  private static byte[] compress (final byte[] data, final int threads) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    final ParallelGzipOutputStream output = new ParallelGzipOutputStream (buffer,
+        Deflater.DEFAULT_COMPRESSION, threads);
+    // Uneven writes, including single bytes
+    int offset = 0;
+    int chunk = 1;
+    while (offset < data.length) {
+      if (chunk == 1) {
+        output.write (data[offset]);
+      } else {
+        output.write (data, offset, Math.min (chunk, data.length - offset));
+      }
+      offset += chunk;
+      chunk = (chunk * 7) % 100003;
+    }
+    output.close ();
+    output.close ();
+    return buffer.toByteArray ();
+  }
+
+  private static byte[] decompress (final byte[] data) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try (final GZIPInputStream input = new GZIPInputStream (new ByteArrayInputStream (data))) {
+      final byte[] bytes = new byte[4096];
+      int length;
+      while ((length = input.read (bytes)) > 0) {
+        buffer.write (bytes, 0, length);
+      }
+    }
+    return buffer.toByteArray ();
+  }
+
+  public void testRoundTrip () throws IOException {
+    for (final int length : new int[] {0, 1, ParallelGzipOutputStream.BLOCK_SIZE,
+        ParallelGzipOutputStream.BLOCK_SIZE * 7 / 2 }) {
+      final byte[] data = data (length);
+      final byte[] serial = compress (data, 1);
+      assertEquals (decompress (serial), data);
+      assertEquals (compress (data, 4), serial);
+    }
+  }
+
+  public void testCompresses () throws IOException {
+    final byte[] data = data (ParallelGzipOutputStream.BLOCK_SIZE * 4);
+    assertTrue (compress (data, 2).length < data.length / 2);
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testWriteAfterClose () throws IOException {
+    final ParallelGzipOutputStream output = new ParallelGzipOutputStream (
+        new ByteArrayOutputStream (), Deflater.DEFAULT_COMPRESSION, 1);
+    output.close ();
+    output.write (1);
+  }
+
+  @Test (expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidLevel () throws IOException {
+    new ParallelGzipOutputStream (new ByteArrayOutputStream (), 42, 1).close ();
+  }
+
+  @Test (expectedExceptions = IllegalStateException.class)
+  public void testParallelInvalidLevel () throws IOException {
+    // The failure is reported from the thread that compressed the block
+    new ParallelGzipOutputStream (new ByteArrayOutputStream (), 42, 2).close ();
+  }
+
+}
\ No newline at end of file
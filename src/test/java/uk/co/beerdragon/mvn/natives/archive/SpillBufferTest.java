@@ -0,0 +1,89 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link SpillBuffer} and {@link MemoryBudget} classes.
+ */
+@Test
+public class SpillBufferTest {
+
+  private static byte[] data (final int length) {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte)(i * 31);
+    }
+    return data;
+  }
+
+  private static byte[] content (final SpillBuffer buffer) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream ();
+    buffer.writeTo (out);
+    return out.toByteArray ();
+  }
+
+  public void testBudget () {
+    final MemoryBudget budget = new MemoryBudget (100);
+    assertTrue (budget.tryReserve (60));
+    assertFalse (budget.tryReserve (60));
+    assertEquals (budget.getAvailable (), 40);
+    budget.release (60);
+    assertTrue (budget.tryReserve (100));
+    assertEquals (budget.getAvailable (), 0);
+  }
+
+  public void testInMemory () throws IOException {
+    final MemoryBudget budget = new MemoryBudget (SpillBuffer.CHUNK_SIZE * 4);
+    final SpillBuffer buffer = new SpillBuffer (budget, null);
+    final byte[] data = data (SpillBuffer.CHUNK_SIZE * 2 + 7);
+    buffer.write (data[0]);
+    buffer.write (data, 1, data.length - 1);
+    buffer.close ();
+    assertFalse (buffer.isSpilled ());
+    assertEquals (buffer.length (), data.length);
+    assertEquals (budget.getAvailable (), SpillBuffer.CHUNK_SIZE);
+    assertEquals (content (buffer), data);
+    buffer.release ();
+    assertEquals (budget.getAvailable (), SpillBuffer.CHUNK_SIZE * 4);
+  }
+
+  public void testSpilled () throws IOException {
+    final MemoryBudget budget = new MemoryBudget (SpillBuffer.CHUNK_SIZE * 2);
+    final SpillBuffer buffer = new SpillBuffer (budget, null);
+    final byte[] data = data (SpillBuffer.CHUNK_SIZE * 3 + 11);
+    buffer.write (data, 0, 100);
+    buffer.write (data, 100, data.length - 100);
+    assertTrue (buffer.isSpilled ());
+    assertEquals (budget.getAvailable (), SpillBuffer.CHUNK_SIZE * 2);
+    buffer.close ();
+    assertEquals (buffer.length (), data.length);
+    assertEquals (content (buffer), data);
+    buffer.release ();
+    assertFalse (buffer.isSpilled ());
+  }
+
+  public void testReleaseWhileOpen () throws IOException {
+    final MemoryBudget budget = new MemoryBudget (0);
+    final SpillBuffer buffer = new SpillBuffer (budget, null);
+    buffer.write (data (10), 0, 10);
+    assertTrue (buffer.isSpilled ());
+    buffer.release ();
+    assertFalse (buffer.isSpilled ());
+    assertEquals (budget.getAvailable (), 0);
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,310 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link TarWriter} and {@link TarReader} classes.
+ */
+@Test
+public class TarWriterTest {
+
+  private static final long TIME = 1400000000000L;
+
+  private static byte[] write (final String... names) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    final TarWriter writer = new TarWriter (buffer);
+    for (final String name : names) {
+      final byte[] content = name.getBytes (StandardCharsets.UTF_8);
+      writer.write (name, TIME, content.length, new ByteArrayInputStream (content));
+    }
+    writer.close ();
+    return buffer.toByteArray ();
+  }
+
+  private static String readEntry (final TarReader reader) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    final byte[] bytes = new byte[7];
+    int length;
+    while ((length = reader.read (bytes, 0, bytes.length)) > 0) {
+      buffer.write (bytes, 0, length);
+    }
+    return new String (buffer.toByteArray (), StandardCharsets.UTF_8);
+  }
+
+  private static void setChecksum (final byte[] archive, final int offset) {
+    final byte[] header = Arrays.copyOfRange (archive, offset, offset + TarWriter.BLOCK);
+    final String checksum = String.format ("%06o\0 ", TarWriter.checksum (header));
+    System.arraycopy (checksum.getBytes (StandardCharsets.US_ASCII), 0, archive, offset + 148, 8);
+  }
+
+  private static byte[] header (final String name, final String size, final char type) {
+    final byte[] header = new byte[TarWriter.BLOCK];
+    final byte[] bytes = name.getBytes (StandardCharsets.UTF_8);
+    System.arraycopy (bytes, 0, header, 0, bytes.length);
+    System.arraycopy (size.getBytes (StandardCharsets.US_ASCII), 0, header, 124, size.length ());
+    header[156] = (byte)type;
+    setChecksum (header, 0);
+    return header;
+  }
+
+  /**
+   * Creates an archive with a special entry of the given type, followed by an entry {@code b}.
+   */
+  private static byte[] write (final char type, final String content) throws IOException {
+    final byte[] data = content.getBytes (StandardCharsets.UTF_8);
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    buffer.write (header ("extended", String.format ("%011o\0", data.length), type));
+    buffer.write (Arrays.copyOf (data, (data.length + TarWriter.BLOCK - 1) / TarWriter.BLOCK
+        * TarWriter.BLOCK));
+    buffer.write (write ("b"));
+    return buffer.toByteArray ();
+  }
+
+  private static String getString (final byte[] archive, final int offset, final int length) {
+    return new String (archive, offset, length, StandardCharsets.US_ASCII);
+  }
+
+  public void testHeader () throws IOException {
+    final byte[] archive = write ("foo.txt");
+    assertEquals (archive.length, TarWriter.BLOCK * 4);
+    assertEquals (getString (archive, 0, 8), "foo.txt\0");
+    assertEquals (getString (archive, 100, 8), "0000644\0");
+    assertEquals (getString (archive, 124, 12), "00000000007\0");
+    assertEquals (getString (archive, 136, 12), Long.toOctalString (TIME / 1000L) + "\0");
+    assertEquals (archive[156], '0');
+    assertEquals (getString (archive, 257, 8), "ustar\00000");
+    assertEquals (getString (archive, 148, 8), String.format ("%06o\0 ", TarWriter
+        .checksum (archive)));
+    assertEquals (getString (archive, 512, 7), "foo.txt");
+  }
+
+  public void testNames () throws IOException {
+    final String nested = StringUtils.repeat ("folder/", 20) + "file.h";
+    final String unicode = "include/été.h";
+    final String long_ = StringUtils.repeat ("x", 150) + "/" + StringUtils.repeat ("y", 150);
+    final String full = StringUtils.repeat ("z", TarWriter.NAME_LENGTH);
+    final TarReader reader = new TarReader (new ByteArrayInputStream (write ("a", nested,
+        unicode, long_, full, "b" + File.separator + "c")));
+    assertEquals (reader.getNextEntry (), "a");
+    assertEquals (reader.getNextEntry (), nested);
+    assertEquals (readEntry (reader), nested);
+    assertEquals (reader.getNextEntry (), unicode);
+    assertEquals (readEntry (reader), unicode);
+    assertEquals (reader.getNextEntry (), long_);
+    assertEquals (readEntry (reader), long_);
+    assertEquals (reader.getNextEntry (), full);
+    assertEquals (reader.getNextEntry (), "b/c");
+    assertNull (reader.getNextEntry ());
+    assertNull (reader.getNextEntry ());
+    reader.close ();
+  }
+
+  public void testSplit () {
+    assertEquals (TarWriter.split ((StringUtils.repeat ("a", 50) + "/" + StringUtils.repeat ("b",
+        60)).getBytes ()), 50);
+    assertEquals (TarWriter.split (StringUtils.repeat ("a", 120).getBytes ()), -1);
+    assertEquals (TarWriter.split ((StringUtils.repeat ("a", 10) + "/" + StringUtils.repeat ("b",
+        110)).getBytes ()), -1);
+  }
+
+  public void testPaxRecord () {
+    assertEquals (TarWriter.paxRecord ("path", "x"), "9 path=x\n");
+    assertEquals (TarWriter.paxRecord ("path", StringUtils.repeat ("x", 90)), "99 path="
+        + StringUtils.repeat ("x", 90) + "\n");
+    assertEquals (TarWriter.paxRecord ("path", StringUtils.repeat ("x", 91)), "101 path="
+        + StringUtils.repeat ("x", 91) + "\n");
+  }
+
+  public void testSkipSpecialEntries () throws IOException {
+    final byte[] archive = write ("folder", "file");
+    // Make the first entry a folder
+    archive[156] = '5';
+    final String checksum = String.format ("%06o\0 ", TarWriter.checksum (archive));
+    System.arraycopy (checksum.getBytes (StandardCharsets.US_ASCII), 0, archive, 148, 8);
+    final TarReader reader = new TarReader (new ByteArrayInputStream (archive));
+    assertEquals (reader.getNextEntry (), "file");
+    assertEquals (readEntry (reader), "file");
+    assertNull (reader.getNextEntry ());
+  }
+
+  public void testTime () throws IOException {
+    final String record = TarWriter.paxRecord ("mtime", "1400000001.5");
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    final TarWriter writer = new TarWriter (buffer);
+    writer.write ("a", TIME, 0, new ByteArrayInputStream (new byte[0]));
+    writer.write ("pax", TIME, record.length (), new ByteArrayInputStream (record.getBytes (
+        StandardCharsets.US_ASCII)));
+    writer.write ("b", TIME, 0, new ByteArrayInputStream (new byte[0]));
+    writer.close ();
+    final byte[] archive = buffer.toByteArray ();
+    // Make the second entry an extended header for the third
+    archive[TarWriter.BLOCK + 156] = 'x';
+    final byte[] header = Arrays.copyOfRange (archive, TarWriter.BLOCK, TarWriter.BLOCK * 2);
+    final String checksum = String.format ("%06o\0 ", TarWriter.checksum (header));
+    System.arraycopy (checksum.getBytes (StandardCharsets.US_ASCII), 0, archive,
+        TarWriter.BLOCK + 148, 8);
+    final TarReader reader = new TarReader (new ByteArrayInputStream (archive));
+    assertEquals (reader.getTime (), -1L);
+    assertEquals (reader.getNextEntry (), "a");
+    assertEquals (reader.getTime (), TIME);
+    assertEquals (reader.getNextEntry (), "b");
+    assertEquals (reader.getTime (), 1400000001500L);
+    assertNull (reader.getNextEntry ());
+    assertEquals (reader.getTime (), -1L);
+  }
+
+  public void testEntryTypes () throws IOException {
+    final byte[] archive = write ("a", "b", "c");
+    // Old style and contiguous files are regular files
+    archive[156] = 0;
+    setChecksum (archive, 0);
+    archive[TarWriter.BLOCK * 2 + 156] = '7';
+    setChecksum (archive, TarWriter.BLOCK * 2);
+    final TarReader reader = new TarReader (new ByteArrayInputStream (archive));
+    assertEquals (reader.getNextEntry (), "a");
+    assertEquals (reader.getNextEntry (), "b");
+    assertEquals (reader.getNextEntry (), "c");
+    assertEquals (readEntry (reader), "c");
+    assertNull (reader.getNextEntry ());
+  }
+
+  public void testPaxHeader () throws IOException {
+    final TarReader reader = new TarReader (new ByteArrayInputStream (write ('x', TarWriter
+        .paxRecord ("path", "renamed") + TarWriter.paxRecord ("comment", "ignored") + "6 abc\n"
+        + TarWriter.paxRecord ("size", "1") + TarWriter.paxRecord ("mtime", "1400000002"))));
+    assertEquals (reader.getNextEntry (), "renamed");
+    assertEquals (reader.getSize (), 1L);
+    assertEquals (reader.getTime (), 1400000002000L);
+    assertEquals (readEntry (reader), "b");
+    assertNull (reader.getNextEntry ());
+  }
+
+  public void testGnuLongName () throws IOException {
+    final String name = StringUtils.repeat ("long/", 40) + "name";
+    final TarReader reader = new TarReader (new ByteArrayInputStream (write ('L', name)));
+    assertEquals (reader.getNextEntry (), name);
+    assertEquals (readEntry (reader), "b");
+    assertNull (reader.getNextEntry ());
+  }
+
+  public void testSpacedOctal () throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    // Leading spaces, and no terminating NUL
+    buffer.write (header ("file", "  0000000001", '0'));
+    buffer.write (new byte[TarWriter.BLOCK * 3]);
+    final TarReader reader = new TarReader (new ByteArrayInputStream (buffer.toByteArray ()));
+    assertEquals (reader.getNextEntry (), "file");
+    assertEquals (reader.getSize (), 1L);
+    assertNull (reader.getNextEntry ());
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testInvalidOctal () throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    buffer.write (header ("file", "00000000008\0", '0'));
+    buffer.write (new byte[TarWriter.BLOCK * 2]);
+    new TarReader (new ByteArrayInputStream (buffer.toByteArray ())).getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testExtendedHeaderTooLarge () throws IOException {
+    new TarReader (new ByteArrayInputStream (header ("extended", "77777777777\0", 'x')))
+        .getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testPaxRecordInvalidLength () throws IOException {
+    new TarReader (new ByteArrayInputStream (write ('x', "x path=a\n"))).getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testPaxRecordTooLong () throws IOException {
+    new TarReader (new ByteArrayInputStream (write ('x', "99"))).getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testPaxRecordTooShort () throws IOException {
+    new TarReader (new ByteArrayInputStream (write ('x', "1 path=a\n"))).getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testPaxInvalidSize () throws IOException {
+    new TarReader (new ByteArrayInputStream (write ('x', TarWriter.paxRecord ("size", "x"))))
+        .getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testPaxInvalidTime () throws IOException {
+    new TarReader (new ByteArrayInputStream (write ('x', TarWriter.paxRecord ("mtime", "x"))))
+        .getNextEntry ();
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testInvalidChecksum () throws IOException {
+    final byte[] archive = write ("file");
+    archive[0] = 'F';
+    new TarReader (new ByteArrayInputStream (archive)).getNextEntry ();
+  }
+
+  @Test (expectedExceptions = EOFException.class)
+  public void testTruncatedArchive () throws IOException {
+    final byte[] archive = write ("file");
+    new TarReader (new ByteArrayInputStream (archive, 0, 100)).getNextEntry ();
+  }
+
+  @Test (expectedExceptions = EOFException.class)
+  public void testTruncatedEntry () throws IOException {
+    final byte[] archive = write ("file");
+    final TarReader reader = new TarReader (new ByteArrayInputStream (archive, 0,
+        TarWriter.BLOCK + 2));
+    assertEquals (reader.getNextEntry (), "file");
+    readEntry (reader);
+  }
+
+  public void testLargeSize () throws IOException {
+    final long size = TarWriter.MAX_OCTAL + 1;
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try {
+      new TarWriter (buffer).write ("large", TIME, size, new ByteArrayInputStream (new byte[0]));
+      fail ();
+    } catch (final EOFException e) {
+      // The headers are written before the content is read
+    }
+    final TarReader reader = new TarReader (new ByteArrayInputStream (buffer.toByteArray ()));
+    assertEquals (reader.getNextEntry (), "large");
+    assertEquals (reader.getSize (), size);
+  }
+
+  @Test (expectedExceptions = EOFException.class)
+  public void testTruncatedInput () throws IOException {
+    new TarWriter (new ByteArrayOutputStream ()).write ("file", TIME, 10,
+        new ByteArrayInputStream (new byte[5]));
+  }
+
+  @Test (expectedExceptions = IOException.class)
+  public void testGrownInput () throws IOException {
+    new TarWriter (new ByteArrayOutputStream ()).write ("file", TIME, 5, new ByteArrayInputStream (
+        new byte[10]));
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,258 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link ZipIndex} class.
+ */
+@Test
+public class ZipIndexTest {
+
+  private static byte[] createArchive (final String comment) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try (final ZipOutputStream zip = new ZipOutputStream (buffer)) {
+      zip.putNextEntry (new ZipEntry ("a.txt"));
+      zip.write ("foo".getBytes ());
+      zip.putNextEntry (new ZipEntry ("sub/"));
+      zip.putNextEntry (new ZipEntry ("sub/b.txt"));
+      zip.write ("bar".getBytes ());
+      zip.putNextEntry (new ZipEntry ("c.txt"));
+      zip.setComment (comment);
+    }
+    return buffer.toByteArray ();
+  }
+
+  private static File writeFile (final byte[] archive) throws IOException {
+    final File file = File.createTempFile ("archive", ".zip");
+    try (final FileOutputStream out = new FileOutputStream (file)) {
+      out.write (archive);
+    }
+    return file;
+  }
+
+  private static int findDirectory (final byte[] archive) {
+    for (int i = 0;; i++) {
+      if (ByteBuffer.wrap (archive, i, 4).order (ByteOrder.LITTLE_ENDIAN).getInt () == 0x02014b50) {
+        return i;
+      }
+    }
+  }
+
+  public void testList () throws IOException {
+    final File file = writeFile (createArchive ("comment"));
+    try {
+      assertEquals (ZipIndex.list (file), Arrays.asList ("a.txt", "sub/b.txt", "c.txt"));
+    } finally {
+      file.delete ();
+    }
+  }
+
+  public void testListByOffset () throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try (final ZipOutputStream zip = new ZipOutputStream (buffer)) {
+      zip.putNextEntry (new ZipEntry ("a.txt"));
+      zip.putNextEntry (new ZipEntry ("b.txt"));
+    }
+    final byte[] archive = buffer.toByteArray ();
+    // Swap the central directory records, which have names of the same length
+    final int first = findDirectory (archive);
+    final int length = 46 + "a.txt".length ();
+    final byte[] swapped = archive.clone ();
+    System.arraycopy (archive, first, swapped, first + length, length);
+    System.arraycopy (archive, first + length, swapped, first, length);
+    final File file = writeFile (swapped);
+    try {
+      assertEquals (ZipIndex.list (file), Arrays.asList ("a.txt", "b.txt"));
+    } finally {
+      file.delete ();
+    }
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testNotZip () throws IOException {
+    final File file = writeFile (new byte[100]);
+    try {
+      ZipIndex.list (file);
+    } finally {
+      file.delete ();
+    }
+  }
+
+  private static ByteBuffer allocate (final int size) {
+    return ByteBuffer.allocate (size).order (ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static byte[] concat (final byte[]... parts) {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    for (final byte[] part : parts) {
+      buffer.write (part, 0, part.length);
+    }
+    return buffer.toByteArray ();
+  }
+
+  /**
+   * Creates a central directory record.
+   */
+  private static byte[] entry (final String name, final long size, final long offset,
+      final byte[] extra) {
+    final ByteBuffer entry = allocate (46 + name.length () + extra.length);
+    entry.putInt (0x02014b50);
+    entry.putShort ((short)45);
+    entry.putShort ((short)45);
+    entry.putLong (0);
+    entry.putInt (0);
+    entry.putInt ((int)size);
+    entry.putInt ((int)size);
+    entry.putShort ((short)name.length ());
+    entry.putShort ((short)extra.length);
+    entry.putShort ((short)0);
+    entry.putLong (0);
+    entry.putInt ((int)offset);
+    entry.put (name.getBytes ());
+    entry.put (extra);
+    return entry.array ();
+  }
+
+  private static byte[] extra (final int id, final long... fields) {
+    final ByteBuffer extra = allocate (4 + fields.length * 8);
+    extra.putShort ((short)id);
+    extra.putShort ((short)(fields.length * 8));
+    for (final long field : fields) {
+      extra.putLong (field);
+    }
+    return extra.array ();
+  }
+
+  private static byte[] end (final int count, final long size, final long offset) {
+    final ByteBuffer end = allocate (22);
+    end.putInt (0x06054b50);
+    end.putInt (0);
+    end.putShort ((short)count);
+    end.putShort ((short)count);
+    end.putInt ((int)size);
+    end.putInt ((int)offset);
+    return end.array ();
+  }
+
+  private static byte[] zip64End (final long count, final long size, final long offset,
+      final long position) {
+    final ByteBuffer end = allocate (76);
+    end.putInt (0x06064b50);
+    end.putLong (44);
+    end.putInt (0);
+    end.putLong (0);
+    end.putLong (count);
+    end.putLong (count);
+    end.putLong (size);
+    end.putLong (offset);
+    end.putInt (0x07064b50);
+    end.putInt (0);
+    end.putLong (position);
+    end.putInt (1);
+    return end.array ();
+  }
+
+  private static List<String> list (final byte[] archive) throws IOException {
+    final File file = writeFile (archive);
+    try {
+      return ZipIndex.list (file);
+    } finally {
+      file.delete ();
+    }
+  }
+
+  public void testZip64Offset () throws IOException {
+    final byte[] a = entry ("a.txt", 0xFFFFFFFFL, 0xFFFFFFFFL, concat (extra (0x5455, 0),
+        extra (0x0001, 1L << 32, 1L << 32, 1234)));
+    final byte[] b = entry ("b.txt", 10, 10, new byte[0]);
+    assertEquals (list (concat (a, b, end (2, a.length + b.length, 0))), Arrays.asList ("b.txt",
+        "a.txt"));
+  }
+
+  public void testZip64End () throws IOException {
+    final byte[] a = entry ("a.txt", 10, 10, new byte[0]);
+    assertEquals (list (concat (a, zip64End (1, a.length, 0, a.length), end (0xFFFF, a.length,
+        0))), Arrays.asList ("a.txt"));
+    // Only the offset is too large for the end of central directory record
+    assertEquals (list (concat (a, zip64End (1, a.length, 0, a.length), end (1, a.length,
+        0xFFFFFFFFL))), Arrays.asList ("a.txt"));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZip64OffsetMissing () throws IOException {
+    final byte[] a = entry ("a.txt", 10, 0xFFFFFFFFL, new byte[0]);
+    list (concat (a, end (1, a.length, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZip64OffsetTruncated () throws IOException {
+    final byte[] a = entry ("a.txt", 0xFFFFFFFFL, 0xFFFFFFFFL, extra (0x0001, 1L << 32, 1L << 32));
+    list (concat (a, end (1, a.length, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZip64EndMissing () throws IOException {
+    list (end (0xFFFF, 0, 0));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZip64LocatorMissing () throws IOException {
+    list (concat (new byte[20], end (0xFFFF, 0, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testZip64EndInvalid () throws IOException {
+    final byte[] end64 = zip64End (0, 0, 0, 0);
+    // The locator points at the start of the archive
+    list (concat (new byte[56], Arrays.copyOfRange (end64, 56, 76), end (0xFFFF, 0, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testDirectoryTooLarge () throws IOException {
+    list (concat (zip64End (1, 1L << 32, 0, 0), end (1, 0xFFFFFFFFL, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testDirectoryTruncated () throws IOException {
+    list (concat (new byte[10], end (1, 10, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testDirectoryInvalid () throws IOException {
+    list (concat (new byte[46], end (1, 46, 0)));
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testEntryTruncated () throws IOException {
+    final byte[] a = entry ("a.txt", 10, 10, new byte[0]);
+    list (concat (a, end (1, a.length - 1, 0)));
+  }
+
+  @Test (expectedExceptions = EOFException.class)
+  public void testArchiveTruncated () throws IOException {
+    list (end (1, 46, 1000));
+  }
+
+}
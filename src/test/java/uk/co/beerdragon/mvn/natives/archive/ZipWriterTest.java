@@ -0,0 +1,344 @@
+/*
+ * Maven tools for native builds
+ *
+ * Copyright 2014 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+
+package uk.co.beerdragon.mvn.natives.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link ZipWriter} and {@link CompressedEntry} classes.
+ */
+@Test
+public class ZipWriterTest {
+
+  private static final long TIME = 1400000000000L;
+
+  private static byte[] data (final String text, final int repeat) {
+    final StringBuilder sb = new StringBuilder ();
+    for (int i = 0; i < repeat; i++) {
+      sb.append (text).append (i);
+    }
+    return sb.toString ().getBytes ();
+  }
+
+  private static byte[] read (final InputStream input) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream ();
+    final byte[] buffer = new byte[4096];
+    int bytes;
+    while ((bytes = input.read (buffer)) > 0) {
+      out.write (buffer, 0, bytes);
+    }
+    return out.toByteArray ();
+  }
+
+  private static CompressedEntry compress (final String name, final byte[] data)
+      throws IOException {
+    return CompressedEntry.deflate (name, TIME, Deflater.DEFAULT_COMPRESSION,
+        new ByteArrayInputStream (data), new SpillBuffer (new MemoryBudget (1L << 20), null));
+  }
+
+  private static byte[] archive () throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream ();
+    final ZipWriter writer = new ZipWriter (out);
+    final CompressedEntry a = compress ("a.txt", data ("foo", 1000));
+    writer.write (a);
+    a.release ();
+    writer.writeDeflated ("dir/b.txt", TIME, Deflater.BEST_SPEED,
+        new ByteArrayInputStream (data ("bar", 500)), new byte[100]);
+    writer.writeDeflated ("empty", TIME, Deflater.DEFAULT_COMPRESSION, new ByteArrayInputStream (
+        new byte[0]), new byte[100]);
+    final CompressedEntry c = CompressedEntry.store ("c.bin", TIME, new ByteArrayInputStream (data (
+        "baz", 10)), new SpillBuffer (new MemoryBudget (1L << 20), null));
+    writer.write (c);
+    c.release ();
+    assertEquals (writer.getTotalSize (), data ("foo", 1000).length + data ("bar", 500).length
+        + data ("baz", 10).length);
+    assertTrue (writer.getTotalCompressedSize () < writer.getTotalSize ());
+    writer.close ();
+    return out.toByteArray ();
+  }
+
+  public void testStreamRead () throws IOException {
+    final ZipInputStream zip = new ZipInputStream (new ByteArrayInputStream (archive ()));
+    ZipEntry entry = zip.getNextEntry ();
+    assertEquals (entry.getName (), "a.txt");
+    assertEquals (entry.getTime (), TIME / 2000 * 2000);
+    assertEquals (read (zip), data ("foo", 1000));
+    entry = zip.getNextEntry ();
+    assertEquals (entry.getName (), "dir/b.txt");
+    assertEquals (read (zip), data ("bar", 500));
+    entry = zip.getNextEntry ();
+    assertEquals (entry.getName (), "empty");
+    assertEquals (read (zip), new byte[0]);
+    entry = zip.getNextEntry ();
+    assertEquals (entry.getName (), "c.bin");
+    assertEquals (entry.getMethod (), ZipEntry.STORED);
+    assertEquals (read (zip), data ("baz", 10));
+    assertNull (zip.getNextEntry ());
+  }
+
+  public void testRandomAccessRead () throws IOException {
+    final File file = File.createTempFile ("test", ".zip");
+    try {
+      try (final FileOutputStream out = new FileOutputStream (file)) {
+        out.write (archive ());
+      }
+      try (final ZipFile zip = new ZipFile (file)) {
+        assertEquals (zip.size (), 4);
+        final ZipEntry entry = zip.getEntry ("dir/b.txt");
+        assertEquals (entry.getSize (), data ("bar", 500).length);
+        assertEquals (read (zip.getInputStream (entry)), data ("bar", 500));
+        assertEquals (read (zip.getInputStream (zip.getEntry ("a.txt"))), data ("foo", 1000));
+        assertEquals (zip.getEntry ("c.bin").getCompressedSize (), data ("baz", 10).length);
+        assertEquals (read (zip.getInputStream (zip.getEntry ("c.bin"))), data ("baz", 10));
+      }
+    } finally {
+      file.delete ();
+    }
+  }
+
+  private static void assertStored (final File file, final byte[] small, final byte[] large)
+      throws IOException {
+    try (final ZipFile zip = new ZipFile (file)) {
+      assertEquals (zip.size (), 2);
+      final ZipEntry entry = zip.getEntry ("large");
+      assertEquals (entry.getMethod (), ZipEntry.STORED);
+      assertEquals (entry.getCompressedSize (), large.length);
+      assertEquals (read (zip.getInputStream (entry)), large);
+      assertEquals (read (zip.getInputStream (zip.getEntry ("small"))), small);
+    }
+    try (final ZipInputStream zip = new ZipInputStream (new FileInputStream (file))) {
+      assertEquals (zip.getNextEntry ().getName (), "small");
+      assertEquals (read (zip), small);
+      assertEquals (zip.getNextEntry ().getName (), "large");
+      assertEquals (read (zip), large);
+    }
+  }
+
+  private static void writeStored (final ZipWriter writer, final File small, final File large)
+      throws IOException {
+    final byte[] buffer = new byte[1000];
+    try (final FileInputStream in = new FileInputStream (small)) {
+      writer.writeStored ("small", TIME, in.getChannel (), buffer);
+    }
+    try (final FileInputStream in = new FileInputStream (large)) {
+      // The entry is read from the start of the file, not the current position
+      in.read (buffer);
+      writer.writeStored ("large", TIME, in.getChannel (), buffer);
+    }
+    writer.close ();
+  }
+
+  public void testWriteStored () throws IOException {
+    final File small = File.createTempFile ("test", ".txt");
+    final File large = File.createTempFile ("test", ".txt");
+    final File file = File.createTempFile ("test", ".zip");
+    try {
+      final byte[] smallData = data ("foo", 10);
+      final byte[] largeData = data ("bar", 5000);
+      try (final FileOutputStream out = new FileOutputStream (small)) {
+        out.write (smallData);
+      }
+      try (final FileOutputStream out = new FileOutputStream (large)) {
+        out.write (largeData);
+      }
+      // Mapped and copied through the archive's channel
+      final FileOutputStream out = new FileOutputStream (file);
+      writeStored (new ZipWriter (new BufferedOutputStream (out), out.getChannel ()), small, large);
+      assertStored (file, smallData, largeData);
+      // Copied through the archive's stream
+      writeStored (new ZipWriter (new BufferedOutputStream (new FileOutputStream (file))), small,
+          large);
+      assertStored (file, smallData, largeData);
+    } finally {
+      small.delete ();
+      large.delete ();
+      file.delete ();
+    }
+  }
+
+  @Test (expectedExceptions = ZipException.class)
+  public void testDuplicateEntry () throws IOException {
+    final ZipWriter writer = new ZipWriter (new ByteArrayOutputStream ());
+    writer.writeDeflated ("a", TIME, Deflater.DEFAULT_COMPRESSION, new ByteArrayInputStream (
+        new byte[1]), new byte[100]);
+    writer.writeDeflated ("a", TIME, Deflater.DEFAULT_COMPRESSION, new ByteArrayInputStream (
+        new byte[1]), new byte[100]);
+  }
+
+  public void testZip64EntryCount () throws IOException {
+    final File file = File.createTempFile ("test", ".zip");
+    try {
+      final int count = 70000;
+      try (final ZipWriter writer = new ZipWriter (new FileOutputStream (file))) {
+        final byte[] buffer = new byte[16];
+        for (int i = 0; i < count; i++) {
+          writer.writeDeflated (Integer.toString (i), TIME, Deflater.BEST_SPEED,
+              new ByteArrayInputStream (new byte[0]), buffer);
+        }
+      }
+      try (final ZipFile zip = new ZipFile (file)) {
+        final List<String> names = new ArrayList<String> ();
+        final Enumeration<? extends ZipEntry> entries = zip.entries ();
+        while (entries.hasMoreElements ()) {
+          names.add (entries.nextElement ().getName ());
+        }
+        assertEquals (names.size (), count);
+        assertEquals (names.get (count - 1), Integer.toString (count - 1));
+      }
+    } finally {
+      file.delete ();
+    }
+  }
+
+  private static void assertZip64 (final File file, final Map<String, byte[]> entries)
+      throws IOException {
+    try (final ZipFile zip = new ZipFile (file)) {
+      assertEquals (zip.size (), entries.size ());
+      for (final Map.Entry<String, byte[]> entry : entries.entrySet ()) {
+        final ZipEntry zipEntry = zip.getEntry (entry.getKey ());
+        assertEquals (zipEntry.getSize (), entry.getValue ().length);
+        assertEquals (read (zip.getInputStream (zipEntry)), entry.getValue ());
+      }
+    }
+    assertEquals (ZipIndex.list (file), new ArrayList<String> (entries.keySet ()));
+  }
+
+  public void testZip64 () throws IOException {
+    final File stored = File.createTempFile ("test", ".txt");
+    final File file = File.createTempFile ("test", ".zip");
+    try {
+      final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]> ();
+      entries.put ("small", data ("foo", 2));
+      final byte[] random = new byte[99];
+      new Random (1).nextBytes (random);
+      entries.put ("random", random);
+      entries.put ("compressed", random);
+      entries.put ("large", data ("bar", 1000));
+      entries.put ("deflated", data ("foo", 1000));
+      // Below the limit, as ZipFile skips the sizes of STORED entries in the ZIP64 extra field
+      entries.put ("stored", data ("baz", 15));
+      try (final FileOutputStream out = new FileOutputStream (stored)) {
+        out.write (entries.get ("stored"));
+      }
+      final FileOutputStream out = new FileOutputStream (file);
+      try (final ZipWriter writer = new ZipWriter (new BufferedOutputStream (out),
+          out.getChannel (), 100)) {
+        final byte[] buffer = new byte[50];
+        writer.writeDeflated ("small", TIME, Deflater.DEFAULT_COMPRESSION,
+            new ByteArrayInputStream (entries.get ("small")), buffer);
+        // Larger once deflated than the limit, although the content is not
+        writer.writeDeflated ("random", TIME, Deflater.NO_COMPRESSION, new ByteArrayInputStream (
+            random), buffer);
+        final CompressedEntry compressed = CompressedEntry.deflate ("compressed", TIME,
+            Deflater.NO_COMPRESSION, new ByteArrayInputStream (random), new SpillBuffer (
+                new MemoryBudget (1L << 20), null));
+        writer.write (compressed);
+        compressed.release ();
+        writer.writeDeflated ("large", TIME, Deflater.DEFAULT_COMPRESSION,
+            new ByteArrayInputStream (entries.get ("large")), buffer);
+        final CompressedEntry deflated = compress ("deflated", entries.get ("deflated"));
+        writer.write (deflated);
+        deflated.release ();
+        try (final FileInputStream in = new FileInputStream (stored)) {
+          writer.writeStored ("stored", TIME, in.getChannel (), buffer);
+        }
+      }
+      assertZip64 (file, entries);
+    } finally {
+      stored.delete ();
+      file.delete ();
+    }
+  }
+
+  public void testZip64Directory () throws IOException {
+    final File file = File.createTempFile ("test", ".zip");
+    try {
+      // The central directory is over the limit, but not its offset
+      final String name = new String (data ("x", 30), 0, 60);
+      try (final ZipWriter writer = new ZipWriter (new FileOutputStream (file), null, 100)) {
+        final CompressedEntry entry = CompressedEntry.store (name, TIME, new ByteArrayInputStream (
+            new byte[0]), new SpillBuffer (new MemoryBudget (1L << 20), null));
+        writer.write (entry);
+        entry.release ();
+      }
+      assertZip64 (file, Collections.singletonMap (name, new byte[0]));
+    } finally {
+      file.delete ();
+    }
+  }
+
+  @Test (expectedExceptions = EOFException.class)
+  public void testStoredFileTruncated () throws IOException {
+    final FileChannel input = Mockito.mock (FileChannel.class);
+    Mockito.when (input.size ()).thenReturn (1000L);
+    Mockito.when (input.read (Mockito.any (ByteBuffer.class), Mockito.anyLong ())).thenReturn (-1);
+    new ZipWriter (new ByteArrayOutputStream ()).writeStored ("a", TIME, input, new byte[100]);
+  }
+
+  public void testDosTime () {
+    final Calendar calendar = Calendar.getInstance ();
+    calendar.clear ();
+    calendar.set (1970, Calendar.JANUARY, 1);
+    assertEquals (ZipWriter.dosTime (calendar.getTimeInMillis (), TimeZone.getDefault ()),
+        (1 << 21) | (1 << 16));
+    calendar.set (2014, Calendar.MARCH, 15, 10, 30, 21);
+    assertEquals (ZipWriter.dosTime (calendar.getTimeInMillis (), TimeZone.getDefault ()),
+        (34L << 25) | (3 << 21) | (15 << 16) | (10 << 11) | (30 << 5) | 10);
+    final TimeZone utc = TimeZone.getTimeZone ("UTC");
+    final TimeZone tokyo = TimeZone.getTimeZone ("Asia/Tokyo");
+    assertEquals (ZipWriter.dosTime (1394879421000L, utc), (34L << 25) | (3 << 21) | (15 << 16)
+        | (10 << 11) | (30 << 5) | 10);
+    assertEquals (ZipWriter.dosTime (1394879421000L, tokyo), (34L << 25) | (3 << 21)
+        | (15 << 16) | (19 << 11) | (30 << 5) | 10);
+  }
+
+  public void testTimeZone () throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    final ZipWriter writer = new ZipWriter (buffer);
+    writer.setTimeZone (TimeZone.getTimeZone ("GMT+05:00"));
+    writer.writeDeflated ("a", 1394879421000L, Deflater.DEFAULT_COMPRESSION,
+        new ByteArrayInputStream (new byte[0]), new byte[16]);
+    writer.close ();
+    final byte[] archive = buffer.toByteArray ();
+    final long dosTime = (archive[10] & 0xFF) | ((archive[11] & 0xFF) << 8)
+        | ((archive[12] & 0xFF) << 16) | ((long)(archive[13] & 0xFF) << 24);
+    assertEquals (dosTime, ZipWriter.dosTime (1394879421000L, TimeZone.getTimeZone ("GMT+05:00")));
+  }
+
+}
\ No newline at end of file
@@ -37,6 +37,17 @@ public class DefaultsTest {
     assertEquals (properties.size (), 24);
   }
 
+  public void testDefaultArch () {
+    final Properties properties = new Properties ();
+    properties.setProperty ("build", "make");
+    properties.setProperty ("arch", "x64");
+    final Defaults defaults = new Defaults ("test", properties);
+    assertEquals (defaults.getDefaultArch (), "x64");
+    final Properties saved = new Properties ();
+    defaults.save (saved);
+    assertEquals (saved.getProperty ("arch"), "x64");
+  }
+
   public void testMissingResource () {
     final Defaults instance = Defaults.get ("foo");
     assertEquals (instance.getIdentifier (), "none");
@@ -75,6 +86,29 @@ public class DefaultsTest {
     assertEquals (bean2.toString (), "HeaderFile, pattern:*.bar");
   }
 
+  public void testSourceDefaults_compression () {
+    final Properties properties = new Properties ();
+    properties.setProperty ("header.compression", "auto");
+    final Defaults defaults = new Defaults ("test", properties);
+    final Source bean1 = new HeaderFile ();
+    bean1.setCompression ("store");
+    final Source bean2 = new HeaderFile ();
+    final Source bean3 = new HeaderFile ();
+    bean3.setCompression ("");
+    defaults.applyTo (bean1);
+    defaults.applyTo (bean2);
+    defaults.applyTo (bean3);
+    assertEquals (bean1.toString (), "HeaderFile, compression:store");
+    assertEquals (bean2.toString (), "HeaderFile, compression:auto");
+    assertEquals (bean3.toString (), "HeaderFile");
+    final Properties saved = new Properties ();
+    final Defaults.SourceDefaults sourceDefaults = new Defaults.HeaderFileDefaults ();
+    sourceDefaults.load (properties, "header");
+    assertEquals (sourceDefaults.getCompression (), "auto");
+    sourceDefaults.save (saved, "x");
+    assertEquals (saved.toString (), "{x.compression=auto}");
+  }
+
   public void testSourceDefaults_save () {
     final Properties properties = new Properties ();
     final Defaults.SourceDefaults defaults = new Defaults.ArchSourceDefaults ();